@@ -2,34 +2,123 @@ package com.javacodegeeks.core.rmi.remoteclient;
 
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.javacodegeeks.core.rmi.rminterface.Configuration;
 import com.javacodegeeks.core.rmi.rminterface.RemoteInterface;
+import com.javacodegeeks.core.rmi.rminterface.ResultCallback;
+import com.javacodegeeks.core.rmi.rminterface.ShardRouter;
+import com.javacodegeeks.core.rmi.rminterface.TicketResult;
+import com.javacodegeeks.core.rmi.rminterface.StubCache;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.bsc.rmi.client.CachingStub;
 
 @Slf4j
 public class RemoteClient {
 
-	static Registry reg;
+	static final int BATCH_SIZE = 10_000;
+	static final int CHUNK_SIZE = 1_000;
+
+	static final long DISCOVERY_PERIOD_MILLIS = 5_000;
+
+	static final long CALLBACK_WAIT_MILLIS = 2_000;
+	static final long POLL_WAIT_MILLIS = 10_000;
+
+	static final StubCache stubs = new StubCache();
+
+	static final ShardRouter<RemoteInterface> router = new ShardRouter<>(RemoteInterface.class, stubs);
 
 	public static void main(String[] args) throws NotBoundException {
 		try {
-			val remoteHost = Configuration.getRemoteHost();
-
-			log.info("Locating Registry: remoteHost:{} port:{}",remoteHost, Configuration.getRemotePort());
-			reg = LocateRegistry.getRegistry(remoteHost, Configuration.getRemotePort());
+			String str = "javacodegeeks rock!";
+			final RemoteInterface rmiInterface;
 
-			log.info("Lookup Interface: remoteID:{}",Configuration.REMOTE_ID);
-			RemoteInterface rmiInterface = (RemoteInterface) reg.lookup(Configuration.REMOTE_ID);
+			val shardRegistries = Configuration.getShardRegistries();
+			if (shardRegistries.isPresent()) {
+				val shards = router.startDiscovery(shardRegistries.get(), Configuration.shardName(""), DISCOVERY_PERIOD_MILLIS);
+				log.info("Lookup Shards: registries:{} shards:{}", shardRegistries.get(), shards);
+				log.info("Route key:{} to shard:{}", str, router.shardOf(str));
+				rmiInterface = CachingStub.wrap(router.route(str), RemoteInterface.class);
+			} else {
+				val remoteHost = Configuration.getRemoteHost();
+				log.info("Lookup Interface: remoteHost:{} port:{} remoteID:{}",remoteHost, Configuration.getRemotePort(), Configuration.REMOTE_ID);
+				rmiInterface = CachingStub.wrap(
+						stubs.get(remoteHost, Configuration.getRemotePort(), Configuration.REMOTE_ID, RemoteInterface.class),
+						RemoteInterface.class);
+			}
 			log.info("remote interface: remoteID:{}",rmiInterface);
-			String str = "javacodegeeks rock!";
 			log.info("RMI returns:{}" , rmiInterface.capitalize(str));
 
+			val strs = Collections.nCopies(BATCH_SIZE, str);
+			log.info("RMI bulk returns:{} strings" , rmiInterface.capitalizeAll(strs).size());
+
+			val cursor = rmiInterface.capitalizeCursor(strs);
+			int fetched = 0;
+			for (List<String> chunk = cursor.next(CHUNK_SIZE); !chunk.isEmpty(); chunk = cursor.next(CHUNK_SIZE))
+				fetched += chunk.size();
+			log.info("RMI cursor returns:{} strings" , fetched);
+
+			log.info("RMI async returns:{} strings" , capitalizeAsync(rmiInterface, strs).size());
+
 		} catch (RemoteException e) {
 			log.error(e.getMessage(),e);
 		}
 	}
+
+	/**
+	 * Capitalize asynchronously, the result being given to a callback, or
+	 * polled if the callback does not come in time, as through the HTTP tunnel.
+	 */
+	@SuppressWarnings("unchecked")
+	static List<String> capitalizeAsync(RemoteInterface rmiInterface, List<String> strs) throws RemoteException {
+		val delivered = new CompletableFuture<List<String>>();
+		val callback = new ResultCallback<List<String>>() {
+			@Override
+			public void completed(long ticket, List<String> result) {
+				delivered.complete(result);
+			}
+
+			@Override
+			public void failed(long ticket, String error) {
+				delivered.completeExceptionally(new RemoteException(error));
+			}
+		};
+
+		try {
+			val ticket = rmiInterface.capitalizeAsync(strs,
+					(ResultCallback<List<String>>) UnicastRemoteObject.exportObject(callback, 0));
+			try {
+				return delivered.get(CALLBACK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				log.info("no callback for ticket:{}, polling", ticket);
+			}
+
+			List<TicketResult<?>> results;
+			do {
+				results = rmiInterface.poll(new long[] { ticket }, POLL_WAIT_MILLIS);
+			} while (results.isEmpty());
+
+			// a late callback leaves the ticket unknown
+			if (delivered.isDone())
+				return delivered.get();
+			val result = results.get(0);
+			if (result.isFailed())
+				throw new RemoteException(result.getError());
+			return (List<String>) result.getValue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RemoteException("async call failed", e.getCause());
+		} finally {
+			UnicastRemoteObject.unexportObject(callback, true);
+		}
+	}
 }
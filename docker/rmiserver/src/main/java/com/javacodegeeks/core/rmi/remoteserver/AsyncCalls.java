@@ -0,0 +1,215 @@
+package com.javacodegeeks.core.rmi.remoteserver;
+
+import com.javacodegeeks.core.rmi.rminterface.ResultCallback;
+import com.javacodegeeks.core.rmi.rminterface.TicketResult;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * AsyncCalls runs the asynchronous calls of the server: a call is given
+ * a ticket at once and its work queued on a work-stealing pool sized to
+ * the cores, so that the calls in progress hold no connection thread.
+ * At most <code>maxPending</code> calls are queued or running, beyond
+ * which the calls are rejected.
+ * <p>
+ * A result is given to the callback of the call, on a few threads of its
+ * own as the callbacks wait on the network; when there is no callback,
+ * or it can not be reached, the result is kept until polled, for at most
+ * {@link #RESULT_TTL_MILLIS}; beyond <code>maxPending</code> results kept,
+ * the oldest ones are dropped.
+ */
+@Slf4j
+class AsyncCalls {
+
+	static final int DEFAULT_MAX_PENDING = 10_000;
+
+	/** the longest a poll waits for a result */
+	static final long MAX_POLL_WAIT_MILLIS = 30_000;
+
+	/** the longest a result is kept for polling */
+	static final long RESULT_TTL_MILLIS = 5 * 60_000;
+
+	static final int CALLBACK_THREADS = 4;
+
+	private static final class Done {
+		final TicketResult<?> result;
+		final long doneMillis;
+
+		Done(TicketResult<?> result, long doneMillis) {
+			this.result = result;
+			this.doneMillis = doneMillis;
+		}
+	}
+
+	private final int maxPending;
+	private final Semaphore pending;
+	private final AtomicLong tickets = new AtomicLong();
+	private final ForkJoinPool workers;
+	private final ExecutorService callbacks;
+	private final ScheduledExecutorService sweeper;
+	private final Set<Long> running = ConcurrentHashMap.newKeySet();
+	/** guarded by this, oldest first */
+	private final Map<Long, Done> done = new LinkedHashMap<Long, Done>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Done> eldest) {
+			if (size() <= maxPending)
+				return false;
+			log.warn("more than {} results kept, dropping the result of ticket:{}", maxPending, eldest.getKey());
+			return true;
+		}
+	};
+
+	AsyncCalls() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * @param parallelism the threads running the calls
+	 * @param maxPending  the most calls queued or running
+	 */
+	AsyncCalls(int parallelism, int maxPending) {
+		this.maxPending = maxPending;
+		this.pending = new Semaphore(maxPending);
+		this.workers = new ForkJoinPool(parallelism);
+		this.callbacks = Executors.newFixedThreadPool(CALLBACK_THREADS, r -> {
+			val t = new Thread(r, "rmi-async-callback");
+			t.setDaemon(true);
+			return t;
+		});
+		this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			val t = new Thread(r, "rmi-async-sweeper");
+			t.setDaemon(true);
+			return t;
+		});
+		sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Queue the work of a call.
+	 *
+	 * @param callback the callback given the result, null to keep it for polling
+	 * @return the ticket of the call
+	 * @throws RejectedExecutionException if too many calls are pending
+	 */
+	<T> long submit(Supplier<T> work, ResultCallback<T> callback) {
+		if (!pending.tryAcquire())
+			throw new RejectedExecutionException(format("more than %d asynchronous calls pending", maxPending));
+
+		val ticket = tickets.incrementAndGet();
+		running.add(ticket);
+		try {
+			workers.execute(() -> {
+				TicketResult<T> result;
+				try {
+					result = TicketResult.completed(ticket, work.get());
+				} catch (Throwable e) {
+					result = TicketResult.failed(ticket, e.toString());
+				} finally {
+					pending.release();
+				}
+				deliver(result, callback);
+			});
+		} catch (RejectedExecutionException e) {
+			running.remove(ticket);
+			pending.release();
+			throw e;
+		}
+		return ticket;
+	}
+
+	/**
+	 * Give the result to the callback, or keep it for polling: the ticket
+	 * always ends either delivered or stored.
+	 */
+	private <T> void deliver(TicketResult<T> result, ResultCallback<T> callback) {
+		if (callback == null) {
+			store(result);
+			return;
+		}
+		try {
+			callbacks.execute(() -> {
+				try {
+					if (result.isFailed())
+						callback.failed(result.getTicket(), result.getError());
+					else
+						callback.completed(result.getTicket(), result.getValue());
+				} catch (Throwable e) {
+					log.info("callback of ticket:{} failed, keeping the result for polling: {}", result.getTicket(), e.toString());
+					store(result);
+					return;
+				}
+				delivered(result.getTicket());
+			});
+		} catch (RejectedExecutionException e) {
+			store(result);
+		}
+	}
+
+	private synchronized void store(TicketResult<?> result) {
+		done.put(result.getTicket(), new Done(result, System.currentTimeMillis()));
+		running.remove(result.getTicket());
+		notifyAll();
+	}
+
+	/**
+	 * Forget a call whose result was given to its callback, waking the polls waiting for it.
+	 */
+	private synchronized void delivered(long ticket) {
+		running.remove(ticket);
+		notifyAll();
+	}
+
+	/**
+	 * Collect the results of calls, waiting for one if none is done.
+	 *
+	 * @return the results done, and a failed result for the tickets neither running nor done
+	 */
+	synchronized List<TicketResult<?>> poll(long[] tickets, long waitMillis) {
+		val deadline = System.currentTimeMillis() + Math.min(Math.max(0, waitMillis), MAX_POLL_WAIT_MILLIS);
+		val results = new ArrayList<TicketResult<?>>();
+		for (;;) {
+			for (val ticket : tickets) {
+				val result = done.remove(ticket);
+				if (result != null)
+					results.add(result.result);
+				else if (!running.contains(ticket))
+					results.add(TicketResult.failed(ticket, "unknown ticket"));
+			}
+			val left = deadline - System.currentTimeMillis();
+			if (!results.isEmpty() || left <= 0)
+				return results;
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return results;
+			}
+		}
+	}
+
+	/**
+	 * Drop the results not polled in time.
+	 */
+	private synchronized void sweep() {
+		val oldest = System.currentTimeMillis() - RESULT_TTL_MILLIS;
+		done.values().removeIf(d -> d.doneMillis < oldest);
+	}
+}
@@ -0,0 +1,77 @@
+package com.javacodegeeks.core.rmi.remoteserver;
+
+import com.javacodegeeks.core.rmi.rminterface.RemoteCursor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A remote cursor mapping its source chunk by chunk, as the client
+ * fetches them: a chunk is mapped in parallel if large enough.
+ * It unexports itself once exhausted, closed or unreferenced.
+ */
+@Slf4j
+class MappingCursor<T, R> implements RemoteCursor<R>, Unreferenced {
+
+	/** the most results of a chunk */
+	static final int MAX_CHUNK = 64 * 1024;
+
+	private final Iterator<T> source;
+	private final Function<T, R> mapper;
+	private boolean closed;
+
+	MappingCursor(Iterator<T> source, Function<T, R> mapper) {
+		this.source = source;
+		this.mapper = mapper;
+	}
+
+	/**
+	 * @return the stub of the cursor, exported on an anonymous port
+	 */
+	@SuppressWarnings("unchecked")
+	RemoteCursor<R> export() throws RemoteException {
+		return (RemoteCursor<R>) UnicastRemoteObject.exportObject(this, 0);
+	}
+
+	@Override
+	public synchronized List<R> next(int max) throws RemoteException {
+		if (closed || !source.hasNext()) {
+			// the client learns the end from this empty chunk
+			close();
+			return Collections.emptyList();
+		}
+
+		val size = Math.max(1, Math.min(max, MAX_CHUNK));
+		val chunk = new ArrayList<T>(size);
+		while (chunk.size() < size && source.hasNext())
+			chunk.add(source.next());
+		return RMIImplementation.map(chunk, mapper);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		// forced, as it is called within a call to the cursor
+		try {
+			UnicastRemoteObject.unexportObject(this, true);
+		} catch (NoSuchObjectException e) {
+			log.debug("cursor not exported", e);
+		}
+	}
+
+	@Override
+	public void unreferenced() {
+		close();
+	}
+}
@@ -1,12 +1,23 @@
 package com.javacodegeeks.core.rmi.remoteserver;
 
+import com.javacodegeeks.core.rmi.rminterface.RemoteCursor;
 import com.javacodegeeks.core.rmi.rminterface.RemoteInterface;
+import com.javacodegeeks.core.rmi.rminterface.ResultCallback;
+import com.javacodegeeks.core.rmi.rminterface.TicketResult;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class RMIImplementation extends UnicastRemoteObject implements RemoteInterface {
 
+    /** the fewest strings mapped in parallel, below the cost of splitting the work */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    private final transient AsyncCalls async = new AsyncCalls();
+
     protected RMIImplementation() throws RemoteException {
         super();
     }
@@ -18,4 +29,33 @@ public class RMIImplementation extends UnicastRemoteObject implements RemoteInte
         return str.toUpperCase();
     }
 
+    @Override
+    public List<String> capitalizeAll(List<String> strs) throws RemoteException {
+        return map(strs, String::toUpperCase);
+    }
+
+    @Override
+    public RemoteCursor<String> capitalizeCursor(List<String> strs) throws RemoteException {
+        return new MappingCursor<String, String>(strs.iterator(), String::toUpperCase).export();
+    }
+
+    @Override
+    public long capitalizeAsync(List<String> strs, ResultCallback<List<String>> callback) throws RemoteException {
+        return async.submit(() -> map(strs, String::toUpperCase), callback);
+    }
+
+    @Override
+    public List<TicketResult<?>> poll(long[] tickets, long waitMillis) throws RemoteException {
+        return async.poll(tickets, waitMillis);
+    }
+
+    /**
+     * Map a list, across the cores if it is large enough.
+     */
+    static <T, R> List<R> map(List<T> list, Function<T, R> mapper) {
+        if (list.size() < PARALLEL_THRESHOLD)
+            return list.stream().map(mapper).collect(Collectors.toList());
+        return list.parallelStream().map(mapper).collect(Collectors.toList());
+    }
+
 }
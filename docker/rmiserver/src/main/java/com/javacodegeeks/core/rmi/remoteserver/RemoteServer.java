@@ -1,11 +1,11 @@
 package com.javacodegeeks.core.rmi.remoteserver;
 
 import java.rmi.AlreadyBoundException;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.rmi.server.RMIClientSocketFactory;
-import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.ExportException;
 
 import com.javacodegeeks.core.rmi.rminterface.Configuration;
 import lombok.extern.slf4j.Slf4j;
@@ -20,12 +20,35 @@ public class RemoteServer {
 
 		val rmiImplementation = new RMIImplementation();
 
-		registry = LocateRegistry.createRegistry(Configuration.getRemotePort());
-
-		registry.bind(Configuration.REMOTE_ID, rmiImplementation);
-
-		log.info("Binded  id:{} port:{}",Configuration.REMOTE_ID,Configuration.getRemotePort() );
-
+		val shard = Configuration.getShard();
+		if (!shard.isPresent()) {
+			registry = LocateRegistry.createRegistry(Configuration.getRemotePort());
+
+			registry.bind(Configuration.REMOTE_ID, rmiImplementation);
+
+			log.info("Binded  id:{} port:{}",Configuration.REMOTE_ID,Configuration.getRemotePort() );
+			return;
+		}
+
+		// the shards on a host may share a registry, the first one started creating it
+		try {
+			registry = LocateRegistry.createRegistry(Configuration.getRemotePort());
+		} catch (ExportException e) {
+			log.info("registry port:{} in use, binding in the registry there", Configuration.getRemotePort());
+			registry = LocateRegistry.getRegistry(Configuration.getRemotePort());
+		}
+
+		val name = Configuration.shardName(shard.get());
+		registry.rebind(name, rmiImplementation);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				registry.unbind(name);
+			} catch (RemoteException | NotBoundException e) {
+				log.warn("unbind id:{} failed: {}", name, e.toString());
+			}
+		}));
+
+		log.info("Binded  id:{} port:{}",name,Configuration.getRemotePort() );
 	}
 
 }
@@ -1,11 +1,19 @@
 package com.javacodegeeks.core.rmi.rminterface;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
 import static java.lang.String.format;
 
 public interface Configuration {
 	
 	String REMOTE_ID = "RMI_EXAMPLE";
 
+	/** separates the remote id from the shard in the name a shard is bound to */
+	String SHARD_SEPARATOR = "#";
+
 	static int getRemotePort( ) {
 		final String key = "RMI_REMOTE_PORT";
 
@@ -24,4 +32,38 @@ public interface Configuration {
 
 		return host;
 	}
+
+	/**
+	 * @return the shard served by this server, empty if it is not sharded
+	 */
+	static Optional<String> getShard( ) {
+		return Optional.ofNullable(System.getenv("RMI_SHARD"));
+	}
+
+	/**
+	 * @return the name the shard is bound to
+	 */
+	static String shardName( String shard ) {
+		return REMOTE_ID + SHARD_SEPARATOR + shard;
+	}
+
+	/**
+	 * @return the registries the shards are bound in, as a comma separated list of
+	 *         <code>host:port</code>; empty if the client is not sharded
+	 */
+	static Optional<List<InetSocketAddress>> getShardRegistries( ) {
+		final String key = "RMI_SHARD_REGISTRIES";
+		final String registries = System.getenv(key);
+
+		if( registries == null ) return Optional.empty();
+
+		final List<InetSocketAddress> result = new ArrayList<>();
+		for( String registry : registries.split(",") ) {
+			final int colon = registry.lastIndexOf(':');
+			if( colon < 0 ) throw new IllegalStateException(format( "env var [%s]: [%s] is not host:port!", key, registry ));
+			result.add(InetSocketAddress.createUnresolved(registry.substring(0, colon).trim(),
+					Integer.valueOf(registry.substring(colon + 1).trim())));
+		}
+		return Optional.of(result);
+	}
 }
@@ -0,0 +1,27 @@
+package com.javacodegeeks.core.rmi.rminterface;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * A remote cursor over the results of a streaming call, fetched in
+ * chunks so that a round trip carries many results and the server
+ * only holds one chunk at a time.
+ * <p>
+ * The server drops the cursor once exhausted, closed, or no longer
+ * referenced by any client.
+ */
+public interface RemoteCursor<T> extends Remote {
+
+	/**
+	 * @param max the most results returned, capped by the server
+	 * @return the next results, empty once the cursor is exhausted
+	 */
+	List<T> next(int max) throws RemoteException;
+
+	/**
+	 * Drop the cursor before it is exhausted.
+	 */
+	void close() throws RemoteException;
+}
@@ -2,8 +2,46 @@ package com.javacodegeeks.core.rmi.rminterface;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+
+import org.bsc.rmi.client.Idempotent;
 
 public interface RemoteInterface extends Remote{
 
+	@Idempotent
 	String capitalize(String str) throws RemoteException;
+
+	/**
+	 * Capitalize many strings in one call.
+	 *
+	 * @return the strings capitalized, in the order given
+	 */
+	List<String> capitalizeAll(List<String> strs) throws RemoteException;
+
+	/**
+	 * Capitalize many strings, the results being fetched in chunks.
+	 *
+	 * @return a cursor over the strings capitalized, in the order given
+	 */
+	RemoteCursor<String> capitalizeCursor(List<String> strs) throws RemoteException;
+
+	/**
+	 * Capitalize many strings asynchronously: the call returns at once,
+	 * the work being queued on the server.
+	 *
+	 * @param callback the callback given the result, null to {@link #poll} for it
+	 * @return the ticket of the call
+	 */
+	long capitalizeAsync(List<String> strs, ResultCallback<List<String>> callback) throws RemoteException;
+
+	/**
+	 * Collect the results of asynchronous calls, waiting for one if none is done.
+	 * A result is returned once; an unknown or expired ticket, or one whose
+	 * result was given to its callback, is returned failed.
+	 *
+	 * @param tickets    the tickets of the calls
+	 * @param waitMillis the most time to wait for a result, capped by the server
+	 * @return the results done, empty if none was done in time
+	 */
+	List<TicketResult<?>> poll(long[] tickets, long waitMillis) throws RemoteException;
 }
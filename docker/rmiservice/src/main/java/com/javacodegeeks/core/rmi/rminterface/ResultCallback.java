@@ -0,0 +1,19 @@
+package com.javacodegeeks.core.rmi.rminterface;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * A callback exported by a client to be given the result of an
+ * asynchronous call as soon as it is done.
+ * <p>
+ * The server must be able to connect back to the client: when it can
+ * not, as through an HTTP tunnel, the result is kept for
+ * {@link RemoteInterface#poll polling} instead.
+ */
+public interface ResultCallback<T> extends Remote {
+
+	void completed(long ticket, T result) throws RemoteException;
+
+	void failed(long ticket, String error) throws RemoteException;
+}
@@ -0,0 +1,210 @@
+package com.javacodegeeks.core.rmi.rminterface;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * ShardRouter maps the keys of the requests to the shards of a remote
+ * service by consistent hashing: every shard is given
+ * <code>virtualNodes</code> points on a ring of hashes, and a key goes
+ * to the shard of the first point at or after its hash.  When a shard
+ * joins or leaves only the keys between its points and the previous
+ * ones move, about one key in the number of shards.
+ * <p>
+ * The shards are set by hand, or discovered in registries from the names
+ * starting with the shard prefix (see {@link Configuration#shardName}):
+ * a shard joins once bound and leaves once unbound, or once its registry
+ * no longer answers.  The stubs of the shards are taken from a
+ * {@link StubCache}.
+ */
+@Slf4j
+public class ShardRouter<T extends Remote> implements Closeable {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	/**
+	 * A shard: the name a remote object is bound to in a registry.
+	 */
+	@Value
+	public static class Shard {
+		String host;
+		int port;
+		String name;
+
+		@Override
+		public String toString() {
+			return format("%s:%d/%s", host, port, name);
+		}
+	}
+
+	private final Class<T> remoteInterface;
+	private final StubCache stubs;
+	private final int virtualNodes;
+	private final Map<Shard, T> routes = new ConcurrentHashMap<>();
+	private volatile NavigableMap<Long, Shard> ring = Collections.emptyNavigableMap();
+	private ScheduledExecutorService discovery;
+
+	public ShardRouter(Class<T> remoteInterface, StubCache stubs) {
+		this(remoteInterface, stubs, DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * @param remoteInterface the remote interface of the shards
+	 * @param stubs           the cache the stubs of the shards are taken from
+	 * @param virtualNodes    the points of a shard on the ring, more spreading the keys more evenly
+	 */
+	public ShardRouter(Class<T> remoteInterface, StubCache stubs, int virtualNodes) {
+		this.remoteInterface = remoteInterface;
+		this.stubs = stubs;
+		this.virtualNodes = virtualNodes;
+	}
+
+	/**
+	 * @return the shards routed to
+	 */
+	public Set<Shard> getShards() {
+		return new HashSet<>(ring.values());
+	}
+
+	public synchronized void add(Shard shard) {
+		val shards = getShards();
+		if (shards.add(shard))
+			setShards(shards);
+	}
+
+	public synchronized void remove(Shard shard) {
+		val shards = getShards();
+		if (shards.remove(shard))
+			setShards(shards);
+	}
+
+	/**
+	 * Route to the shards given, rebuilding the ring.
+	 */
+	public synchronized void setShards(Collection<Shard> shards) {
+		val newRing = new TreeMap<Long, Shard>();
+		for (val shard : shards) {
+			for (int i = 0; i < virtualNodes; ++i)
+				newRing.put(hash(shard + "-" + i), shard);
+		}
+		val removed = getShards();
+		removed.removeAll(shards);
+		val added = new HashSet<Shard>(shards);
+		added.removeAll(ring.values());
+
+		ring = newRing;
+		routes.keySet().removeAll(removed);
+		if (!added.isEmpty() || !removed.isEmpty())
+			log.info("shards joined:{} left:{}, routing to {} shards", added, removed, new HashSet<>(shards).size());
+	}
+
+	/**
+	 * @return the shard of the key
+	 * @throws IllegalStateException if there is no shard
+	 */
+	public Shard shardOf(String key) {
+		val ring = this.ring;
+		if (ring.isEmpty())
+			throw new IllegalStateException("no shard to route to");
+		val point = ring.ceilingEntry(hash(key));
+		return (point != null ? point : ring.firstEntry()).getValue();
+	}
+
+	/**
+	 * @return the stub of the shard of the key
+	 */
+	public T route(String key) throws RemoteException, NotBoundException {
+		val shard = shardOf(key);
+		val stub = routes.get(shard);
+		if (stub != null)
+			return stub;
+		val looked = stubs.get(shard.getHost(), shard.getPort(), shard.getName(), remoteInterface);
+		routes.put(shard, looked);
+		return looked;
+	}
+
+	/**
+	 * Route to the shards bound in the registries under the prefix.
+	 *
+	 * @return the shards found
+	 */
+	public Set<Shard> discover(List<InetSocketAddress> registries, String prefix) {
+		val shards = new HashSet<Shard>();
+		for (val registry : registries) {
+			try {
+				for (val name : LocateRegistry.getRegistry(registry.getHostString(), registry.getPort()).list()) {
+					if (name.startsWith(prefix))
+						shards.add(new Shard(registry.getHostString(), registry.getPort(), name));
+				}
+			} catch (RemoteException e) {
+				log.warn("registry {}:{} does not answer, its shards leave: {}",
+						registry.getHostString(), registry.getPort(), e.toString());
+			}
+		}
+		setShards(shards);
+		return shards;
+	}
+
+	/**
+	 * Discover the shards now, then every <code>periodMillis</code> in the background.
+	 */
+	public synchronized Set<Shard> startDiscovery(List<InetSocketAddress> registries, String prefix, long periodMillis) {
+		if (discovery != null)
+			throw new IllegalStateException("discovery already started");
+		discovery = Executors.newSingleThreadScheduledExecutor(r -> {
+			val t = new Thread(r, "rmi-shard-discovery");
+			t.setDaemon(true);
+			return t;
+		});
+		discovery.scheduleWithFixedDelay(() -> discover(registries, prefix), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		return discover(registries, prefix);
+	}
+
+	/**
+	 * @return the first 8 bytes of the MD5 digest, which spreads similar keys evenly
+	 */
+	static long hash(String key) {
+		final MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		val digest = md5.digest(key.getBytes(StandardCharsets.UTF_8));
+		long hash = 0;
+		for (int i = 0; i < 8; ++i)
+			hash = (hash << 8) | (digest[i] & 0xFF);
+		return hash;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (discovery != null)
+			discovery.shutdownNow();
+	}
+}
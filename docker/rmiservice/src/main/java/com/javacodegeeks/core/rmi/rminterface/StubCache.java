@@ -0,0 +1,181 @@
+package com.javacodegeeks.core.rmi.rminterface;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StubCache keeps the stubs looked up in the registries, so that a
+ * session does not pay the registry round trips before its calls.
+ * <p>
+ * A stub is kept for <code>ttlMillis</code>; the stubs used within that
+ * time are looked up again in the background every half of it, so that
+ * the calls seldom wait for a lookup.  The stub returned by
+ * {@link #get} always calls through the latest one, and when a call
+ * fails in a way showing the stub is stale (the object is no longer
+ * exported, or its server refuses the connection, as after a restart)
+ * the stub is looked up again and the call retried once: the call did
+ * not reach the server, so this is safe for any method.
+ */
+@Slf4j
+public class StubCache implements Closeable {
+
+	public static final long DEFAULT_TTL_MILLIS = 60_000;
+
+	@Value
+	private static class Key {
+		String host;
+		int port;
+		String name;
+	}
+
+	private static final class Entry {
+		final Key key;
+		volatile Remote stub;
+		volatile long loadedMillis;
+		volatile long usedMillis;
+
+		Entry(Key key) {
+			this.key = key;
+		}
+	}
+
+	private final long ttlMillis;
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService refresher;
+
+	public StubCache() {
+		this(DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param ttlMillis time a stub is kept without being looked up again
+	 */
+	public StubCache(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			val t = new Thread(r, "rmi-stub-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		val period = Math.max(1, ttlMillis / 2);
+		refresher.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get the stub of a remote object, looking it up if it is not cached.
+	 *
+	 * @param host            the host of the registry
+	 * @param port            the port of the registry
+	 * @param name            the name the object is bound to
+	 * @param remoteInterface the remote interface of the object
+	 * @return a stub calling through the latest stub looked up
+	 */
+	public <T extends Remote> T get(String host, int port, String name, Class<T> remoteInterface)
+			throws RemoteException, NotBoundException {
+		val entry = entries.computeIfAbsent(new Key(host, port, name), Entry::new);
+		stub(entry);
+		return remoteInterface.cast(Proxy.newProxyInstance(remoteInterface.getClassLoader(),
+				new Class<?>[] { remoteInterface }, (proxy, method, args) -> invoke(entry, method, args)));
+	}
+
+	/**
+	 * Forget a stub, so that the next call looks it up again.
+	 */
+	public void invalidate(String host, int port, String name) {
+		val entry = entries.get(new Key(host, port, name));
+		if (entry != null)
+			entry.stub = null;
+	}
+
+	private Remote stub(Entry entry) throws RemoteException, NotBoundException {
+		val now = System.currentTimeMillis();
+		entry.usedMillis = now;
+		val stub = entry.stub;
+		if (stub != null && now - entry.loadedMillis < ttlMillis)
+			return stub;
+		return load(entry, stub);
+	}
+
+	/**
+	 * Look the stub up, unless another thread replaced the stale one meanwhile.
+	 */
+	private Remote load(Entry entry, Remote stale) throws RemoteException, NotBoundException {
+		synchronized (entry) {
+			val current = entry.stub;
+			if (current != null && current != stale)
+				return current;
+
+			val key = entry.key;
+			log.debug("lookup {} on {}:{}", key.getName(), key.getHost(), key.getPort());
+			val stub = LocateRegistry.getRegistry(key.getHost(), key.getPort()).lookup(key.getName());
+			entry.loadedMillis = System.currentTimeMillis();
+			entry.stub = stub;
+			return stub;
+		}
+	}
+
+	private Object invoke(Entry entry, Method method, Object[] args) throws Throwable {
+		val stub = stub(entry);
+		try {
+			return method.invoke(stub, args);
+		} catch (InvocationTargetException e) {
+			if (!isStale(e.getCause()))
+				throw e.getCause();
+			log.info("stub of {} on {}:{} is stale ({}), looking it up again",
+					entry.key.getName(), entry.key.getHost(), entry.key.getPort(), e.getCause().toString());
+		}
+		try {
+			return method.invoke(load(entry, stub), args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @return true if the call failed before reaching the remote object
+	 */
+	static boolean isStale(Throwable t) {
+		return t instanceof NoSuchObjectException || t instanceof ConnectException || t instanceof ConnectIOException;
+	}
+
+	/**
+	 * Look again the stubs used lately, ahead of their expiry.
+	 */
+	private void refresh() {
+		val now = System.currentTimeMillis();
+		for (val entry : entries.values()) {
+			val stub = entry.stub;
+			if (stub == null || now - entry.usedMillis > ttlMillis)
+				continue;
+			try {
+				load(entry, stub);
+			} catch (RemoteException | NotBoundException e) {
+				// the calls find out whether the stub kept is stale
+				log.debug("refresh of {} failed: {}", entry.key, e.toString());
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+	}
+}
@@ -0,0 +1,31 @@
+package com.javacodegeeks.core.rmi.rminterface;
+
+import lombok.Value;
+
+import java.io.Serializable;
+
+/**
+ * The result of an asynchronous call, as returned by {@link RemoteInterface#poll}:
+ * its value, or the error it failed with.
+ */
+@Value
+public class TicketResult<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	long ticket;
+	T value;
+	String error;
+
+	public static <T> TicketResult<T> completed(long ticket, T value) {
+		return new TicketResult<>(ticket, value, null);
+	}
+
+	public static <T> TicketResult<T> failed(long ticket, String error) {
+		return new TicketResult<>(ticket, null, error);
+	}
+
+	public boolean isFailed() {
+		return error != null;
+	}
+}
@@ -0,0 +1,190 @@
+package org.bsc.rmi.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+
+/**
+ * BaselineComparison compares two JMH result files in JSON format,
+ * benchmark by benchmark and parameters by parameters.
+ * <pre>
+ * usage: BaselineComparison [-threshold percent] baseline.json current.json
+ * </pre>
+ * A benchmark regresses when its score is worse than the baseline by
+ * more than the threshold and the error intervals of the two scores do
+ * not overlap.  The allocation rate per operation is shown when the GC
+ * profiler was enabled in both runs.
+ */
+public class BaselineComparison {
+
+    static final double DEFAULT_THRESHOLD = 10;
+
+    static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    /**
+     * the scores of a benchmark with a given set of parameters
+     */
+    static final class Score {
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+        final double allocation;
+
+        Score(JsonObject result) {
+            final JsonObject primary = result.getAsJsonObject("primaryMetric");
+            this.mode = result.get("mode").getAsString();
+            this.score = primary.get("score").getAsDouble();
+            this.error = number(primary.get("scoreError"));
+            this.unit = primary.get("scoreUnit").getAsString();
+            this.allocation = allocation(result.getAsJsonObject("secondaryMetrics"));
+        }
+
+        /** throughput modes are better when higher, time modes when lower */
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+
+        private static double allocation(JsonObject secondary) {
+            if (secondary == null)
+                return Double.NaN;
+            for (Map.Entry<String, JsonElement> e : secondary.entrySet()) {
+                // older JMH versions prefix the profiler metrics with a middle dot
+                if (e.getKey().replace("\u00b7", "").equals(ALLOCATION))
+                    return e.getValue().getAsJsonObject().get("score").getAsDouble();
+            }
+            return Double.NaN;
+        }
+
+        private static double number(JsonElement e) {
+            // the error of a single iteration is "NaN", a string
+            try {
+                return (e == null) ? 0 : e.getAsDouble();
+            } catch (NumberFormatException ex) {
+                return 0;
+            }
+        }
+    }
+
+    private final double threshold;
+
+    /**
+     * @param threshold change in percent beyond which a worse score is a regression
+     */
+    public BaselineComparison(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Print the comparison of every benchmark of the current run.
+     *
+     * @return the number of regressions
+     */
+    public int compare(File baselineFile, File currentFile, PrintStream out) throws IOException {
+        final Map<String, Score> baseline = read(baselineFile);
+        final Map<String, Score> current = read(currentFile);
+
+        out.println(format("%-70s %12s %12s %-6s %8s %14s %14s  %s",
+                "benchmark", "baseline", "current", "unit", "change", "alloc B/op", "baseline B/op", ""));
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> e : current.entrySet()) {
+            final Score c = e.getValue();
+            final Score b = baseline.get(e.getKey());
+            if (b == null || !b.unit.equals(c.unit) || !b.mode.equals(c.mode)) {
+                out.println(format("%-70s %12s %12.3f %-6s %8s %14s %14s  %s",
+                        e.getKey(), "-", c.score, c.unit, "-", allocation(c.allocation), "-", "new"));
+                continue;
+            }
+
+            final double change = (c.score - b.score) / b.score * 100;
+            final double worse = c.higherIsBetter() ? -change : change;
+            final boolean overlap = Math.abs(c.score - b.score) <= c.error + b.error;
+
+            final String verdict;
+            if (worse > threshold && !overlap) {
+                verdict = "REGRESSION";
+                ++regressions;
+            } else if (worse < -threshold && !overlap) {
+                verdict = "improved";
+            } else {
+                verdict = "";
+            }
+
+            out.println(format("%-70s %12.3f %12.3f %-6s %+7.1f%% %14s %14s  %s",
+                    e.getKey(), b.score, c.score, c.unit, change,
+                    allocation(c.allocation), allocation(b.allocation), verdict));
+        }
+
+        out.println(format("%d regression(s) beyond %.1f%%", regressions, threshold));
+        return regressions;
+    }
+
+    private static String allocation(double bytes) {
+        return Double.isNaN(bytes) ? "-" : format("%.0f", bytes);
+    }
+
+    /**
+     * @return the scores of a result file by benchmark and parameters
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        final JsonArray results;
+        try (final Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            results = JsonParser.parseReader(in).getAsJsonArray();
+        }
+
+        final Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonElement e : results) {
+            final JsonObject result = e.getAsJsonObject();
+            scores.put(key(result), new Score(result));
+        }
+        return scores;
+    }
+
+    private static String key(JsonObject result) {
+        final String benchmark = result.get("benchmark").getAsString();
+        // keep the class and method names only
+        final int method = benchmark.lastIndexOf('.');
+        final StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1));
+
+        final JsonObject params = result.getAsJsonObject("params");
+        if (params != null) {
+            final Map<String, String> sorted = new TreeMap<>();
+            params.entrySet().forEach(p -> sorted.put(p.getKey(), p.getValue().getAsString()));
+            key.append(sorted);
+        }
+        return key.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        double threshold = DEFAULT_THRESHOLD;
+        String baseline = null;
+        String current = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            if ("-threshold".equals(args[i]))
+                threshold = Double.parseDouble(args[++i]);
+            else if (baseline == null)
+                baseline = args[i];
+            else
+                current = args[i];
+        }
+
+        if (current == null) {
+            System.err.println("usage: BaselineComparison [-threshold percent] baseline.json current.json");
+            System.exit(1);
+        }
+
+        final int regressions = new BaselineComparison(threshold).compare(new File(baseline), new File(current), System.out);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+}
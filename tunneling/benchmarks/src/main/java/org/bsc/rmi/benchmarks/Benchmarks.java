@@ -0,0 +1,74 @@
+package org.bsc.rmi.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks runs the JMH suites with the options given on the command
+ * line, adding by default the GC profiler and a JSON result file, and
+ * compares the results to a baseline when asked to.
+ * <pre>
+ * usage: java -jar benchmarks.jar [-baseline file] [-threshold percent] [jmh options]
+ *     -baseline file     JSON results of a previous run to compare to
+ *     -threshold percent change beyond which a slower benchmark is a regression, 10 by default
+ * </pre>
+ * The results are written to <code>jmh-result.json</code> unless the
+ * <code>-rff</code> option is given.  The exit status is 1 when a
+ * regression is found.
+ */
+public class Benchmarks {
+
+    static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        String baseline = null;
+        double threshold = BaselineComparison.DEFAULT_THRESHOLD;
+        final List<String> jmhArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-baseline":
+                    baseline = args[++i];
+                    break;
+                case "-threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    jmhArgs.add(args[i]);
+            }
+        }
+
+        final CommandLineOptions cmd = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams()
+                || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+            Main.main(jmhArgs.toArray(new String[0]));
+            return;
+        }
+
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (cmd.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        if (!cmd.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        final String result = cmd.getResult().orElse(DEFAULT_RESULT);
+        options.result(result);
+
+        new Runner(options.build()).run();
+
+        if (baseline != null) {
+            final int regressions = new BaselineComparison(threshold)
+                    .compare(new File(baseline), new File(result), System.out);
+            if (regressions > 0)
+                System.exit(1);
+        }
+    }
+}
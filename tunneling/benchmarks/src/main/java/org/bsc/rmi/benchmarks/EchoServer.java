@@ -0,0 +1,87 @@
+package org.bsc.rmi.benchmarks;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * EchoServer sends back every length prefixed message received on the
+ * connections accepted by a server socket, until they are closed.
+ */
+@Log
+public class EchoServer implements Closeable {
+
+    private final ServerSocket server;
+
+    /**
+     * @param server a bound server socket, created by the factory under test
+     */
+    public EchoServer(ServerSocket server) {
+        this.server = server;
+
+        final Thread t = new Thread(this::serve, "echo-server");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                final Thread t = new Thread(() -> echo(socket), "echo-connection");
+                t.setDaemon(true);
+                t.start();
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                log.log(Level.SEVERE, format("error accepting a connection of the echo server on port %d", getPort()), e);
+            }
+        }
+    }
+
+    private void echo(Socket socket) {
+        try (final Socket s = socket) {
+            s.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), Payloads.CHUNK));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), Payloads.CHUNK));
+            byte[] message = new byte[Payloads.CHUNK];
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                // read the whole message before answering, like a call, so
+                // that large messages do not fill the buffers of both sides
+                if (message.length < length)
+                    message = new byte[length];
+                in.readFully(message, 0, length);
+
+                out.writeInt(length);
+                out.write(message, 0, length);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // connection closed by the benchmark
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,95 @@
+package org.bsc.rmi.benchmarks;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * FakeBackend answers every HTTP POST it receives, the way an
+ * HttpAwareServerSocket does: the body is read and a response of the
+ * same size is sent back with an HTTP/1.0 header, then the connection
+ * is closed.
+ */
+@Log
+public class FakeBackend implements Closeable {
+
+    private final ServerSocket server;
+    private final byte[] response;
+
+    /**
+     * @param response bytes sent back, the first <code>n</code> of them
+     *                 for a request of <code>n</code> bytes
+     */
+    public FakeBackend(byte[] response) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.response = response;
+
+        final Thread t = new Thread(this::serve, "fake-backend");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return the port the backend listens on
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                final Thread t = new Thread(() -> answer(socket), "fake-backend-connection");
+                t.setDaemon(true);
+                t.start();
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                log.log(Level.SEVERE, format("error accepting a connection of the fake backend on port %d", getPort()), e);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void answer(Socket socket) {
+        try (final Socket s = socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            int length = 0;
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                if (line.toLowerCase().startsWith("content-length:"))
+                    length = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+
+            final byte[] buffer = new byte[Payloads.CHUNK];
+            for (int left = length; left > 0; ) {
+                final int n = in.read(buffer, 0, Math.min(left, buffer.length));
+                if (n < 0)
+                    return;
+                left -= n;
+            }
+
+            final int size = Math.min(Math.max(length, 1), response.length);
+            final OutputStream out = new BufferedOutputStream(s.getOutputStream(), Payloads.CHUNK);
+            out.write(("HTTP/1.0 200 OK\r\nContent-type: application/octet-stream\r\nContent-length: " + size + "\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            out.write(response, 0, size);
+            out.flush();
+        } catch (IOException e) {
+            log.log(Level.SEVERE, format("error answering a request of the fake backend on port %d", getPort()), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,63 @@
+package org.bsc.rmi.benchmarks;
+
+import java.security.Permission;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Payloads gathers the fixtures shared by the benchmarks.
+ */
+public final class Payloads {
+
+    /** payload sizes of the benchmarks, from 100 B to 50 MB */
+    public static final String SMALL = "100";
+    public static final String MEDIUM = "10240";
+    public static final String LARGE = "1048576";
+    public static final String HUGE = "52428800";
+
+    /** size of the buffers the payloads are written and read with, like the JRMP streams */
+    public static final int CHUNK = 8192;
+
+    /** kept to prevent the configured logger from being garbage collected */
+    private static final Logger ROOT = Logger.getLogger("org.bsc.rmi");
+
+    private Payloads() {
+    }
+
+    /**
+     * @return <code>size</code> random bytes, the same for every fork
+     */
+    public static byte[] random(int size) {
+        final byte[] b = new byte[size];
+        new Random(size).nextBytes(b);
+        return b;
+    }
+
+    /**
+     * Keep the tunnel logging out of the measurements: several classes
+     * log every header line at INFO level.
+     */
+    public static void quietLogging() {
+        ROOT.setLevel(Level.WARNING);
+    }
+
+    /**
+     * Install a security manager allowing everything, so that the code
+     * installing one when there is none, like the servlet, leaves the
+     * benchmark harness alone.
+     */
+    public static void permissiveSecurityManager() {
+        if (System.getSecurityManager() == null) {
+            System.setSecurityManager(new SecurityManager() {
+                @Override
+                public void checkPermission(Permission perm) {
+                }
+
+                @Override
+                public void checkPermission(Permission perm, Object context) {
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.bsc.rmi.load;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.*;
+import java.util.Map;
+
+/**
+ * JvmSampler measures the health of this VM between two samples: the
+ * garbage collections, the allocation rate, the heap left after the
+ * collections, the open file descriptors and the threads.
+ * <p>
+ * The collections are followed with the notifications of the garbage
+ * collectors, so no pause is missed however short the interval.  The
+ * allocated bytes are those the collections found in the heap, plus
+ * the growth of the heap since the last one.
+ */
+final class JvmSampler implements NotificationListener {
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private long maxPauseMillis;
+    private long pauseMillis;
+    private long allocatedBytes;
+    private long usedAfterGc;
+    /** heap used after the last collection, -1 before the first one */
+    private long heapAfterGc = -1;
+
+    private long lastSampleNanos = System.nanoTime();
+    private long lastAllocatedBytes;
+
+    JvmSampler() {
+        usedAfterGc = memory.getHeapMemoryUsage().getUsed();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter)
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+        }
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+            return;
+
+        final GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+        maxPauseMillis = Math.max(maxPauseMillis, info.getDuration());
+        pauseMillis += info.getDuration();
+
+        final long before = used(info.getMemoryUsageBeforeGc());
+        final long after = used(info.getMemoryUsageAfterGc());
+        allocatedBytes += Math.max(0, before - usedAfterGc);
+        usedAfterGc = after;
+        heapAfterGc = after;
+    }
+
+    private static long used(Map<String, MemoryUsage> pools) {
+        long used = 0;
+        for (MemoryUsage u : pools.values())
+            used += u.getUsed();
+        return used;
+    }
+
+    /**
+     * Add the measures since the previous sample.
+     *
+     * @param sample the sample to add them to
+     */
+    synchronized void sample(Map<String, Double> sample) {
+        final long now = System.nanoTime();
+        final double seconds = (now - lastSampleNanos) / 1e9;
+        final long allocated = allocatedBytes + Math.max(0, memory.getHeapMemoryUsage().getUsed() - usedAfterGc);
+
+        sample.put(SoakMetric.GC_PAUSE_MAX.label, (double) maxPauseMillis);
+        sample.put(SoakMetric.GC_TIME.label, pauseMillis / seconds);
+        sample.put(SoakMetric.ALLOCATION_RATE.label, (allocated - lastAllocatedBytes) / seconds / (1024 * 1024));
+        sample.put(SoakMetric.HEAP_AFTER_GC.label, (heapAfterGc < 0) ? Double.NaN : heapAfterGc / (1024.0 * 1024));
+        sample.put(SoakMetric.FILE_DESCRIPTORS.label, (os instanceof UnixOperatingSystemMXBean)
+                ? (double) ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount()
+                : Double.NaN);
+        sample.put(SoakMetric.THREADS.label, (double) threads.getThreadCount());
+
+        maxPauseMillis = 0;
+        pauseMillis = 0;
+        lastAllocatedBytes = allocated;
+        lastSampleNanos = now;
+    }
+}
@@ -0,0 +1,192 @@
+package org.bsc.rmi.load;
+
+import org.bsc.rmi.benchmarks.Payloads;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.rmi.registry.Registry;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * LoadGenerator drives a remote interface at fixed arrival rates with
+ * many virtual clients, through every transport, and reports latency
+ * percentiles measured from the time each call was due (see
+ * {@link OpenLoop}).
+ * <pre>
+ * usage: LoadGenerator [options]
+ *     -scenario name        remote interface driven, sample by default, remote for RemoteInterface
+ *     -transport list       comma separated transports among direct, http, proxy and impaired,
+ *                           direct, http and proxy by default
+ *     -rate n               calls per second, 100 by default
+ *     -sweep r1,r2,...      rates to run one after the other, looking for the knee of each transport
+ *     -duration seconds     duration of a run, 10 by default
+ *     -warmup seconds       warm up of each transport before its first run, 5 by default
+ *     -clients n            number of virtual clients, 32 by default
+ *     -payload bytes        size of the argument of every call, 100 by default
+ *     -registry host:port   registry to use instead of starting one in this VM
+ *     -proxy host:port      RMIHttpProxy of the proxy transport when the registry is external
+ *     -name name            name of the remote object in the external registry
+ *     -proxyThreads n       threads of the proxy started in this VM, 10 like RMIHttpProxy
+ *     -hgrm directory       write the latency distribution of every run in HdrHistogram format
+ * </pre>
+ * When sweeping, the knee of a transport is the highest rate it
+ * sustains: every due call is made without error, the achieved throughput is at
+ * least 95% of the rate and the p99 stays within
+ * {@link #KNEE_P99_FACTOR} times the p99 of the lowest rate.
+ */
+public class LoadGenerator {
+
+    static final double KNEE_THROUGHPUT_RATIO = 0.95;
+    static final double KNEE_P99_FACTOR = 3;
+
+    public static void main(String[] args) throws Exception {
+        String scenarioName = "sample";
+        Set<Transport> transports = EnumSet.of(Transport.DIRECT, Transport.HTTP, Transport.PROXY);
+        double[] rates = { 100 };
+        int duration = 10;
+        int warmup = 5;
+        int clients = 32;
+        int payload = 100;
+        String registry = null;
+        String proxy = null;
+        String name = null;
+        int proxyThreads = 10;
+        File hgrm = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-scenario":
+                    scenarioName = args[++i];
+                    break;
+                case "-transport":
+                    transports = EnumSet.noneOf(Transport.class);
+                    for (String t : args[++i].split(","))
+                        transports.add(Transport.valueOf(t.trim().toUpperCase()));
+                    break;
+                case "-rate":
+                    rates = new double[] { Double.parseDouble(args[++i]) };
+                    break;
+                case "-sweep":
+                    rates = Arrays.stream(args[++i].split(",")).mapToDouble(Double::parseDouble).sorted().toArray();
+                    break;
+                case "-duration":
+                    duration = Integer.parseInt(args[++i]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "-payload":
+                    payload = Integer.parseInt(args[++i]);
+                    break;
+                case "-registry":
+                    registry = args[++i];
+                    break;
+                case "-proxy":
+                    proxy = args[++i];
+                    break;
+                case "-name":
+                    name = args[++i];
+                    break;
+                case "-proxyThreads":
+                    proxyThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "-hgrm":
+                    hgrm = new File(args[++i]);
+                    break;
+                default:
+                    System.err.println(format("unknown option %s, see the LoadGenerator documentation", args[i]));
+                    System.exit(1);
+            }
+        }
+
+        Payloads.quietLogging();
+
+        final Scenario scenario = scenario(scenarioName);
+
+        final Target target = Target.create(scenario, transports, proxyThreads, registry, proxy, name);
+
+        if (hgrm != null)
+            hgrm.mkdirs();
+
+        final PrintStream out = System.out;
+        final Map<Transport, List<RunResult>> results = new EnumMap<>(Transport.class);
+        try {
+            for (Transport transport : transports) {
+                final Registry reg = target.registry(transport);
+                final List<Scenario.Client> virtualClients = new ArrayList<>();
+                for (int i = 0; i < clients; ++i)
+                    virtualClients.add(scenario.newClient(reg, target.bindName(transport), payload));
+
+                final OpenLoop loop = new OpenLoop(virtualClients);
+                if (warmup > 0)
+                    loop.run(transport, rates[0], TimeUnit.SECONDS.toNanos(warmup));
+
+                out.println();
+                RunResult.printHeader(out);
+                final List<RunResult> runs = new ArrayList<>();
+                for (double rate : rates) {
+                    final RunResult result = loop.run(transport, rate, TimeUnit.SECONDS.toNanos(duration));
+                    result.print(out);
+                    runs.add(result);
+
+                    if (hgrm != null) {
+                        try (final PrintStream h = new PrintStream(new File(hgrm, format("%s-%s-%.0f.hgrm", scenario.getName(), transport, rate)))) {
+                            // values recorded in microseconds, written in milliseconds
+                            result.getLatency().outputPercentileDistribution(h, 1000.0);
+                        }
+                    }
+                }
+                results.put(transport, runs);
+            }
+        } finally {
+            target.close();
+        }
+
+        if (rates.length > 1) {
+            out.println();
+            for (Map.Entry<Transport, List<RunResult>> e : results.entrySet())
+                out.println(knee(e.getKey(), e.getValue()));
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * @return the knee of the throughput/latency curve of a transport
+     */
+    static String knee(Transport transport, List<RunResult> runs) {
+        final double baseP99 = runs.get(0).getP99Millis();
+
+        RunResult knee = null;
+        for (RunResult r : runs) {
+            final boolean sustained = r.getMissed() == 0 && r.getErrors() == 0
+                    && r.getThroughput() >= r.getOfferedRate() * KNEE_THROUGHPUT_RATIO
+                    && r.getP99Millis() <= baseP99 * KNEE_P99_FACTOR;
+            if (!sustained) {
+                return (knee == null)
+                        ? format("%s: no rate sustained, %.0f calls/s achieved %.1f/s with p99 %.3f ms",
+                                transport, r.getOfferedRate(), r.getThroughput(), r.getP99Millis())
+                        : format("%s: knee at %.0f calls/s (p99 %.3f ms), %.0f calls/s achieved %.1f/s with p99 %.3f ms",
+                                transport, knee.getOfferedRate(), knee.getP99Millis(),
+                                r.getOfferedRate(), r.getThroughput(), r.getP99Millis());
+            }
+            knee = r;
+        }
+        return format("%s: every rate sustained, up to %.0f calls/s (p99 %.3f ms)",
+                transport, knee.getOfferedRate(), knee.getP99Millis());
+    }
+
+    static Scenario scenario(String name) {
+        for (Scenario s : ServiceLoader.load(Scenario.class)) {
+            if (s.getName().equals(name))
+                return s;
+        }
+        throw new IllegalArgumentException(format("unknown scenario %s", name));
+    }
+}
@@ -0,0 +1,129 @@
+package org.bsc.rmi.load;
+
+import lombok.extern.java.Log;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * OpenLoop sends calls at a fixed arrival rate, whatever the time the
+ * previous calls take: a call is due every <code>1/rate</code> seconds
+ * and is made by the first idle virtual client.
+ * <p>
+ * The latency of a call is measured from the time it was due, so the
+ * time spent waiting for an idle client when the server falls behind
+ * is part of it: the percentiles are not hidden by coordinated
+ * omission.  The calls still waiting when the run ends are counted as
+ * missed and recorded with the latency they had reached.
+ */
+@Log
+public class OpenLoop {
+
+    /** time left to the virtual clients to make the calls still due when a run ends */
+    static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final List<Scenario.Client> clients;
+
+    /**
+     * @param clients the virtual clients, one thread each
+     */
+    public OpenLoop(List<Scenario.Client> clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Send calls at the given rate for the given time.
+     *
+     * @param transport     the transport of the clients, to label the result
+     * @param rate          calls per second
+     * @param durationNanos duration of the run
+     */
+    public RunResult run(Transport transport, double rate, long durationNanos) throws InterruptedException {
+        final Recorder latency = new Recorder(3);
+        final Recorder serviceTime = new Recorder(3);
+        final BlockingQueue<Long> due = new LinkedBlockingQueue<>();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final LongAccumulator lastEnd = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        final long startNanos = System.nanoTime();
+        final List<Thread> threads = new ArrayList<>();
+        for (Scenario.Client client : clients) {
+            final Thread t = new Thread(() -> {
+                try {
+                    while (true) {
+                        final Long dueNanos = due.poll(10, TimeUnit.MILLISECONDS);
+                        if (dueNanos == null) {
+                            if (stopped.get())
+                                return;
+                            continue;
+                        }
+                        final long sendNanos = System.nanoTime();
+                        try {
+                            client.call();
+                        } catch (Exception e) {
+                            // one stack trace per run is enough to tell why the calls fail
+                            if (errors.incrementAndGet() == 1)
+                                log.log(Level.WARNING, format("%s call failed", transport), e);
+                        }
+                        final long endNanos = System.nanoTime();
+                        latency.recordValue((endNanos - dueNanos) / 1000);
+                        serviceTime.recordValue((endNanos - sendNanos) / 1000);
+                        completed.incrementAndGet();
+                        lastEnd.accumulate(endNanos - startNanos);
+                    }
+                } catch (InterruptedException e) {
+                    // run ended
+                }
+            }, "virtual-client-" + threads.size());
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+
+        final double intervalNanos = 1e9 / rate;
+        for (long i = 0; ; ++i) {
+            final long dueNanos = startNanos + (long) (i * intervalNanos);
+            if (dueNanos - startNanos >= durationNanos)
+                break;
+            for (long wait = dueNanos - System.nanoTime(); wait > 0; wait = dueNanos - System.nanoTime())
+                LockSupport.parkNanos(wait);
+            due.add(dueNanos);
+        }
+
+        // let the clients make the calls still due, then stop them
+        final long drainEnd = System.nanoTime() + DRAIN_NANOS;
+        while (!due.isEmpty() && System.nanoTime() - drainEnd < 0)
+            Thread.sleep(10);
+        final long stopNanos = System.nanoTime();
+        stopped.set(true);
+
+        final List<Long> missed = new ArrayList<>();
+        due.drainTo(missed);
+        for (long dueNanos : missed)
+            latency.recordValue(Math.max(0, (stopNanos - dueNanos) / 1000));
+
+        for (Thread t : threads)
+            t.join(TimeUnit.NANOSECONDS.toMillis(DRAIN_NANOS));
+
+        final long elapsedNanos = Math.max(1, lastEnd.get() == Long.MIN_VALUE ? durationNanos : lastEnd.get());
+        final Histogram latencyHistogram = latency.getIntervalHistogram();
+        final Histogram serviceHistogram = serviceTime.getIntervalHistogram();
+
+        return new RunResult(transport, rate, completed.get() * 1e9 / elapsedNanos,
+                completed.get(), errors.get(), missed.size(), latencyHistogram, serviceHistogram);
+    }
+}
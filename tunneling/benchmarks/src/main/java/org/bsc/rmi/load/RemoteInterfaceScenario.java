@@ -0,0 +1,85 @@
+package org.bsc.rmi.load;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * Drive the <code>RemoteInterface</code> of the docker samples, whose
+ * only method is <code>capitalize</code>.
+ * <p>
+ * The interface belongs to another build, so it is used by reflection:
+ * the scenario is available when the <code>rmiInterface</code> jar is on
+ * the class path, see the <code>remote-interface</code> profile.  The
+ * object exported in this VM capitalizes like <code>RMIImplementation</code>.
+ */
+public class RemoteInterfaceScenario implements Scenario {
+
+    static final String INTERFACE = "com.javacodegeeks.core.rmi.rminterface.RemoteInterface";
+
+    @Override
+    public String getName() {
+        return "remote";
+    }
+
+    @Override
+    public String getDefaultBindName() {
+        return "RMI_EXAMPLE";
+    }
+
+    private static Class<?> remoteInterface() {
+        try {
+            return Class.forName(INTERFACE);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(format("%s is not on the class path, build with -Premote-interface", INTERFACE), e);
+        }
+    }
+
+    @Override
+    public Remote export(Registry registry, String name, int port, RMIClientSocketFactory csf, RMIServerSocketFactory ssf) throws Exception {
+        final Class<?> type = remoteInterface();
+        final Remote impl = (Remote) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "capitalize":
+                            return ((String) args[0]).toUpperCase();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "RemoteInterface@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        registry.rebind(name, UnicastRemoteObject.exportObject(impl, port, csf, ssf));
+        return impl;
+    }
+
+    @Override
+    public Client newClient(Registry registry, String name, int payloadSize) throws Exception {
+        final Object remote = registry.lookup(name);
+        final Method capitalize = remoteInterface().getMethod("capitalize", String.class);
+
+        final char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        final String payload = new String(chars);
+
+        return () -> {
+            try {
+                capitalize.invoke(remote, payload);
+            } catch (InvocationTargetException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        };
+    }
+}
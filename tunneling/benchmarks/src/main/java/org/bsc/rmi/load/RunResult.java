@@ -0,0 +1,50 @@
+package org.bsc.rmi.load;
+
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+
+import static java.lang.String.format;
+
+/**
+ * The outcome of a run at a fixed arrival rate.  Latencies are in
+ * microseconds: <code>latency</code> is measured from the time each call
+ * was due to start, <code>serviceTime</code> from the time it was sent.
+ */
+@Value
+public class RunResult {
+
+    Transport transport;
+    double offeredRate;
+    double throughput;
+    long completed;
+    long errors;
+    long missed;
+    Histogram latency;
+    Histogram serviceTime;
+
+    /**
+     * @return the p99 of the latency in milliseconds
+     */
+    public double getP99Millis() {
+        return latency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    static void printHeader(PrintStream out) {
+        out.println(format("%-9s %9s %10s %8s %7s %7s %9s %9s %9s %9s %10s %10s %12s",
+                "transport", "rate/s", "achieved/s", "calls", "errors", "missed",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "p99.99 ms", "max ms", "svc p99 ms"));
+    }
+
+    void print(PrintStream out) {
+        out.println(format("%-9s %9.0f %10.1f %8d %7d %7d %9.3f %9.3f %9.3f %9.3f %10.3f %10.3f %12.3f",
+                transport, offeredRate, throughput, completed, errors, missed,
+                millis(latency, 50), millis(latency, 90), millis(latency, 99), millis(latency, 99.9), millis(latency, 99.99),
+                latency.getMaxValue() / 1000.0, millis(serviceTime, 99)));
+    }
+
+    private static double millis(Histogram h, double percentile) {
+        return h.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,58 @@
+package org.bsc.rmi.load;
+
+import org.bsc.rmi.sample.SampleRMI;
+import org.bsc.rmi.sample.SampleRMIServer;
+
+import java.rmi.Remote;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+
+/**
+ * Drive {@link SampleRMI}: every call is a <code>justPass</code> of the
+ * payload, every tenth call a <code>getInfo</code>.
+ */
+public class SampleScenario implements Scenario {
+
+    @Override
+    public String getName() {
+        return "sample";
+    }
+
+    @Override
+    public String getDefaultBindName() {
+        return "SampleRMI";
+    }
+
+    @Override
+    public Remote export(Registry registry, String name, int port, RMIClientSocketFactory csf, RMIServerSocketFactory ssf) throws Exception {
+        final SampleRMIServer server = new SampleRMIServer();
+        // SampleRMIServer is exported on construction with the default factories
+        UnicastRemoteObject.unexportObject(server, true);
+        registry.rebind(name, UnicastRemoteObject.exportObject(server, port, csf, ssf));
+        return server;
+    }
+
+    @Override
+    public Client newClient(Registry registry, String name, int payloadSize) throws Exception {
+        final SampleRMI remote = (SampleRMI) registry.lookup(name);
+
+        final char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        final String payload = new String(chars);
+
+        return new Client() {
+            int calls;
+
+            @Override
+            public void call() throws Exception {
+                if (++calls % 10 == 0)
+                    remote.getInfo();
+                else
+                    remote.justPass(payload);
+            }
+        };
+    }
+}
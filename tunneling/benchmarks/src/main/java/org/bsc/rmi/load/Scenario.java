@@ -0,0 +1,58 @@
+package org.bsc.rmi.load;
+
+import java.rmi.Remote;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Scenario is the remote interface a load test drives.  Scenarios are
+ * found with a {@link java.util.ServiceLoader}, so new ones can be added
+ * by listing them in <code>META-INF/services/org.bsc.rmi.load.Scenario</code>.
+ */
+public interface Scenario {
+
+    /**
+     * @return the name the scenario is chosen by
+     */
+    String getName();
+
+    /**
+     * @return the name the remote object is bound to in a registry not
+     * started by the load generator
+     */
+    String getDefaultBindName();
+
+    /**
+     * Export a new instance of the remote object in this VM.
+     *
+     * @param registry the registry to bind it to
+     * @param name     the name to bind it to
+     * @param port     the port to export it on
+     * @param csf      the client socket factory of the stub
+     * @param ssf      the server socket factory of the export
+     * @return the exported object, the caller keeps it reachable: the
+     * stub bound in a registry of the same VM does not
+     */
+    Remote export(Registry registry, String name, int port, RMIClientSocketFactory csf, RMIServerSocketFactory ssf) throws Exception;
+
+    /**
+     * Look the remote object up for a new virtual client.
+     *
+     * @param registry    the registry the object is bound to
+     * @param name        the name it is bound to
+     * @param payloadSize size of the arguments sent by every call
+     */
+    Client newClient(Registry registry, String name, int payloadSize) throws Exception;
+
+    /**
+     * A virtual client, used by one thread at a time.
+     */
+    interface Client {
+
+        /**
+         * Make one call.
+         */
+        void call() throws Exception;
+    }
+}
@@ -0,0 +1,258 @@
+package org.bsc.rmi.load;
+
+import org.bsc.rmi.benchmarks.Payloads;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.rmi.registry.Registry;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Soak drives a steady load through one transport for hours, sampling
+ * the health of the VM and of the connections at every interval, and
+ * fails when one of the measures trends upward.
+ * <pre>
+ * usage: Soak [options]
+ *     -scenario name        remote interface driven, sample by default
+ *     -transport name       direct, http, proxy or impaired, proxy by default
+ *     -rate n               calls per second, 100 by default
+ *     -duration seconds     duration of the soak, 3600 by default
+ *     -interval seconds     time between two samples, 60 by default
+ *     -warmup seconds       samples left out of the trends, 10% of the duration by default
+ *     -threshold percent    rise over the soak beyond which a measure fails, 10 by default
+ *     -clients n            number of virtual clients, 32 by default
+ *     -payload bytes        size of the argument of every call, 100 by default
+ *     -registry host:port   registry to use instead of starting one in this VM
+ *     -proxy host:port      RMIHttpProxy of the proxy transport when the registry is external
+ *     -name name            name of the remote object in the external registry
+ *     -proxyThreads n       threads of the proxy started in this VM, 10 like RMIHttpProxy
+ *     -csv file             the samples, soak.csv by default
+ * </pre>
+ * Every interval records the garbage collection pauses, the allocation
+ * rate, the heap after collection, the open file descriptors and the
+ * threads of this VM, the TCP connections to the registry and proxy
+ * ports by state, and the p99 and the errors of the calls.  With the
+ * target started in this VM, the proxy and the server are measured
+ * with the clients; with an external target, only the connection
+ * states are those of the remote nodes, and only if they share this host.
+ * <p>
+ * A measure fails when its least squares trend rises over the soak by
+ * more than the threshold percentage of its baseline, the mean of the
+ * first quarter of the samples, and by more than the noise floor of the
+ * measure.  The exit status is 1 when a measure fails.
+ */
+public class Soak {
+
+    static final double DEFAULT_THRESHOLD = 10;
+
+    public static void main(String[] args) throws Exception {
+        String scenarioName = "sample";
+        Transport transport = Transport.PROXY;
+        double rate = 100;
+        long duration = 3600;
+        long interval = 60;
+        long warmup = -1;
+        double threshold = DEFAULT_THRESHOLD;
+        int clients = 32;
+        int payload = 100;
+        String registry = null;
+        String proxy = null;
+        String name = null;
+        int proxyThreads = 10;
+        File csv = new File("soak.csv");
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-scenario":
+                    scenarioName = args[++i];
+                    break;
+                case "-transport":
+                    transport = Transport.valueOf(args[++i].trim().toUpperCase());
+                    break;
+                case "-rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "-duration":
+                    duration = Long.parseLong(args[++i]);
+                    break;
+                case "-interval":
+                    interval = Long.parseLong(args[++i]);
+                    break;
+                case "-warmup":
+                    warmup = Long.parseLong(args[++i]);
+                    break;
+                case "-threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "-clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "-payload":
+                    payload = Integer.parseInt(args[++i]);
+                    break;
+                case "-registry":
+                    registry = args[++i];
+                    break;
+                case "-proxy":
+                    proxy = args[++i];
+                    break;
+                case "-name":
+                    name = args[++i];
+                    break;
+                case "-proxyThreads":
+                    proxyThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "-csv":
+                    csv = new File(args[++i]);
+                    break;
+                default:
+                    System.err.println(format("unknown option %s, see the Soak documentation", args[i]));
+                    System.exit(1);
+            }
+        }
+        if (warmup < 0)
+            warmup = duration / 10;
+
+        Payloads.quietLogging();
+
+        final Scenario scenario = LoadGenerator.scenario(scenarioName);
+        final Target target = Target.create(scenario, EnumSet.of(transport), proxyThreads, registry, proxy, name);
+
+        final PrintStream out = System.out;
+        final List<Double> times = new ArrayList<>();
+        final List<Map<String, Double>> samples = new ArrayList<>();
+        try (final PrintWriter csvOut = new PrintWriter(new FileWriter(csv))) {
+            final Registry reg = target.registry(transport);
+            final List<Scenario.Client> virtualClients = new ArrayList<>();
+            for (int i = 0; i < clients; ++i)
+                virtualClients.add(scenario.newClient(reg, target.bindName(transport), payload));
+            final OpenLoop loop = new OpenLoop(virtualClients);
+
+            out.println(format("soaking %s at %.0f calls/s for %ds, sampling every %ds", transport, rate, duration, interval));
+            printHeader(out, csvOut);
+
+            final JvmSampler jvm = new JvmSampler();
+            final long startNanos = System.nanoTime();
+            for (long elapsed = 0; elapsed < TimeUnit.SECONDS.toNanos(duration); elapsed = System.nanoTime() - startNanos) {
+                final RunResult result = loop.run(transport, rate, TimeUnit.SECONDS.toNanos(interval));
+
+                final Map<String, Double> sample = new LinkedHashMap<>();
+                jvm.sample(sample);
+                SocketStates.sample(target.getPorts(), sample);
+                sample.put(SoakMetric.P99.label, result.getP99Millis());
+                sample.put(SoakMetric.ERRORS.label, (double) (result.getErrors() + result.getMissed()));
+
+                final double seconds = (System.nanoTime() - startNanos) / 1e9;
+                times.add(seconds);
+                samples.add(sample);
+                print(out, csvOut, seconds, sample);
+            }
+        } finally {
+            target.close();
+        }
+
+        out.println();
+        final boolean failed = report(out, times, samples, warmup, threshold);
+        out.println();
+        out.println(failed ? "soak FAILED, see " + csv : "soak passed");
+
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static void printHeader(PrintStream out, PrintWriter csv) {
+        final StringBuilder line = new StringBuilder(format("%8s", "seconds"));
+        final StringBuilder csvLine = new StringBuilder("seconds");
+        for (SoakMetric m : SoakMetric.values()) {
+            line.append(format(" %" + width(m) + "s", m.label));
+            csvLine.append(',').append(m.label);
+        }
+        out.println(line);
+        csv.println(csvLine);
+        csv.flush();
+    }
+
+    private static void print(PrintStream out, PrintWriter csv, double seconds, Map<String, Double> sample) {
+        final StringBuilder line = new StringBuilder(format("%8.0f", seconds));
+        final StringBuilder csvLine = new StringBuilder(format(Locale.ROOT, "%.3f", seconds));
+        for (SoakMetric m : SoakMetric.values()) {
+            final double value = sample.get(m.label);
+            line.append(format(" %" + width(m) + ".1f", value));
+            csvLine.append(',').append(Double.isNaN(value) ? "" : format(Locale.ROOT, "%.3f", value));
+        }
+        out.println(line);
+        csv.println(csvLine);
+        csv.flush();
+    }
+
+    private static int width(SoakMetric m) {
+        return Math.max(8, m.label.length());
+    }
+
+    /**
+     * Print the trend of every measure after the warm up.
+     *
+     * @return true if a measure rises beyond the threshold
+     */
+    static boolean report(PrintStream out, List<Double> times, List<Map<String, Double>> samples,
+                          double warmupSeconds, double threshold) {
+        out.println(format("%-18s %10s %10s %10s %10s %10s", "measure", "baseline", "last", "trend/h", "rise", "limit"));
+
+        boolean failed = false;
+        for (SoakMetric m : SoakMetric.values()) {
+            final List<double[]> points = new ArrayList<>();
+            for (int i = 0; i < samples.size(); ++i) {
+                final double value = samples.get(i).get(m.label);
+                if (times.get(i) > warmupSeconds && !Double.isNaN(value))
+                    points.add(new double[] { times.get(i), value });
+            }
+            if (points.size() < 3) {
+                out.println(format("%-18s %s", m.label, "not enough samples"));
+                continue;
+            }
+
+            final double slope = slope(points);
+            final double rise = slope * (points.get(points.size() - 1)[0] - points.get(0)[0]);
+            final double baseline = mean(points.subList(0, Math.max(1, points.size() / 4)));
+            final double limit = Math.max(m.minRise, Math.abs(baseline) * threshold / 100);
+            final boolean fails = rise > limit;
+            failed |= fails;
+
+            out.println(format("%-18s %10.2f %10.2f %10.2f %10.2f %10.2f %s", m.label, baseline,
+                    points.get(points.size() - 1)[1], slope * 3600, rise, limit, fails ? "FAILED" : "ok"));
+        }
+        return failed;
+    }
+
+    /**
+     * @return the least squares slope of the points, per second
+     */
+    static double slope(List<double[]> points) {
+        double mx = 0, my = 0;
+        for (double[] p : points) {
+            mx += p[0];
+            my += p[1];
+        }
+        mx /= points.size();
+        my /= points.size();
+
+        double sxy = 0, sxx = 0;
+        for (double[] p : points) {
+            sxy += (p[0] - mx) * (p[1] - my);
+            sxx += (p[0] - mx) * (p[0] - mx);
+        }
+        return (sxx == 0) ? 0 : sxy / sxx;
+    }
+
+    private static double mean(List<double[]> points) {
+        double sum = 0;
+        for (double[] p : points)
+            sum += p[1];
+        return sum / points.size();
+    }
+}
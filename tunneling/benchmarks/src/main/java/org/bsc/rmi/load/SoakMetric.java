@@ -0,0 +1,29 @@
+package org.bsc.rmi.load;
+
+/**
+ * SoakMetric is a measure sampled during a soak run, with the rise over
+ * the run that is tolerated whatever the threshold: below it, a trend is
+ * noise.
+ */
+enum SoakMetric {
+
+    GC_PAUSE_MAX("gc pause max ms", 20),
+    GC_TIME("gc ms/s", 5),
+    ALLOCATION_RATE("alloc MB/s", 5),
+    HEAP_AFTER_GC("heap after gc MB", 16),
+    FILE_DESCRIPTORS("fds", 32),
+    THREADS("threads", 16),
+    ESTABLISHED("tcp established", 32),
+    TIME_WAIT("tcp time_wait", 256),
+    CLOSE_WAIT("tcp close_wait", 16),
+    P99("p99 ms", 10),
+    ERRORS("errors", 10);
+
+    final String label;
+    final double minRise;
+
+    SoakMetric(String label, double minRise) {
+        this.label = label;
+        this.minRise = minRise;
+    }
+}
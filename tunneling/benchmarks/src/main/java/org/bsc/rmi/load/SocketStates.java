@@ -0,0 +1,89 @@
+package org.bsc.rmi.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SocketStates counts the TCP connections to or from the ports of the
+ * target by state, as listed by <code>/proc/net/tcp</code> and
+ * <code>/proc/net/tcp6</code>.
+ * <p>
+ * The connections in TIME_WAIT are no longer owned by any process, so
+ * they are matched by port rather than by file descriptor: the counts
+ * include the connections of other processes talking to the same ports.
+ * Where there is no <code>/proc</code>, the counts are not available.
+ */
+final class SocketStates {
+
+    static final String ESTABLISHED = "01";
+    static final String TIME_WAIT = "06";
+    static final String CLOSE_WAIT = "08";
+
+    static final File[] TABLES = { new File("/proc/net/tcp"), new File("/proc/net/tcp6") };
+
+    private SocketStates() {
+    }
+
+    static boolean isAvailable() {
+        return TABLES[0].canRead();
+    }
+
+    /**
+     * Add the count of the connections by state.
+     *
+     * @param ports  the ports the connections are made to or from
+     * @param sample the sample to add the counts to
+     */
+    static void sample(Set<Integer> ports, Map<String, Double> sample) {
+        if (!isAvailable()) {
+            sample.put(SoakMetric.ESTABLISHED.label, Double.NaN);
+            sample.put(SoakMetric.TIME_WAIT.label, Double.NaN);
+            sample.put(SoakMetric.CLOSE_WAIT.label, Double.NaN);
+            return;
+        }
+
+        int established = 0;
+        int timeWait = 0;
+        int closeWait = 0;
+        for (File table : TABLES) {
+            if (!table.canRead())
+                continue;
+            try (final BufferedReader in = new BufferedReader(new FileReader(table))) {
+                // sl local_address rem_address st ..., the addresses as hex address:port
+                in.readLine();
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    final String[] fields = line.trim().split("\\s+");
+                    if (fields.length < 4)
+                        continue;
+                    if (!ports.contains(port(fields[1])) && !ports.contains(port(fields[2])))
+                        continue;
+                    switch (fields[3]) {
+                        case ESTABLISHED:
+                            ++established;
+                            break;
+                        case TIME_WAIT:
+                            ++timeWait;
+                            break;
+                        case CLOSE_WAIT:
+                            ++closeWait;
+                            break;
+                        default:
+                    }
+                }
+            } catch (IOException e) {
+                // the table changed while it was read, the next sample will do
+            }
+        }
+        sample.put(SoakMetric.ESTABLISHED.label, (double) established);
+        sample.put(SoakMetric.TIME_WAIT.label, (double) timeWait);
+        sample.put(SoakMetric.CLOSE_WAIT.label, (double) closeWait);
+    }
+
+    private static int port(String address) {
+        return Integer.parseInt(address.substring(address.indexOf(':') + 1), 16);
+    }
+}
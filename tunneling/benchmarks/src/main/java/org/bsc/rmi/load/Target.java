@@ -0,0 +1,191 @@
+package org.bsc.rmi.load;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.benchmarks.Payloads;
+import org.bsc.rmi.proxy.http.server.RMIHttpServerSocketFactory;
+import org.bsc.rmi.servlet.RMIServletHandler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.rmi.Remote;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+/**
+ * Target is the server side of a load test: the registry, the remote
+ * objects and the RMIHttpProxy, either started in this VM on ephemeral
+ * ports or running elsewhere.
+ * <p>
+ * In this VM one remote object is exported per transport, its stub
+ * carrying the client socket factory of the transport; the server
+ * sockets are HTTP-aware, so they accept both JRMP and tunneled calls.
+ * Elsewhere the stubs are those exported by the server, the transport
+ * only applies to the registry.
+ */
+@Log
+public class Target implements Closeable {
+
+    final String registryHost;
+    final int registryPort;
+    final String proxyHost;
+    final int proxyPort;
+    private final String bindName;
+    private final boolean inProcess;
+    private final Server proxy;
+    /** the registry and the objects exported in this VM, kept from the distributed garbage collector */
+    private final List<Remote> exported = new ArrayList<>();
+    /** the ports of the objects exported in this VM */
+    private final Set<Integer> objectPorts = new HashSet<>();
+
+    private Target(String registryHost, int registryPort, String proxyHost, int proxyPort,
+                   String bindName, boolean inProcess, Server proxy) {
+        this.registryHost = registryHost;
+        this.registryPort = registryPort;
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+        this.bindName = bindName;
+        this.inProcess = inProcess;
+        this.proxy = proxy;
+    }
+
+    /**
+     * Start the registry, the remote objects and the proxy in this VM.
+     *
+     * @param scenario     the remote objects to export
+     * @param transports   the transports the objects are exported for
+     * @param proxyThreads maximum number of threads of the proxy
+     */
+    public static Target inProcess(Scenario scenario, Set<Transport> transports, int proxyThreads) throws Exception {
+        // the servlet installs a security manager when there is none
+        Payloads.permissiveSecurityManager();
+        System.setProperty("org.eclipse.jetty.LEVEL", "WARN");
+
+        final String host = InetAddress.getLoopbackAddress().getHostAddress();
+
+        final QueuedThreadPool threadPool = new QueuedThreadPool(proxyThreads, 1, 120);
+        final Server server = new Server(threadPool);
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        final ServletHandler servletHandler = new ServletHandler();
+        server.setHandler(servletHandler);
+        final ServletHolder service = servletHandler.addServletWithMapping(RMIServletHandler.class, "/*");
+        service.setInitParameter(RMIServletHandler.RMI_REMOTE_HOST, host);
+        server.start();
+
+        try {
+            final int registryPort = freePort();
+            final RMIServerSocketFactory ssf = new RMIHttpServerSocketFactory();
+            final Registry registry = LocateRegistry.createRegistry(registryPort, null, ssf);
+
+            final Target target = new Target(host, registryPort, host, connector.getLocalPort(),
+                    scenario.getDefaultBindName(), true, server);
+            target.exported.add(registry);
+            for (Transport t : transports) {
+                // a port of its own, the JDK only shares a port between the exports of the same factories
+                final int port = freePort();
+                target.exported.add(scenario.export(registry, target.bindName(t), port,
+                        t.clientSocketFactory(host, connector.getLocalPort()), ssf));
+                target.objectPorts.add(port);
+            }
+
+            log.info(format("registry on port %d, proxy on port %d", registryPort, connector.getLocalPort()));
+            return target;
+        } catch (Exception e) {
+            // the threads of the proxy would keep the VM alive
+            server.stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Start the target in this VM, or use the one running elsewhere if
+     * the address of its registry is given.
+     *
+     * @param registry host:port of the external registry, null to start one in this VM
+     * @param proxy    host:port of the external proxy, null if the proxy transport is not used
+     * @param name     name of the remote object in the external registry, null for the default one
+     */
+    public static Target create(Scenario scenario, Set<Transport> transports, int proxyThreads,
+                                String registry, String proxy, String name) throws Exception {
+        if (registry == null)
+            return inProcess(scenario, transports, proxyThreads);
+
+        final String[] r = registry.split(":");
+        final String[] p = (proxy == null) ? new String[] { null, "-1" } : proxy.split(":");
+        return external(r[0], Integer.parseInt(r[1]), p[0], Integer.parseInt(p[1]),
+                (name == null) ? scenario.getDefaultBindName() : name);
+    }
+
+    /**
+     * Use a registry and a proxy running elsewhere.
+     *
+     * @param proxyHost host of the proxy, null if the proxy transport is not used
+     */
+    public static Target external(String registryHost, int registryPort, String proxyHost, int proxyPort, String bindName) {
+        return new Target(registryHost, registryPort, proxyHost, proxyPort, bindName, false, null);
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /**
+     * @return the ports the connections to the target are made to: the
+     * registry, the remote objects exported in this VM and the proxy
+     */
+    public Set<Integer> getPorts() {
+        final Set<Integer> ports = new HashSet<>(objectPorts);
+        ports.add(registryPort);
+        if (proxyHost != null)
+            ports.add(proxyPort);
+        return ports;
+    }
+
+    /**
+     * @return the name the remote object of the transport is bound to
+     */
+    public String bindName(Transport transport) {
+        return inProcess ? format("%s/%s", bindName, transport) : bindName;
+    }
+
+    /**
+     * @return the registry reached through the given transport
+     */
+    public Registry registry(Transport transport) throws IOException {
+        if (transport == Transport.PROXY && proxyHost == null)
+            throw new IllegalArgumentException("the proxy transport needs the address of the proxy");
+        return LocateRegistry.getRegistry(registryHost, registryPort, transport.clientSocketFactory(proxyHost, proxyPort));
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Remote r : exported)
+            UnicastRemoteObject.unexportObject(r, true);
+        exported.clear();
+        if (proxy != null) {
+            try {
+                proxy.stop();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.bsc.rmi.load;
+
+import org.bsc.rmi.proxy.http.client.TunnelClientSocketFactory;
+import org.bsc.rmi.proxy.socket.client.RMIImpairedClientSocketFactory;
+
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * Transport is the way the calls reach the server.
+ */
+public enum Transport {
+
+    /** JRMP on a plain socket, connections reused between calls */
+    DIRECT,
+
+    /** an HTTP POST per call, sent to the HttpAwareServerSocket of the server */
+    HTTP,
+
+    /** an HTTP POST per call, sent to RMIHttpProxy which forwards it to the server */
+    PROXY,
+
+    /** JRMP on a plain socket crossing the link simulated by the org.bsc.rmi.impair system properties */
+    IMPAIRED;
+
+    /**
+     * @param proxyHost host of the RMIHttpProxy
+     * @param proxyPort port of the RMIHttpProxy
+     * @return the client socket factory of the stubs, null for the default one
+     */
+    public RMIClientSocketFactory clientSocketFactory(String proxyHost, int proxyPort) {
+        switch (this) {
+            case HTTP:
+                return new TunnelClientSocketFactory();
+            case PROXY:
+                return new TunnelClientSocketFactory(proxyHost, proxyPort);
+            case IMPAIRED:
+                return new RMIImpairedClientSocketFactory();
+            default:
+                return null;
+        }
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,119 @@
+package org.bsc.rmi.proxy;
+
+import org.bsc.rmi.benchmarks.EchoServer;
+import org.bsc.rmi.benchmarks.Payloads;
+import org.bsc.rmi.proxy.http.server.RMIHttpServerSocketFactory;
+import org.bsc.rmi.proxy.socket.client.RMIDebugClientSocketFactory;
+import org.bsc.rmi.proxy.socket.client.RMISharedMemoryClientSocketFactory;
+import org.bsc.rmi.proxy.socket.client.RMIUnixClientSocketFactory;
+import org.bsc.rmi.proxy.socket.server.RMIDebugServerSocketFactory;
+import org.bsc.rmi.proxy.socket.server.RMISharedMemoryServerSocketFactory;
+import org.bsc.rmi.proxy.socket.server.RMIUnixServerSocketFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.RMISocketFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.bsc.rmi.benchmarks.Payloads.*;
+
+/**
+ * Compare the round trip of a message on loopback through the sockets
+ * of the default RMI socket factory, of the debug factories and of the
+ * HTTP-aware server socket factory, on a connection kept open; and
+ * through the same-host transports, unix domain sockets (Java 16 or
+ * later) and shared memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketFactoryBenchmark {
+
+    @Param({ "direct", "debug", "httpAware", "unix", "sharedMemory" })
+    String factory;
+
+    @Param({ SMALL, MEDIUM, LARGE, HUGE })
+    int size;
+
+    byte[] payload;
+    final byte[] buffer = new byte[CHUNK];
+    EchoServer server;
+    Socket socket;
+    File directory;
+    DataOutputStream out;
+    DataInputStream in;
+
+    @Setup
+    public void setup() throws IOException {
+        Payloads.quietLogging();
+
+        final RMIClientSocketFactory csf;
+        final RMIServerSocketFactory ssf;
+        switch (factory) {
+            case "direct":
+                csf = RMISocketFactory.getDefaultSocketFactory();
+                ssf = RMISocketFactory.getDefaultSocketFactory();
+                break;
+            case "debug":
+                csf = new RMIDebugClientSocketFactory();
+                ssf = new RMIDebugServerSocketFactory();
+                break;
+            case "httpAware":
+                csf = RMISocketFactory.getDefaultSocketFactory();
+                ssf = new RMIHttpServerSocketFactory();
+                break;
+            case "unix":
+                directory = Files.createTempDirectory("rmi-unix").toFile();
+                csf = new RMIUnixClientSocketFactory(directory.getPath());
+                ssf = new RMIUnixServerSocketFactory(directory.getPath());
+                break;
+            case "sharedMemory":
+                csf = new RMISharedMemoryClientSocketFactory();
+                ssf = new RMISharedMemoryServerSocketFactory();
+                break;
+            default:
+                throw new IllegalArgumentException(factory);
+        }
+
+        payload = Payloads.random(size);
+        server = new EchoServer(ssf.createServerSocket(0));
+        socket = csf.createSocket(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK));
+        // the debug streams only support bulk reads
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socket.close();
+        server.close();
+        if (directory != null)
+            directory.delete();
+    }
+
+    @Benchmark
+    public long roundTrip() throws IOException {
+        out.writeInt(size);
+        for (int off = 0; off < size; off += CHUNK)
+            out.write(payload, off, Math.min(CHUNK, size - off));
+        out.flush();
+
+        final int length = in.readInt();
+        for (int left = length; left > 0; ) {
+            final int n = in.read(buffer, 0, Math.min(left, buffer.length));
+            if (n < 0)
+                throw new EOFException();
+            left -= n;
+        }
+        return length;
+    }
+}
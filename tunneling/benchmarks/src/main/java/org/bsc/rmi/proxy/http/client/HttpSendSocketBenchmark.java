@@ -0,0 +1,70 @@
+package org.bsc.rmi.proxy.http.client;
+
+import org.bsc.rmi.benchmarks.FakeBackend;
+import org.bsc.rmi.benchmarks.Payloads;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.bsc.rmi.benchmarks.Payloads.*;
+
+/**
+ * Send a request through an {@link HttpSendSocket}: the first write
+ * opens the HTTP connection (<code>writeNotify</code>), the first read
+ * sends the request and waits for the response (<code>readNotify</code>).
+ * The server is a {@link FakeBackend} on loopback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpSendSocketBenchmark {
+
+    @Param({ SMALL, MEDIUM, LARGE, HUGE })
+    int size;
+
+    byte[] payload;
+    final byte[] buffer = new byte[CHUNK];
+    FakeBackend backend;
+    URL url;
+
+    @Setup
+    public void setup() throws IOException {
+        Payloads.quietLogging();
+
+        payload = Payloads.random(size);
+        backend = new FakeBackend(payload);
+        url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), backend.getPort(), "/");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        backend.close();
+    }
+
+    @Benchmark
+    public long exchange() throws IOException {
+        final HttpSendSocket socket = new HttpSendSocket(url.getHost(), url.getPort(), url);
+        try {
+            final OutputStream out = socket.getOutputStream();
+            for (int off = 0; off < size; off += CHUNK)
+                out.write(payload, off, Math.min(CHUNK, size - off));
+            out.flush();
+
+            final InputStream in = socket.getInputStream();
+            long total = 0;
+            for (int n = in.read(buffer, 0, buffer.length); n > 0; n = in.read(buffer, 0, buffer.length))
+                total += n;
+            return total;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.bsc.rmi.proxy.http.client;
+
+import lombok.EqualsAndHashCode;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.net.URL;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * TunnelClientSocketFactory tunnels every call in an HTTP POST, either
+ * directly to the HttpAwareServerSocket of the remote endpoint or
+ * through the "forward" command of an RMIHttpProxy.
+ */
+@EqualsAndHashCode
+public class TunnelClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String proxyHost;
+    private final int proxyPort;
+
+    /**
+     * Post the calls directly to the remote endpoint.
+     */
+    public TunnelClientSocketFactory() {
+        this(null, -1);
+    }
+
+    /**
+     * Post the calls to the proxy, which forwards them to the remote endpoint.
+     *
+     * @param proxyHost host of the RMIHttpProxy
+     * @param proxyPort port of the RMIHttpProxy
+     */
+    public TunnelClientSocketFactory(String proxyHost, int proxyPort) {
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        final URL url = (proxyHost == null)
+                ? new URL("http", host, port, "/")
+                : new URL("http", proxyHost, proxyPort, "/rmi?forward=" + port);
+        return HttpSendSocket.open(host, port, url);
+    }
+}
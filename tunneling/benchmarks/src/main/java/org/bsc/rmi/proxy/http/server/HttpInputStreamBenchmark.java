@@ -0,0 +1,59 @@
+package org.bsc.rmi.proxy.http.server;
+
+import org.bsc.rmi.benchmarks.Payloads;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.bsc.rmi.benchmarks.Payloads.*;
+
+/**
+ * Parse the header of a tunneled request and read its body, from a
+ * buffered stream like the one {@link HttpAwareServerSocket} hands over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpInputStreamBenchmark {
+
+    @Param({ SMALL, MEDIUM, LARGE, HUGE })
+    int size;
+
+    byte[] request;
+    final byte[] buffer = new byte[CHUNK];
+
+    @Setup
+    public void setup() throws IOException {
+        Payloads.quietLogging();
+
+        final ByteArrayOutputStream b = new ByteArrayOutputStream(size + 256);
+        b.write(("POST / HTTP/1.0\r\n"
+                + "Content-type: application/octet-stream\r\n"
+                + "traceparent: 00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01\r\n"
+                + "Content-length: " + size + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        b.write(Payloads.random(size));
+        request = b.toByteArray();
+    }
+
+    @Benchmark
+    public HttpInputStream parseHeader() throws IOException {
+        return new HttpInputStream(new BufferedInputStream(new ByteArrayInputStream(request)));
+    }
+
+    @Benchmark
+    public long readBody() throws IOException {
+        final HttpInputStream in = new HttpInputStream(new BufferedInputStream(new ByteArrayInputStream(request)));
+        long total = 0;
+        for (int n = in.read(buffer, 0, buffer.length); n > 0; n = in.read(buffer, 0, buffer.length))
+            total += n;
+        return total;
+    }
+}
@@ -0,0 +1,56 @@
+package org.bsc.rmi.proxy.http.server;
+
+import org.bsc.rmi.benchmarks.Payloads;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.bsc.rmi.benchmarks.Payloads.*;
+
+/**
+ * Buffer a response in an {@link HttpOutputStream}, written in chunks
+ * the way the RMI transport writes it, and send it on close.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpOutputStreamBenchmark {
+
+    @Param({ SMALL, MEDIUM, LARGE, HUGE })
+    int size;
+
+    byte[] payload;
+    OutputStream sink;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        Payloads.quietLogging();
+
+        payload = Payloads.random(size);
+        sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bh.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bh.consume(len);
+            }
+        };
+    }
+
+    @Benchmark
+    public void writeAndClose() throws IOException {
+        final HttpOutputStream out = new HttpOutputStream(sink);
+        for (int off = 0; off < size; off += CHUNK)
+            out.write(payload, off, Math.min(CHUNK, size - off));
+        out.close();
+    }
+}
@@ -0,0 +1,90 @@
+package org.bsc.rmi.servlet;
+
+import org.bsc.rmi.benchmarks.FakeBackend;
+import org.bsc.rmi.benchmarks.Payloads;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.bsc.rmi.benchmarks.Payloads.*;
+
+/**
+ * Post a request to the "forward" command of an {@link RMIServletHandler}
+ * running in jetty, which forwards it to a {@link FakeBackend} and sends
+ * its response back.  Everything runs in process, on loopback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServletForwardBenchmark {
+
+    @Param({ SMALL, MEDIUM, LARGE, HUGE })
+    int size;
+
+    byte[] payload;
+    final byte[] buffer = new byte[CHUNK];
+    FakeBackend backend;
+    Server server;
+    URL url;
+
+    @Setup
+    public void setup() throws Exception {
+        Payloads.quietLogging();
+        Payloads.permissiveSecurityManager();
+        System.setProperty("org.eclipse.jetty.LEVEL", "WARN");
+
+        payload = Payloads.random(size);
+        backend = new FakeBackend(payload);
+
+        server = new Server(0);
+        final ServletHandler servletHandler = new ServletHandler();
+        server.setHandler(servletHandler);
+        final ServletHolder service = servletHandler.addServletWithMapping(RMIServletHandler.class, "/*");
+        service.setInitParameter(RMIServletHandler.RMI_REMOTE_HOST, InetAddress.getLoopbackAddress().getHostAddress());
+        server.start();
+
+        final int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, "/rmi?forward=" + backend.getPort());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        backend.close();
+    }
+
+    @Benchmark
+    public long forward() throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-type", "application/octet-stream");
+        conn.setFixedLengthStreamingMode(size);
+
+        try (final OutputStream out = conn.getOutputStream()) {
+            for (int off = 0; off < size; off += CHUNK)
+                out.write(payload, off, Math.min(CHUNK, size - off));
+        }
+
+        long total = 0;
+        try (final InputStream in = conn.getInputStream()) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                total += n;
+        }
+        return total;
+    }
+}
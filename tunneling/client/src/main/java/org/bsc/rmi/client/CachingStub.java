@@ -0,0 +1,158 @@
+package org.bsc.rmi.client;
+
+import lombok.extern.java.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static java.lang.String.format;
+
+/**
+ * CachingStub wraps a remote stub to save the round trips of the
+ * {@link Idempotent} methods: a result is reused for the time given by
+ * the annotation, and a call identical to one in flight waits for its
+ * result instead of being sent again (single flight).
+ * <p>
+ * The results are kept in an LRU map bounded to <code>maxEntries</code>;
+ * failures are neither cached nor shared beyond the calls in flight.
+ * The other methods go straight to the stub.
+ */
+@Log
+public class CachingStub implements InvocationHandler {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /**
+     * The identity of a call: the method and its arguments, arrays compared by content.
+     */
+    private static final class Key {
+        final Object[] call;
+        final int hash;
+
+        Key(Method method, Object[] args) {
+            call = new Object[(args == null ? 0 : args.length) + 1];
+            call[0] = method;
+            if (args != null)
+                System.arraycopy(args, 0, call, 1, args.length);
+            hash = Arrays.deepHashCode(call);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.deepEquals(call, ((Key) o).call);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Result {
+        final Object value;
+        final long expiresMillis;
+
+        Result(Object value, long expiresMillis) {
+            this.value = value;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    private final Remote stub;
+    private final Map<Key, Result> results;
+    private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private CachingStub(Remote stub, int maxEntries) {
+        this.stub = stub;
+        this.results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Wrap a stub, keeping at most {@link #DEFAULT_MAX_ENTRIES} results.
+     */
+    public static <T extends Remote> T wrap(T stub, Class<T> remoteInterface) {
+        return wrap(stub, remoteInterface, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Wrap a stub.
+     *
+     * @param stub            the stub of the remote object
+     * @param remoteInterface the remote interface the wrapper implements
+     * @param maxEntries      the most results kept
+     */
+    public static <T extends Remote> T wrap(T stub, Class<T> remoteInterface, int maxEntries) {
+        return remoteInterface.cast(Proxy.newProxyInstance(remoteInterface.getClassLoader(),
+                new Class<?>[] { remoteInterface }, new CachingStub(stub, maxEntries)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final Idempotent idempotent = method.getAnnotation(Idempotent.class);
+        if (idempotent == null)
+            return invokeStub(method, args);
+
+        final Key key = new Key(method, args);
+        synchronized (results) {
+            final Result result = results.get(key);
+            if (result != null && result.expiresMillis > System.currentTimeMillis())
+                return result.value;
+        }
+
+        final CompletableFuture<Object> call = new CompletableFuture<>();
+        final CompletableFuture<Object> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            log.fine(format("call to %s joined the one in flight", method.getName()));
+            return await(running);
+        }
+
+        try {
+            final Object value = invokeStub(method, args);
+            synchronized (results) {
+                results.put(key, new Result(value, System.currentTimeMillis() + idempotent.ttlMillis()));
+            }
+            call.complete(value);
+            return value;
+        } catch (Throwable t) {
+            call.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private Object invokeStub(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(stub, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> call) throws Throwable {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingStub[" + stub + "]";
+    }
+}
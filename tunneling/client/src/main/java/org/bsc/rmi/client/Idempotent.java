@@ -0,0 +1,23 @@
+package org.bsc.rmi.client;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a remote method whose result depends only on its arguments, for
+ * a while: the {@link CachingStub} reuses it instead of calling the
+ * server again.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+
+    /**
+     * @return time a result is reused, in milliseconds
+     */
+    long ttlMillis() default 10_000;
+}
@@ -1,6 +1,7 @@
 package org.bsc.rmi;
 
 import lombok.extern.java.Log;
+import org.bsc.rmi.metrics.MetricsRegistry;
 import org.bsc.rmi.servlet.RMIServletHandler;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
@@ -26,6 +27,8 @@ public class RMIHttpProxy {
 
         final QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout);
 
+        registerThreadPoolMetrics(threadPool, MetricsRegistry.getDefault());
+
         final Server server = new Server(threadPool);
         final ServerConnector connector = new ServerConnector(server);
         connector.setPort(80);
@@ -49,4 +52,20 @@ public class RMIHttpProxy {
 
     }
 
+    /**
+     * Expose the saturation of the jetty thread pool through the metrics registry.
+     *
+     * @param threadPool the jetty thread pool
+     * @param metrics the registry where gauges are registered
+     */
+    public static void registerThreadPoolMetrics(QueuedThreadPool threadPool, MetricsRegistry metrics) {
+        metrics.gauge("jetty_threads_max", threadPool::getMaxThreads);
+        metrics.gauge("jetty_threads", threadPool::getThreads);
+        metrics.gauge("jetty_threads_busy", threadPool::getBusyThreads);
+        metrics.gauge("jetty_threads_idle", threadPool::getIdleThreads);
+        metrics.gauge("jetty_queue_size", threadPool::getQueueSize);
+        metrics.gauge("jetty_pool_saturation", () -> (double) threadPool.getBusyThreads() / threadPool.getMaxThreads());
+        metrics.gauge("jetty_low_on_threads", () -> threadPool.isLowOnThreads() ? 1 : 0);
+    }
+
 }
@@ -0,0 +1,184 @@
+package org.bsc.rmi.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+import static org.bsc.rmi.capture.CaptureRing.*;
+
+/**
+ * CaptureDump renders the content of a {@link CaptureRing} file as text,
+ * oldest records first, each payload as an hex dump.
+ * <pre>
+ * usage: CaptureDump [-c connection] [-n bytes] [-q] file
+ *     -c connection  only the records of the given connection
+ *     -n bytes       render at most the given number of bytes of each payload
+ *     -q             render the record headers only
+ * </pre>
+ * The ring may be dumped while the VM is still writing it: records not
+ * yet complete are marked as such.
+ */
+public class CaptureDump {
+
+    private final ByteBuffer ring;
+    private final int capacity;
+
+    public CaptureDump(File file) throws IOException {
+        try (final RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            final ByteBuffer b = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+            if (f.length() < FILE_HEADER_SIZE || b.getLong(0) != FILE_MAGIC)
+                throw new IOException(format("%s is not a capture file", file));
+
+            capacity = b.getInt(12);
+            b.position(FILE_HEADER_SIZE);
+            ring = b.slice();
+        }
+    }
+
+    /**
+     * Return the offsets of the records, oldest first.  The records of
+     * the current lap start at offset 0; those of the previous lap, when
+     * the ring has wrapped, follow the last record of the current lap
+     * and are found by looking for the first header from which the
+     * records of that lap can be walked up to the end of the ring.
+     */
+    List<Integer> records() {
+        final List<Integer> current = new ArrayList<>();
+        if (!isHeader(0))
+            return current;
+
+        final int lap = ring.getInt(LAP);
+        int end = walk(0, lap, current);
+
+        final List<Integer> result = new ArrayList<>();
+        if (lap > 0) {
+            for (int offset = end; offset + RECORD_HEADER_SIZE <= capacity; offset += 8) {
+                if (isHeader(offset) && ring.getInt(offset + LAP) == lap - 1) {
+                    final List<Integer> previous = new ArrayList<>();
+                    final int last = walk(offset, lap - 1, previous);
+                    if (capacity - last < RECORD_HEADER_SIZE) {
+                        result.addAll(previous);
+                        break;
+                    }
+                }
+            }
+        }
+        result.addAll(current);
+        return result;
+    }
+
+    private int walk(int offset, int lap, List<Integer> records) {
+        while (offset + RECORD_HEADER_SIZE <= capacity && isHeader(offset) && ring.getInt(offset + LAP) == lap) {
+            records.add(offset);
+            offset += ring.getInt(offset + LENGTH);
+        }
+        return offset;
+    }
+
+    private boolean isHeader(int offset) {
+        if (ring.getInt(offset) != RECORD_MAGIC)
+            return false;
+        final int length = ring.getInt(offset + LENGTH);
+        final int payload = ring.getInt(offset + PAYLOAD_LENGTH);
+        return length >= RECORD_HEADER_SIZE && (length & 7) == 0 && offset + length <= capacity
+                && payload >= 0 && RECORD_HEADER_SIZE + payload <= length;
+    }
+
+    /**
+     * Render the records.
+     *
+     * @param out        where to render
+     * @param connection the connection to render, 0 for all
+     * @param maxBytes   bytes of each payload to render, negative for all
+     */
+    public void dump(PrintStream out, int connection, int maxBytes) {
+        for (int offset : records()) {
+            final byte type = ring.get(offset + TYPE);
+            final int id = ring.getInt(offset + CONNECTION);
+            if (type == PADDING || (connection != 0 && connection != id))
+                continue;
+
+            final long micros = ring.getLong(offset + TIMESTAMP);
+            final Instant timestamp = Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1000);
+            final int payload = ring.getInt(offset + PAYLOAD_LENGTH);
+            final int original = ring.getInt(offset + ORIGINAL_LENGTH);
+            final boolean committed = ring.get(offset + COMMITTED) == 1;
+
+            final byte[] data = new byte[payload];
+            final ByteBuffer b = ring.duplicate();
+            b.position(offset + RECORD_HEADER_SIZE);
+            b.get(data);
+
+            switch (type) {
+                case OPEN:
+                    out.printf("%s #%d open %s%n", timestamp, id, new String(data, StandardCharsets.UTF_8));
+                    break;
+                case CLOSE:
+                    out.printf("%s #%d close%n", timestamp, id);
+                    break;
+                default:
+                    out.printf("%s #%d %s %d bytes%s%s%n", timestamp, id, (type == IN) ? "<" : ">", original,
+                            (payload < original) ? format(" (%d captured)", payload) : "",
+                            committed ? "" : " (incomplete)");
+                    hexDump(out, data, (maxBytes < 0) ? payload : Math.min(maxBytes, payload));
+            }
+        }
+    }
+
+    static void hexDump(PrintStream out, byte[] data, int len) {
+        for (int line = 0; line < len; line += 16) {
+            final StringBuilder hex = new StringBuilder();
+            final StringBuilder text = new StringBuilder();
+            for (int i = line; i < line + 16; ++i) {
+                if (i == line + 8)
+                    hex.append(' ');
+                if (i < len) {
+                    final int c = data[i] & 0xFF;
+                    hex.append(format("%02x ", c));
+                    text.append((c >= 0x20 && c < 0x7f) ? (char) c : '.');
+                }
+                else {
+                    hex.append("   ");
+                }
+            }
+            out.printf("  %08x  %s |%s|%n", line, hex, text);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int connection = 0;
+        int maxBytes = -1;
+        String file = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-c":
+                    connection = Integer.parseInt(args[++i]);
+                    break;
+                case "-n":
+                    maxBytes = Integer.parseInt(args[++i]);
+                    break;
+                case "-q":
+                    maxBytes = 0;
+                    break;
+                default:
+                    file = args[i];
+            }
+        }
+
+        if (file == null) {
+            System.err.println("usage: CaptureDump [-c connection] [-n bytes] [-q] file");
+            System.exit(1);
+        }
+
+        new CaptureDump(new File(file)).dump(System.out, connection, maxBytes);
+    }
+}
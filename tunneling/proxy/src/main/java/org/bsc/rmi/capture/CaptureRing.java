@@ -0,0 +1,161 @@
+package org.bsc.rmi.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * CaptureRing appends capture records to a fixed-size memory-mapped file,
+ * overwriting the oldest records once it is full.
+ * <p>
+ * Appending is lock free: a writer reserves the space of its record with
+ * a compare-and-set on the write position, then fills it in without
+ * coordinating with the other writers.  A record never straddles the end
+ * of the ring: when it does not fit, the tail is filled with a padding
+ * record and the record is written at the beginning of the next lap.
+ * <p>
+ * File layout: a {@link #FILE_HEADER_SIZE} bytes header (magic, version,
+ * capacity) followed by the ring.  Every record is 8 bytes aligned and
+ * starts with a {@link #RECORD_HEADER_SIZE} bytes header:
+ * <pre>
+ *     int   magic           {@link #RECORD_MAGIC}
+ *     int   lap             number of times the ring has been filled when the record was written
+ *     int   length          record length, header and padding included
+ *     int   payloadLength   bytes captured
+ *     long  timestamp       microseconds since the epoch
+ *     int   connection      connection id
+ *     int   originalLength  bytes transferred, greater than payloadLength if truncated
+ *     byte  type            see {@link #PADDING}, {@link #OPEN}, {@link #CLOSE}, {@link #IN}, {@link #OUT}
+ *     byte  committed       1 once the record is complete
+ *     6 bytes reserved
+ * </pre>
+ * {@link CaptureDump} renders the content of a ring file.
+ */
+public class CaptureRing implements Closeable {
+
+    public static final long FILE_MAGIC = 0x524d494341503031L; // "RMICAP01"
+    public static final int RECORD_MAGIC = 0x52434150; // "RCAP"
+    public static final int FILE_HEADER_SIZE = 64;
+    public static final int RECORD_HEADER_SIZE = 40;
+
+    public static final byte PADDING = 0, OPEN = 1, CLOSE = 2, IN = 3, OUT = 4;
+
+    static final int LAP = 4, LENGTH = 8, PAYLOAD_LENGTH = 12, TIMESTAMP = 16,
+            CONNECTION = 24, ORIGINAL_LENGTH = 28, TYPE = 32, COMMITTED = 33;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong position = new AtomicLong();
+
+    /**
+     * Create the ring file, replacing any previous one.
+     *
+     * @param f        the file
+     * @param capacity bytes of the ring, rounded down to a multiple of 8
+     */
+    public CaptureRing(File f, int capacity) throws IOException {
+        if (capacity < 4096)
+            throw new IllegalArgumentException(format("capture ring too small: %d", capacity));
+
+        this.capacity = capacity & ~7;
+
+        if (f.exists() && !f.delete())
+            throw new IOException(format("cannot replace capture file %s", f));
+
+        this.file = new RandomAccessFile(f, "rw");
+        this.file.setLength(FILE_HEADER_SIZE + (long) this.capacity);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER_SIZE + (long) this.capacity);
+
+        buffer.putLong(0, FILE_MAGIC);
+        buffer.putInt(8, 1);
+        buffer.putInt(12, this.capacity);
+    }
+
+    /**
+     * @return bytes of the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param type           record type
+     * @param connection     connection id
+     * @param timestamp      microseconds since the epoch
+     * @param b              payload, may be null if <code>len</code> is 0
+     * @param off            payload offset
+     * @param len            bytes of the payload to copy
+     * @param originalLength bytes actually transferred
+     */
+    public void append(byte type, int connection, long timestamp, byte[] b, int off, int len, int originalLength) {
+        final int length = align(RECORD_HEADER_SIZE + len);
+        if (length > capacity)
+            throw new IllegalArgumentException(format("record too big: %d", len));
+
+        long start;
+        while (true) {
+            start = position.get();
+            final int offset = (int) (start % capacity);
+            final int room = capacity - offset;
+            if (room >= length) {
+                if (position.compareAndSet(start, start + length))
+                    break;
+            }
+            else if (position.compareAndSet(start, start + room)) {
+                // fill the tail so that the next record starts the next lap
+                if (room >= RECORD_HEADER_SIZE)
+                    writeHeader(offset, lap(start), room, PADDING, 0, timestamp, 0, 0);
+            }
+        }
+
+        final int offset = (int) (start % capacity);
+        writeHeader(offset, lap(start), length, type, connection, timestamp, len, originalLength);
+        if (len > 0) {
+            final ByteBuffer dst = buffer.duplicate();
+            dst.position(FILE_HEADER_SIZE + offset + RECORD_HEADER_SIZE);
+            dst.put(b, off, len);
+        }
+        buffer.put(FILE_HEADER_SIZE + offset + COMMITTED, (byte) 1);
+    }
+
+    private void writeHeader(int offset, int lap, int length, byte type, int connection, long timestamp, int payloadLength, int originalLength) {
+        final int base = FILE_HEADER_SIZE + offset;
+        buffer.put(base + COMMITTED, (byte) 0);
+        buffer.putInt(base + LAP, lap);
+        buffer.putInt(base + LENGTH, length);
+        buffer.putInt(base + PAYLOAD_LENGTH, payloadLength);
+        buffer.putLong(base + TIMESTAMP, timestamp);
+        buffer.putInt(base + CONNECTION, connection);
+        buffer.putInt(base + ORIGINAL_LENGTH, originalLength);
+        buffer.put(base + TYPE, type);
+        buffer.putInt(base, RECORD_MAGIC);
+        if (type == PADDING)
+            buffer.put(base + COMMITTED, (byte) 1);
+    }
+
+    private int lap(long start) {
+        return (int) (start / capacity);
+    }
+
+    static int align(int n) {
+        return (n + 7) & ~7;
+    }
+
+    /**
+     * Flush the ring to the file and close it.
+     */
+    public void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+}
@@ -0,0 +1,48 @@
+package org.bsc.rmi.capture;
+
+import org.bsc.rmi.trace.Tracer;
+
+/**
+ * CapturedConnection appends the bytes of a sampled connection to the
+ * capture ring.  Instances of the connections that are not sampled do
+ * nothing.
+ */
+public class CapturedConnection {
+
+    private final CaptureRing ring;
+    final int id;
+    private final int snapLength;
+    private volatile boolean closed;
+
+    CapturedConnection(CaptureRing ring, int id, int snapLength) {
+        this.ring = ring;
+        this.id = id;
+        this.snapLength = snapLength;
+    }
+
+    /**
+     * Capture bytes read from the connection.
+     */
+    public void in(byte[] b, int off, int len) {
+        if (ring != null && len > 0)
+            ring.append(CaptureRing.IN, id, Tracer.epochMicros(), b, off, Math.min(len, snapLength), len);
+    }
+
+    /**
+     * Capture bytes written to the connection.
+     */
+    public void out(byte[] b, int off, int len) {
+        if (ring != null && len > 0)
+            ring.append(CaptureRing.OUT, id, Tracer.epochMicros(), b, off, Math.min(len, snapLength), len);
+    }
+
+    /**
+     * Record the closing of the connection.  Closing twice has no effect.
+     */
+    public void close() {
+        if (ring != null && !closed) {
+            closed = true;
+            ring.append(CaptureRing.CLOSE, id, Tracer.epochMicros(), null, 0, 0, 0);
+        }
+    }
+}
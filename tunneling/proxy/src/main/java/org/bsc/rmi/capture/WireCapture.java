@@ -0,0 +1,99 @@
+package org.bsc.rmi.capture;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.trace.Tracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * WireCapture records the raw bytes of a sample of the connections in a
+ * {@link CaptureRing}, to be rendered later by {@link CaptureDump}.
+ * <p>
+ * Capture is enabled by the <code>org.bsc.rmi.capture.file</code>
+ * system property and configured by:
+ * <ul>
+ *     <li><code>org.bsc.rmi.capture.sizeMB</code>: size of the ring, 64 by default</li>
+ *     <li><code>org.bsc.rmi.capture.sampleRate</code>: fraction of the connections captured, 1.0 by default</li>
+ *     <li><code>org.bsc.rmi.capture.snapLength</code>: bytes kept of each read or write, 4096 by default</li>
+ * </ul>
+ * Connections are sampled when they are opened, so a captured connection
+ * is always complete.  The ring is created once and lives as long as the VM.
+ */
+@Log
+public final class WireCapture {
+
+    public static final String FILE_PROPERTY = "org.bsc.rmi.capture.file";
+    public static final String SIZE_PROPERTY = "org.bsc.rmi.capture.sizeMB";
+    public static final String SAMPLE_RATE_PROPERTY = "org.bsc.rmi.capture.sampleRate";
+    public static final String SNAP_LENGTH_PROPERTY = "org.bsc.rmi.capture.snapLength";
+
+    /** returned for the connections that are not captured */
+    private static final CapturedConnection NONE = new CapturedConnection(null, 0, 0);
+
+    private static final AtomicInteger connections = new AtomicInteger();
+
+    private static final CaptureRing ring;
+    private static final double sampleRate;
+    private static final int snapLength;
+
+    static {
+        final String[] config = AccessController.doPrivileged((PrivilegedAction<String[]>) () -> new String[] {
+                System.getProperty(FILE_PROPERTY),
+                System.getProperty(SIZE_PROPERTY, "64"),
+                System.getProperty(SAMPLE_RATE_PROPERTY, "1.0"),
+                System.getProperty(SNAP_LENGTH_PROPERTY, "4096")
+        });
+
+        sampleRate = Double.parseDouble(config[2]);
+        ring = (config[0] == null) ? null : AccessController.doPrivileged((PrivilegedAction<CaptureRing>) () -> {
+            try {
+                final CaptureRing r = new CaptureRing(new File(config[0]), Integer.parseInt(config[1]) * 1024 * 1024);
+                log.info(format("capturing %.0f%% of the connections into %s", sampleRate * 100, config[0]));
+                return r;
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.WARNING, format("wire capture disabled, cannot create %s", config[0]), e);
+                return null;
+            }
+        });
+        // a record must always fit in the ring
+        snapLength = (ring == null) ? 0 : Math.min(Integer.parseInt(config[3]), ring.getCapacity() / 4);
+    }
+
+    private WireCapture() {
+    }
+
+    /**
+     * @return true if capture is enabled
+     */
+    public static boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * Decide whether a new connection is captured and record its opening.
+     *
+     * @param socket the connected socket
+     * @return the capture of the connection, which does nothing if the
+     * connection is not sampled
+     */
+    public static CapturedConnection open(Socket socket) {
+        if (ring == null || (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate))
+            return NONE;
+
+        final CapturedConnection c = new CapturedConnection(ring, connections.incrementAndGet(), snapLength);
+        final byte[] description = format("%s -> %s", socket.getLocalSocketAddress(), socket.getRemoteSocketAddress())
+                .getBytes(StandardCharsets.UTF_8);
+        ring.append(CaptureRing.OPEN, c.id, Tracer.epochMicros(), description, 0, description.length, description.length);
+        return c;
+    }
+}
@@ -0,0 +1,155 @@
+package org.bsc.rmi.client;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.rmi.Remote;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * AsyncStub is a view of a remote stub whose calls return a
+ * {@link CompletableFuture} instead of blocking the caller:
+ * <pre>
+ *   final AsyncStub&lt;SampleRMI&gt; async = AsyncStub.of(stub);
+ *   async.call(SampleRMI::getInfo, 30, TimeUnit.SECONDS).thenAccept(...);
+ * </pre>
+ * The calls run on a virtual thread each when the runtime has them
+ * (Java 21), so that hundreds may wait on the network at once, otherwise
+ * on a shared pool of <code>org.bsc.rmi.client.asyncThreads</code>
+ * daemon threads (64 by default) or the executor given.
+ * <p>
+ * Cancelling the future, or its timeout, interrupts the call or drops it
+ * if it did not start.  The JRMP transport does not notice an interrupt
+ * while it waits for the return: the thread is only given back with the
+ * return, or the read timeout of the socket factory.
+ */
+@Log
+public class AsyncStub<T extends Remote> {
+
+    public static final int DEFAULT_THREADS = Integer.getInteger("org.bsc.rmi.client.asyncThreads", 64);
+
+    /**
+     * A call to a remote method of the stub.
+     */
+    @FunctionalInterface
+    public interface RemoteCall<T, R> {
+        R call(T stub) throws Exception;
+    }
+
+    private static final class Defaults {
+        static final ExecutorService EXECUTOR = defaultExecutor();
+
+        static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "rmi-async-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private final T stub;
+    private final ExecutorService executor;
+
+    private AsyncStub(T stub, ExecutorService executor) {
+        this.stub = stub;
+        this.executor = executor;
+    }
+
+    /**
+     * View a stub, running its calls on virtual threads or the shared pool.
+     */
+    public static <T extends Remote> AsyncStub<T> of(@NonNull T stub) {
+        return new AsyncStub<>(stub, Defaults.EXECUTOR);
+    }
+
+    /**
+     * View a stub, running its calls on the executor given.
+     */
+    public static <T extends Remote> AsyncStub<T> of(@NonNull T stub, @NonNull ExecutorService executor) {
+        return new AsyncStub<>(stub, executor);
+    }
+
+    /**
+     * @return the stub viewed
+     */
+    public T getStub() {
+        return stub;
+    }
+
+    /**
+     * Start a call.
+     *
+     * @return the result, completed exceptionally with the exception of the call
+     */
+    public <R> CompletableFuture<R> call(@NonNull RemoteCall<T, R> call) {
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        final Future<?> task = executor.submit( () -> {
+            if (result.isDone())
+                return;
+            try {
+                result.complete(call.call(stub));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        // completed from outside: cancelled or timed out
+        result.whenComplete( (r, t) -> {
+            if (t != null && !task.isDone())
+                task.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * Start a call, completed with a {@link TimeoutException} if it does
+     * not return in time.
+     */
+    public <R> CompletableFuture<R> call(@NonNull RemoteCall<T, R> call, long timeout, @NonNull TimeUnit unit) {
+        final CompletableFuture<R> result = call(call);
+        final Future<?> timer = Defaults.TIMER.schedule( () -> {
+            if (result.completeExceptionally(new TimeoutException(format("remote call timed out after %d %s", timeout, unit))))
+                log.fine(format("call on %s timed out", stub));
+        }, timeout, unit);
+        result.whenComplete( (r, t) -> timer.cancel(false));
+        return result;
+    }
+
+    /**
+     * @return an executor of a virtual thread by task, or a bounded pool
+     *         of platform threads on runtimes without them
+     */
+    static ExecutorService defaultExecutor() {
+        try {
+            final ExecutorService executor =
+                    (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.fine("remote calls run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.fine(format("remote calls run on %d threads: no virtual threads (%s)", DEFAULT_THREADS, e));
+        }
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread t = new Thread(r, "rmi-async-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncStub[" + stub + "]";
+    }
+}
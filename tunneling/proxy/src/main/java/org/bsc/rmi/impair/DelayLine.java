@@ -0,0 +1,90 @@
+package org.bsc.rmi.impair;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * DelayLine holds the chunks of data in flight on one direction of a
+ * connection and hands them over once they have crossed the link.
+ * <p>
+ * A chunk is put after its bytes have been paced by the bandwidth of
+ * the link, and taken after the latency of the link.  Chunks are never
+ * reordered: with jitter a chunk is not delivered before the previous
+ * one, as with TCP.
+ */
+final class DelayLine {
+
+    /** chunks in flight, beyond which the sender waits */
+    static final int CAPACITY = 1024;
+
+    static final class Chunk {
+        /** the data, null at the end of the stream */
+        final byte[] data;
+        /** the error that ended the stream, if any */
+        final IOException error;
+        final long dueNanos;
+
+        Chunk(byte[] data, IOException error, long dueNanos) {
+            this.data = data;
+            this.error = error;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private final Impairment impairment;
+    private final TokenBucket bandwidth;
+    private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+    private long lastDueNanos;
+
+    /**
+     * @param impairment the link
+     * @param bandwidth  the direction of the link, null if the bandwidth is not capped
+     * @param startNanos time before which nothing is delivered
+     */
+    DelayLine(Impairment impairment, TokenBucket bandwidth, long startNanos) {
+        this.impairment = impairment;
+        this.bandwidth = bandwidth;
+        this.lastDueNanos = startNanos;
+    }
+
+    void put(byte[] b, int off, int len) throws InterruptedIOException {
+        if (bandwidth != null)
+            bandwidth.acquire(len);
+        enqueue(Arrays.copyOfRange(b, off, off + len), null);
+    }
+
+    void end(IOException error) throws InterruptedIOException {
+        enqueue(null, error);
+    }
+
+    private void enqueue(byte[] data, IOException error) throws InterruptedIOException {
+        final long due;
+        synchronized (this) {
+            due = Math.max(lastDueNanos, System.nanoTime() + impairment.nextDelayNanos());
+            lastDueNanos = due;
+        }
+        try {
+            queue.put(new Chunk(data, error, due));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while impaired");
+        }
+    }
+
+    /**
+     * @return the next chunk, once it has crossed the link
+     */
+    Chunk take() throws InterruptedIOException {
+        final Chunk chunk;
+        try {
+            chunk = queue.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while impaired");
+        }
+        TokenBucket.parkUntil(chunk.dueNanos);
+        return chunk;
+    }
+}
@@ -0,0 +1,264 @@
+package org.bsc.rmi.impair;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * ImpairedConnection applies an {@link Impairment} to both directions
+ * of a socket: what the socket sends is delivered to the peer after
+ * crossing the link, and what it receives is handed to the reader after
+ * crossing the link back.
+ * <p>
+ * Each delayed direction has a thread moving the data at the pace of
+ * the link, so a slow link does not block the other direction.
+ */
+@Log
+public class ImpairedConnection {
+
+    private final Socket socket;
+    private final Impairment impairment;
+    private final Impairment.Link link;
+    private final boolean client;
+    private final long openNanos = System.nanoTime();
+
+    private ImpairedInputStream input;
+    private ImpairedOutputStream output;
+    private volatile boolean reset;
+
+    /**
+     * @param socket     the connected socket
+     * @param impairment the link
+     * @param client     true on the client side, which sends upstream
+     */
+    public ImpairedConnection(Socket socket, Impairment impairment, boolean client) {
+        this.socket = socket;
+        this.impairment = impairment;
+        this.link = impairment.link();
+        this.client = client;
+    }
+
+    /**
+     * @param in the input stream of the socket
+     * @return the impaired input stream of the connection, the same for every call
+     */
+    public synchronized InputStream input(InputStream in) {
+        if (input == null) {
+            // the server receives nothing before the connection is set up
+            final long start = client ? openNanos : openNanos + TimeUnit.MILLISECONDS.toNanos(impairment.getConnectMillis());
+            input = new ImpairedInputStream(in, impairment.isDelaying()
+                    ? new DelayLine(impairment, client ? link.downstream : link.upstream, start)
+                    : null);
+        }
+        return input;
+    }
+
+    /**
+     * @param out the output stream of the socket
+     * @return the impaired output stream of the connection, the same for every call
+     */
+    public synchronized OutputStream output(OutputStream out) {
+        if (output == null) {
+            output = new ImpairedOutputStream(out, impairment.isDelaying()
+                    ? new DelayLine(impairment, client ? link.upstream : link.downstream, openNanos)
+                    : null);
+        }
+        return output;
+    }
+
+    /**
+     * Deliver the data still in flight, before the socket is closed.
+     */
+    public void close() {
+        final ImpairedOutputStream o;
+        synchronized (this) {
+            o = output;
+        }
+        if (o != null && !reset)
+            o.drain();
+    }
+
+    private void maybeReset() throws SocketException {
+        if (!impairment.nextReset())
+            return;
+
+        reset = true;
+        log.fine(format("reset %s", socket));
+        try {
+            // abortive close, the peer gets a RST
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } catch (IOException e) {
+            // the connection is lost anyway
+        }
+        throw new SocketException("Connection reset by impairment");
+    }
+
+    private Thread start(Runnable task, String direction) {
+        final Thread t = new Thread(task, format("impairment-%s-%s", direction, socket.getRemoteSocketAddress()));
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    class ImpairedOutputStream extends FilterOutputStream {
+
+        /** null if the data is not delayed */
+        final DelayLine line;
+        final Thread sender;
+        volatile IOException failure;
+
+        ImpairedOutputStream(OutputStream out, DelayLine line) {
+            super(out);
+            this.line = line;
+            this.sender = (line == null) ? null : start(this::send, "out");
+        }
+
+        private void send() {
+            try {
+                for (DelayLine.Chunk chunk = line.take(); chunk.data != null; chunk = line.take()) {
+                    out.write(chunk.data);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            maybeReset();
+            if (line == null) {
+                out.write(b, off, len);
+                return;
+            }
+            if (failure != null)
+                throw failure;
+            line.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // the sender flushes every chunk it delivers
+            if (line == null)
+                out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            out.close();
+        }
+
+        /**
+         * Wait for the data in flight to be delivered, at most for the time it takes to cross the link.
+         */
+        void drain() {
+            if (line == null || !sender.isAlive())
+                return;
+            try {
+                line.end(null);
+                sender.join(impairment.getLatencyMillis() + impairment.getJitterMillis() + 1000);
+            } catch (InterruptedIOException | InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    class ImpairedInputStream extends FilterInputStream {
+
+        /** null if the data is not delayed */
+        final DelayLine line;
+
+        byte[] chunk;
+        int position;
+        boolean eof;
+
+        ImpairedInputStream(InputStream in, DelayLine line) {
+            super(in);
+            this.line = line;
+            if (line != null)
+                start(this::receive, "in");
+        }
+
+        private void receive() {
+            final byte[] buffer = new byte[8192];
+            try {
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                    line.put(buffer, 0, n);
+                line.end(null);
+            } catch (InterruptedIOException e) {
+                // the VM is stopping
+            } catch (IOException e) {
+                try {
+                    line.end(e);
+                } catch (InterruptedIOException ignore) {
+                    // the VM is stopping
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (line == null) {
+                final int n = in.read(b, off, len);
+                if (n > 0)
+                    maybeReset();
+                return n;
+            }
+            if (len == 0)
+                return 0;
+
+            synchronized (this) {
+                if (chunk == null || position == chunk.length) {
+                    if (eof)
+                        return -1;
+                    final DelayLine.Chunk next = line.take();
+                    if (next.error != null)
+                        throw next.error;
+                    if (next.data == null) {
+                        eof = true;
+                        return -1;
+                    }
+                    maybeReset();
+                    chunk = next.data;
+                    position = 0;
+                }
+                final int n = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, n);
+                position += n;
+                return n;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (line == null)
+                return in.available();
+            synchronized (this) {
+                return (chunk == null) ? 0 : chunk.length - position;
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.bsc.rmi.impair;
+
+import lombok.Value;
+
+import java.io.Serializable;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Impairment describes the network link simulated by the impaired
+ * socket factories.
+ * <p>
+ * The default impairment is configured by the system properties:
+ * <ul>
+ *     <li><code>org.bsc.rmi.impair.latencyMs</code>: one-way latency, 0 by default</li>
+ *     <li><code>org.bsc.rmi.impair.jitterMs</code>: the latency varies by up to this much either way, 0 by default</li>
+ *     <li><code>org.bsc.rmi.impair.bandwidthKbit</code>: bandwidth of each direction in kilobits per second, 0 for no cap</li>
+ *     <li><code>org.bsc.rmi.impair.connectMs</code>: connection setup delay, 0 by default</li>
+ *     <li><code>org.bsc.rmi.impair.resetProbability</code>: probability that a read or a write resets the connection, 0 by default</li>
+ * </ul>
+ * The connections impaired alike in a VM share the same link, so the
+ * bandwidth is shared by all of them, like on a WAN.
+ */
+@Value
+public class Impairment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String LATENCY_PROPERTY = "org.bsc.rmi.impair.latencyMs";
+    public static final String JITTER_PROPERTY = "org.bsc.rmi.impair.jitterMs";
+    public static final String BANDWIDTH_PROPERTY = "org.bsc.rmi.impair.bandwidthKbit";
+    public static final String CONNECT_PROPERTY = "org.bsc.rmi.impair.connectMs";
+    public static final String RESET_PROPERTY = "org.bsc.rmi.impair.resetProbability";
+
+    /** the links of the VM, by impairment */
+    private static final ConcurrentMap<Impairment, Link> links = new ConcurrentHashMap<>();
+
+    /** one-way latency, in milliseconds */
+    long latencyMillis;
+
+    /** maximum variation of the latency either way, in milliseconds */
+    long jitterMillis;
+
+    /** bandwidth of each direction, in kilobits per second, 0 for no cap */
+    long bandwidthKbit;
+
+    /** delay of the connection setup, in milliseconds */
+    long connectMillis;
+
+    /** probability that a read or a write resets the connection */
+    double resetProbability;
+
+    /**
+     * @return the impairment configured by the system properties
+     */
+    public static Impairment fromSystemProperties() {
+        final String[] config = AccessController.doPrivileged((PrivilegedAction<String[]>) () -> new String[] {
+                System.getProperty(LATENCY_PROPERTY, "0"),
+                System.getProperty(JITTER_PROPERTY, "0"),
+                System.getProperty(BANDWIDTH_PROPERTY, "0"),
+                System.getProperty(CONNECT_PROPERTY, "0"),
+                System.getProperty(RESET_PROPERTY, "0")
+        });
+        return new Impairment(Long.parseLong(config[0]), Long.parseLong(config[1]), Long.parseLong(config[2]),
+                Long.parseLong(config[3]), Double.parseDouble(config[4]));
+    }
+
+    /**
+     * @return true if the data is delayed, by the latency or by the bandwidth cap
+     */
+    public boolean isDelaying() {
+        return latencyMillis > 0 || jitterMillis > 0 || bandwidthKbit > 0;
+    }
+
+    /**
+     * @return the delay of the next chunk of data, latency and jitter
+     */
+    long nextDelayNanos() {
+        long delay = latencyMillis;
+        if (jitterMillis > 0)
+            delay += ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1);
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+    }
+
+    /**
+     * @return true if the current read or write must reset the connection
+     */
+    boolean nextReset() {
+        return resetProbability > 0 && ThreadLocalRandom.current().nextDouble() < resetProbability;
+    }
+
+    /**
+     * @return the link shared by the connections with this impairment
+     */
+    Link link() {
+        return links.computeIfAbsent(this, Link::new);
+    }
+
+    /**
+     * Link holds the bandwidth of both directions, from the client to
+     * the server and back.
+     */
+    static final class Link {
+        final TokenBucket upstream;
+        final TokenBucket downstream;
+
+        Link(Impairment impairment) {
+            final long bytesPerSecond = impairment.bandwidthKbit * 1000 / 8;
+            upstream = (bytesPerSecond > 0) ? new TokenBucket(bytesPerSecond) : null;
+            downstream = (bytesPerSecond > 0) ? new TokenBucket(bytesPerSecond) : null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.bsc.rmi.impair;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TokenBucket paces the bytes sent on one direction of a link.
+ * <p>
+ * The bucket fills at the bandwidth of the link and holds at most
+ * {@link #BURST_NANOS} worth of it.  A sender takes the tokens of what
+ * it sends even when there are not enough of them, and then waits for
+ * the debt to be paid back, so concurrent senders share the bandwidth
+ * in the order they arrive.
+ */
+final class TokenBucket {
+
+    /** the bucket holds this much time of bandwidth */
+    static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** smallest burst, an ethernet frame */
+    static final long MIN_BURST = 1500;
+
+    private final double bytesPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long lastNanos = System.nanoTime();
+
+    TokenBucket(long bytesPerSecond) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.burst = Math.max(MIN_BURST, bytesPerNano * BURST_NANOS);
+        this.tokens = burst;
+    }
+
+    /**
+     * Take the tokens of the given bytes, waiting for them if needed.
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        final long deadline;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastNanos) * bytesPerNano) - bytes;
+            lastNanos = now;
+            if (tokens >= 0)
+                return;
+            deadline = now + (long) (-tokens / bytesPerNano);
+        }
+        parkUntil(deadline);
+    }
+
+    static void parkUntil(long deadline) throws InterruptedIOException {
+        for (long wait = deadline - System.nanoTime(); wait > 0; wait = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted())
+                throw new InterruptedIOException("interrupted while impaired");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.bsc.rmi.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event emitted by the servlet proxy for every phase
+ * of a forward command: read_body, connect_backend, backend_wait and
+ * write_response.
+ */
+@Name("org.bsc.rmi.ForwardPhase")
+@Label("Forward Phase")
+@Category({"RMI", "Tunnel", "Proxy"})
+@Description("Phase of a call forwarded by the servlet proxy to a backend")
+@StackTrace(false)
+public class ForwardPhaseEvent extends Event implements TunnelEvents.Exchange {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Port")
+    @Description("Backend port the call is forwarded to")
+    public int port;
+
+    @Label("Request Size")
+    @DataAmount
+    public long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    public long responseBytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+    /** tells whether the event type is enabled, without allocating an event */
+    private static final ForwardPhaseEvent TYPE = new ForwardPhaseEvent();
+
+    /**
+     * @return true if a recording has the event enabled
+     */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /**
+     * Create and begin an event for the given phase.
+     */
+    public static ForwardPhaseEvent begin(String phase, int port) {
+        final ForwardPhaseEvent event = new ForwardPhaseEvent();
+        event.begin();
+        event.phase = phase;
+        event.port = port;
+        return event;
+    }
+
+    /**
+     * End the event and commit it if it is enabled and over threshold.
+     */
+    public void complete(long requestBytes, long responseBytes, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.bsc.rmi.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event emitted by the server side of the tunnel while
+ * HttpAwareServerSocket sniffs the first bytes of an accepted
+ * connection to tell HTTP from plain JRMP.
+ */
+@Name("org.bsc.rmi.HttpAccept")
+@Label("HTTP Accept")
+@Category({"RMI", "Tunnel", "Server"})
+@Description("HttpAwareServerSocket accept and protocol sniffing")
+@StackTrace(false)
+public class HttpAcceptEvent extends Event implements TunnelEvents.Accept {
+
+    @Label("Local Port")
+    public int port;
+
+    @Label("Remote Port")
+    public int remotePort;
+
+    @Label("HTTP")
+    @Description("true if the connection starts with a POST")
+    public boolean http;
+
+    @Label("Outcome")
+    public String outcome;
+
+    /** tells whether the event type is enabled, without allocating an event */
+    private static final HttpAcceptEvent TYPE = new HttpAcceptEvent();
+
+    /**
+     * @return true if a recording has the event enabled
+     */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /**
+     * Create and begin an event for a connection accepted on the given port.
+     */
+    public static HttpAcceptEvent begin(int port) {
+        final HttpAcceptEvent event = new HttpAcceptEvent();
+        event.begin();
+        event.port = port;
+        return event;
+    }
+
+    /**
+     * End the event and commit it if it is enabled and over threshold.
+     */
+    public void complete(int remotePort, boolean http, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.remotePort = remotePort;
+            this.http = http;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.bsc.rmi.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event emitted by the server side of the tunnel when
+ * HttpOutputStream sends the buffered HTTP response on close.
+ */
+@Name("org.bsc.rmi.HttpResponse")
+@Label("HTTP Response")
+@Category({"RMI", "Tunnel", "Server"})
+@Description("HttpOutputStream sending the buffered response")
+@StackTrace(false)
+public class HttpResponseEvent extends Event implements TunnelEvents.Response {
+
+    @Label("Local Port")
+    public int port;
+
+    @Label("Response Size")
+    @DataAmount
+    public long responseBytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+    /** tells whether the event type is enabled, without allocating an event */
+    private static final HttpResponseEvent TYPE = new HttpResponseEvent();
+
+    /**
+     * @return true if a recording has the event enabled
+     */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /**
+     * Create and begin an event for a response sent on the given port.
+     */
+    public static HttpResponseEvent begin(int port) {
+        final HttpResponseEvent event = new HttpResponseEvent();
+        event.begin();
+        event.port = port;
+        return event;
+    }
+
+    /**
+     * End the event and commit it if it is enabled and over threshold.
+     */
+    public void complete(long responseBytes, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.responseBytes = responseBytes;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
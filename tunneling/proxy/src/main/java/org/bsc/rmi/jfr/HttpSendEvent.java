@@ -0,0 +1,72 @@
+package org.bsc.rmi.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event emitted by the client side of the tunnel when
+ * the HttpSendSocket opens the HTTP request (writeNotify) and when it
+ * sends the request and waits for the response (readNotify).
+ */
+@Name("org.bsc.rmi.HttpSend")
+@Label("HTTP Send")
+@Category({"RMI", "Tunnel", "Client"})
+@Description("HttpSendSocket request/response notification")
+@StackTrace(false)
+public class HttpSendEvent extends Event implements TunnelEvents.Exchange {
+
+    @Label("Phase")
+    @Description("writeNotify or readNotify")
+    public String phase;
+
+    @Label("Host")
+    public String host;
+
+    @Label("Port")
+    public int port;
+
+    @Label("Request Size")
+    @DataAmount
+    public long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    public long responseBytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+    /** tells whether the event type is enabled, without allocating an event */
+    private static final HttpSendEvent TYPE = new HttpSendEvent();
+
+    /**
+     * @return true if a recording has the event enabled
+     */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /**
+     * Create and begin an event for the given phase.
+     */
+    public static HttpSendEvent begin(String phase, String host, int port) {
+        final HttpSendEvent event = new HttpSendEvent();
+        event.begin();
+        event.phase = phase;
+        event.host = host;
+        event.port = port;
+        return event;
+    }
+
+    /**
+     * End the event and commit it if it is enabled and over threshold.
+     */
+    public void complete(long requestBytes, long responseBytes, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
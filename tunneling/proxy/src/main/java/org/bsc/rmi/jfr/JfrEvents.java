@@ -0,0 +1,60 @@
+package org.bsc.rmi.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JfrEvents holds everything linking against <code>jdk.jfr</code>, only
+ * used by {@link TunnelEvents} once the flight recorder is known to be
+ * there.
+ * <p>
+ * Registering an event requires a permission that the threads of the
+ * RMI runtime don't have (connections are served with no permission
+ * at all), so the events are registered eagerly, in a privileged block,
+ * by the classes that set the tunnel up.
+ * <p>
+ * An event is only allocated when a recording has its type enabled,
+ * the tunnel gets the shared no-op event otherwise.
+ */
+final class JfrEvents {
+
+    static final List<Class<? extends Event>> EVENTS = Arrays.asList(
+            HttpSendEvent.class,
+            ForwardPhaseEvent.class,
+            HttpAcceptEvent.class,
+            HttpResponseEvent.class);
+
+    static {
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            EVENTS.forEach(FlightRecorder::register);
+            return null;
+        });
+    }
+
+    private JfrEvents() {}
+
+    static void register() {
+        // registration is done once by the static initializer
+    }
+
+    static TunnelEvents.Exchange httpSend(String phase, String host, int port) {
+        return HttpSendEvent.isTypeEnabled() ? HttpSendEvent.begin(phase, host, port) : TunnelEvents.Noop.INSTANCE;
+    }
+
+    static TunnelEvents.Exchange forwardPhase(String phase, int port) {
+        return ForwardPhaseEvent.isTypeEnabled() ? ForwardPhaseEvent.begin(phase, port) : TunnelEvents.Noop.INSTANCE;
+    }
+
+    static TunnelEvents.Accept httpAccept(int port) {
+        return HttpAcceptEvent.isTypeEnabled() ? HttpAcceptEvent.begin(port) : TunnelEvents.Noop.INSTANCE;
+    }
+
+    static TunnelEvents.Response httpResponse(int port) {
+        return HttpResponseEvent.isTypeEnabled() ? HttpResponseEvent.begin(port) : TunnelEvents.Noop.INSTANCE;
+    }
+}
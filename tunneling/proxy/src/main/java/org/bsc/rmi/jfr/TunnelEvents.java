@@ -0,0 +1,101 @@
+package org.bsc.rmi.jfr;
+
+import lombok.extern.java.Log;
+
+/**
+ * TunnelEvents creates the flight recorder events of the tunnel, and
+ * registers them.
+ * <p>
+ * The events link against <code>jdk.jfr</code>, which a Java 8 runtime
+ * before 8u262 does not have: the tunnel only sees them through the
+ * interfaces below, and gets events which record nothing when the
+ * flight recorder is missing.  The event classes are only loaded, by
+ * {@link JfrEvents}, once the flight recorder is known to be there.
+ */
+@Log
+public final class TunnelEvents {
+
+    /**
+     * An event of a connection accepted by the server side.
+     */
+    public interface Accept {
+        void complete(int remotePort, boolean http, String outcome);
+    }
+
+    /**
+     * An event of a response sent by the server side.
+     */
+    public interface Response {
+        void complete(long responseBytes, String outcome);
+    }
+
+    /**
+     * An event of a request and its response, on the client side or in the proxy.
+     */
+    public interface Exchange {
+        void complete(long requestBytes, long responseBytes, String outcome);
+    }
+
+    /** the events recording nothing */
+    static final class Noop implements Accept, Response, Exchange {
+        static final Noop INSTANCE = new Noop();
+
+        public void complete(int remotePort, boolean http, String outcome) {}
+
+        public void complete(long responseBytes, String outcome) {}
+
+        public void complete(long requestBytes, long responseBytes, String outcome) {}
+    }
+
+    /** true if the runtime has the flight recorder */
+    static final boolean AVAILABLE = isAvailable();
+
+    private TunnelEvents() {}
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, TunnelEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.info("no flight recorder in this runtime, the tunnel events are off");
+            return false;
+        }
+    }
+
+    /**
+     * Make sure the tunnel events are registered.  Calling it more than
+     * once, or without flight recorder, is harmless.
+     */
+    public static void register() {
+        if (AVAILABLE)
+            JfrEvents.register();
+    }
+
+    /**
+     * @see HttpSendEvent
+     */
+    public static Exchange httpSend(String phase, String host, int port) {
+        return AVAILABLE ? JfrEvents.httpSend(phase, host, port) : Noop.INSTANCE;
+    }
+
+    /**
+     * @see ForwardPhaseEvent
+     */
+    public static Exchange forwardPhase(String phase, int port) {
+        return AVAILABLE ? JfrEvents.forwardPhase(phase, port) : Noop.INSTANCE;
+    }
+
+    /**
+     * @see HttpAcceptEvent
+     */
+    public static Accept httpAccept(int port) {
+        return AVAILABLE ? JfrEvents.httpAccept(port) : Noop.INSTANCE;
+    }
+
+    /**
+     * @see HttpResponseEvent
+     */
+    public static Response httpResponse(int port) {
+        return AVAILABLE ? JfrEvents.httpResponse(port) : Noop.INSTANCE;
+    }
+}
@@ -0,0 +1,92 @@
+package org.bsc.rmi.jrmp;
+
+import java.util.Optional;
+
+import static java.lang.String.format;
+
+/**
+ * CallHeader is the header of a JRMP call message: the object number of
+ * the remote object, the operation and the method hash, read from the
+ * block data starting the call serialization stream.
+ */
+public final class CallHeader {
+
+    private final long objNum;
+    private final int op;
+    private final long hash;
+
+    CallHeader(long objNum, int op, long hash) {
+        this.objNum = objNum;
+        this.op = op;
+        this.hash = hash;
+    }
+
+    /**
+     * Parse the header of a call message.
+     *
+     * @param b      the bytes of the message
+     * @param offset the offset of the message type byte in b
+     * @param length the number of bytes of the message in b
+     * @return the header, empty if the bytes do not start a call
+     */
+    public static Optional<CallHeader> parse(byte[] b, int offset, int length) {
+        final int end = offset + length;
+        if (length < 1 || (b[offset] & 0xFF) != JrmpDecoder.CALL)
+            return Optional.empty();
+
+        // stream magic and version, then the block data holding the header
+        int pos = offset + 1;
+        if (pos + 5 > end || (b[pos] & 0xFF) != 0xAC || (b[pos + 1] & 0xFF) != 0xED)
+            return Optional.empty();
+        pos += 4;
+        switch (b[pos] & 0xFF) {
+            case JrmpDecoder.TC_BLOCKDATA:
+                pos += 2;
+                break;
+            case JrmpDecoder.TC_BLOCKDATALONG:
+                pos += 5;
+                break;
+            default:
+                return Optional.empty();
+        }
+        if (pos + JrmpDecoder.CALL_HEADER_SIZE > end)
+            return Optional.empty();
+
+        return Optional.of(new CallHeader(JrmpDecoder.readLong(b, pos),
+                                          JrmpDecoder.readInt(b, pos + 22),
+                                          JrmpDecoder.readLong(b, pos + 26)));
+    }
+
+    /**
+     * @return the object number of the remote object, random unless well known
+     */
+    public long getObjNum() {
+        return objNum;
+    }
+
+    /**
+     * @return the operation number, -1 for the stubs of the 1.2 protocol
+     */
+    public int getOp() {
+        return op;
+    }
+
+    /**
+     * @return the method hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the label of the method, see {@link MethodNames}
+     */
+    public String getLabel() {
+        return MethodNames.label(objNum, op, hash);
+    }
+
+    @Override
+    public String toString() {
+        return format("%d#%016x %s", objNum, hash, getLabel());
+    }
+}
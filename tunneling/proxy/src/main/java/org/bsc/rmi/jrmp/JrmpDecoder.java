@@ -0,0 +1,591 @@
+package org.bsc.rmi.jrmp;
+
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * JrmpDecoder follows the two directions of a JRMP connection and
+ * attributes its bytes and latency to the remote methods invoked.
+ * <p>
+ * The decoder recognises the transport header and the protocol
+ * acknowledgment, the call headers (object number, operation and method
+ * hash, the first bytes of the call serialization stream), ping and DGC
+ * acknowledgment messages and the normal or exceptional return headers.
+ * The arguments and results are not deserialized: the bytes following
+ * a header are only counted, so decoding a large payload costs nothing
+ * more than an addition.  Calls are recorded in {@link JrmpStats} once
+ * the next message starts or the connection is closed.
+ * <p>
+ * A {@link Listener} may be given to also receive every call with the
+ * bytes of its request, which are then kept until the call completes.
+ * <p>
+ * The multiplex protocol is not decoded: its bytes are counted as
+ * <code>&lt;undecoded&gt;</code>.  A decoder is not thread safe by
+ * design but its methods are synchronized, since the two directions of
+ * a connection may be fed by different threads.
+ */
+@Log
+public class JrmpDecoder implements Closeable {
+
+    static final int STREAM_PROTOCOL = 0x4b;
+    static final int SINGLE_OP_PROTOCOL = 0x4c;
+    static final int PROTOCOL_ACK = 0x4e;
+
+    static final int CALL = 0x50;
+    static final int RETURN = 0x51;
+    static final int PING = 0x52;
+    static final int PING_ACK = 0x53;
+    static final int DGC_ACK = 0x54;
+
+    static final int TC_BLOCKDATA = 0x77;
+    static final int TC_BLOCKDATALONG = 0x7a;
+    static final int TC_PROXYCLASSDESC = 0x7d;
+
+    static final int EXCEPTIONAL_RETURN = 2;
+
+    /** call header in the block data: ObjID (objNum long + UID 14 bytes), op int, hash long */
+    static final int CALL_HEADER_SIZE = 8 + 14 + 4 + 8;
+
+    /** return header in the block data: return type byte, UID 14 bytes */
+    static final int RETURN_HEADER_SIZE = 1 + 14;
+
+    /** bytes of each return kept to discover the remote interfaces of the returned stubs */
+    static final int CAPTURE_SIZE = 1024;
+
+    static final String TRANSPORT = "<transport>";
+    static final String UNDECODED = "<undecoded>";
+
+    /**
+     * Listener notified of every decoded call.
+     */
+    public interface Listener {
+
+        /**
+         * @param side         the side of the decoder
+         * @param method       label of the method invoked
+         * @param startNanos   {@link System#nanoTime()} when the call started
+         * @param latencyNanos time until the last byte of the return, -1 if there was no return
+         * @param request      the call message, from its type byte to the last argument byte
+         * @param responseBytes size of the return message
+         * @param exception    true if the return is exceptional
+         */
+        void onCall(String side, String method, long startNanos, long latencyNanos,
+                    byte[] request, long responseBytes, boolean exception);
+    }
+
+    /**
+     * a message and the bytes attributed to it
+     */
+    static final class Exchange {
+        String method;
+        final boolean expectsResponse;
+        final long startNanos = System.nanoTime();
+        long lastResponseNanos = -1;
+        long requestBytes;
+        long responseBytes;
+        boolean exception;
+        byte[] capture;
+        int captured;
+        ByteArrayOutputStream request;
+
+        Exchange(String method, boolean expectsResponse) {
+            this.method = method;
+            this.expectsResponse = expectsResponse;
+        }
+    }
+
+    private final JrmpStats stats;
+    private final String side;
+    private final Listener listener;
+    private final RequestParser requests = new RequestParser();
+    private final ResponseParser responses = new ResponseParser();
+
+    private Exchange current;
+    private long transportBytes;
+
+    /**
+     * @param stats where the decoded calls are recorded
+     * @param side  <code>client</code>, <code>server</code> or <code>proxy</code>
+     */
+    public JrmpDecoder(JrmpStats stats, String side) {
+        this(stats, side, null);
+    }
+
+    /**
+     * @param stats    where the decoded calls are recorded
+     * @param side     <code>client</code>, <code>server</code> or <code>proxy</code>
+     * @param listener notified of every call with its request bytes, may be null
+     */
+    public JrmpDecoder(JrmpStats stats, String side, Listener listener) {
+        this.stats = stats;
+        this.side = side;
+        this.listener = listener;
+    }
+
+    /**
+     * Decode bytes sent by the client to the server.
+     */
+    public synchronized void onRequest(byte[] b, int off, int len) {
+        if (len > 0)
+            requests.feed(b, off, len);
+    }
+
+    /**
+     * Decode bytes sent by the server to the client.
+     */
+    public synchronized void onResponse(byte[] b, int off, int len) {
+        if (len > 0) {
+            if (current != null && current.expectsResponse)
+                current.lastResponseNanos = System.nanoTime();
+            responses.feed(b, off, len);
+        }
+    }
+
+    /**
+     * @return a stream reading from <code>in</code>, decoding the bytes read with {@link #onRequest}
+     */
+    public InputStream requestTap(InputStream in) {
+        return new RequestTap(in);
+    }
+
+    /**
+     * @return a stream writing to <code>out</code>, decoding the bytes written with {@link #onResponse}
+     */
+    public OutputStream responseTap(OutputStream out) {
+        return new ResponseTap(out);
+    }
+
+    /**
+     * Record the message in progress and the transport bytes.  Closing
+     * twice has no effect.
+     */
+    public synchronized void close() {
+        finish();
+        if (transportBytes > 0) {
+            stats.record(side, TRANSPORT, false, transportBytes, 0, -1);
+            transportBytes = 0;
+        }
+    }
+
+    private void start(String method, boolean expectsResponse) {
+        finish();
+        current = new Exchange(method, expectsResponse);
+    }
+
+    private void finish() {
+        final Exchange e = current;
+        if (e == null)
+            return;
+        current = null;
+
+        final long nanos = (e.lastResponseNanos >= 0) ? e.lastResponseNanos - e.startNanos : -1;
+        stats.record(side, e.method, e.exception, e.requestBytes, e.responseBytes, nanos);
+
+        if (e.capture != null)
+            discoverInterfaces(e.capture, e.captured);
+
+        if (e.request != null)
+            listener.onCall(side, e.method, e.startNanos, nanos, e.request.toByteArray(), e.responseBytes, e.exception);
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(format("%s %s request=%d response=%d exception=%b latency=%.3fms",
+                    side, e.method, e.requestBytes, e.responseBytes, e.exception, nanos / 1e6));
+        }
+    }
+
+    private void undecoded() {
+        start(UNDECODED, false);
+        requests.opaque();
+        responses.opaque();
+    }
+
+    /**
+     * Register the remote interfaces named in the proxy class descriptors
+     * found in the first bytes of a return, those of the stubs returned.
+     */
+    static void discoverInterfaces(byte[] b, int len) {
+        for (int i = 0; i + 5 <= len; ++i) {
+            if ((b[i] & 0xFF) != TC_PROXYCLASSDESC)
+                continue;
+
+            final int count = readInt(b, i + 1);
+            if (count < 1 || count > 64)
+                continue;
+
+            int pos = i + 5;
+            for (int n = 0; n < count && pos + 2 <= len; ++n) {
+                final int utfLen = ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+                pos += 2;
+                if (utfLen == 0 || pos + utfLen > len || !isClassName(b, pos, utfLen))
+                    break;
+                MethodNames.register(new String(b, pos, utfLen, StandardCharsets.ISO_8859_1));
+                pos += utfLen;
+            }
+        }
+    }
+
+    private static boolean isClassName(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; ++i) {
+            final char c = (char) (b[i] & 0xFF);
+            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '$'))
+                return false;
+        }
+        return true;
+    }
+
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    static long readLong(byte[] b, int off) {
+        return ((long) readInt(b, off) << 32) | (readInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Parser is the state machine of one direction.  It either collects
+     * the few bytes of a header in a scratch buffer, skips a known number
+     * of bytes or counts the bytes of a body, and calls {@link #step()}
+     * every time the bytes it was waiting for are there.
+     */
+    abstract class Parser {
+
+        static final int COLLECT = 0, SKIP = 1, BODY = 2, OPAQUE = 3;
+
+        /** state of the boundary between two messages */
+        static final int BOUNDARY = 0;
+
+        final byte[] scratch = new byte[64];
+        int mode;
+        int state;
+        int have;
+        int need;
+        long skip;
+        /** collected bytes not counted yet */
+        int pending;
+
+        void feed(byte[] b, int off, int len) {
+            final int end = off + len;
+            while (off < end) {
+                final int n;
+                switch (mode) {
+                    case COLLECT:
+                        n = Math.min(need - have, end - off);
+                        System.arraycopy(b, off, scratch, have, n);
+                        have += n;
+                        off += n;
+                        pending += n;
+                        if (have == need) {
+                            // the header bytes belong to the message it starts
+                            final int from = have - pending;
+                            final int collected = pending;
+                            pending = 0;
+                            step();
+                            count(scratch, from, collected);
+                        }
+                        break;
+                    case SKIP:
+                        n = (int) Math.min(skip, end - off);
+                        skip -= n;
+                        count(b, off, n);
+                        off += n;
+                        if (skip == 0)
+                            step();
+                        break;
+                    default:
+                        count(b, off, end - off);
+                        off = end;
+                }
+            }
+        }
+
+        /** wait for <code>n</code> bytes, forgetting those already collected */
+        void collect(int state, int n) {
+            this.mode = COLLECT;
+            this.state = state;
+            this.have = 0;
+            this.need = n;
+        }
+
+        /** wait for <code>n</code> more bytes, keeping those already collected */
+        void collectMore(int state, int n) {
+            this.mode = COLLECT;
+            this.state = state;
+            this.need = have + n;
+        }
+
+        void skip(int state, long n) {
+            this.mode = SKIP;
+            this.state = state;
+            this.skip = n;
+            if (n == 0)
+                step();
+        }
+
+        void boundary() {
+            if (mode != OPAQUE)
+                collect(BOUNDARY, 1);
+        }
+
+        void body() {
+            mode = BODY;
+        }
+
+        void opaque() {
+            mode = OPAQUE;
+        }
+
+        /** check that the collected bytes start a serialization stream and a block data */
+        boolean isBlockDataStart() {
+            return (scratch[0] & 0xFF) == 0xAC && (scratch[1] & 0xFF) == 0xED
+                    && ((scratch[4] & 0xFF) == TC_BLOCKDATA || (scratch[4] & 0xFF) == TC_BLOCKDATALONG);
+        }
+
+        abstract void step();
+
+        abstract void count(byte[] b, int off, int n);
+    }
+
+    /**
+     * Parser of the client to server direction.
+     */
+    final class RequestParser extends Parser {
+
+        static final int START = 1, HEADER = 2, ENDPOINT_LENGTH = 3, ENDPOINT_HOST = 4, ENDPOINT_PORT = 5,
+                CALL_STREAM = 6, CALL_LONG_BLOCK = 7, CALL_HEADER = 8, DGC_UID = 9;
+
+        RequestParser() {
+            collect(START, 1);
+        }
+
+        void step() {
+            switch (state) {
+                case START:
+                    if (scratch[0] == 'J')
+                        collectMore(HEADER, 6);
+                    else
+                        message(scratch[0] & 0xFF);
+                    break;
+                case HEADER:
+                    if (scratch[1] != 'R' || scratch[2] != 'M' || scratch[3] != 'I')
+                        undecoded();
+                    else if (scratch[6] == STREAM_PROTOCOL)
+                        collect(ENDPOINT_LENGTH, 2);
+                    else if (scratch[6] == SINGLE_OP_PROTOCOL)
+                        boundary();
+                    else
+                        undecoded();
+                    break;
+                case ENDPOINT_LENGTH:
+                    skip(ENDPOINT_HOST, ((scratch[0] & 0xFF) << 8) | (scratch[1] & 0xFF));
+                    break;
+                case ENDPOINT_HOST:
+                    collect(ENDPOINT_PORT, 4);
+                    break;
+                case ENDPOINT_PORT:
+                    boundary();
+                    break;
+                case BOUNDARY:
+                    message(scratch[0] & 0xFF);
+                    break;
+                case CALL_STREAM:
+                    if (!isBlockDataStart())
+                        undecoded();
+                    else if ((scratch[4] & 0xFF) == TC_BLOCKDATA)
+                        collect(CALL_HEADER, CALL_HEADER_SIZE);
+                    else
+                        collectMore(CALL_LONG_BLOCK, 3);
+                    break;
+                case CALL_LONG_BLOCK:
+                    collect(CALL_HEADER, CALL_HEADER_SIZE);
+                    break;
+                case CALL_HEADER:
+                    current.method = MethodNames.label(readLong(scratch, 0), readInt(scratch, 22), readLong(scratch, 26));
+                    body();
+                    break;
+                case DGC_UID:
+                    boundary();
+                    break;
+            }
+        }
+
+        private void message(int type) {
+            switch (type) {
+                case CALL:
+                    start("<call>", true);
+                    if (listener != null)
+                        current.request = new ByteArrayOutputStream();
+                    responses.boundary();
+                    collect(CALL_STREAM, 6);
+                    break;
+                case PING:
+                    start("<ping>", true);
+                    responses.boundary();
+                    boundary();
+                    break;
+                case DGC_ACK:
+                    start("<dgcAck>", false);
+                    collect(DGC_UID, 14);
+                    break;
+                default:
+                    undecoded();
+            }
+        }
+
+        void count(byte[] b, int off, int n) {
+            final Exchange e = current;
+            if (e == null) {
+                transportBytes += n;
+                return;
+            }
+            e.requestBytes += n;
+
+            if (e.request != null)
+                e.request.write(b, off, n);
+        }
+    }
+
+    /**
+     * Parser of the server to client direction.
+     */
+    final class ResponseParser extends Parser {
+
+        static final int ACK_LENGTH = 1, ACK_HOST = 2, ACK_PORT = 3,
+                RETURN_STREAM = 4, RETURN_LONG_BLOCK = 5, RETURN_HEADER = 6;
+
+        ResponseParser() {
+            boundary();
+        }
+
+        void step() {
+            switch (state) {
+                case BOUNDARY:
+                    switch (scratch[0] & 0xFF) {
+                        case PROTOCOL_ACK:
+                            collect(ACK_LENGTH, 2);
+                            break;
+                        case RETURN:
+                            collect(RETURN_STREAM, 6);
+                            break;
+                        case PING_ACK:
+                            requests.boundary();
+                            boundary();
+                            break;
+                        default:
+                            undecoded();
+                    }
+                    break;
+                case ACK_LENGTH:
+                    skip(ACK_HOST, ((scratch[0] & 0xFF) << 8) | (scratch[1] & 0xFF));
+                    break;
+                case ACK_HOST:
+                    collect(ACK_PORT, 4);
+                    break;
+                case ACK_PORT:
+                    boundary();
+                    break;
+                case RETURN_STREAM:
+                    if (!isBlockDataStart())
+                        undecoded();
+                    else if ((scratch[4] & 0xFF) == TC_BLOCKDATA)
+                        collect(RETURN_HEADER, RETURN_HEADER_SIZE);
+                    else
+                        collectMore(RETURN_LONG_BLOCK, 3);
+                    break;
+                case RETURN_LONG_BLOCK:
+                    collect(RETURN_HEADER, RETURN_HEADER_SIZE);
+                    break;
+                case RETURN_HEADER:
+                    if (current != null)
+                        current.exception = (scratch[0] == EXCEPTIONAL_RETURN);
+                    requests.boundary();
+                    body();
+                    break;
+            }
+        }
+
+        void count(byte[] b, int off, int n) {
+            final Exchange e = current;
+            if (e == null) {
+                transportBytes += n;
+                return;
+            }
+            e.responseBytes += n;
+
+            if (b != scratch && mode == BODY && e.captured < CAPTURE_SIZE) {
+                if (e.capture == null)
+                    e.capture = new byte[CAPTURE_SIZE];
+                final int c = Math.min(n, CAPTURE_SIZE - e.captured);
+                System.arraycopy(b, off, e.capture, e.captured, c);
+                e.captured += c;
+            }
+        }
+    }
+
+    /**
+     * OutputStream feeding one direction of the decoder.
+     */
+    private final class RequestTap extends FilterInputStream {
+
+        RequestTap(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0)
+                onRequest(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if (n > 0)
+                onRequest(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final byte[] b = new byte[(int) Math.min(n, 8192)];
+            final int read = read(b, 0, b.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private final class ResponseTap extends FilterOutputStream {
+
+        ResponseTap(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            onResponse(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            onResponse(b, off, len);
+        }
+    }
+}
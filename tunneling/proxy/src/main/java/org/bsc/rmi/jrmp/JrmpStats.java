@@ -0,0 +1,127 @@
+package org.bsc.rmi.jrmp;
+
+import org.bsc.rmi.metrics.LatencyHistogram;
+import org.bsc.rmi.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * JrmpStats aggregates the calls decoded by the {@link JrmpDecoder}s per
+ * remote method: number of calls and of exceptions, request and response
+ * bytes and latency.
+ * <p>
+ * The values are kept in a {@link MetricsRegistry}, so they are exported
+ * along with the other tunnel metrics as
+ * <code>rmi_jrmp_calls_total</code>, <code>rmi_jrmp_exceptions_total</code>,
+ * <code>rmi_jrmp_request_bytes_total</code>, <code>rmi_jrmp_response_bytes_total</code>
+ * and <code>rmi_jrmp_call_seconds</code>, labelled by <code>side</code>
+ * (client, server or proxy) and <code>method</code>.
+ * <p>
+ * Only methods resolved by {@link MethodNames} get labels of their own,
+ * at most {@link #MAX_METHODS} of them; the others are counted under
+ * {@link MethodNames#UNKNOWN}.
+ */
+public class JrmpStats {
+
+    /** most methods labelled, every side included */
+    static final int MAX_METHODS = 1024;
+
+    private static final JrmpStats DEFAULT = new JrmpStats(MetricsRegistry.getDefault());
+
+    /**
+     * @return the statistics shared by the whole VM
+     */
+    public static JrmpStats getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * the counters of a remote method seen from one side of the tunnel
+     */
+    static final class MethodStats {
+        final String side;
+        final String method;
+        final LongAdder calls;
+        final LongAdder exceptions;
+        final LongAdder requestBytes;
+        final LongAdder responseBytes;
+        final LatencyHistogram latency;
+
+        MethodStats(MetricsRegistry metrics, String side, String method) {
+            this.side = side;
+            this.method = method;
+            this.calls = metrics.counter("rmi_jrmp_calls_total", "side", side, "method", method);
+            this.exceptions = metrics.counter("rmi_jrmp_exceptions_total", "side", side, "method", method);
+            this.requestBytes = metrics.counter("rmi_jrmp_request_bytes_total", "side", side, "method", method);
+            this.responseBytes = metrics.counter("rmi_jrmp_response_bytes_total", "side", side, "method", method);
+            this.latency = metrics.histogram("rmi_jrmp_call_seconds", "side", side, "method", method);
+        }
+
+        long bytes() {
+            return requestBytes.sum() + responseBytes.sum();
+        }
+    }
+
+    private final MetricsRegistry metrics;
+    private final ConcurrentMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+
+    public JrmpStats(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Record a decoded message.
+     *
+     * @param side          client, server or proxy
+     * @param method        method name, see {@link MethodNames#label}
+     * @param exception     true if the call returned an exception
+     * @param requestBytes  bytes of the request, headers included
+     * @param responseBytes bytes of the response, headers included
+     * @param nanos         latency, negative if unknown
+     */
+    void record(String side, String method, boolean exception, long requestBytes, long responseBytes, long nanos) {
+        MethodStats m = methods.get(side + ' ' + method);
+        if (m == null) {
+            final String label = (methods.size() < MAX_METHODS) ? method : MethodNames.UNKNOWN;
+            m = methods.computeIfAbsent(side + ' ' + label, k -> new MethodStats(metrics, side, label));
+        }
+        m.calls.increment();
+        if (exception)
+            m.exceptions.increment();
+        m.requestBytes.add(requestBytes);
+        m.responseBytes.add(responseBytes);
+        if (nanos >= 0)
+            m.latency.record(nanos);
+    }
+
+    /**
+     * Write a human readable table of the methods of every side, sorted
+     * by their share of the bytes of that side.
+     */
+    public void writeReport(Appendable out) throws IOException {
+        final List<MethodStats> all = new ArrayList<>(methods.values());
+        all.sort((a, b) -> (a.side.equals(b.side)) ? Long.compare(b.bytes(), a.bytes()) : a.side.compareTo(b.side));
+
+        String side = null;
+        long sideBytes = 0;
+        for (MethodStats m : all) {
+            if (!m.side.equals(side)) {
+                side = m.side;
+                sideBytes = all.stream().filter(s -> s.side.equals(m.side)).mapToLong(MethodStats::bytes).sum();
+                out.append(format("%n%s%n%-40s %10s %10s %14s %14s %7s %12s %12s%n", side,
+                        "method", "calls", "exceptions", "request bytes", "response bytes", "share", "p50 ms", "p99 ms"));
+            }
+            out.append(format("%-40s %10d %10d %14d %14d %6.1f%% %12.3f %12.3f%n",
+                    m.method, m.calls.sum(), m.exceptions.sum(), m.requestBytes.sum(), m.responseBytes.sum(),
+                    (sideBytes == 0) ? 0.0 : 100.0 * m.bytes() / sideBytes,
+                    m.latency.getValueAtPercentile(50) / 1e6, m.latency.getValueAtPercentile(99) / 1e6));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.bsc.rmi.jrmp;
+
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.rmi.Remote;
+import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivilegedAction;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * MethodNames maps the method hashes sent in the JRMP call headers back
+ * to <code>Interface.method</code> names.
+ * <p>
+ * Remote interfaces are registered explicitly with {@link #register(Class)},
+ * through the comma separated <code>org.bsc.rmi.jrmp.interfaces</code>
+ * system property, or discovered by the {@link JrmpDecoder} in the proxy
+ * class descriptors of the stubs returned by the calls (a registry
+ * <code>lookup</code> for instance) when the interface can be loaded.
+ * <p>
+ * The hashes and class names come from the wire: the methods that do not
+ * resolve share the {@link #UNKNOWN} label, and at most
+ * {@link #MAX_INTERFACES} interface names are tried, so that a peer
+ * cannot grow the names, nor the metrics labelled by them, without limit.
+ */
+@Log
+public final class MethodNames {
+
+    public static final String INTERFACES_PROPERTY = "org.bsc.rmi.jrmp.interfaces";
+
+    /** label of the methods that do not resolve to <code>Interface.method</code> */
+    public static final String UNKNOWN = "<unknown>";
+
+    /** most interface names tried, registered or not */
+    static final int MAX_INTERFACES = 1024;
+
+    /** well known object numbers of <code>java.rmi.server.ObjID</code> */
+    static final long REGISTRY_ID = 0, DGC_ID = 2;
+
+    private static final String[] REGISTRY_OPS = { "bind", "list", "lookup", "rebind", "unbind" };
+    private static final String[] DGC_OPS = { "clean", "dirty" };
+
+    private static final Map<Long, String> names = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> known = new ConcurrentHashMap<>();
+
+    static {
+        final String interfaces = AccessController.doPrivileged(
+                (PrivilegedAction<String>) () -> System.getProperty(INTERFACES_PROPERTY));
+        if (interfaces != null) {
+            for (String name : interfaces.split(","))
+                if (!name.trim().isEmpty())
+                    register(name.trim());
+        }
+    }
+
+    private MethodNames() {
+    }
+
+    /**
+     * Register the methods of a remote interface.
+     *
+     * @param remoteInterface the interface
+     */
+    public static void register(Class<?> remoteInterface) {
+        if (isFull(remoteInterface.getName()) || known.putIfAbsent(remoteInterface.getName(), Boolean.TRUE) != null)
+            return;
+
+        for (Method m : remoteInterface.getMethods()) {
+            names.putIfAbsent(computeMethodHash(m),
+                    format("%s.%s", remoteInterface.getSimpleName(), m.getName()));
+        }
+        log.fine(format("registered remote interface %s", remoteInterface.getName()));
+    }
+
+    /**
+     * Register the remote interface with the given name, if it can be
+     * loaded.  Names already tried are ignored, as are new names once
+     * {@link #MAX_INTERFACES} have been tried.
+     *
+     * @param className the interface name
+     */
+    static void register(String className) {
+        if (known.containsKey(className) || isFull(className))
+            return;
+
+        final Class<?> c = AccessController.doPrivileged((PrivilegedAction<Class<?>>) () -> {
+            try {
+                final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                return Class.forName(className, false, (loader != null) ? loader : MethodNames.class.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError e) {
+                return null;
+            }
+        });
+
+        if (c != null && c.isInterface() && Remote.class.isAssignableFrom(c))
+            register(c);
+        else
+            known.putIfAbsent(className, Boolean.FALSE);
+    }
+
+    private static boolean isFull(String className) {
+        if (known.size() < MAX_INTERFACES)
+            return false;
+        log.fine(format("%d remote interfaces tried already, %s ignored", MAX_INTERFACES, className));
+        return true;
+    }
+
+    /**
+     * Return the name of the method invoked by a call.
+     *
+     * @param objNum object number of the target
+     * @param op     operation number, -1 for the stubs using method hashes
+     * @param hash   method hash, or interface hash when <code>op</code> is not -1
+     * @return <code>Interface.method</code>, or {@link #UNKNOWN} if the method is unknown
+     */
+    static String label(long objNum, int op, long hash) {
+        if (objNum == REGISTRY_ID && op >= 0 && op < REGISTRY_OPS.length)
+            return "Registry.".concat(REGISTRY_OPS[op]);
+        if (objNum == DGC_ID && op >= 0 && op < DGC_OPS.length)
+            return "DGC.".concat(DGC_OPS[op]);
+        if (op >= 0)
+            return UNKNOWN;
+
+        final String name = names.get(hash);
+        return (name != null) ? name : UNKNOWN;
+    }
+
+    /**
+     * Compute the method hash as <code>sun.rmi.server.Util</code> does: the
+     * first eight bytes, little endian, of the SHA-1 of the method name
+     * and descriptor written with <code>writeUTF</code>.
+     */
+    static long computeMethodHash(Method m) {
+        try {
+            final ByteArrayOutputStream sink = new ByteArrayOutputStream(128);
+            final DataOutputStream out = new DataOutputStream(sink);
+            out.writeUTF(m.getName().concat(methodDescriptor(m)));
+            out.flush();
+
+            final byte[] digest = MessageDigest.getInstance("SHA").digest(sink.toByteArray());
+            long hash = 0;
+            for (int i = 0; i < Math.min(8, digest.length); i++)
+                hash += ((long) (digest[i] & 0xFF)) << (i * 8);
+            return hash;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.log(Level.WARNING, format("error computing hash of %s", m), e);
+            return 0;
+        }
+    }
+
+    private static String methodDescriptor(Method m) {
+        final StringBuilder sb = new StringBuilder("(");
+        for (Class<?> p : m.getParameterTypes())
+            sb.append(typeDescriptor(p));
+        return sb.append(')').append(typeDescriptor(m.getReturnType())).toString();
+    }
+
+    private static String typeDescriptor(Class<?> type) {
+        if (type == Integer.TYPE) return "I";
+        if (type == Boolean.TYPE) return "Z";
+        if (type == Byte.TYPE) return "B";
+        if (type == Character.TYPE) return "C";
+        if (type == Short.TYPE) return "S";
+        if (type == Long.TYPE) return "J";
+        if (type == Float.TYPE) return "F";
+        if (type == Double.TYPE) return "D";
+        if (type == Void.TYPE) return "V";
+        if (type.isArray())
+            return "[".concat(typeDescriptor(type.getComponentType()));
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+}
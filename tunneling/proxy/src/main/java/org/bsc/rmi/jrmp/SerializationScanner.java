@@ -0,0 +1,369 @@
+package org.bsc.rmi.jrmp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * SerializationScanner walks a Java serialization stream, following the
+ * grammar of the Object Serialization Specification, to find where its
+ * elements end: every byte read is copied to a sink and nothing is
+ * deserialized, no class is loaded.
+ * <p>
+ * The JRMP stream protocol does not frame its messages, the end of a
+ * return is the end of its serialization stream; a proxy reusing the
+ * connection must tell it from the grammar.
+ * <p>
+ * The class descriptors are kept to know the layout of the objects and
+ * arrays.  As the specification requires, a class with a
+ * <code>writeObject</code> method is expected to write its fields first.
+ * The data of an externalizable object is only delimited in block data
+ * mode, the default since protocol version 2; RMI still marshals with
+ * protocol version 1, where a StreamCorruptedException tells that the
+ * stream cannot be followed further.
+ */
+public class SerializationScanner {
+
+    static final short STREAM_MAGIC = (short) 0xaced;
+    static final short STREAM_VERSION = 5;
+
+    static final int TC_NULL = 0x70;
+    static final int TC_REFERENCE = 0x71;
+    static final int TC_CLASSDESC = 0x72;
+    static final int TC_OBJECT = 0x73;
+    static final int TC_STRING = 0x74;
+    static final int TC_ARRAY = 0x75;
+    static final int TC_CLASS = 0x76;
+    static final int TC_BLOCKDATA = 0x77;
+    static final int TC_ENDBLOCKDATA = 0x78;
+    static final int TC_RESET = 0x79;
+    static final int TC_BLOCKDATALONG = 0x7a;
+    static final int TC_EXCEPTION = 0x7b;
+    static final int TC_LONGSTRING = 0x7c;
+    static final int TC_PROXYCLASSDESC = 0x7d;
+    static final int TC_ENUM = 0x7e;
+
+    static final int BASE_HANDLE = 0x7e0000;
+
+    static final int SC_WRITE_METHOD = 0x01;
+    static final int SC_SERIALIZABLE = 0x02;
+    static final int SC_EXTERNALIZABLE = 0x04;
+    static final int SC_BLOCK_DATA = 0x08;
+
+    /**
+     * Layout of the instances of a class, as given by its descriptor.
+     */
+    static class ClassDesc {
+        final String name;
+        int flags;
+        /** size of the primitive fields */
+        int primitiveBytes;
+        /** number of object fields */
+        int objectFields;
+        ClassDesc superDesc;
+
+        ClassDesc(String name) {
+            this.name = name;
+        }
+    }
+
+    /** stands for the objects of the handle table which are not class descriptors */
+    private static final Object OBJECT = new Object();
+
+    private final InputStream in;
+    private final OutputStream sink;
+    private final List<Object> handles = new ArrayList<>();
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * @param in   the stream, which must support mark
+     * @param sink where the bytes read are copied
+     */
+    public SerializationScanner(InputStream in, OutputStream sink) {
+        if (!in.markSupported())
+            throw new IllegalArgumentException("the stream must support mark");
+        this.in = in;
+        this.sink = sink;
+    }
+
+    /**
+     * @return the next byte of the stream, without reading it, -1 at the end of stream
+     */
+    public int peek() throws IOException {
+        in.mark(1);
+        final int b = in.read();
+        in.reset();
+        return b;
+    }
+
+    /**
+     * Read the magic number and the version of the stream.
+     */
+    public void readStreamHeader() throws IOException {
+        if (readShort() != STREAM_MAGIC || readShort() != STREAM_VERSION)
+            throw new StreamCorruptedException("invalid serialization stream header");
+    }
+
+    /**
+     * Read the next element of the stream: block data, or an object and
+     * everything it refers to.
+     */
+    public void readContent() throws IOException {
+        final int tc = readByte();
+        switch (tc) {
+            case TC_BLOCKDATA:
+                copy(readByte());
+                break;
+            case TC_BLOCKDATALONG:
+                copy(readInt() & 0xFFFFFFFFL);
+                break;
+            default:
+                readObject(tc);
+        }
+    }
+
+    private void readObject() throws IOException {
+        readObject(readByte());
+    }
+
+    private void readObject(int tc) throws IOException {
+        while (tc == TC_RESET) {
+            handles.clear();
+            tc = readByte();
+        }
+
+        switch (tc) {
+            case TC_NULL:
+                break;
+            case TC_REFERENCE:
+                handle(readInt());
+                break;
+            case TC_CLASSDESC:
+            case TC_PROXYCLASSDESC:
+                readClassDesc(tc);
+                break;
+            case TC_CLASS:
+                readClassDesc(readByte());
+                handles.add(OBJECT);
+                break;
+            case TC_STRING:
+                handles.add(OBJECT);
+                copy(readShort() & 0xFFFF);
+                break;
+            case TC_LONGSTRING:
+                handles.add(OBJECT);
+                copy(readLong());
+                break;
+            case TC_ENUM:
+                readClassDesc(readByte());
+                handles.add(OBJECT);
+                readObject();
+                break;
+            case TC_ARRAY:
+                readArray();
+                break;
+            case TC_OBJECT:
+                readOrdinaryObject();
+                break;
+            case TC_EXCEPTION:
+                handles.clear();
+                readObject();
+                handles.clear();
+                break;
+            default:
+                throw new StreamCorruptedException(format("invalid type code: 0x%02x", tc));
+        }
+    }
+
+    /**
+     * @param tc the type code of the class descriptor, already read
+     * @return the class descriptor, null for TC_NULL
+     */
+    private ClassDesc readClassDesc(int tc) throws IOException {
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE: {
+                final Object desc = handle(readInt());
+                if (!(desc instanceof ClassDesc))
+                    throw new StreamCorruptedException("reference to a class descriptor expected");
+                return (ClassDesc) desc;
+            }
+            case TC_CLASSDESC: {
+                final ClassDesc desc = new ClassDesc(readUTF());
+                readLong();     // serialVersionUID
+                handles.add(desc);
+                desc.flags = readByte();
+                final int count = readShort();
+                for (int i = 0; i < count; ++i) {
+                    final char type = (char) readByte();
+                    readUTF();
+                    final int size = primitiveSize(type);
+                    if (size > 0) {
+                        desc.primitiveBytes += size;
+                    } else {
+                        readObject();       // the class name of the field
+                        ++desc.objectFields;
+                    }
+                }
+                readAnnotation();
+                desc.superDesc = readClassDesc(readByte());
+                return desc;
+            }
+            case TC_PROXYCLASSDESC: {
+                final ClassDesc desc = new ClassDesc("<proxy>");
+                handles.add(desc);
+                desc.flags = SC_SERIALIZABLE;
+                final int count = readInt();
+                for (int i = 0; i < count; ++i)
+                    readUTF();
+                readAnnotation();
+                desc.superDesc = readClassDesc(readByte());
+                return desc;
+            }
+            default:
+                throw new StreamCorruptedException(format("invalid class descriptor type code: 0x%02x", tc));
+        }
+    }
+
+    private void readArray() throws IOException {
+        final ClassDesc desc = readClassDesc(readByte());
+        if (desc == null || desc.name.length() < 2 || desc.name.charAt(0) != '[')
+            throw new StreamCorruptedException("array class descriptor expected");
+        handles.add(OBJECT);
+
+        final int length = readInt();
+        final int size = primitiveSize(desc.name.charAt(1));
+        if (size > 0) {
+            copy((long) length * size);
+        } else {
+            for (int i = 0; i < length; ++i)
+                readObject();
+        }
+    }
+
+    private void readOrdinaryObject() throws IOException {
+        final ClassDesc desc = readClassDesc(readByte());
+        if (desc == null)
+            throw new StreamCorruptedException("class descriptor expected");
+        handles.add(OBJECT);
+
+        // the data of the superclasses come first
+        final Deque<ClassDesc> hierarchy = new ArrayDeque<>();
+        for (ClassDesc d = desc; d != null; d = d.superDesc)
+            hierarchy.push(d);
+
+        for (ClassDesc d : hierarchy) {
+            if ((d.flags & SC_EXTERNALIZABLE) != 0) {
+                if ((d.flags & SC_BLOCK_DATA) == 0)
+                    throw new StreamCorruptedException(format("%s is externalized without block data", d.name));
+                readAnnotation();
+            } else if ((d.flags & SC_SERIALIZABLE) != 0) {
+                copy(d.primitiveBytes);
+                for (int i = 0; i < d.objectFields; ++i)
+                    readObject();
+                if ((d.flags & SC_WRITE_METHOD) != 0)
+                    readAnnotation();
+            }
+        }
+    }
+
+    /**
+     * Read the elements written by annotateClass, writeObject or
+     * writeExternal, up to TC_ENDBLOCKDATA.
+     */
+    private void readAnnotation() throws IOException {
+        while (peek() != TC_ENDBLOCKDATA)
+            readContent();
+        readByte();
+    }
+
+    private Object handle(int handle) throws IOException {
+        final int index = handle - BASE_HANDLE;
+        if (index < 0 || index >= handles.size())
+            throw new StreamCorruptedException(format("invalid handle: 0x%x", handle));
+        return handles.get(index);
+    }
+
+    /**
+     * @return the size of a primitive field or array element, 0 for an object
+     */
+    static int primitiveSize(char type) throws StreamCorruptedException {
+        switch (type) {
+            case 'B':
+            case 'Z':
+                return 1;
+            case 'C':
+            case 'S':
+                return 2;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'J':
+            case 'D':
+                return 8;
+            case 'L':
+            case '[':
+                return 0;
+            default:
+                throw new StreamCorruptedException(format("invalid field type code: %c", type));
+        }
+    }
+
+    private int readByte() throws IOException {
+        final int b = in.read();
+        if (b < 0)
+            throw new EOFException();
+        sink.write(b);
+        return b;
+    }
+
+    private int readShort() throws IOException {
+        return (short) ((readByte() << 8) | readByte());
+    }
+
+    private int readInt() throws IOException {
+        return (readShort() << 16) | (readShort() & 0xFFFF);
+    }
+
+    private long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    private String readUTF() throws IOException {
+        final int length = readShort() & 0xFFFF;
+        final byte[] b = new byte[length];
+        readFully(b, length);
+        sink.write(b, 0, length);
+        // the modified UTF-8 of the class names only differs on the NUL character
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private void readFully(byte[] b, int length) throws IOException {
+        for (int off = 0; off < length; ) {
+            final int n = in.read(b, off, length - off);
+            if (n < 0)
+                throw new EOFException();
+            off += n;
+        }
+    }
+
+    private void copy(long length) throws IOException {
+        while (length > 0) {
+            final int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (n < 0)
+                throw new EOFException();
+            sink.write(buffer, 0, n);
+            length -= n;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.bsc.rmi.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * CountingInputStream counts the bytes, the calls and the time blocked
+ * reading from a socket into its {@link SocketCounters}.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final SocketCounters counters;
+
+    public CountingInputStream(InputStream in, SocketCounters counters) {
+        super(in);
+        this.counters = counters;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long start = System.nanoTime();
+        final int result = in.read();
+        counters.onRead((result < 0) ? 0 : 1, System.nanoTime() - start);
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final long start = System.nanoTime();
+        final int result = in.read(b, off, len);
+        counters.onRead(result, System.nanoTime() - start);
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long start = System.nanoTime();
+        final long result = in.skip(n);
+        counters.onRead((int) result, System.nanoTime() - start);
+        return result;
+    }
+}
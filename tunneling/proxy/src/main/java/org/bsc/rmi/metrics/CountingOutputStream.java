@@ -0,0 +1,31 @@
+package org.bsc.rmi.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * CountingOutputStream counts the bytes and the calls written to a
+ * socket into its {@link SocketCounters}.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private final SocketCounters counters;
+
+    public CountingOutputStream(OutputStream out, SocketCounters counters) {
+        super(out);
+        this.counters = counters;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        counters.onWrite(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        counters.onWrite(len);
+    }
+}
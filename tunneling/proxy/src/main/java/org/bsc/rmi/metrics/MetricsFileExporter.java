@@ -0,0 +1,93 @@
+package org.bsc.rmi.metrics;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * MetricsFileExporter periodically appends a JSON snapshot of a
+ * {@link MetricsRegistry} as a single line of a file.
+ * <p>
+ * Files are rolled like the <code>java.util.logging.FileHandler</code>
+ * does: once the current file exceeds <code>limitBytes</code> it is
+ * renamed to <code>file.1</code>, <code>file.1</code> to <code>file.2</code>
+ * and so on, keeping at most <code>count</code> files.
+ */
+@Log
+public class MetricsFileExporter implements Closeable {
+
+    private final MetricsRegistry registry;
+    private final File file;
+    private final long limitBytes;
+    private final int count;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "metrics-file-exporter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param registry      the registry to export
+     * @param file          the file to append the snapshots to
+     * @param periodSeconds seconds between two snapshots
+     * @param limitBytes    size beyond which the file is rolled
+     * @param count         number of files to keep
+     */
+    public MetricsFileExporter(MetricsRegistry registry, File file, long periodSeconds, long limitBytes, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException(format("invalid file count: %d", count));
+
+        this.registry = registry;
+        this.file = file;
+        this.limitBytes = limitBytes;
+        this.count = count;
+
+        scheduler.scheduleAtFixedRate(this::export, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        log.info(format("exporting metrics to %s every %d seconds", file, periodSeconds));
+    }
+
+    /**
+     * Append a snapshot of the registry to the file, rolling it if needed.
+     */
+    public synchronized void export() {
+        try {
+            if (file.length() > limitBytes)
+                roll();
+
+            try (final Writer out = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+                registry.writeJson(out);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, format("error exporting metrics to %s", file), e);
+        }
+    }
+
+    private void roll() {
+        new File(file.getPath() + "." + (count - 1)).delete();
+        for (int i = count - 2; i >= 1; --i) {
+            new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        if (count > 1)
+            file.renameTo(new File(file.getPath() + ".1"));
+        else
+            file.delete();
+    }
+
+    /**
+     * Stop exporting, writing a last snapshot.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        export();
+    }
+}
@@ -0,0 +1,199 @@
+package org.bsc.rmi.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * MetricsRegistry keeps the counters, gauges and latency histograms of
+ * the tunnel and renders them in Prometheus text format or as JSON.
+ * <p>
+ * A metric is identified by its name and by an optional list of label
+ * pairs, given as <code>"key1", "value1", "key2", "value2" ...</code>.
+ * Looking a metric up builds its key, so code on the hot path should
+ * keep the returned instance instead of looking it up on every call.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /**
+     * @return the registry shared by the whole VM
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /** quantiles exported for every histogram */
+    static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** JSON field names of {@link #QUANTILES} */
+    static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    /**
+     * a registered metric: its name, its labels and the value holder
+     */
+    static final class Metric<T> {
+        final String name;
+        final String[] pairs;
+        final String labels;
+        final T value;
+
+        Metric(String name, String[] pairs, T value) {
+            this.name = name;
+            this.pairs = pairs.clone();
+            this.labels = labels(pairs);
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentMap<String, Metric<LongAdder>> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Metric<LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Metric<Supplier<? extends Number>>> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Return the counter with the given name and labels, creating it if needed.
+     */
+    public LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(key(name, labels), k -> new Metric<>(name, labels, new LongAdder())).value;
+    }
+
+    /**
+     * Return the histogram with the given name and labels, creating it if needed.
+     */
+    public LatencyHistogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(key(name, labels), k -> new Metric<>(name, labels, new LatencyHistogram())).value;
+    }
+
+    /**
+     * Register (or replace) a gauge whose value is read when the metrics are rendered.
+     */
+    public void gauge(String name, Supplier<? extends Number> supplier, String... labels) {
+        gauges.put(key(name, labels), new Metric<>(name, labels, supplier));
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format.
+     * Histogram values are exported in seconds as summaries.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        final Map<String, Metric<LongAdder>> sortedCounters = new TreeMap<>(counters);
+        String type = null;
+        for (Metric<LongAdder> m : sortedCounters.values()) {
+            if (!m.name.equals(type)) {
+                out.append(format("# TYPE %s counter\n", m.name));
+                type = m.name;
+            }
+            out.append(format("%s%s %d\n", m.name, braces(m.labels), m.value.sum()));
+        }
+
+        final Map<String, Metric<Supplier<? extends Number>>> sortedGauges = new TreeMap<>(gauges);
+        for (Metric<Supplier<? extends Number>> m : sortedGauges.values()) {
+            if (!m.name.equals(type)) {
+                out.append(format("# TYPE %s gauge\n", m.name));
+                type = m.name;
+            }
+            out.append(format("%s%s %s\n", m.name, braces(m.labels), m.value.get()));
+        }
+
+        final Map<String, Metric<LatencyHistogram>> sortedHistograms = new TreeMap<>(histograms);
+        for (Metric<LatencyHistogram> m : sortedHistograms.values()) {
+            if (!m.name.equals(type)) {
+                out.append(format("# TYPE %s summary\n", m.name));
+                type = m.name;
+            }
+            final String sep = m.labels.isEmpty() ? "" : ",";
+            for (double q : QUANTILES) {
+                out.append(format("%s{%s%squantile=\"%s\"} %s\n",
+                        m.name, m.labels, sep, q, seconds(m.value.getValueAtPercentile(q * 100))));
+            }
+            out.append(format("%s_sum%s %s\n", m.name, braces(m.labels), seconds(m.value.getSum())));
+            out.append(format("%s_count%s %d\n", m.name, braces(m.labels), m.value.getCount()));
+        }
+    }
+
+    /**
+     * Render every metric as a JSON document.  Histogram values are
+     * exported in seconds.
+     */
+    public void writeJson(Appendable out) throws IOException {
+        out.append("{\"timestamp\":").append(String.valueOf(System.currentTimeMillis()));
+
+        out.append(",\"counters\":[");
+        String sep = "";
+        for (Metric<LongAdder> m : new TreeMap<>(counters).values()) {
+            out.append(sep).append(jsonHead(m)).append(",\"value\":").append(String.valueOf(m.value.sum())).append('}');
+            sep = ",";
+        }
+
+        out.append("],\"gauges\":[");
+        sep = "";
+        for (Metric<Supplier<? extends Number>> m : new TreeMap<>(gauges).values()) {
+            out.append(sep).append(jsonHead(m)).append(",\"value\":").append(String.valueOf(m.value.get())).append('}');
+            sep = ",";
+        }
+
+        out.append("],\"histograms\":[");
+        sep = "";
+        for (Metric<LatencyHistogram> m : new TreeMap<>(histograms).values()) {
+            final LatencyHistogram h = m.value;
+            out.append(sep).append(jsonHead(m))
+                    .append(",\"count\":").append(String.valueOf(h.getCount()))
+                    .append(",\"sum\":").append(seconds(h.getSum()))
+                    .append(",\"mean\":").append(seconds((long) h.getMean()))
+                    .append(",\"max\":").append(seconds(h.getMax()));
+            for (int i = 0; i < QUANTILES.length; ++i) {
+                out.append(",\"").append(QUANTILE_NAMES[i]).append("\":")
+                        .append(seconds(h.getValueAtPercentile(QUANTILES[i] * 100)));
+            }
+            out.append('}');
+            sep = ",";
+        }
+        out.append("]}");
+    }
+
+    private static String jsonHead(Metric<?> m) {
+        final StringBuilder sb = new StringBuilder("{\"name\":\"").append(m.name).append("\",\"labels\":{");
+        for (int i = 0; i < m.pairs.length; i += 2) {
+            if (i > 0)
+                sb.append(',');
+            sb.append('"').append(escape(m.pairs[i])).append("\":\"").append(escape(m.pairs[i + 1])).append('"');
+        }
+        return sb.append("}").toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String key(String name, String... labels) {
+        return name + "{" + String.join(",", labels) + "}";
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("labels must be given as key/value pairs");
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,113 @@
+package org.bsc.rmi.metrics;
+
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SocketCounters counts the traffic of a single connection.  Every
+ * update is applied both to the connection and to the {@link SocketStats}
+ * of the factory that created it, so that the factory totals include
+ * the connections still open.
+ * <p>
+ * Counters are striped {@link LongAdder}s: the reader and the writer of
+ * a connection, usually two different threads, never contend.
+ */
+public class SocketCounters {
+
+    private static final int NONE = 0, READ = 1, WRITE = 2;
+
+    private final SocketStats stats;
+    private final String remote;
+    private final long openedMillis = System.currentTimeMillis();
+    private final long openedNanos = System.nanoTime();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder reads = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final LongAdder readBlockedNanos = new LongAdder();
+    final LongAdder turnarounds = new LongAdder();
+
+    /** direction of the last transfer, only used to count the turnarounds */
+    private volatile int direction = NONE;
+
+    SocketCounters(SocketStats stats, Socket socket) {
+        this.stats = stats;
+        this.remote = String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    /**
+     * Count a read call.
+     *
+     * @param bytes        bytes returned by the call, 0 at end of stream
+     * @param blockedNanos time spent in the call
+     */
+    public void onRead(int bytes, long blockedNanos) {
+        reads.increment();
+        stats.reads.increment();
+        readBlockedNanos.add(blockedNanos);
+        stats.readBlockedNanos.add(blockedNanos);
+        if (bytes > 0) {
+            bytesIn.add(bytes);
+            stats.bytesIn.add(bytes);
+            turn(READ);
+        }
+    }
+
+    /**
+     * Count a write call.
+     *
+     * @param bytes bytes written by the call
+     */
+    public void onWrite(int bytes) {
+        writes.increment();
+        stats.writes.increment();
+        bytesOut.add(bytes);
+        stats.bytesOut.add(bytes);
+        turn(WRITE);
+    }
+
+    private void turn(int d) {
+        if (direction != d) {
+            if (direction != NONE)
+                turnarounds.increment();
+            direction = d;
+        }
+    }
+
+    /**
+     * Return how many times the connection has been reused.  A connection
+     * carrying <i>n</i> request/response exchanges turns around 2<i>n</i>-1
+     * times, so it has been reused <i>n</i>-1 times.
+     */
+    public long getReuseCount() {
+        return Math.max(0, (turnarounds.sum() + 1) / 2 - 1);
+    }
+
+    /**
+     * @return nanoseconds elapsed since the connection was opened
+     */
+    public long getAgeNanos() {
+        return System.nanoTime() - openedNanos;
+    }
+
+    /**
+     * Mark the connection closed, folding its lifetime and reuse count
+     * into the factory statistics.  Closing twice has no effect.
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true))
+            stats.closed(this);
+    }
+
+    /**
+     * @return a snapshot of the counters
+     */
+    public SocketStats.ConnectionInfo snapshot() {
+        return new SocketStats.ConnectionInfo(remote, openedMillis,
+                bytesIn.sum(), bytesOut.sum(), reads.sum(), writes.sum(),
+                readBlockedNanos.sum() / 1_000_000, getReuseCount());
+    }
+}
@@ -0,0 +1,200 @@
+package org.bsc.rmi.metrics;
+
+import lombok.Value;
+import lombok.extern.java.Log;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * SocketStats aggregates the {@link SocketCounters} of every connection
+ * created by a socket factory and exposes them through JMX.
+ * <p>
+ * Client socket factories are serialized along with the stubs, so a VM
+ * usually holds many instances of the same factory: statistics are
+ * therefore shared by name, see {@link #forName(String)}.
+ */
+@Log
+public class SocketStats implements SocketStatsMXBean {
+
+    private static final ConcurrentMap<String, SocketStats> ALL = new ConcurrentHashMap<>();
+
+    /**
+     * Return the statistics with the given name, creating and
+     * registering its MBean on the platform MBean server if needed.
+     *
+     * @param name usually the simple name of the socket factory
+     */
+    public static SocketStats forName(String name) {
+        return ALL.computeIfAbsent(name, SocketStats::new);
+    }
+
+    /**
+     * Snapshot of an open connection, exported as composite data.
+     */
+    @Value
+    public static class ConnectionInfo {
+        String remote;
+        long openedMillis;
+        long bytesIn;
+        long bytesOut;
+        long reads;
+        long writes;
+        long readBlockedMillis;
+        long reuses;
+    }
+
+    private final String name;
+
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder reads = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final LongAdder readBlockedNanos = new LongAdder();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder closedReuses = new LongAdder();
+    private final LatencyHistogram lifetime = new LatencyHistogram();
+    private final Set<SocketCounters> active = ConcurrentHashMap.newKeySet();
+
+    private SocketStats(String name) {
+        this.name = name;
+
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(this, new ObjectName("org.bsc.rmi:type=SocketStats,name=" + ObjectName.quote(name)));
+            } catch (Exception e) {
+                log.log(Level.WARNING, format("error registering socket stats %s", name), e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Start counting a new connection.
+     *
+     * @param socket the connected socket
+     * @return the counters of the connection, to be closed with the socket
+     */
+    public SocketCounters open(Socket socket) {
+        final SocketCounters counters = new SocketCounters(this, socket);
+        opened.increment();
+        active.add(counters);
+        return counters;
+    }
+
+    void closed(SocketCounters counters) {
+        if (active.remove(counters)) {
+            closed.increment();
+            closedReuses.add(counters.getReuseCount());
+            lifetime.record(counters.getAgeNanos());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return opened.sum();
+    }
+
+    @Override
+    public long getConnectionsActive() {
+        return active.size();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return closed.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public double getMeanBytesPerRead() {
+        final long n = reads.sum();
+        return (n == 0) ? 0 : (double) bytesIn.sum() / n;
+    }
+
+    @Override
+    public double getMeanBytesPerWrite() {
+        final long n = writes.sum();
+        return (n == 0) ? 0 : (double) bytesOut.sum() / n;
+    }
+
+    @Override
+    public long getReadBlockedMillis() {
+        return readBlockedNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getReuses() {
+        return closedReuses.sum() + active.stream().mapToLong(SocketCounters::getReuseCount).sum();
+    }
+
+    @Override
+    public double getLifetimeMillisMean() {
+        return lifetime.getMean() / 1e6;
+    }
+
+    @Override
+    public double getLifetimeMillisP50() {
+        return lifetime.getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getLifetimeMillisP99() {
+        return lifetime.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getLifetimeMillisMax() {
+        return lifetime.getMax() / 1e6;
+    }
+
+    @Override
+    public List<ConnectionInfo> getConnections() {
+        return active.stream().map(SocketCounters::snapshot).collect(toList());
+    }
+
+    public String toString() {
+        return format("SocketStats[%s,opened=%d,active=%d,in=%d,out=%d,reads=%d,writes=%d,reuses=%d]",
+                name, getConnectionsOpened(), getConnectionsActive(), getBytesIn(), getBytesOut(),
+                getReads(), getWrites(), getReuses());
+    }
+}
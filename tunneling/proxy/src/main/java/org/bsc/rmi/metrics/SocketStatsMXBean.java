@@ -0,0 +1,49 @@
+package org.bsc.rmi.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface of the {@link SocketStats} of a socket factory,
+ * registered as <code>org.bsc.rmi:type=SocketStats,name=&lt;factory&gt;</code>.
+ */
+public interface SocketStatsMXBean {
+
+    String getName();
+
+    long getConnectionsOpened();
+
+    long getConnectionsActive();
+
+    long getConnectionsClosed();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getReads();
+
+    long getWrites();
+
+    /** mean bytes returned by a read call, useful to size the receive buffers */
+    double getMeanBytesPerRead();
+
+    /** mean bytes given to a write call, useful to size the send buffers */
+    double getMeanBytesPerWrite();
+
+    /** total time the readers of the connections have been blocked */
+    long getReadBlockedMillis();
+
+    /** number of request/response exchanges that reused an open connection */
+    long getReuses();
+
+    double getLifetimeMillisMean();
+
+    double getLifetimeMillisP50();
+
+    double getLifetimeMillisP99();
+
+    double getLifetimeMillisMax();
+
+    /** one entry for each open connection */
+    List<SocketStats.ConnectionInfo> getConnections();
+}
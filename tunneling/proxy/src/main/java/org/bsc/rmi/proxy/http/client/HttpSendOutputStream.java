@@ -20,6 +20,9 @@ class HttpSendOutputStream extends FilterOutputStream {
     /** the HttpSendSocket object that is providing this stream */
     final HttpSendSocket owner;
 
+    /** bytes written since the stream has been activated */
+    private long bytesWritten = 0;
+
     /**
      * Create new filter on a given output stream.
      * @param out the OutputStream to filter from
@@ -41,6 +44,15 @@ class HttpSendOutputStream extends FilterOutputStream {
     public void deactivate()
     {
         out = null;
+        bytesWritten = 0;
+    }
+
+    /**
+     * Return the number of bytes written since the stream has been activated.
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
     }
 
     /**
@@ -55,6 +67,7 @@ class HttpSendOutputStream extends FilterOutputStream {
         log.info( format("write [%d] [%c]", b, b) );
 
         out.write(b);
+        ++bytesWritten;
     }
 
     /**
@@ -73,6 +86,7 @@ class HttpSendOutputStream extends FilterOutputStream {
         log.info( format("write( bytes, [%d] [%d]", off, len) );
 
         out.write(b, off, len);
+        bytesWritten += len;
     }
 
     /**
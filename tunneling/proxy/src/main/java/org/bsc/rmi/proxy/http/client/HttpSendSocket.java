@@ -1,9 +1,15 @@
 package org.bsc.rmi.proxy.http.client;
 
 import lombok.extern.java.Log;
+import org.bsc.rmi.jfr.TunnelEvents;
 import org.bsc.rmi.proxy.http.RMISocketInfo;
+import org.bsc.rmi.trace.Span;
+import org.bsc.rmi.trace.TraceContext;
+import org.bsc.rmi.trace.Tracer;
 
 import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.net.*;
 import java.security.PrivilegedAction;
 import java.util.logging.Level;
@@ -31,6 +37,9 @@ import static java.lang.String.format;
 @Log
 class HttpSendSocket extends Socket implements RMISocketInfo {
 
+    /** constructor of the sockets created by {@link #open(String, int, URL)} */
+    private static final Constructor<? extends HttpSendSocket> constructor = constructor();
+
     /** the host to connect to */
     protected String host;
 
@@ -55,6 +64,9 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
     /** the notifying output stream returned to users */
     protected final HttpSendOutputStream outNotifier;
 
+    /** the span of the request in progress */
+    private Span span;
+
     /**
      * Line separator string.  This is the value of the line.separator
      * property at the moment that the socket was created.
@@ -73,6 +85,8 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
     {
         super((SocketImpl)null);        // no underlying SocketImpl for this object
 
+        TunnelEvents.register();
+
         log.info( format("host=%s, port=%d, url=%s", host, port,url ));
 
         this.host = host;
@@ -83,6 +97,42 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
         outNotifier = new HttpSendOutputStream( null, this);
     }
 
+    /**
+     * Create a socket sending its calls through the URL, recognized as
+     * not reusable by the RMI transport when the JDK supports it.
+     * @param host the host
+     * @param port the port
+     * @param url the URL to forward through
+     */
+    static HttpSendSocket open(String host, int port, URL url) throws IOException
+    {
+        if (constructor == null)
+            return new HttpSendSocket(host, port, url);
+        try {
+            return constructor.newInstance(host, port, url);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Constructor<? extends HttpSendSocket> constructor()
+    {
+        final ClassLoader loader = HttpSendSocket.class.getClassLoader();
+        try {
+            Class.forName("sun.rmi.transport.proxy.RMISocketInfo", false, loader);
+            return Class.forName(HttpSendSocket.class.getPackage().getName() + ".SingleOpHttpSendSocket", true, loader)
+                    .asSubclass(HttpSendSocket.class)
+                    .getConstructor(String.class, int.class, URL.class);
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            log.fine("the RMI transport does not support the single operation protocol");
+            return null;
+        }
+    }
+
     /**
      * Create a stream socket and connect it to the specified port on
      * the specified host.
@@ -154,12 +204,26 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
 
         inClose();
 
-        conn = url.openConnection();
-        conn.setDoOutput(true);
-        conn.setUseCaches(false);
-        conn.setRequestProperty("Content-type", "application/octet-stream");
+        span = Tracer.startSpan("rmi.http.send", "client", null)
+                .setAttribute("host", host)
+                .setAttribute("port", port);
+
+        final TunnelEvents.Exchange event = TunnelEvents.httpSend("writeNotify", host, port);
+        try {
+            conn = url.openConnection();
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Content-type", "application/octet-stream");
+            span.getContext().ifPresent(ctx -> conn.setRequestProperty(TraceContext.HEADER, ctx.toHeader()));
+
+            out = conn.getOutputStream();
+        } catch (IOException e) {
+            event.complete(0, 0, e.getClass().getSimpleName());
+            span.setAttribute("outcome", e.getClass().getSimpleName()).end();
+            throw e;
+        }
+        event.complete(0, 0, "ok");
 
-        out = conn.getOutputStream();
         return out;
     }
 
@@ -170,11 +234,19 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
     {
         log.info( "sending request and activating input stream");
 
+        final long requestBytes = outNotifier.getBytesWritten();
+        final TunnelEvents.Exchange event = TunnelEvents.httpSend("readNotify", host, port);
+        final long sendMicros = Tracer.epochMicros();
+
+        span.setAttribute("requestBytes", requestBytes);
+
         outClose();
 
         try {
             in = conn.getInputStream();
         } catch (IOException e) {
+            event.complete(requestBytes, 0, e.getClass().getSimpleName());
+            span.setAttribute("outcome", e.getClass().getSimpleName()).end();
             log.log( Level.SEVERE, "failed to get input stream, exception: ", e);
             //log.throwing( getClass().getName(), "readNotify", e);
 
@@ -191,6 +263,9 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
          * (Servers' error responses will generally be "text/html".)
          * Any error response body is printed to the log.
          */
+        span.recordPeerTiming(sendMicros, Tracer.epochMicros(), conn.getHeaderField(Tracer.TIMING_HEADER));
+        span.setAttribute("responseBytes", conn.getContentLengthLong());
+
         String contentType = conn.getContentType();
         if (contentType == null ||
             !conn.getContentType().equals("application/octet-stream"))
@@ -215,9 +290,13 @@ class HttpSendSocket extends Socket implements RMISocketInfo {
                 log.info( message);
             }
 
+            event.complete(requestBytes, conn.getContentLengthLong(), "invalid content type");
+            span.setAttribute("outcome", "invalid content type").end();
             throw new IOException("HTTP request failed");
         }
 
+        event.complete(requestBytes, conn.getContentLengthLong(), "ok");
+        span.setAttribute("outcome", "ok").end();
         return in;
     }
 
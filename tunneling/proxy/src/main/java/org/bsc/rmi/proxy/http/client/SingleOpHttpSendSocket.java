@@ -0,0 +1,21 @@
+package org.bsc.rmi.proxy.http.client;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * SingleOpHttpSendSocket is an {@link HttpSendSocket} the RMI transport
+ * of the JDK recognizes as not reusable, so that it sends every call
+ * with the single operation protocol instead of the stream protocol.
+ * <p>
+ * The interface the transport checks only exists up to Java 8: this
+ * class is compiled against its signature, see the rmi-jdk-stubs module,
+ * and looked up by name by {@link HttpSendSocket#open(String, int, URL)},
+ * which only uses it when the JDK running it has the interface.
+ */
+class SingleOpHttpSendSocket extends HttpSendSocket implements sun.rmi.transport.proxy.RMISocketInfo {
+
+    public SingleOpHttpSendSocket(String host, int port, URL url) throws IOException {
+        super(host, port, url);
+    }
+}
@@ -1,11 +1,23 @@
 package org.bsc.rmi.proxy.http.server;
 
 import lombok.extern.java.Log;
+import org.bsc.rmi.jfr.TunnelEvents;
+import org.bsc.rmi.metrics.CountingInputStream;
+import org.bsc.rmi.metrics.CountingOutputStream;
+import org.bsc.rmi.metrics.SocketCounters;
+import org.bsc.rmi.metrics.SocketStats;
+import org.bsc.rmi.proxy.mux.MuxConnection;
+import org.bsc.rmi.proxy.mux.MuxStream;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static java.lang.String.format;
 
@@ -16,10 +28,35 @@ import static java.lang.String.format;
  * then it returns an HttpReceiveSocket instead of a java.net.Socket.
  * This means that the accept method blocks until four bytes have been
  * read from the new socket's input stream.
+ * <p>
+ * A connection starting with "RMUX" is a multiplexed connection of the
+ * proxy (see <code>MuxConnection</code>): each of its streams is accepted
+ * as a connection of its own.  From the first multiplexed connection on,
+ * the TCP connections are accepted by a thread of the server socket and
+ * queued with the streams.
+ * <p>
+ * A connection starting with "WARM" was opened by the proxy ahead of its
+ * use: it is accepted at once as a WarmSocket, which sniffs the call
+ * when the RMI transport first reads or writes.
  */
 @Log
 class HttpAwareServerSocket extends ServerSocket {
 
+    /** traffic of the connections accepted by every HttpAwareServerSocket */
+    static final SocketStats stats = SocketStats.forName(RMIHttpServerSocketFactory.class.getSimpleName());
+
+    /** "POST" */
+    private static final int POST = 0x504f5354;
+
+    /** "WARM", see {@link RMIHttpServerSocketFactory#WARM_PREFIX} */
+    private static final int WARM = 0x5741524d;
+
+    /** queued when the server socket is closed, to wake up accept */
+    private static final Socket CLOSED = new Socket();
+
+    /** the connections and streams to accept, once a multiplexed connection has been accepted */
+    private volatile BlockingQueue<Socket> accepted;
+
     /**
      * Create a server socket on a specified port.
      * @param port the port
@@ -28,6 +65,7 @@ class HttpAwareServerSocket extends ServerSocket {
     public HttpAwareServerSocket(int port) throws IOException
     {
         super(port);
+        TunnelEvents.register();
     }
 
     /**
@@ -42,6 +80,7 @@ class HttpAwareServerSocket extends ServerSocket {
     public HttpAwareServerSocket(int port, int backlog) throws IOException
     {
         super(port, backlog);
+        TunnelEvents.register();
     }
 
     /**
@@ -58,28 +97,173 @@ class HttpAwareServerSocket extends ServerSocket {
     @Override
     public Socket accept() throws IOException
     {
-        final Socket socket = super.accept();
+        while (true) {
+            final BlockingQueue<Socket> queue = accepted;
+            final Socket socket = (queue == null) ? super.accept() : take(queue);
+            final Socket result = sniff(socket, getLocalPort(), this::acceptMux);
+            // null for a multiplexed connection, its streams will be queued
+            if (result != null)
+                return result;
+        }
+    }
 
-        final BufferedInputStream in =
-            new BufferedInputStream(socket.getInputStream());
+    private Socket take(BlockingQueue<Socket> queue) throws IOException {
+        final Socket socket;
+        try {
+            socket = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (socket == CLOSED) {
+            queue.add(CLOSED);
+            throw new SocketException("Socket is closed");
+        }
+        return socket;
+    }
 
-        log.info("socket accepted (checking for POST)");
+    /**
+     * Start accepting the streams of a multiplexed connection.
+     */
+    private void acceptMux(Socket socket, BufferedInputStream in, OutputStream out, SocketCounters counters)
+            throws IOException
+    {
+        final BlockingQueue<Socket> queue = startQueue();
+        final MuxConnection connection = MuxConnection.accept(socket, in, out, queue::add, counters::close);
+        log.info( format("multiplexed connection accepted %s", connection));
+    }
 
-        in.mark(4);
+    private synchronized BlockingQueue<Socket> startQueue() {
+        if (accepted != null)
+            return accepted;
 
-        boolean isHttp = (in.read() == 'P') &&
-                         (in.read() == 'O') &&
-                         (in.read() == 'S') &&
-                         (in.read() == 'T');
-        in.reset();
+        final BlockingQueue<Socket> queue = new LinkedBlockingQueue<>();
+        final Thread acceptor = new Thread(() -> {
+            while (!isClosed()) {
+                try {
+                    queue.add(super.accept());
+                } catch (IOException e) {
+                    if (!isClosed())
+                        log.warning( format("accept failed on %s: %s", this, e.getMessage()));
+                }
+            }
+        }, format("rmux-accept-%d", getLocalPort()));
+        acceptor.setDaemon(true);
+        acceptor.start();
+        accepted = queue;
+        return queue;
+    }
+
+    /**
+     * Accept the multiplexed connections of a server socket, see
+     * {@link #sniff(Socket, int, MuxAcceptor)}.
+     */
+    interface MuxAcceptor {
+        void accept(Socket socket, BufferedInputStream in, OutputStream out, SocketCounters counters)
+                throws IOException;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        super.close();
+        final BlockingQueue<Socket> queue = accepted;
+        if (queue != null)
+            queue.add(CLOSED);
+    }
 
+    /**
+     * Wait for the first four bytes of an accepted connection and wrap
+     * the socket according to them, see {@link #accept()}.
+     * @param socket the accepted socket
+     * @param localPort the port the connection was accepted on
+     * @exception IOException IO error when reading the first bytes.
+     */
+    static Socket sniff(Socket socket, int localPort) throws IOException
+    {
+        return sniff(socket, localPort, null);
+    }
+
+    /**
+     * Wait for the first four bytes of an accepted connection and wrap
+     * the socket according to them, see {@link #accept()}.
+     * @param socket the accepted socket
+     * @param localPort the port the connection was accepted on
+     * @param mux accepts the multiplexed connections, null if they are not supported
+     * @return the wrapped socket, null if the connection was handed to mux
+     * @exception IOException IO error when reading the first bytes.
+     */
+    static Socket sniff(Socket socket, int localPort, MuxAcceptor mux) throws IOException
+    {
+        final TunnelEvents.Accept event = TunnelEvents.httpAccept(localPort);
+
+        final SocketCounters counters = stats.open(socket);
+        final BufferedInputStream in;
+        final OutputStream out;
+        final int magic;
+        try {
+            in = new BufferedInputStream(new CountingInputStream(socket.getInputStream(), counters));
+            out = new CountingOutputStream(socket.getOutputStream(), counters);
+
+            log.info("socket accepted (checking for POST)");
+
+            magic = peek(in);
+            if (magic == MuxConnection.MAGIC && mux != null && !(socket instanceof MuxStream)) {
+                in.skip(4);
+                mux.accept(socket, in, out, counters);
+                event.complete(socket.getPort(), false, "mux");
+                return null;
+            }
+            if (magic == WARM) {
+                in.skip(4);
+                event.complete(socket.getPort(), false, "warm");
+                log.info("request is Http [deferred]");
+                return new WarmSocket(socket, in, out, counters, localPort);
+            }
+        } catch (IOException e) {
+            counters.close();
+            event.complete(socket.getPort(), false, e.getClass().getSimpleName());
+            throw e;
+        }
+
+        final boolean isHttp = (magic == POST);
+        event.complete(socket.getPort(), isHttp, "ok");
+        return wrap(socket, in, out, counters, isHttp);
+    }
+
+    /**
+     * Wait for the first four bytes of a connection and wrap the socket
+     * according to them: in an HttpReceiveSocket if they are "POST",
+     * else in a WrappedSocket.
+     * @param in the input of the socket, the first bytes are not consumed
+     */
+    static Socket wrap(Socket socket, BufferedInputStream in, OutputStream out, SocketCounters counters)
+        throws IOException
+    {
+        return wrap(socket, in, out, counters, peek(in) == POST);
+    }
+
+    private static Socket wrap(Socket socket, BufferedInputStream in, OutputStream out, SocketCounters counters,
+                               boolean isHttp) throws IOException
+    {
         log.info( format( "request is Http [%b]", isHttp ) );
 
         return isHttp ?
             // POST found, HTTP socket returned
-            new HttpReceiveSocket(socket, in, null) :
+            new HttpReceiveSocket(socket, in, out, counters) :
             //POST not found, direct socket returned
-            new WrappedSocket(socket, in, null);
+            new WrappedSocket(socket, in, out, counters);
+    }
+
+    /**
+     * @return the first four bytes of the input, which are not consumed
+     */
+    private static int peek(BufferedInputStream in) throws IOException
+    {
+        in.mark(4);
+        final int magic = (in.read() << 24) | (in.read() << 16) | (in.read() << 8) | in.read();
+        in.reset();
+        return magic;
     }
 
     /**
@@ -1,8 +1,10 @@
 package org.bsc.rmi.proxy.http.server;
 
 import lombok.extern.java.Log;
+import org.bsc.rmi.trace.TraceContext;
 
 import java.io.*;
+import java.util.Optional;
 import java.util.logging.Level;
 
 import static java.lang.String.format;
@@ -21,6 +23,9 @@ class HttpInputStream extends FilterInputStream {
     /** bytes remaining to be read at time of last mark */
     protected int bytesLeftAtMark;
 
+    /** the trace context received in the header, if any */
+    private Optional<TraceContext> traceContext = Optional.empty();
+
     /**
      * Create new filter on a given input stream.
      * @param in the InputStream to filter from
@@ -36,6 +41,7 @@ class HttpInputStream extends FilterInputStream {
 
         DataInputStream dis = new DataInputStream(in);
         String key = "Content-length:".toLowerCase();
+        String traceKey = TraceContext.HEADER.concat(":");
         boolean contentLengthFound = false;
         String line;
         do {
@@ -58,6 +64,9 @@ class HttpInputStream extends FilterInputStream {
                     contentLengthFound = true;
                 }
             }
+            else if (line.toLowerCase().startsWith(traceKey)) {
+                traceContext = TraceContext.parse(line.substring(traceKey.length()));
+            }
 
             // The idea here is to go past the first blank line.
             // Some DataInputStream.readLine() documentation specifies that
@@ -79,6 +88,13 @@ class HttpInputStream extends FilterInputStream {
         }
     }
 
+    /**
+     * @return the trace context received in the header, if any
+     */
+    public Optional<TraceContext> getTraceContext() {
+        return traceContext;
+    }
+
     /**
      * Returns the number of bytes that can be read with blocking.
      * Make sure that this does not exceed the number of bytes remaining
@@ -1,5 +1,9 @@
 package org.bsc.rmi.proxy.http.server;
 
+import org.bsc.rmi.jfr.TunnelEvents;
+import org.bsc.rmi.trace.Span;
+import org.bsc.rmi.trace.Tracer;
+
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -19,13 +23,40 @@ class HttpOutputStream extends ByteArrayOutputStream {
     /** true if HTTP response has been sent */
     boolean responseSent = false;
 
+    /** the local port the response is sent from, -1 if unknown */
+    protected final int port;
+
+    /** the span of the request, ended once the response is sent, may be null */
+    protected final Span span;
+
     /**
      * Begin buffering new HTTP response to be sent to a given stream.
      * @param out the OutputStream to send response to
      */
     public HttpOutputStream(OutputStream out) {
+        this(out, -1);
+    }
+
+    /**
+     * Begin buffering new HTTP response to be sent to a given stream.
+     * @param out the OutputStream to send response to
+     * @param port the local port the response is sent from
+     */
+    public HttpOutputStream(OutputStream out, int port) {
+        this(out, port, null);
+    }
+
+    /**
+     * Begin buffering new HTTP response to be sent to a given stream.
+     * @param out the OutputStream to send response to
+     * @param port the local port the response is sent from
+     * @param span the span of the request
+     */
+    public HttpOutputStream(OutputStream out, int port, Span span) {
         super();
         this.out = out;
+        this.port = port;
+        this.span = span;
     }
 
     /**
@@ -41,12 +72,26 @@ class HttpOutputStream extends ByteArrayOutputStream {
             if (size() == 0)
                 write(emptyData);
 
-            DataOutputStream dos = new DataOutputStream(out);
-            dos.writeBytes("Content-type: application/octet-stream\r\n");
-            dos.writeBytes("Content-length: " + size() + "\r\n");
-            dos.writeBytes("\r\n");
-            writeTo(dos);
-            dos.flush();
+            final TunnelEvents.Response event = TunnelEvents.httpResponse(port);
+            final int responseBytes = size();
+            try {
+                DataOutputStream dos = new DataOutputStream(out);
+                dos.writeBytes("Content-type: application/octet-stream\r\n");
+                dos.writeBytes("Content-length: " + responseBytes + "\r\n");
+                if (span != null && span.isRecording()) {
+                    dos.writeBytes(Tracer.TIMING_HEADER + ": "
+                            + Tracer.timingHeader(span.getStartMicros(), Tracer.epochMicros()) + "\r\n");
+                }
+                dos.writeBytes("\r\n");
+                writeTo(dos);
+                dos.flush();
+            } catch (IOException e) {
+                event.complete(responseBytes, e.getClass().getSimpleName());
+                endSpan(responseBytes, e.getClass().getSimpleName());
+                throw e;
+            }
+            event.complete(responseBytes, "ok");
+            endSpan(responseBytes, "ok");
             // Do not close the underlying stream here, because that would
             // close the underlying socket and prevent reading a response.
             reset(); // reset byte array
@@ -54,6 +99,14 @@ class HttpOutputStream extends ByteArrayOutputStream {
         }
     }
 
+    private void endSpan(int responseBytes, String outcome) {
+        if (span != null) {
+            span.setAttribute("responseBytes", responseBytes)
+                    .setAttribute("outcome", outcome)
+                    .end();
+        }
+    }
+
     /** data to send if the response would otherwise be empty */
     private static byte[] emptyData = { 0 };
 }
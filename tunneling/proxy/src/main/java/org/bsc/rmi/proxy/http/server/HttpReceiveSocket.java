@@ -1,6 +1,9 @@
 package org.bsc.rmi.proxy.http.server;
 
+import org.bsc.rmi.metrics.SocketCounters;
 import org.bsc.rmi.proxy.http.RMISocketInfo;
+import org.bsc.rmi.trace.Span;
+import org.bsc.rmi.trace.Tracer;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -35,6 +38,9 @@ public class HttpReceiveSocket extends WrappedSocket implements RMISocketInfo {
     /** true if the HTTP header has pushed through the output stream yet */
     private boolean headerSent = false;
 
+    /** the span of the request, from the header received to the response sent */
+    private final Span span;
+
     /**
      * Layer on top of a pre-existing Socket object, and use specified
      * input and output streams.
@@ -45,12 +51,30 @@ public class HttpReceiveSocket extends WrappedSocket implements RMISocketInfo {
     public HttpReceiveSocket(Socket socket, InputStream in, OutputStream out)
         throws IOException
     {
-        super(socket, in, out);
+        this(socket, in, out, null);
+    }
+
+    /**
+     * Layer on top of a pre-existing Socket object, and use specified
+     * input and output streams, counting the traffic of the connection.
+     * @param socket the pre-existing socket to use
+     * @param in the InputStream to use for this socket (can be null)
+     * @param out the OutputStream to use for this socket (can be null)
+     * @param counters the counters to close along with the socket (can be null)
+     */
+    public HttpReceiveSocket(Socket socket, InputStream in, OutputStream out, SocketCounters counters)
+        throws IOException
+    {
+        super(socket, in, out, counters);
 
-        this.in = new HttpInputStream(in != null ? in :
+        final HttpInputStream httpIn = new HttpInputStream(in != null ? in :
                                                    socket.getInputStream());
+        this.in = httpIn;
         this.out = (out != null ? out :
                     socket.getOutputStream());
+
+        this.span = Tracer.startSpan("rmi.http.receive", "server", httpIn.getTraceContext().orElse(null))
+                .setAttribute("port", socket.getLocalPort());
     }
 
     /**
@@ -85,7 +109,7 @@ public class HttpReceiveSocket extends WrappedSocket implements RMISocketInfo {
             dos.writeBytes("HTTP/1.0 200 OK\r\n");
             dos.flush();
             headerSent = true;
-            out = new HttpOutputStream(out);
+            out = new HttpOutputStream(out, socket.getLocalPort(), span);
         }
         return out;
     }
@@ -96,7 +120,7 @@ public class HttpReceiveSocket extends WrappedSocket implements RMISocketInfo {
     public synchronized void close() throws IOException
     {
         getOutputStream().close(); // make sure response is sent
-        socket.close();
+        super.close();
     }
 
     /**
@@ -4,6 +4,7 @@ import lombok.extern.java.Log;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.rmi.server.RMIServerSocketFactory;
 
 import static java.lang.String.format;
@@ -14,9 +15,29 @@ import static java.lang.String.format;
 @Log
 public class RMIHttpServerSocketFactory implements RMIServerSocketFactory {
 
+    /**
+     * Written by a client opening a connection ahead of its use: the
+     * server sockets of this factory then accept the connection without
+     * waiting for the first bytes of the call.
+     */
+    public static final String WARM_PREFIX = "WARM";
+
     @Override
     public ServerSocket createServerSocket(int port) throws IOException {
         log.info( format("%s.createServerSocket(%d)", getClass().getSimpleName(), port) );
         return new HttpAwareServerSocket(port);
     }
+
+    /**
+     * Make a connection accepted by another kind of server socket aware
+     * of HTTP, like those of this factory: if it starts with "POST",
+     * the tunneled call is unwrapped by an HttpReceiveSocket.
+     *
+     * @param socket    the accepted socket
+     * @param localPort the port of the RMI endpoint
+     * @return the socket to hand to the RMI transport
+     */
+    public static Socket acceptHttpAware(Socket socket, int localPort) throws IOException {
+        return HttpAwareServerSocket.sniff(socket, localPort);
+    }
 }
@@ -0,0 +1,163 @@
+package org.bsc.rmi.proxy.http.server;
+
+import org.bsc.rmi.jfr.TunnelEvents;
+import org.bsc.rmi.metrics.SocketCounters;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * The WarmSocket class wraps a connection opened ahead of its use by
+ * the proxy (see {@link RMIHttpServerSocketFactory#WARM_PREFIX}): the
+ * first bytes of the call are only sniffed when the RMI transport reads
+ * or writes, in its connection thread, so that an idle warm connection
+ * does not hold the accept loop.
+ * <p>
+ * The originating host of a warm connection is unknown, as it is for an
+ * HttpReceiveSocket: the calls come from the clients of the proxy.
+ */
+class WarmSocket extends WrappedSocket {
+
+    private final int localPort;
+
+    /** the HttpReceiveSocket or WrappedSocket, once the call has been sniffed */
+    private volatile Socket resolved;
+
+    /** not the lock of the socket, so that close does not wait for the call */
+    private final Object resolveLock = new Object();
+
+    /**
+     * @param socket    the accepted socket
+     * @param in        the input of the socket, past the warm prefix
+     * @param out       the output of the socket
+     * @param counters  the counters to close along with the socket
+     * @param localPort the port the connection was accepted on
+     */
+    WarmSocket(Socket socket, BufferedInputStream in, OutputStream out, SocketCounters counters, int localPort)
+        throws IOException
+    {
+        super(socket, in, out, counters);
+        this.localPort = localPort;
+    }
+
+    /**
+     * Wait for the first bytes of the call and wrap the socket
+     * according to them.
+     */
+    private Socket resolve() throws IOException
+    {
+        synchronized (resolveLock) {
+            if (resolved == null) {
+                final TunnelEvents.Accept event = TunnelEvents.httpAccept(localPort);
+                final Socket result;
+                try {
+                    result = HttpAwareServerSocket.wrap(socket, (BufferedInputStream) in, out, counters);
+                } catch (IOException e) {
+                    event.complete(socket.getPort(), false, e.getClass().getSimpleName());
+                    throw e;
+                }
+                event.complete(socket.getPort(), result instanceof HttpReceiveSocket, "warm");
+                resolved = result;
+            }
+            return resolved;
+        }
+    }
+
+    /**
+     * The originating host of a call forwarded by the proxy is unknown.
+     */
+    @Override
+    public InetAddress getInetAddress()
+    {
+        return null;
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return new InputStream() {
+            private InputStream delegate;
+
+            private InputStream delegate() throws IOException {
+                if (delegate == null)
+                    delegate = resolve().getInputStream();
+                return delegate;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return delegate().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return delegate().read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (delegate == null) ? in.available() : delegate.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                WarmSocket.this.close();
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return new OutputStream() {
+            private OutputStream delegate;
+
+            private OutputStream delegate() throws IOException {
+                if (delegate == null)
+                    delegate = resolve().getOutputStream();
+                return delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                delegate().write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (delegate != null)
+                    delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                WarmSocket.this.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        final Socket result = resolved;
+        if (result != null)
+            result.close();
+        else
+            super.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Warm" + socket.toString();
+    }
+}
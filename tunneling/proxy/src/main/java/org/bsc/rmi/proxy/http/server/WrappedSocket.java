@@ -1,5 +1,7 @@
 package org.bsc.rmi.proxy.http.server;
 
+import org.bsc.rmi.metrics.SocketCounters;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,6 +29,9 @@ public class WrappedSocket extends Socket {
     /** the output stream to return for socket */
     protected OutputStream out = null;
 
+    /** the traffic counters of the connection (can be null) */
+    protected SocketCounters counters = null;
+
     /**
      * Layer on top of a pre-existing Socket object, and use specified
      * input and output streams.  This allows the creator of the
@@ -46,6 +51,21 @@ public class WrappedSocket extends Socket {
         this.out = out;
     }
 
+    /**
+     * Layer on top of a pre-existing Socket object, and use specified
+     * input and output streams, counting the traffic of the connection.
+     * @param socket the pre-existing socket to use
+     * @param in the InputStream to return to users (can be null)
+     * @param out the OutputStream to return to users (can be null)
+     * @param counters the counters to close along with the socket
+     */
+    public WrappedSocket(Socket socket, InputStream in, OutputStream out, SocketCounters counters)
+        throws IOException
+    {
+        this(socket, in, out);
+        this.counters = counters;
+    }
+
     /**
      * Get the address to which the socket is connected.
      */
@@ -157,6 +177,8 @@ public class WrappedSocket extends Socket {
      */
     public synchronized void close() throws IOException
     {
+        if (counters != null)
+            counters.close();
         socket.close();
     }
 
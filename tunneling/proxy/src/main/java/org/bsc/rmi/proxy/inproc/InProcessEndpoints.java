@@ -0,0 +1,53 @@
+package org.bsc.rmi.proxy.inproc;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.String.format;
+
+/**
+ * InProcessEndpoints keeps the {@link InProcessServerSocket}s of this VM
+ * by port, so that a component running in the same VM as an RMI server,
+ * like the RMIServletHandler, reaches it through in-memory pipes instead
+ * of a loopback TCP connection.
+ */
+public final class InProcessEndpoints {
+
+    private static final Map<Integer, InProcessServerSocket> endpoints = new ConcurrentHashMap<>();
+
+    private InProcessEndpoints() {
+    }
+
+    static void register(int port, InProcessServerSocket serverSocket) {
+        endpoints.put(port, serverSocket);
+    }
+
+    static void unregister(int port, InProcessServerSocket serverSocket) {
+        endpoints.remove(port, serverSocket);
+    }
+
+    /**
+     * @return true if an endpoint of this VM listens on the port
+     */
+    public static boolean isExported(int port) {
+        return endpoints.containsKey(port);
+    }
+
+    /**
+     * Connect to the endpoint of this VM listening on the port.
+     *
+     * @return the client end of the connection
+     * @throws IOException if no endpoint of this VM listens on the port
+     */
+    public static Socket connect(int port) throws IOException {
+        final InProcessServerSocket serverSocket = endpoints.get(port);
+        if (serverSocket == null)
+            throw new IOException(format("no in-process endpoint on port %d", port));
+
+        final PipeSocket[] pair = PipeSocket.pair(port);
+        serverSocket.offer(pair[1]);
+        return pair[0];
+    }
+}
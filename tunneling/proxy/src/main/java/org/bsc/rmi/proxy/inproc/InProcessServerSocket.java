@@ -0,0 +1,97 @@
+package org.bsc.rmi.proxy.inproc;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * InProcessServerSocket listens on a TCP port, like any server socket,
+ * and also accepts the in-process connections made to the port through
+ * {@link InProcessEndpoints#connect(int)}.
+ * <p>
+ * A daemon thread accepts the TCP connections and queues them with the
+ * in-process ones, so that <code>accept</code> returns whichever comes
+ * first.
+ */
+@Log
+public class InProcessServerSocket extends ServerSocket {
+
+    /** queued by close to wake up accept */
+    private static final Socket CLOSED = new Socket();
+
+    private final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+
+    /**
+     * Create a server socket on the port, 0 for an anonymous port, and
+     * register it as the in-process endpoint of its port.
+     */
+    public InProcessServerSocket(int port) throws IOException {
+        super(port);
+
+        final Thread acceptor = new Thread(this::acceptTcp, format("inproc-accept-%d", getLocalPort()));
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        InProcessEndpoints.register(getLocalPort(), this);
+    }
+
+    private void acceptTcp() {
+        while (!isClosed()) {
+            try {
+                accepted.add(super.accept());
+            } catch (IOException e) {
+                if (!isClosed())
+                    log.log(Level.WARNING, format("accept failed on port %d", getLocalPort()), e);
+            }
+        }
+    }
+
+    /**
+     * Queue the server end of an in-process connection.
+     */
+    void offer(Socket socket) throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        accepted.add(socket);
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        final Socket socket;
+        try {
+            socket = accepted.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("accept interrupted");
+        }
+        if (socket == CLOSED) {
+            accepted.add(CLOSED);       // for the other threads blocked in accept
+            throw new SocketException("Socket is closed");
+        }
+        return socket;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final int port = getLocalPort();
+        try {
+            super.close();
+        } finally {
+            InProcessEndpoints.unregister(port, this);
+            accepted.add(CLOSED);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("InProcess %s", super.toString());
+    }
+}
@@ -0,0 +1,109 @@
+package org.bsc.rmi.proxy.inproc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Pipe is a bounded byte buffer between a writing and a reading thread,
+ * one direction of an in-process connection.
+ * <p>
+ * Unlike java.io.PipedInputStream it does not depend on the threads
+ * staying alive: the RMI transport and the servlet container pass the
+ * connections from a pooled thread to another.  Closing the write side
+ * is the end of stream for the reader, once the buffer is drained;
+ * closing the read side fails the writer.
+ */
+class Pipe {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final byte[] buffer;
+    private int head;
+    private int count;
+    private boolean writeClosed;
+    private boolean readClosed;
+
+    Pipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    Pipe(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * @param timeout milliseconds to wait for data, 0 to wait forever
+     * @return the number of bytes read, -1 at the end of stream
+     */
+    synchronized int read(byte[] b, int off, int len, int timeout) throws IOException {
+        if (len == 0)
+            return 0;
+
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (count == 0 && !writeClosed && !readClosed) {
+            if (timeout == 0) {
+                waitInterruptibly(0);
+            } else {
+                final long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    throw new SocketTimeoutException("Read timed out");
+                waitInterruptibly(wait);
+            }
+        }
+        if (readClosed)
+            throw new IOException("Pipe closed");
+        if (count == 0)
+            return -1;
+
+        final int n = Math.min(len, count);
+        final int first = Math.min(n, buffer.length - head);
+        System.arraycopy(buffer, head, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, n - first);
+        head = (head + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    synchronized int available() {
+        return count;
+    }
+
+    synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (count == buffer.length && !readClosed && !writeClosed)
+                waitInterruptibly(0);
+            if (readClosed || writeClosed)
+                throw new IOException("Pipe closed");
+
+            final int tail = (head + count) % buffer.length;
+            final int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+            System.arraycopy(b, off, buffer, tail, n);
+            count += n;
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+
+    synchronized void closeWrite() {
+        writeClosed = true;
+        notifyAll();
+    }
+
+    synchronized void closeRead() {
+        readClosed = true;
+        count = 0;
+        notifyAll();
+    }
+
+    private void waitInterruptibly(long millis) throws IOException {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.bsc.rmi.proxy.inproc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+import static java.lang.String.format;
+
+/**
+ * PipeSocket is one end of an in-process connection, two {@link Pipe}s
+ * presented as a java.net.Socket, the type the RMI socket factories
+ * deal with.
+ * <p>
+ * The TCP options have no meaning and are ignored; the peer is reported
+ * as the loopback address and the port of the endpoint, since it is in
+ * the same VM.
+ */
+public class PipeSocket extends Socket {
+
+    private final Pipe in;
+    private final Pipe out;
+    private final int port;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private volatile boolean closed;
+    private volatile int timeout;
+
+    private PipeSocket(Pipe in, Pipe out, int port) throws IOException {
+        super((java.net.SocketImpl) null);      // no underlying SocketImpl for this object
+        this.in = in;
+        this.out = out;
+        this.port = port;
+        this.inputStream = new PipeInputStream();
+        this.outputStream = new PipeOutputStream();
+    }
+
+    /**
+     * Create the two ends of a connection to the endpoint of the port.
+     *
+     * @return the client end and the server end
+     */
+    static PipeSocket[] pair(int port) throws IOException {
+        final Pipe request = new Pipe();
+        final Pipe response = new Pipe();
+        return new PipeSocket[] {
+                new PipeSocket(response, request, port),
+                new PipeSocket(request, response, port)
+        };
+    }
+
+    class PipeInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len, timeout);
+        }
+
+        @Override
+        public int available() {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            PipeSocket.this.close();
+        }
+    }
+
+    class PipeOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            PipeSocket.this.close();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        return outputStream;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return port;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+    }
+
+    @Override
+    public boolean getTcpNoDelay() {
+        return true;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+    }
+
+    @Override
+    public boolean getKeepAlive() {
+        return false;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+    }
+
+    @Override
+    public int getSoLinger() {
+        return -1;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public void shutdownInput() {
+        in.closeRead();
+    }
+
+    @Override
+    public void shutdownOutput() {
+        out.closeWrite();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        in.closeRead();
+        out.closeWrite();
+    }
+
+    @Override
+    public String toString() {
+        return format("PipeSocket[port=%d]", port);
+    }
+}
@@ -0,0 +1,341 @@
+package org.bsc.rmi.proxy.mux;
+
+import lombok.extern.java.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * MuxConnection carries many streams over one TCP connection, so that
+ * concurrent calls of the proxy to an RMI server share a socket.
+ * <p>
+ * The side opening the connection writes the {@link #MAGIC} "RMUX" and
+ * the {@link #VERSION}, then both sides exchange frames:
+ * <pre>
+ *   type (1 byte) | stream id (4 bytes) | length (4 bytes) | payload
+ * </pre>
+ * <ul>
+ *   <li>OPEN: the opening side starts a stream;</li>
+ *   <li>DATA: bytes of a stream, at most {@link #MAX_FRAME} per frame;</li>
+ *   <li>WINDOW: the receiver of a stream grants the payload, an int, bytes more to its writer;</li>
+ *   <li>CLOSE: the sender has finished writing on the stream;</li>
+ *   <li>RESET: the stream is broken.</li>
+ * </ul>
+ * Only the opening side opens streams.  Every stream starts with a
+ * window of {@link #WINDOW} bytes in each direction.
+ * <p>
+ * The thread reading the frames never writes: the WINDOW and RESET
+ * frames it answers with are queued to a writer thread of the
+ * connection, so that it keeps reading the credit the other side sends
+ * while the writers of the streams wait for the output.
+ */
+@Log
+public class MuxConnection implements Closeable {
+
+    /** "RMUX" */
+    public static final int MAGIC = 0x524d5558;
+    public static final int VERSION = 1;
+
+    static final int OPEN = 1;
+    static final int DATA = 2;
+    static final int WINDOW_UPDATE = 3;
+    static final int CLOSE = 4;
+    static final int RESET = 5;
+
+    /** the largest payload of a data frame */
+    static final int MAX_FRAME = 16 * 1024;
+
+    /** bytes a stream may send before the receiver gives credit back */
+    static final int WINDOW = Integer.getInteger("org.bsc.rmi.mux.windowKB", 256) * 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Consumer<MuxStream> onOpen;
+    private final Runnable onClose;
+    private final Map<Integer, MuxStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    /** writers waiting for the output, the last one flushes */
+    private final AtomicInteger writers = new AtomicInteger();
+    /** type, stream id and increment of the frames sent by the writer thread */
+    private final BlockingQueue<int[]> control = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Open a connection on a socket connected to a server aware of the
+     * multiplexed connections, see <code>HttpAwareServerSocket</code>.
+     */
+    public static MuxConnection open(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        final MuxConnection connection = new MuxConnection(socket,
+                socket.getInputStream(), socket.getOutputStream(), null, null);
+        synchronized (connection.out) {
+            connection.out.writeInt(MAGIC);
+            connection.out.writeByte(VERSION);
+            connection.out.flush();
+        }
+        connection.start();
+        return connection;
+    }
+
+    /**
+     * Accept a connection whose magic number has been read from the input.
+     *
+     * @param onOpen  receives the streams opened by the other side
+     * @param onClose run once the connection is closed
+     */
+    public static MuxConnection accept(Socket socket, InputStream in, OutputStream out,
+                                       Consumer<MuxStream> onOpen, Runnable onClose) throws IOException {
+        final MuxConnection connection = new MuxConnection(socket, in, out, onOpen, onClose);
+        final int version = connection.in.readUnsignedByte();
+        if (version != VERSION) {
+            connection.close();
+            throw new IOException(format("unsupported multiplexed connection version %d", version));
+        }
+        socket.setTcpNoDelay(true);
+        connection.start();
+        return connection;
+    }
+
+    private MuxConnection(Socket socket, InputStream in, OutputStream out,
+                          Consumer<MuxStream> onOpen, Runnable onClose) {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(in, MAX_FRAME + 9));
+        this.out = new DataOutputStream(new BufferedOutputStream(out, MAX_FRAME + 9));
+        this.onOpen = onOpen;
+        this.onClose = onClose;
+        this.writer = new Thread(this::writeControlFrames,
+                format("rmux-writer-%s", socket.getRemoteSocketAddress()));
+        writer.setDaemon(true);
+    }
+
+    private void start() {
+        writer.start();
+        final Thread reader = new Thread(this::readFrames,
+                format("rmux-%s", socket.getRemoteSocketAddress()));
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * @return the number of open streams
+     */
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * @return true if the connection cannot carry streams anymore
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Open a new stream to the other side.
+     */
+    public MuxStream openStream() throws IOException {
+        if (onOpen != null)
+            throw new IllegalStateException("streams are opened by the connecting side");
+        final int id = nextId.getAndAdd(2);
+        final MuxStream stream = new MuxStream(this, id);
+        streams.put(id, stream);
+        try {
+            writeFrame(OPEN, id, null, 0, 0);
+        } catch (IOException e) {
+            streams.remove(id);
+            throw e;
+        }
+        if (closed) {
+            streams.remove(id);
+            throw new SocketException("Multiplexed connection closed");
+        }
+        return stream;
+    }
+
+    private void readFrames() {
+        try {
+            while (true) {
+                final int type = in.read();
+                if (type < 0)
+                    break;
+                final int id = in.readInt();
+                final int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME)
+                    throw new IOException(format("invalid frame length %d", length));
+                onFrame(type, id, length);
+            }
+        } catch (IOException e) {
+            if (!closed)
+                log.log(Level.FINE, format("multiplexed connection %s broken", socket.getRemoteSocketAddress()), e);
+        } finally {
+            close();
+        }
+    }
+
+    private void writeControlFrames() {
+        try {
+            while (!closed) {
+                final int[] frame = control.take();
+                writeFrame(frame[0], frame[1], null, frame[2], (frame[0] == WINDOW_UPDATE) ? 4 : 0);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            if (!closed)
+                log.log(Level.FINE, format("multiplexed connection %s broken", socket.getRemoteSocketAddress()), e);
+            close();
+        }
+    }
+
+    private void onFrame(int type, int id, int length) throws IOException {
+        final MuxStream stream = streams.get(id);
+        switch (type) {
+            case OPEN:
+                if (onOpen == null || stream != null) {
+                    control.add(new int[] { RESET, id, 0 });
+                } else {
+                    final MuxStream opened = new MuxStream(this, id);
+                    streams.put(id, opened);
+                    onOpen.accept(opened);
+                }
+                break;
+
+            case DATA: {
+                final byte[] data = new byte[length];
+                in.readFully(data);
+                if (stream == null || !stream.onData(data)) {
+                    // nobody reads: give the credit back not to stall the writer
+                    if (length > 0)
+                        control.add(new int[] { WINDOW_UPDATE, id, length });
+                }
+                break;
+            }
+
+            case WINDOW_UPDATE: {
+                final int increment = in.readInt();
+                if (stream != null)
+                    stream.onWindow(increment);
+                break;
+            }
+
+            case CLOSE:
+                if (stream != null && stream.onClose())
+                    streams.remove(id);
+                break;
+
+            case RESET:
+                if (stream != null) {
+                    streams.remove(id);
+                    stream.onReset();
+                }
+                break;
+
+            default:
+                throw new IOException(format("invalid frame type %d", type));
+        }
+    }
+
+    void sendData(int id, byte[] b, int off, int len) throws IOException {
+        writeFrame(DATA, id, b, off, len);
+    }
+
+    void sendWindow(int id, int increment) throws IOException {
+        writeFrame(WINDOW_UPDATE, id, null, increment, 4);
+    }
+
+    /**
+     * @param done true if the other side has closed the stream too
+     */
+    void sendClose(int id, boolean done) throws IOException {
+        try {
+            writeFrame(CLOSE, id, null, 0, 0);
+        } finally {
+            if (done)
+                streams.remove(id);
+        }
+    }
+
+    void remove(int id) {
+        streams.remove(id);
+    }
+
+    /**
+     * Write a frame.  The output is only flushed by the last of the
+     * concurrent writers, so that frames of concurrent streams share
+     * the system calls.
+     *
+     * @param b   the payload of a DATA frame, null for the other frames
+     * @param off the offset of the payload in b, the increment of a WINDOW frame
+     */
+    private void writeFrame(int type, int id, byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new SocketException("Multiplexed connection closed");
+        writers.incrementAndGet();
+        synchronized (out) {
+            try {
+                out.writeByte(type);
+                out.writeInt(id);
+                out.writeInt(len);
+                if (b != null)
+                    out.write(b, off, len);
+                else if (type == WINDOW_UPDATE)
+                    out.writeInt(off);
+            } finally {
+                if (writers.decrementAndGet() == 0)
+                    out.flush();
+            }
+        }
+    }
+
+    /**
+     * Close the connection, every stream is reset.
+     */
+    @Override
+    public void close() {
+        synchronized (streams) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.log(Level.FINE, "close", e);
+        }
+        writer.interrupt();
+        control.clear();
+        for (MuxStream stream : streams.values())
+            stream.onReset();
+        streams.clear();
+        if (onClose != null)
+            onClose.run();
+    }
+
+    @Override
+    public String toString() {
+        return format("MuxConnection[%s, %d streams]", socket.getRemoteSocketAddress(), streams.size());
+    }
+}
@@ -0,0 +1,109 @@
+package org.bsc.rmi.proxy.mux;
+
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * MuxConnector opens streams on a few multiplexed connections by RMI
+ * server, opened on first use and opened again once broken.  The streams
+ * are spread over the connections of a server in turn.
+ */
+@Log
+public class MuxConnector implements Closeable {
+
+    /**
+     * The connections to a server.
+     */
+    private static class Backend {
+        final MuxConnection[] connections;
+        final AtomicInteger next = new AtomicInteger();
+
+        Backend(int size) {
+            connections = new MuxConnection[size];
+        }
+    }
+
+    private final int connectionsPerServer;
+    private final Map<InetSocketAddress, Backend> backends = new ConcurrentHashMap<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param connectionsPerServer the number of connections by server
+     */
+    public MuxConnector(int connectionsPerServer) {
+        if (connectionsPerServer < 1)
+            throw new IllegalArgumentException("connectionsPerServer must be positive");
+        this.connectionsPerServer = connectionsPerServer;
+    }
+
+    /**
+     * @return the number of connections opened since the connector was created
+     */
+    public int getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Open a stream to the server.
+     */
+    public Socket connect(InetSocketAddress server) throws IOException {
+        if (closed)
+            throw new IOException("connector closed");
+        final Backend backend = backends.computeIfAbsent(server, k -> new Backend(connectionsPerServer));
+        final int slot = Math.floorMod(backend.next.getAndIncrement(), connectionsPerServer);
+
+        MuxConnection connection;
+        synchronized (backend) {
+            connection = backend.connections[slot];
+            if (connection == null || connection.isClosed()) {
+                connection = MuxConnection.open(new Socket(server.getAddress(), server.getPort()));
+                backend.connections[slot] = connection;
+                opened.incrementAndGet();
+                log.fine( format("multiplexed connection opened to %s", server));
+            }
+        }
+        try {
+            return connection.openStream();
+        } catch (IOException e) {
+            // the connection broke before the reader noticed, one more try on a new one
+            synchronized (backend) {
+                if (backend.connections[slot] == connection) {
+                    connection.close();
+                    connection = MuxConnection.open(new Socket(server.getAddress(), server.getPort()));
+                    backend.connections[slot] = connection;
+                    opened.incrementAndGet();
+                } else {
+                    connection = backend.connections[slot];
+                }
+            }
+            return connection.openStream();
+        }
+    }
+
+    /**
+     * Close every connection, with their streams.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Backend backend : backends.values()) {
+            synchronized (backend) {
+                for (MuxConnection connection : backend.connections) {
+                    if (connection != null)
+                        connection.close();
+                }
+            }
+        }
+        backends.clear();
+    }
+}
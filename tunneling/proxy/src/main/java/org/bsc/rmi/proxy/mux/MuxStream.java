@@ -0,0 +1,382 @@
+package org.bsc.rmi.proxy.mux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static java.lang.String.format;
+
+/**
+ * MuxStream is a stream of a {@link MuxConnection}, presented as a
+ * java.net.Socket to the RMI transport and to the servlet.
+ * <p>
+ * The stream has a flow control window of its own: a writer waits for
+ * the credit granted by the reader of the other side as it consumes the
+ * data, so a slow stream holds no more than a window of data in the
+ * buffers and never stalls the other streams of the connection.
+ */
+public class MuxStream extends Socket {
+
+    private final MuxConnection connection;
+    private final int id;
+
+    private final Object lock = new Object();
+    private final Deque<byte[]> received = new ArrayDeque<>();
+    private int receivedOffset;
+    private int receivedBytes;
+    /** bytes consumed and not yet given back to the writer of the other side */
+    private int consumed;
+    /** bytes this side may still send */
+    private int credit = MuxConnection.WINDOW;
+
+    private boolean remoteClosed;
+    private boolean localClosed;
+    private boolean reset;
+    private boolean closed;
+    private int timeout;
+
+    private final InputStream inputStream = new MuxInputStream();
+    private final OutputStream outputStream = new MuxOutputStream();
+
+    MuxStream(MuxConnection connection, int id) {
+        super();
+        this.connection = connection;
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Data received from the other side.
+     *
+     * @return false if the data is dropped, the stream being closed
+     * @throws IOException if the other side sent more than its window
+     */
+    boolean onData(byte[] data) throws IOException {
+        synchronized (lock) {
+            if (receivedBytes + data.length > MuxConnection.WINDOW)
+                throw new IOException(format("stream %d: window exceeded", id));
+            if (closed)
+                return false;
+            received.add(data);
+            receivedBytes += data.length;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    void onWindow(int increment) {
+        synchronized (lock) {
+            credit += increment;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The other side has finished writing.
+     *
+     * @return true if both sides are done with the stream
+     */
+    boolean onClose() {
+        synchronized (lock) {
+            remoteClosed = true;
+            lock.notifyAll();
+            return localClosed;
+        }
+    }
+
+    /**
+     * The stream or the whole connection is broken.
+     */
+    void onReset() {
+        synchronized (lock) {
+            reset = true;
+            lock.notifyAll();
+        }
+    }
+
+    class MuxInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            final int n;
+            final int update;
+            synchronized (lock) {
+                final long deadline = System.currentTimeMillis() + timeout;
+                while (received.isEmpty()) {
+                    if (closed)
+                        throw new SocketException("Socket is closed");
+                    if (reset)
+                        throw new SocketException("Connection reset");
+                    if (remoteClosed)
+                        return -1;
+                    await(deadline);
+                }
+
+                final byte[] head = received.peek();
+                n = Math.min(len, head.length - receivedOffset);
+                System.arraycopy(head, receivedOffset, b, off, n);
+                receivedOffset += n;
+                if (receivedOffset == head.length) {
+                    received.poll();
+                    receivedOffset = 0;
+                }
+                receivedBytes -= n;
+
+                // give the credit back by half windows
+                consumed += n;
+                update = (consumed >= MuxConnection.WINDOW / 2) ? consumed : 0;
+                if (update > 0)
+                    consumed = 0;
+            }
+            if (update > 0 && !remoteClosed)
+                connection.sendWindow(id, update);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            synchronized (lock) {
+                return receivedBytes;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            MuxStream.this.close();
+        }
+    }
+
+    class MuxOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                final int n;
+                synchronized (lock) {
+                    while (credit == 0 && !reset && !closed && !localClosed)
+                        await(0);
+                    if (closed || localClosed)
+                        throw new SocketException("Socket output is shutdown");
+                    if (reset)
+                        throw new SocketException("Connection reset");
+                    n = Math.min(Math.min(len, credit), MuxConnection.MAX_FRAME);
+                    credit -= n;
+                }
+                connection.sendData(id, b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            MuxStream.this.close();
+        }
+    }
+
+    /**
+     * Wait for a change of the stream, holding the lock.
+     *
+     * @param deadline time at which the wait times out, 0 to wait forever
+     */
+    private void await(long deadline) throws IOException {
+        try {
+            if (timeout == 0 || deadline == 0) {
+                lock.wait();
+            } else {
+                final long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    throw new SocketTimeoutException("Read timed out");
+                lock.wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        return outputStream;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return connection.getSocket().getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return connection.getSocket().getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return connection.getSocket().getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return connection.getSocket().getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return connection.getSocket().getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return connection.getSocket().getLocalSocketAddress();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+    }
+
+    @Override
+    public boolean getTcpNoDelay() {
+        return true;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+    }
+
+    @Override
+    public boolean getKeepAlive() {
+        return false;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+    }
+
+    @Override
+    public int getSoLinger() {
+        return -1;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        synchronized (lock) {
+            this.timeout = timeout;
+        }
+    }
+
+    @Override
+    public int getSoTimeout() {
+        synchronized (lock) {
+            return timeout;
+        }
+    }
+
+    @Override
+    public void shutdownInput() {
+        synchronized (lock) {
+            received.clear();
+            receivedBytes = 0;
+            remoteClosed = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        final boolean done;
+        synchronized (lock) {
+            if (localClosed || reset)
+                return;
+            localClosed = true;
+            done = remoteClosed;
+            lock.notifyAll();
+        }
+        connection.sendClose(id, done);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed)
+                return;
+            closed = true;
+            received.clear();
+            receivedBytes = 0;
+            lock.notifyAll();
+        }
+        shutdownOutputQuietly();
+    }
+
+    private void shutdownOutputQuietly() {
+        final boolean done;
+        synchronized (lock) {
+            if (localClosed || reset) {
+                connection.remove(id);
+                return;
+            }
+            localClosed = true;
+            done = remoteClosed;
+        }
+        try {
+            connection.sendClose(id, done);
+        } catch (IOException e) {
+            connection.remove(id);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("MuxStream[%d %s]", id, connection.getSocket().getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,300 @@
+package org.bsc.rmi.proxy.shm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring is a single producer, single consumer byte ring in shared memory:
+ * one process writes, the other reads, without lock.
+ * <p>
+ * The producer copies the bytes then publishes the new tail; the consumer
+ * reads the tail, copies the bytes then publishes the new head.  Head and
+ * tail are positions that only grow, on cache lines of their own, read
+ * and written with the absolute accessors of the mapped buffer.
+ * <p>
+ * The positions and the flags are read and written with the volatile
+ * accesses of a VarHandle view of the mapped buffer, on Java 9 and
+ * later: the copy of the bytes stays before the publication of a
+ * position and after its read, and the flag protocol below sees the
+ * accesses of both sides in one order.
+ * <p>
+ * Java 8 has no ordered accessors of the mapped memory, so each side
+ * then orders its plain accesses on the {@link AtomicLong} of its Ring:
+ * a value is written to it before and after a position or a flag is
+ * published, and read from it after a position or a flag of the other
+ * side is read.  The Java memory model does not extend this to the
+ * memory of another process; it holds on HotSpot on x86, whose volatile
+ * accesses are compiler barriers and whose processors only reorder a
+ * store with a later load, which the volatile write fences.  Elsewhere
+ * a plain store may pass the fence before it, so {@link #isSupported()}
+ * refuses the rings on Java 8 but on x86.
+ * <p>
+ * A consumer about to sleep sets the "reader waiting" flag and reads the
+ * tail again; a producer publishing a tail reads the flag and, when it
+ * is set, clears it and wakes the consumer up, see {@link ShmSocket}.
+ * Both sides fence there, so one of them always sees the other; at worst
+ * the consumer is woken up once too often.
+ */
+class Ring {
+
+    private static final int HEAD = 0;
+    private static final int TAIL = 64;
+    private static final int READER_WAITING = 128;
+    private static final int WRITER_CLOSED = 132;
+    private static final int READER_CLOSED = 136;
+    private static final int DATA = 192;
+
+    /** volatile accessors of the long and int views of a buffer, null before Java 9 */
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle SET_LONG;
+    private static final MethodHandle GET_INT;
+    private static final MethodHandle SET_INT;
+
+    static {
+        MethodHandle[] accessors;
+        try {
+            accessors = volatileAccessors();
+        } catch (ReflectiveOperationException e) {
+            accessors = new MethodHandle[4];
+        }
+        GET_LONG = accessors[0];
+        SET_LONG = accessors[1];
+        GET_INT = accessors[2];
+        SET_INT = accessors[3];
+    }
+
+    /** the ring in the mapped connection file, keeping it mapped as long as the ring is used */
+    private final ByteBuffer ring;
+    /** the data of the ring, positioned by the side using this Ring */
+    private final ByteBuffer data;
+    private final int capacity;
+    private final int mask;
+
+    /** last position published by this side, fencing the accesses on Java 8 */
+    private final AtomicLong fence = new AtomicLong();
+
+    /**
+     * @param buffer   the mapped connection file
+     * @param offset   offset of the ring in the file
+     * @param capacity capacity of the ring, a power of two
+     */
+    Ring(MappedByteBuffer buffer, int offset, int capacity) {
+        final ByteBuffer b = buffer.duplicate();
+        b.position(offset).limit(offset + size(capacity));
+        this.ring = b.slice().order(ByteOrder.nativeOrder());
+        b.position(offset + DATA);
+        this.data = b.slice();
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Look the VarHandle views of a buffer up, the sources staying Java 8.
+     *
+     * @return the accessors, getLong(ByteBuffer, int), setLong(ByteBuffer, int, long),
+     *         getInt(ByteBuffer, int) and setInt(ByteBuffer, int, int)
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static MethodHandle[] volatileAccessors() throws ReflectiveOperationException {
+        final Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+        final Class<? extends Enum> accessMode = (Class<? extends Enum>) Class.forName("java.lang.invoke.VarHandle$AccessMode");
+        final Method view = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class);
+        final Method toMethodHandle = varHandle.getMethod("toMethodHandle", accessMode);
+        final Object getVolatile = Enum.valueOf(accessMode, "GET_VOLATILE");
+        final Object setVolatile = Enum.valueOf(accessMode, "SET_VOLATILE");
+
+        final Object longs = view.invoke(null, long[].class, ByteOrder.nativeOrder());
+        final Object ints = view.invoke(null, int[].class, ByteOrder.nativeOrder());
+        return new MethodHandle[] {
+                (MethodHandle) toMethodHandle.invoke(longs, getVolatile),
+                (MethodHandle) toMethodHandle.invoke(longs, setVolatile),
+                (MethodHandle) toMethodHandle.invoke(ints, getVolatile),
+                (MethodHandle) toMethodHandle.invoke(ints, setVolatile),
+        };
+    }
+
+    /**
+     * @return true if the accesses of the rings are ordered on this
+     *         platform, see the limits of Java 8 above
+     */
+    static boolean isSupported() {
+        return GET_LONG != null || System.getProperty("os.arch", "").matches("amd64|x86_64|x86|i[3-6]86");
+    }
+
+    /**
+     * @return the size of a ring of the given capacity in the file
+     */
+    static int size(int capacity) {
+        return DATA + capacity;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Read a position or a flag of the other side, the accesses after it
+     * stay after it.
+     */
+    private long acquire(int index) {
+        if (GET_LONG != null) {
+            try {
+                return (long) GET_LONG.invokeExact(ring, index);
+            } catch (Throwable e) {
+                throw unexpected(e);
+            }
+        }
+        final long value = ring.getLong(index);
+        fence.get();
+        return value;
+    }
+
+    private int acquireInt(int index) {
+        if (GET_INT != null) {
+            try {
+                return (int) GET_INT.invokeExact(ring, index);
+            } catch (Throwable e) {
+                throw unexpected(e);
+            }
+        }
+        final int value = ring.getInt(index);
+        fence.get();
+        return value;
+    }
+
+    /**
+     * Publish a position to the other side, after the accesses before it.
+     * The reads that follow also stay behind it.
+     */
+    private void release(int index, long value) {
+        if (SET_LONG != null) {
+            try {
+                SET_LONG.invokeExact(ring, index, value);
+            } catch (Throwable e) {
+                throw unexpected(e);
+            }
+            return;
+        }
+        fence.set(value);
+        ring.putLong(index, value);
+        fence.set(value);
+    }
+
+    private void releaseInt(int index, int value) {
+        if (SET_INT != null) {
+            try {
+                SET_INT.invokeExact(ring, index, value);
+            } catch (Throwable e) {
+                throw unexpected(e);
+            }
+            return;
+        }
+        fence.set(value);
+        ring.putInt(index, value);
+        fence.set(value);
+    }
+
+    /**
+     * @return the error of an accessor, which throws no checked exception
+     */
+    private static RuntimeException unexpected(Throwable e) {
+        if (e instanceof RuntimeException)
+            return (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        return new IllegalStateException(e);
+    }
+
+    /**
+     * @return the bytes the consumer can read
+     */
+    int available() {
+        return (int) (acquire(TAIL) - ring.getLong(HEAD));
+    }
+
+    /**
+     * Read the bytes available, up to <code>len</code>, without waiting.
+     *
+     * @return the number of bytes read, 0 if the ring is empty
+     */
+    int read(byte[] b, int off, int len) {
+        final long head = ring.getLong(HEAD);
+        final int n = (int) Math.min(len, acquire(TAIL) - head);
+        if (n <= 0)
+            return 0;
+
+        final int from = (int) head & mask;
+        final int first = Math.min(n, capacity - from);
+        data.position(from);
+        data.get(b, off, first);
+        data.position(0);
+        data.get(b, off + first, n - first);
+        release(HEAD, head + n);
+        return n;
+    }
+
+    /**
+     * Write as many bytes as the ring has room for, up to <code>len</code>,
+     * without waiting.
+     *
+     * @return the number of bytes written, 0 if the ring is full
+     */
+    int write(byte[] b, int off, int len) {
+        final long tail = ring.getLong(TAIL);
+        final int n = (int) Math.min(len, capacity - (tail - acquire(HEAD)));
+        if (n <= 0)
+            return 0;
+
+        final int to = (int) tail & mask;
+        final int first = Math.min(n, capacity - to);
+        data.position(to);
+        data.put(b, off, first);
+        data.position(0);
+        data.put(b, off + first, n - first);
+        release(TAIL, tail + n);
+        return n;
+    }
+
+    /**
+     * Tell the producer the consumer is about to sleep.  The caller must
+     * check the ring again before it does.
+     */
+    void setReaderWaiting() {
+        releaseInt(READER_WAITING, 1);
+    }
+
+    void clearReaderWaiting() {
+        releaseInt(READER_WAITING, 0);
+    }
+
+    /**
+     * @return true if the consumer was waiting, the caller must then wake it up
+     */
+    boolean takeReaderWaiting() {
+        if (acquireInt(READER_WAITING) == 0)
+            return false;
+        releaseInt(READER_WAITING, 0);
+        return true;
+    }
+
+    void closeWriter() {
+        releaseInt(WRITER_CLOSED, 1);
+    }
+
+    boolean isWriterClosed() {
+        return acquireInt(WRITER_CLOSED) != 0;
+    }
+
+    void closeReader() {
+        releaseInt(READER_CLOSED, 1);
+    }
+
+    boolean isReaderClosed() {
+        return acquireInt(READER_CLOSED) != 0;
+    }
+}
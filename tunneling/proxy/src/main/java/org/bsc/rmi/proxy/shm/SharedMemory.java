@@ -0,0 +1,123 @@
+package org.bsc.rmi.proxy.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.SocketException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static java.lang.String.format;
+
+/**
+ * SharedMemory maps the files of the shared memory connections, which
+ * the rings then read and write through the mapped buffer.
+ * <p>
+ * A connection file is made of a header, holding a magic number and the
+ * capacity of the rings, followed by the ring from the client to the
+ * server and the ring from the server to the client.
+ */
+public final class SharedMemory {
+
+    /** "RMIS", version 1 */
+    static final int MAGIC = 0x524d4953;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    /** prefix of the names of the connection files */
+    static final String FILE_PREFIX = "rmi-shm-";
+
+    /** capacity of a ring, unless set in KB by this system property */
+    public static final String RING_KB_PROPERTY = "org.bsc.rmi.shm.ringKB";
+    static final int DEFAULT_RING_KB = 256;
+
+    private SharedMemory() {
+    }
+
+    /**
+     * @return the directory of the connection files when none is given:
+     * /dev/shm when there is one, so that the files are never written to
+     * a disk, else the temporary directory
+     */
+    public static String defaultDirectory() {
+        final File shm = new File("/dev/shm");
+        return (shm.isDirectory() && shm.canWrite()) ? shm.getPath() : System.getProperty("java.io.tmpdir");
+    }
+
+    /**
+     * @throws SocketException if the rings cannot order their accesses on this platform, see {@link Ring}
+     */
+    static void checkSupported() throws SocketException {
+        if (!Ring.isSupported())
+            throw new SocketException(format("shared memory connections need Java 9 or later on %s", System.getProperty("os.arch")));
+    }
+
+    /**
+     * @return the capacity of the rings of the new connections, a power of two
+     */
+    static int ringCapacity() {
+        final int kb = Math.max(4, Integer.getInteger(RING_KB_PROPERTY, DEFAULT_RING_KB));
+        return Integer.highestOneBit(kb * 1024 - 1) << 1;
+    }
+
+    /**
+     * @return true if the name is the one of a connection file, and nothing else
+     */
+    static boolean isConnectionFileName(String name) {
+        return name.startsWith(FILE_PREFIX) && name.substring(FILE_PREFIX.length()).matches("[0-9a-f\\-]{1,64}");
+    }
+
+    static long fileSize(int capacity) {
+        return HEADER_SIZE + 2L * Ring.size(capacity);
+    }
+
+    /**
+     * Create and map a connection file, and write its header.
+     */
+    static MappedByteBuffer create(File file, int capacity) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(fileSize(capacity));
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            // the magic last, the file is valid once it is there; the peer
+            // maps it once its name has been sent on the doorbell, after this
+            buffer.putInt(0, MAGIC);
+            return buffer;
+        }
+    }
+
+    /**
+     * Map an existing connection file and check its header.
+     *
+     * @return the mapped file
+     */
+    static MappedByteBuffer open(File file) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long length = raf.length();
+            if (length < HEADER_SIZE)
+                throw new IOException(format("%s is not a connection file", file));
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            final int capacity = buffer.getInt(8);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || Integer.bitCount(capacity) != 1 || length != fileSize(capacity))
+                throw new IOException(format("%s is not a connection file", file));
+            return buffer;
+        }
+    }
+
+    /**
+     * @return the ring from the client to the server of a mapped connection file
+     */
+    static Ring clientToServer(MappedByteBuffer buffer) {
+        return new Ring(buffer, HEADER_SIZE, buffer.getInt(8));
+    }
+
+    /**
+     * @return the ring from the server to the client of a mapped connection file
+     */
+    static Ring serverToClient(MappedByteBuffer buffer) {
+        final int capacity = buffer.getInt(8);
+        return new Ring(buffer, HEADER_SIZE + Ring.size(capacity), capacity);
+    }
+}
@@ -0,0 +1,178 @@
+package org.bsc.rmi.proxy.shm;
+
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * ShmServerSocket accepts the shared memory connections of the clients
+ * of this host.  It listens on the loopback address, where the clients
+ * ring the doorbell of their connections, and maps the connection files
+ * they name in its directory.
+ * <p>
+ * A thread of its own accepts the doorbells and hands them to the
+ * handshake threads, so that a slow client holds none of the others
+ * back; accept returns the connections whose handshake succeeded.  A
+ * client failing the handshake is dropped.
+ */
+@Log
+public class ShmServerSocket extends ServerSocket {
+
+    private static final int BACKLOG = 50;
+
+    /** the connections set up, or the failures of the accept of the doorbells */
+    private final BlockingQueue<Object> accepted = new ArrayBlockingQueue<>(BACKLOG);
+    private final ExecutorService handshakes;
+    private final File directory;
+    private volatile int timeout;
+
+    /**
+     * @param directory the directory of the connection files
+     * @param port      the port of the doorbells, 0 for an anonymous port
+     */
+    public ShmServerSocket(File directory, int port) throws IOException {
+        super(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.directory = directory;
+        try {
+            SharedMemory.checkSupported();
+        } catch (IOException e) {
+            super.close();
+            throw e;
+        }
+        this.handshakes = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, format("shm-handshake-%d", getLocalPort()));
+            t.setDaemon(true);
+            return t;
+        });
+
+        final Thread acceptor = new Thread(this::acceptDoorbells, format("shm-accept-%d", getLocalPort()));
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        log.info( format("create shared memory rmi server socket - %s port %d", directory, getLocalPort()));
+    }
+
+    private void acceptDoorbells() {
+        while (!isClosed()) {
+            try {
+                final Socket doorbell = super.accept();
+                handshakes.execute(() -> handshake(doorbell));
+            } catch (RejectedExecutionException e) {
+                // closed
+            } catch (IOException e) {
+                if (isClosed())
+                    return;
+                // accept throws it, the queue being full holds this thread back
+                if (!offer(e))
+                    return;
+            }
+        }
+    }
+
+    private void handshake(Socket doorbell) {
+        final ShmSocket socket;
+        try {
+            socket = ShmSocket.accept(doorbell, directory);
+        } catch (IOException e) {
+            log.warning( format("shared memory handshake failed with %s: %s", doorbell.getRemoteSocketAddress(), e));
+            closeQuietly(doorbell);
+            return;
+        }
+        if (!offer(socket))
+            closeQuietly(socket);
+    }
+
+    /**
+     * @return false if the server socket was closed meanwhile
+     */
+    private boolean offer(Object result) {
+        try {
+            accepted.put(result);
+        } catch (InterruptedException e) {
+            return false;
+        }
+        if (isClosed()) {
+            accepted.remove(result);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        final Object result;
+        try {
+            final int millis = timeout;
+            result = (millis == 0) ? accepted.take() : accepted.poll(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (result == null)
+            throw new SocketTimeoutException("Accept timed out");
+        if (result == this)
+            throw new SocketException("Socket is closed");
+        if (result instanceof IOException)
+            throw (IOException) result;
+        return (Socket) result;
+    }
+
+    /**
+     * The timeout of {@link #accept()}, the doorbells are always waited for.
+     */
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout can't be negative");
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (handshakes == null)
+            return;
+        handshakes.shutdownNow();
+        for (Object result; (result = accepted.poll()) != null; ) {
+            if (result instanceof Socket)
+                closeQuietly((Socket) result);
+        }
+        // wakes accept up
+        accepted.offer(this);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.fine( format("close %s: %s", socket, e));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("Shm %s", super.toString());
+    }
+}
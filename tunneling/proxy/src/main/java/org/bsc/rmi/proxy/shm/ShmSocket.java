@@ -0,0 +1,374 @@
+package org.bsc.rmi.proxy.shm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.MappedByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.String.format;
+
+/**
+ * ShmSocket is one end of a shared memory connection: the bytes go
+ * through two {@link Ring}s of a file mapped by both processes, the
+ * kernel is only involved to wake up a reader which went to sleep.
+ * <p>
+ * The connection also has a loopback TCP socket, the doorbell, used to
+ * set up the connection and to wake up the peer: a reader finding its
+ * ring empty spins, then yields, then tells the writer it waits and
+ * blocks on the doorbell, where the writer sends a byte when it sees the
+ * reader waiting.  A busy connection never rings the doorbell.  The end
+ * of stream of the doorbell tells the death of the peer process.
+ * <p>
+ * A writer finding the ring full backs off, from spinning to parking up
+ * to a millisecond, until the reader has made room.
+ */
+public class ShmSocket extends Socket {
+
+    /** no spinning on a single processor, the peer could not run meanwhile */
+    static final int SPINS = (Runtime.getRuntime().availableProcessors() > 1) ? 2000 : 0;
+    static final int YIELDS = 200;
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+    static final int ACK = 0;
+
+    private final Socket doorbell;
+    private final InputStream doorbellIn;
+    private final OutputStream doorbellOut;
+    private final Ring in;
+    private final Ring out;
+    private final InputStream inputStream = new ShmInputStream();
+    private final OutputStream outputStream = new ShmOutputStream();
+
+    private volatile boolean closed;
+    private volatile boolean peerGone;
+    private int timeout;
+
+    ShmSocket(Socket doorbell, Ring in, Ring out) throws IOException {
+        super((java.net.SocketImpl) null);      // no underlying SocketImpl for this object
+        this.doorbell = doorbell;
+        this.doorbellIn = doorbell.getInputStream();
+        this.doorbellOut = doorbell.getOutputStream();
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Connect to the endpoint of this host listening on the port: create
+     * and map a connection file in the directory, and hand its name to
+     * the server on the doorbell.  The file is removed once both sides
+     * have mapped it.
+     *
+     * @param directory the directory of the connection files, the one of the server
+     * @param port      the port of the endpoint
+     */
+    public static ShmSocket connect(File directory, int port) throws IOException {
+        SharedMemory.checkSupported();
+        final File file = new File(directory, SharedMemory.FILE_PREFIX + UUID.randomUUID());
+        try {
+            final MappedByteBuffer buffer = SharedMemory.create(file, SharedMemory.ringCapacity());
+
+            final Socket doorbell = new Socket(InetAddress.getLoopbackAddress(), port);
+            try {
+                doorbell.setTcpNoDelay(true);
+                doorbell.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                final DataOutputStream dout = new DataOutputStream(doorbell.getOutputStream());
+                dout.writeInt(SharedMemory.MAGIC);
+                dout.writeUTF(file.getName());
+                dout.flush();
+                final int ack = new DataInputStream(doorbell.getInputStream()).readInt();
+                if (ack != ACK)
+                    throw new SocketException(format("shared memory connection refused by port %d: %d", port, ack));
+                doorbell.setSoTimeout(0);
+            } catch (IOException e) {
+                doorbell.close();
+                throw e;
+            }
+            return new ShmSocket(doorbell, SharedMemory.serverToClient(buffer), SharedMemory.clientToServer(buffer));
+        } finally {
+            // the mapping outlives the file
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Accept a connection on the doorbell: read the name of the
+     * connection file, map it from the directory and acknowledge it.
+     */
+    static ShmSocket accept(Socket doorbell, File directory) throws IOException {
+        doorbell.setTcpNoDelay(true);
+        doorbell.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        final DataInputStream din = new DataInputStream(doorbell.getInputStream());
+        if (din.readInt() != SharedMemory.MAGIC)
+            throw new SocketException("not a shared memory connection");
+        final String name = din.readUTF();
+        if (!SharedMemory.isConnectionFileName(name))
+            throw new SocketException(format("invalid connection file name: %s", name));
+
+        final MappedByteBuffer buffer = SharedMemory.open(new File(directory, name));
+        final DataOutputStream dout = new DataOutputStream(doorbell.getOutputStream());
+        dout.writeInt(ACK);
+        dout.flush();
+        doorbell.setSoTimeout(0);
+        return new ShmSocket(doorbell, SharedMemory.clientToServer(buffer), SharedMemory.serverToClient(buffer));
+    }
+
+    class ShmInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed)
+                throw new SocketException("Socket is closed");
+            if (len == 0)
+                return 0;
+
+            for (int idle = 0; ; ++idle) {
+                int n = in.read(b, off, len);
+                if (n > 0)
+                    return n;
+                if (in.isWriterClosed() || peerGone) {
+                    // the last bytes may have been published before the close
+                    n = in.read(b, off, len);
+                    return (n > 0) ? n : -1;
+                }
+                if (idle < SPINS)
+                    continue;
+                if (idle < SPINS + YIELDS) {
+                    Thread.yield();
+                    continue;
+                }
+
+                in.setReaderWaiting();
+                try {
+                    if (in.available() == 0 && !in.isWriterClosed())
+                        awaitDoorbell();
+                } finally {
+                    in.clearReaderWaiting();
+                }
+                idle = 0;
+            }
+        }
+
+        @Override
+        public int available() {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            ShmSocket.this.close();
+        }
+    }
+
+    class ShmOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int idle = 0; len > 0; ) {
+                if (closed)
+                    throw new SocketException("Socket is closed");
+                if (out.isReaderClosed() || peerGone)
+                    throw new SocketException("Broken pipe");
+
+                final int n = out.write(b, off, len);
+                if (n > 0) {
+                    off += n;
+                    len -= n;
+                    idle = 0;
+                    if (out.takeReaderWaiting())
+                        ringDoorbell();
+                } else {
+                    backOff(idle++);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ShmSocket.this.close();
+        }
+    }
+
+    private void awaitDoorbell() throws IOException {
+        final byte[] bell = new byte[64];
+        try {
+            if (doorbellIn.read(bell) < 0)
+                peerGone = true;
+        } catch (SocketException e) {
+            if (closed)
+                throw new SocketException("Socket is closed");
+            peerGone = true;
+        }
+    }
+
+    private void ringDoorbell() throws IOException {
+        try {
+            synchronized (doorbellOut) {
+                doorbellOut.write(1);
+            }
+        } catch (SocketException e) {
+            peerGone = true;
+            throw new SocketException("Broken pipe");
+        }
+    }
+
+    private static void backOff(int idle) {
+        if (idle < SPINS)
+            return;
+        if (idle < SPINS + YIELDS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(20, idle - SPINS - YIELDS)));
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        return outputStream;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return doorbell.getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return doorbell.getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return doorbell.getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return doorbell.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return doorbell.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return doorbell.getLocalSocketAddress();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+    }
+
+    @Override
+    public boolean getTcpNoDelay() {
+        return true;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+    }
+
+    @Override
+    public boolean getKeepAlive() {
+        return false;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+    }
+
+    @Override
+    public int getSoLinger() {
+        return -1;
+    }
+
+    /**
+     * The timeout applies to the wait on the doorbell, once the reader
+     * has stopped spinning.
+     */
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        this.timeout = timeout;
+        doorbell.setSoTimeout(timeout);
+    }
+
+    @Override
+    public synchronized int getSoTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public void shutdownInput() {
+        in.closeReader();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        out.closeWriter();
+        if (out.takeReaderWaiting())
+            ringDoorbell();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        out.closeWriter();
+        in.closeReader();
+        // the end of stream of the doorbell wakes up the peer
+        doorbell.close();
+    }
+
+    @Override
+    public String toString() {
+        return format("ShmSocket[%s ring=%d]", doorbell.getRemoteSocketAddress(), in.capacity());
+    }
+}
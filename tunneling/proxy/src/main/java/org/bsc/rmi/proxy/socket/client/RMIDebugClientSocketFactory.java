@@ -2,58 +2,63 @@ package org.bsc.rmi.proxy.socket.client;
 
 import lombok.EqualsAndHashCode;
 import lombok.extern.java.Log;
+import org.bsc.rmi.capture.CapturedConnection;
+import org.bsc.rmi.capture.WireCapture;
+import org.bsc.rmi.jrmp.JrmpDecoder;
+import org.bsc.rmi.jrmp.JrmpStats;
+import org.bsc.rmi.metrics.CountingInputStream;
+import org.bsc.rmi.metrics.CountingOutputStream;
+import org.bsc.rmi.metrics.SocketCounters;
+import org.bsc.rmi.metrics.SocketStats;
 
 import java.io.*;
 import java.net.Socket;
 import java.rmi.server.RMIClientSocketFactory;
-import java.util.logging.Level;
 
 import static java.lang.String.format;
 
 @Log
 public class RMIDebugClientSocketFactory implements RMIClientSocketFactory {
 
-    String formatPrintableBuffer( byte[] b, int off, int len ) {
-        final StringBuilder sb = new StringBuilder();
-        for( int i=off ; i < len ; ++i ) {
-            if( Character.isAlphabetic((char)b[i]) ) {
-                sb.append( '\"').append( (char)b[i] ).append('\"');
-            }
-            else {
-                sb.append( b[i] );
-            }
-            sb.append(' ');
-        }
-        return sb.toString();
-    }
+    /** traffic of the sockets created by every instance of this factory */
+    static final SocketStats stats = SocketStats.forName(RMIDebugClientSocketFactory.class.getSimpleName());
 
     class DebugOutputStream extends FilterOutputStream {
-        public DebugOutputStream(OutputStream out) {
+        final JrmpDecoder decoder;
+        final CapturedConnection capture;
+
+        public DebugOutputStream(OutputStream out, JrmpDecoder decoder, CapturedConnection capture) {
             super(out);
+            this.decoder = decoder;
+            this.capture = capture;
         }
 
-//        @Override
-//        public void write(int b) throws IOException {
-//            if(log.isLoggable(Level.FINE)) {
-//                log.fine( format(">\nwrite = '%c' %d\n<", (char)b, b));
-//            }
-//            super.write(b);
-//        }
+        @Override
+        public void write(int b) throws IOException {
+            final byte[] single = { (byte) b };
+            capture.out(single, 0, 1);
+            decoder.onRequest(single, 0, 1);
+            out.write(b);
+        }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            if(log.isLoggable(Level.FINE)) {
-                log.fine( format("\n>\nwrite bytes( off:%d, len:%d, b.length:%d )\n%s<\n",
-                            off, len, b.length, formatPrintableBuffer(b,off,len)));
-            }
-            super.write(b, off, len);
+            capture.out(b, off, len);
+            decoder.onRequest(b, off, len);
+            // write the whole buffer at once, FilterOutputStream would write it byte per byte
+            out.write(b, off, len);
         }
     }
 
     class DebugInputStream extends FilterInputStream {
 
-        public DebugInputStream(InputStream in) {
+        final JrmpDecoder decoder;
+        final CapturedConnection capture;
+
+        public DebugInputStream(InputStream in, JrmpDecoder decoder, CapturedConnection capture) {
             super(in);
+            this.decoder = decoder;
+            this.capture = capture;
         }
 
         @Override
@@ -65,10 +70,8 @@ public class RMIDebugClientSocketFactory implements RMIClientSocketFactory {
         public int read(byte[] b, int off, int len) throws IOException {
             int result = super.read(b, off, len);
 
-            if(log.isLoggable(Level.FINE)) {
-                log.fine( format("\n>\nread bytes( off:%d, len:%d ) = %d\n%s\n<",
-                        off, len, result, formatPrintableBuffer(b,off,result)));
-            }
+            decoder.onResponse(b, off, result);
+            capture.in(b, off, result);
 
             return result;
         }
@@ -77,21 +80,40 @@ public class RMIDebugClientSocketFactory implements RMIClientSocketFactory {
     @EqualsAndHashCode
     class DebugSocket extends Socket {
 
+        @EqualsAndHashCode.Exclude
+        final SocketCounters counters;
+
+        @EqualsAndHashCode.Exclude
+        final JrmpDecoder decoder = new JrmpDecoder(JrmpStats.getDefault(), "client");
+
+        @EqualsAndHashCode.Exclude
+        final CapturedConnection capture;
 
         public DebugSocket(String host, int port) throws IOException {
             super(host, port);
 
+            counters = stats.open(this);
+            capture = WireCapture.open(this);
+
             log.info( format("create rmi client socket - host:%s port:%d", host, port));
         }
 
         @Override
         public InputStream getInputStream() throws IOException {
-            return new DebugInputStream(super.getInputStream());
+            return new DebugInputStream(new CountingInputStream(super.getInputStream(), counters), decoder, capture);
         }
 
         @Override
         public OutputStream getOutputStream() throws IOException {
-            return new DebugOutputStream(super.getOutputStream());
+            return new DebugOutputStream(new CountingOutputStream(super.getOutputStream(), counters), decoder, capture);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            counters.close();
+            decoder.close();
+            capture.close();
+            super.close();
         }
 
 
@@ -0,0 +1,85 @@
+package org.bsc.rmi.proxy.socket.client;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.java.Log;
+import org.bsc.rmi.impair.ImpairedConnection;
+import org.bsc.rmi.impair.Impairment;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMIImpairedClientSocketFactory simulates a slow network between the
+ * client and the server: latency, jitter, a bandwidth cap, a connection
+ * setup delay and random resets, as described by {@link Impairment}.
+ * <p>
+ * Both directions of the connections are impaired, so the factory
+ * simulates the whole link on its own.  It is serializable, so it can
+ * be given to <code>exportObject</code> to impair the link of every
+ * client of a remote object.
+ */
+@Log
+@EqualsAndHashCode
+public class RMIImpairedClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Impairment impairment;
+
+    /**
+     * Impair the connections as configured by the system properties.
+     */
+    public RMIImpairedClientSocketFactory() {
+        this(Impairment.fromSystemProperties());
+    }
+
+    public RMIImpairedClientSocketFactory(Impairment impairment) {
+        this.impairment = impairment;
+    }
+
+    static class ImpairedSocket extends Socket {
+
+        final ImpairedConnection connection;
+
+        public ImpairedSocket(String host, int port, Impairment impairment) throws IOException {
+            super();
+
+            if (impairment.getConnectMillis() > 0) {
+                try {
+                    Thread.sleep(impairment.getConnectMillis());
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while connecting");
+                }
+            }
+            connect(new InetSocketAddress(host, port));
+            connection = new ImpairedConnection(this, impairment, true);
+
+            log.fine( format("create impaired rmi client socket - host:%s port:%d %s", host, port, impairment));
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connection.input(super.getInputStream());
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connection.output(super.getOutputStream());
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            connection.close();
+            super.close();
+        }
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return new ImpairedSocket( host, port, impairment );
+    }
+}
@@ -0,0 +1,100 @@
+package org.bsc.rmi.proxy.socket.client;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.java.Log;
+import org.bsc.rmi.jrmp.JrmpDecoder;
+import org.bsc.rmi.jrmp.JrmpStats;
+import org.bsc.rmi.replay.TrafficRecorder;
+
+import java.io.*;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMIRecordingClientSocketFactory records the calls sent through its
+ * sockets, with their timing and the bytes of their call messages, so
+ * that they can be replayed later by {@link org.bsc.rmi.replay.TrafficReplay}.
+ * <p>
+ * The recording is written by {@link TrafficRecorder}.  The factory is
+ * serializable, so it can be given to <code>exportObject</code> to
+ * record the calls of every client of a remote object.
+ */
+@Log
+@EqualsAndHashCode
+public class RMIRecordingClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static class RecordingOutputStream extends FilterOutputStream {
+        final JrmpDecoder decoder;
+
+        public RecordingOutputStream(OutputStream out, JrmpDecoder decoder) {
+            super(out);
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            decoder.onRequest(b, off, len);
+            // write the whole buffer at once, FilterOutputStream would write it byte per byte
+            out.write(b, off, len);
+        }
+    }
+
+    static class RecordingInputStream extends FilterInputStream {
+        final JrmpDecoder decoder;
+
+        public RecordingInputStream(InputStream in, JrmpDecoder decoder) {
+            super(in);
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IllegalAccessError("We don't expect that this method is invoked directly!");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+
+            decoder.onResponse(b, off, result);
+
+            return result;
+        }
+    }
+
+    static class RecordingSocket extends Socket {
+
+        final JrmpDecoder decoder = new JrmpDecoder(JrmpStats.getDefault(), "client", TrafficRecorder.open());
+
+        public RecordingSocket(String host, int port) throws IOException {
+            super(host, port);
+
+            log.fine( format("create recording rmi client socket - host:%s port:%d", host, port));
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new RecordingInputStream(super.getInputStream(), decoder);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new RecordingOutputStream(super.getOutputStream(), decoder);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            decoder.close();
+            super.close();
+        }
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return new RecordingSocket( host, port );
+    }
+}
@@ -0,0 +1,54 @@
+package org.bsc.rmi.proxy.socket.client;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.java.Log;
+import org.bsc.rmi.proxy.shm.SharedMemory;
+import org.bsc.rmi.proxy.shm.ShmSocket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMISharedMemoryClientSocketFactory connects to the endpoint through
+ * shared memory, see {@link ShmSocket}: the host is ignored, the server
+ * must be on the same host and export the object with an
+ * RMISharedMemoryServerSocketFactory.
+ * <p>
+ * The factory is serializable, so it can be given to
+ * <code>exportObject</code> for the stubs of co-located clients; the
+ * directory of the connection files then comes with the stub.
+ */
+@Log
+@EqualsAndHashCode
+public class RMISharedMemoryClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String directory;
+
+    /**
+     * Use the default directory of the connection files, see {@link SharedMemory#defaultDirectory()}.
+     */
+    public RMISharedMemoryClientSocketFactory() {
+        this(SharedMemory.defaultDirectory());
+    }
+
+    /**
+     * @param directory the directory of the connection files, the one of the server
+     */
+    public RMISharedMemoryClientSocketFactory(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        log.fine( format("create shared memory rmi client socket - %s port %d", directory, port));
+
+        return ShmSocket.connect(new File(directory), port);
+    }
+}
@@ -0,0 +1,49 @@
+package org.bsc.rmi.proxy.socket.client;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.java.Log;
+import org.bsc.rmi.proxy.unix.UnixDomainSockets;
+import org.bsc.rmi.proxy.unix.UnixSocket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMIUnixClientSocketFactory connects to the unix domain socket of the
+ * endpoint, <code>rmi-&lt;port&gt;.sock</code> in the socket directory,
+ * instead of its TCP port: the host is ignored, the server must be on
+ * the same host.
+ * <p>
+ * It needs Java 16 or later, see {@link UnixDomainSockets}.  The factory
+ * is serializable, so it can be given to <code>exportObject</code> for
+ * the stubs of co-located clients.
+ */
+@Log
+@EqualsAndHashCode
+public class RMIUnixClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String directory;
+
+    /**
+     * @param directory the directory of the socket files
+     */
+    public RMIUnixClientSocketFactory(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        final File file = UnixDomainSockets.socketFile(new File(directory), port);
+
+        log.fine( format("create unix rmi client socket - %s", file));
+
+        return new UnixSocket(UnixDomainSockets.connect(file), port);
+    }
+}
@@ -2,44 +2,64 @@ package org.bsc.rmi.proxy.socket.server;
 
 import lombok.EqualsAndHashCode;
 import lombok.extern.java.Log;
+import org.bsc.rmi.capture.CapturedConnection;
+import org.bsc.rmi.capture.WireCapture;
+import org.bsc.rmi.jrmp.JrmpDecoder;
+import org.bsc.rmi.jrmp.JrmpStats;
+import org.bsc.rmi.metrics.CountingInputStream;
+import org.bsc.rmi.metrics.CountingOutputStream;
+import org.bsc.rmi.metrics.SocketCounters;
+import org.bsc.rmi.metrics.SocketStats;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.rmi.server.RMIServerSocketFactory;
-import java.util.logging.Level;
 
 import static java.lang.String.format;
 
 @Log
 public class RMIDebugServerSocketFactory implements RMIServerSocketFactory {
 
+    /** traffic of the sockets accepted by every instance of this factory */
+    static final SocketStats stats = SocketStats.forName(RMIDebugServerSocketFactory.class.getSimpleName());
+
     static class DebugOutputStream extends FilterOutputStream {
-        public DebugOutputStream(OutputStream out) {
+        final JrmpDecoder decoder;
+        final CapturedConnection capture;
+
+        public DebugOutputStream(OutputStream out, JrmpDecoder decoder, CapturedConnection capture) {
             super(out);
+            this.decoder = decoder;
+            this.capture = capture;
         }
 
-//        @Override
-//        public void write(int b) throws IOException {
-//            if(log.isLoggable(Level.FINE)) {
-//                log.fine( format(">\nwrite = '%c' %d\n<", (char)b, b));
-//            }
-//            super.write(b);
-//        }
+        @Override
+        public void write(int b) throws IOException {
+            final byte[] single = { (byte) b };
+            capture.out(single, 0, 1);
+            decoder.onResponse(single, 0, 1);
+            out.write(b);
+        }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            if(log.isLoggable(Level.FINE)) {
-                log.fine( format("\n>\nwrite bytes( off:%d, len:%d )\n<", off, len));
-            }
-            super.write(b, off, len);
+            capture.out(b, off, len);
+            decoder.onResponse(b, off, len);
+            // write the whole buffer at once, FilterOutputStream would write it byte per byte
+            out.write(b, off, len);
         }
     }
 
     static class DebugInputStream extends FilterInputStream {
 
-        public DebugInputStream(InputStream in) {
+        final JrmpDecoder decoder;
+        final CapturedConnection capture;
+
+        public DebugInputStream(InputStream in, JrmpDecoder decoder, CapturedConnection capture) {
             super(in);
+            this.decoder = decoder;
+            this.capture = capture;
         }
 
         @Override
@@ -51,9 +71,8 @@ public class RMIDebugServerSocketFactory implements RMIServerSocketFactory {
         public int read(byte[] b, int off, int len) throws IOException {
             int result = super.read(b, off, len);
 
-            if(log.isLoggable(Level.FINE)) {
-                log.fine( format("\n>\nread bytes( off:%d, len:%d ) = %d\n<", off, len, result));
-            }
+            decoder.onRequest(b, off, result);
+            capture.in(b, off, result);
 
             return result;
         }
@@ -62,6 +81,17 @@ public class RMIDebugServerSocketFactory implements RMIServerSocketFactory {
     @EqualsAndHashCode
     static class DebugSocket extends Socket {
 
+        /** set once the socket has been accepted */
+        @EqualsAndHashCode.Exclude
+        SocketCounters counters;
+
+        @EqualsAndHashCode.Exclude
+        final JrmpDecoder decoder = new JrmpDecoder(JrmpStats.getDefault(), "server");
+
+        /** set once the socket has been accepted */
+        @EqualsAndHashCode.Exclude
+        CapturedConnection capture;
+
         /**
          * Creates an unconnected socket, with the
          * system-default type of SocketImpl.
@@ -75,12 +105,22 @@ public class RMIDebugServerSocketFactory implements RMIServerSocketFactory {
 
         @Override
         public InputStream getInputStream() throws IOException {
-            return new DebugInputStream(super.getInputStream());
+            return new DebugInputStream(new CountingInputStream(super.getInputStream(), counters), decoder, capture);
         }
 
         @Override
         public OutputStream getOutputStream() throws IOException {
-            return new DebugOutputStream(super.getOutputStream());
+            return new DebugOutputStream(new CountingOutputStream(super.getOutputStream(), counters), decoder, capture);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (counters != null)
+                counters.close();
+            decoder.close();
+            if (capture != null)
+                capture.close();
+            super.close();
         }
 
 
@@ -98,8 +138,10 @@ public class RMIDebugServerSocketFactory implements RMIServerSocketFactory {
 
         @Override
         public Socket accept() throws IOException {
-            final Socket result = new DebugSocket();
+            final DebugSocket result = new DebugSocket();
             implAccept(result);
+            result.counters = stats.open(result);
+            result.capture = WireCapture.open(result);
             return result;
         }
 
@@ -0,0 +1,98 @@
+package org.bsc.rmi.proxy.socket.server;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.java.Log;
+import org.bsc.rmi.impair.ImpairedConnection;
+import org.bsc.rmi.impair.Impairment;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMIImpairedServerSocketFactory simulates a slow network between the
+ * clients and the server, as described by {@link Impairment}, for
+ * clients whose socket factory cannot be changed.
+ * <p>
+ * Both directions of the accepted connections are impaired: use it or
+ * {@link org.bsc.rmi.proxy.socket.client.RMIImpairedClientSocketFactory},
+ * not both, unless the link is meant to be crossed twice.
+ */
+@Log
+@EqualsAndHashCode
+public class RMIImpairedServerSocketFactory implements RMIServerSocketFactory {
+
+    private final Impairment impairment;
+
+    /**
+     * Impair the connections as configured by the system properties.
+     */
+    public RMIImpairedServerSocketFactory() {
+        this(Impairment.fromSystemProperties());
+    }
+
+    public RMIImpairedServerSocketFactory(Impairment impairment) {
+        this.impairment = impairment;
+    }
+
+    static class ImpairedSocket extends Socket {
+
+        /** set once the socket has been accepted */
+        ImpairedConnection connection;
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connection.input(super.getInputStream());
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connection.output(super.getOutputStream());
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (connection != null)
+                connection.close();
+            super.close();
+        }
+    }
+
+    static class ImpairedServerSocket extends ServerSocket {
+
+        final Impairment impairment;
+
+        public ImpairedServerSocket(int port, Impairment impairment) throws IOException {
+            super(port);
+            this.impairment = impairment;
+
+            log.info( format("create impaired rmi server socket - port:%d %s", port, impairment));
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            final ImpairedSocket result = new ImpairedSocket();
+            implAccept(result);
+            // the setup delay is applied to the first data received
+            result.connection = new ImpairedConnection(result, impairment, false);
+            return result;
+        }
+    }
+
+    /**
+     * Create a server socket on the specified port (port 0 indicates
+     * an anonymous port).
+     *
+     * @param port the port number
+     * @return the server socket on the specified port
+     * @throws IOException if an I/O error occurs during server socket
+     *                     creation
+     */
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new ImpairedServerSocket(port, impairment);
+    }
+}
@@ -0,0 +1,47 @@
+package org.bsc.rmi.proxy.socket.server;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.java.Log;
+import org.bsc.rmi.proxy.http.server.RMIHttpServerSocketFactory;
+import org.bsc.rmi.proxy.inproc.InProcessEndpoints;
+import org.bsc.rmi.proxy.inproc.InProcessServerSocket;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMIInProcessServerSocketFactory listens on a TCP port like
+ * RMIHttpServerSocketFactory, and also registers the endpoint in
+ * {@link InProcessEndpoints}: the RMIServletHandler running in the same
+ * VM then forwards the calls to it through in-memory pipes, without
+ * loopback connection nor ephemeral port.
+ * <p>
+ * The accepted connections, TCP or in-process, may carry calls
+ * tunneled in HTTP, as the forwarded ones do.
+ */
+@Log
+@EqualsAndHashCode
+public class RMIInProcessServerSocketFactory implements RMIServerSocketFactory {
+
+    static class HttpAwareInProcessServerSocket extends InProcessServerSocket {
+
+        HttpAwareInProcessServerSocket(int port) throws IOException {
+            super(port);
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            return RMIHttpServerSocketFactory.acceptHttpAware(super.accept(), getLocalPort());
+        }
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        log.info( format("%s.createServerSocket(%d)", getClass().getSimpleName(), port) );
+        return new HttpAwareInProcessServerSocket(port);
+    }
+}
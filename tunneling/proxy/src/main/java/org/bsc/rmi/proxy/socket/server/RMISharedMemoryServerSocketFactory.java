@@ -0,0 +1,42 @@
+package org.bsc.rmi.proxy.socket.server;
+
+import lombok.EqualsAndHashCode;
+import org.bsc.rmi.proxy.shm.SharedMemory;
+import org.bsc.rmi.proxy.shm.ShmServerSocket;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * RMISharedMemoryServerSocketFactory accepts the connections of the
+ * RMISharedMemoryClientSocketFactory of the clients sharing its host:
+ * the calls then go through memory mapped files, see
+ * {@link org.bsc.rmi.proxy.shm.ShmSocket}, and the port only listens on
+ * the loopback address to set the connections up.
+ */
+@EqualsAndHashCode
+public class RMISharedMemoryServerSocketFactory implements RMIServerSocketFactory {
+
+    private final String directory;
+
+    /**
+     * Use the default directory of the connection files, see {@link SharedMemory#defaultDirectory()}.
+     */
+    public RMISharedMemoryServerSocketFactory() {
+        this(SharedMemory.defaultDirectory());
+    }
+
+    /**
+     * @param directory the directory of the connection files
+     */
+    public RMISharedMemoryServerSocketFactory(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new ShmServerSocket(new File(directory), port);
+    }
+}
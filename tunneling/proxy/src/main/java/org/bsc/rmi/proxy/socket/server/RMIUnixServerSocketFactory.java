@@ -0,0 +1,65 @@
+package org.bsc.rmi.proxy.socket.server;
+
+import lombok.EqualsAndHashCode;
+import org.bsc.rmi.proxy.http.server.RMIHttpServerSocketFactory;
+import org.bsc.rmi.proxy.unix.UnixDomainSockets;
+import org.bsc.rmi.proxy.unix.UnixServerSocket;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RMIUnixServerSocketFactory listens on a unix domain socket,
+ * <code>rmi-&lt;port&gt;.sock</code> in the socket directory, instead of
+ * a TCP port, for the clients and the RMIServletHandler sharing the host
+ * of the server.  Local hops then use neither the TCP stack nor
+ * ephemeral ports, and leave no connection in TIME_WAIT.
+ * <p>
+ * The port only names the socket file.  An anonymous port is given a
+ * number of the dynamic range whose file does not exist yet.
+ * <p>
+ * Like RMIHttpServerSocketFactory, the accepted connections may carry
+ * calls tunneled in HTTP, so that the servlet can forward calls to it.
+ * It needs Java 16 or later, see {@link UnixDomainSockets}.
+ */
+@EqualsAndHashCode
+public class RMIUnixServerSocketFactory implements RMIServerSocketFactory {
+
+    static final int DYNAMIC_PORTS_START = 49152;
+
+    private final String directory;
+
+    /**
+     * @param directory the directory of the socket files
+     */
+    public RMIUnixServerSocketFactory(String directory) {
+        this.directory = directory;
+    }
+
+    static class HttpAwareUnixServerSocket extends UnixServerSocket {
+
+        HttpAwareUnixServerSocket(File file, int port) throws IOException {
+            super(file, port);
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            return RMIHttpServerSocketFactory.acceptHttpAware(super.accept(), getLocalPort());
+        }
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        final File dir = new File(directory);
+        if (port == 0) {
+            do {
+                port = ThreadLocalRandom.current().nextInt(DYNAMIC_PORTS_START, 0x10000);
+            } while (UnixDomainSockets.socketFile(dir, port).exists());
+        }
+        return new HttpAwareUnixServerSocket(UnixDomainSockets.socketFile(dir, port), port);
+    }
+}
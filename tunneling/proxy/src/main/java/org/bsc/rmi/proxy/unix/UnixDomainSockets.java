@@ -0,0 +1,119 @@
+package org.bsc.rmi.proxy.unix;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static java.lang.String.format;
+
+/**
+ * UnixDomainSockets opens the channels of unix domain sockets.
+ * <p>
+ * Unix domain socket channels are only available from Java 16, while
+ * the tunnel is built for Java 8, so they are reached by reflection:
+ * on an older VM {@link #isSupported()} is false and opening a channel
+ * fails with an IOException.
+ * <p>
+ * The sockets of the RMI endpoints are files named after the port of
+ * the endpoint, <code>rmi-&lt;port&gt;.sock</code>, in a directory
+ * shared by the server and its co-located clients.
+ */
+public final class UnixDomainSockets {
+
+    private static final ProtocolFamily UNIX;
+    private static final Method addressOf;
+    private static final Method openSocket;
+    private static final Method openServer;
+
+    static {
+        ProtocolFamily family = null;
+        Method of = null, socket = null, server = null;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+            of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            socket = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            server = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            family = null;
+        }
+        UNIX = family;
+        addressOf = of;
+        openSocket = socket;
+        openServer = server;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * @return true if the VM supports unix domain sockets
+     */
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * @return the file of the socket of the endpoint listening on the given port
+     */
+    public static File socketFile(File directory, int port) {
+        return new File(directory, format("rmi-%d.sock", port));
+    }
+
+    /**
+     * @return the address of the socket file
+     */
+    public static SocketAddress address(File file) throws IOException {
+        return (SocketAddress) invoke(addressOf, null, file.getPath());
+    }
+
+    /**
+     * Connect to the socket file.
+     */
+    public static SocketChannel connect(File file) throws IOException {
+        final SocketChannel channel = (SocketChannel) invoke(openSocket, null, UNIX);
+        try {
+            channel.connect(address(file));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Bind a server channel to the socket file, replacing the file left
+     * by a previous server.
+     */
+    public static ServerSocketChannel bind(File file) throws IOException {
+        final ServerSocketChannel channel = (ServerSocketChannel) invoke(openServer, null, UNIX);
+        try {
+            if (file.exists() && !file.delete())
+                throw new IOException(format("cannot replace %s", file));
+            channel.bind(address(file));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object arg) throws IOException {
+        if (!isSupported())
+            throw new IOException("unix domain sockets need Java 16 or later");
+        try {
+            return method.invoke(target, arg);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
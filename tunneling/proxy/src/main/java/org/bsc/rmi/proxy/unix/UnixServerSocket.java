@@ -0,0 +1,98 @@
+package org.bsc.rmi.proxy.unix;
+
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+
+import static java.lang.String.format;
+
+/**
+ * UnixServerSocket presents the channel of a unix domain server socket
+ * as a java.net.ServerSocket.  The socket file is removed when the
+ * server socket is closed.
+ */
+@Log
+public class UnixServerSocket extends ServerSocket {
+
+    private final ServerSocketChannel channel;
+    private final File file;
+    private final int port;
+
+    /**
+     * @param file the socket file
+     * @param port the port of the RMI endpoint the file is named after
+     */
+    public UnixServerSocket(File file, int port) throws IOException {
+        super();
+        this.file = file;
+        this.port = port;
+        this.channel = UnixDomainSockets.bind(file);
+
+        log.info( format("create unix rmi server socket - %s", file));
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        if (isClosed())
+            throw new SocketException("Socket is closed");
+        try {
+            return new UnixSocket(channel.accept(), port);
+        } catch (ClosedChannelException e) {
+            // closed meanwhile, reported the way a ServerSocket does
+            throw new SocketException("Socket is closed");
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return port;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        try {
+            return channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (!file.delete() && file.exists())
+                log.warning(format("cannot remove %s", file));
+            super.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("UnixServerSocket[%s port=%d]", file, port);
+    }
+}
@@ -0,0 +1,135 @@
+package org.bsc.rmi.replay;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.jrmp.JrmpDecoder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * CallRecording is the file format of the recorded calls.
+ * <p>
+ * The file starts with the magic <code>RMIREC01</code> and a version
+ * int, followed by one record per call written with a
+ * {@link DataOutputStream}:
+ * <pre>
+ *     long    offset of the call start from the start of the recording, in nanoseconds
+ *     long    latency observed while recording, -1 if there was no return
+ *     int     connection number
+ *     UTF     method label
+ *     boolean exceptional return
+ *     long    size of the return message
+ *     int     size of the call message
+ *     byte[]  the call message
+ * </pre>
+ * Records are appended in the order the calls complete, so a reader
+ * sorts them by offset before replaying them.
+ */
+@Log
+public final class CallRecording {
+
+    static final long FILE_MAGIC = 0x524d495245433031L; // "RMIREC01"
+    static final int VERSION = 1;
+
+    private CallRecording() {
+    }
+
+    /**
+     * Writer appends the calls notified by the decoders of the recorded
+     * connections.  Every record is flushed, so the file is usable even
+     * if the VM stops abruptly.
+     */
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final DataOutputStream out;
+        private final long startNanos = System.nanoTime();
+        private boolean failed;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeLong(FILE_MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        }
+
+        /**
+         * @param connection number identifying the connection in the recording
+         * @return a listener recording the calls of a connection
+         */
+        public JrmpDecoder.Listener listener(int connection) {
+            return (side, method, callStartNanos, latencyNanos, request, responseBytes, exception) ->
+                    write(callStartNanos - startNanos, latencyNanos, connection, method, request, responseBytes, exception);
+        }
+
+        synchronized void write(long offsetNanos, long latencyNanos, int connection, String method,
+                                byte[] request, long responseBytes, boolean exception) {
+            if (failed)
+                return;
+            try {
+                out.writeLong(offsetNanos);
+                out.writeLong(latencyNanos);
+                out.writeInt(connection);
+                out.writeUTF(method);
+                out.writeBoolean(exception);
+                out.writeLong(responseBytes);
+                out.writeInt(request.length);
+                out.write(request);
+                out.flush();
+            } catch (IOException e) {
+                // do not fail the calls because of the recording
+                failed = true;
+                log.log(Level.WARNING, format("recording to %s stopped", file), e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Read every call of a recording, sorted by start offset.
+     *
+     * @param file the recording
+     * @return the recorded calls
+     * @throws IOException if the file is not a recording
+     */
+    public static List<RecordedCall> read(File file) throws IOException {
+        final List<RecordedCall> calls = new ArrayList<>();
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readLong() != FILE_MAGIC)
+                throw new IOException(format("%s is not a call recording", file));
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException(format("unsupported recording version %d in %s", version, file));
+
+            try {
+                while (true) {
+                    final long offsetNanos = in.readLong();
+                    final long latencyNanos = in.readLong();
+                    final int connection = in.readInt();
+                    final String method = in.readUTF();
+                    final boolean exception = in.readBoolean();
+                    final long responseBytes = in.readLong();
+                    final byte[] request = new byte[in.readInt()];
+                    in.readFully(request);
+
+                    calls.add(new RecordedCall(offsetNanos, latencyNanos, connection, method, request, responseBytes, exception));
+                }
+            } catch (EOFException e) {
+                // end of the recording, or a last record truncated by an abrupt stop
+            }
+        }
+
+        calls.sort((a, b) -> Long.compare(a.getOffsetNanos(), b.getOffsetNanos()));
+        return calls;
+    }
+}
@@ -0,0 +1,32 @@
+package org.bsc.rmi.replay;
+
+import lombok.Value;
+
+/**
+ * A call read from a recording: when it started, on which connection,
+ * the bytes of its call message and what the server answered.
+ */
+@Value
+public class RecordedCall {
+
+    /** nanoseconds since the start of the recording */
+    long offsetNanos;
+
+    /** latency observed while recording, -1 if there was no return */
+    long latencyNanos;
+
+    /** connection the call was sent on */
+    int connection;
+
+    /** label of the method invoked */
+    String method;
+
+    /** the call message, from its type byte to the last argument byte */
+    byte[] request;
+
+    /** size of the return message */
+    long responseBytes;
+
+    /** true if the return was exceptional */
+    boolean exception;
+}
@@ -0,0 +1,65 @@
+package org.bsc.rmi.replay;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.jrmp.JrmpDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * TrafficRecorder holds the {@link CallRecording} shared by the
+ * recording socket factories of the VM.
+ * <p>
+ * The recording is written to the file named by the
+ * <code>org.bsc.rmi.record.file</code> system property,
+ * <code>rmi-calls.rec</code> in the working directory by default.  The
+ * file is created when the first recorded connection is opened and
+ * replaced at every start of the VM.
+ */
+@Log
+public final class TrafficRecorder {
+
+    public static final String FILE_PROPERTY = "org.bsc.rmi.record.file";
+
+    private static final AtomicInteger connections = new AtomicInteger();
+
+    private static CallRecording.Writer writer;
+    private static boolean initialized;
+
+    private TrafficRecorder() {
+    }
+
+    /**
+     * @return a listener recording the calls of a new connection, null
+     * if the recording cannot be written
+     */
+    public static JrmpDecoder.Listener open() {
+        final CallRecording.Writer w = writer();
+        return (w == null) ? null : w.listener(connections.incrementAndGet());
+    }
+
+    private static synchronized CallRecording.Writer writer() {
+        if (initialized)
+            return writer;
+        initialized = true;
+
+        writer = AccessController.doPrivileged((PrivilegedAction<CallRecording.Writer>) () -> {
+            final File file = new File(System.getProperty(FILE_PROPERTY, "rmi-calls.rec"));
+            try {
+                final CallRecording.Writer w = new CallRecording.Writer(file);
+                log.info(format("recording calls into %s", file.getAbsolutePath()));
+                return w;
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.WARNING, format("call recording disabled, cannot create %s", file), e);
+                return null;
+            }
+        });
+        return writer;
+    }
+}
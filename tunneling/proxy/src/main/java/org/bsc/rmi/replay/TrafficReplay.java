@@ -0,0 +1,251 @@
+package org.bsc.rmi.replay;
+
+import org.bsc.rmi.metrics.LatencyHistogram;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.String.format;
+
+/**
+ * TrafficReplay sends the calls of a {@link CallRecording} again, each
+ * one as a single operation JRMP message in an HTTP POST, the way
+ * {@link org.bsc.rmi.proxy.http.client.HttpSendSocket} tunnels them.
+ * <pre>
+ * usage: TrafficReplay [-c concurrency] [-s speed] [-n loops] url file
+ *     -c concurrency  number of calls in flight, 1 by default
+ *     -s speed        rate of the replay relative to the recording, 2 replays
+ *                     twice as fast; 0 sends the calls back to back; 1 by default
+ *     -n loops        number of times the recording is replayed, 1 by default
+ *     url             http://proxy/rmi?forward=1099 to go through RMIHttpProxy,
+ *                     http://host:port/ to post directly to an HttpAwareServerSocket
+ * </pre>
+ * When the calls are paced, the latency of a call is measured from the
+ * time it was scheduled to start, not from the time a free worker sent
+ * it, so a slow server is not hidden by the calls it delays.
+ * <p>
+ * The calls are replayed with the object numbers they were recorded
+ * with: apart from the registry and the DGC, the remote objects must be
+ * those of the server instance that was recorded.
+ */
+public class TrafficReplay {
+
+    /** transport header of the single operation protocol: "JRMI", version 2, SingleOpProtocol */
+    static final byte[] SINGLE_OP_HEADER = { 'J', 'R', 'M', 'I', 0, 2, 0x4c };
+
+    static final int RETURN = 0x51;
+    static final int TC_BLOCKDATA = 0x77;
+    static final int EXCEPTIONAL_RETURN = 2;
+
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final URL url;
+    private final List<RecordedCall> calls;
+    private final int concurrency;
+    private final double speed;
+    private final int loops;
+
+    private final long recordingNanos;
+    private final AtomicLong next = new AtomicLong();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> methodLatency = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder exceptions = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    private long elapsedNanos;
+
+    /**
+     * @param url         the URL to post the calls to
+     * @param calls       the recorded calls, sorted by offset
+     * @param concurrency number of calls in flight
+     * @param speed       rate relative to the recording, 0 to send the calls back to back
+     * @param loops       number of times the recording is replayed
+     */
+    public TrafficReplay(URL url, List<RecordedCall> calls, int concurrency, double speed, int loops) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException(format("invalid concurrency: %d", concurrency));
+        if (speed < 0)
+            throw new IllegalArgumentException(format("invalid speed: %s", speed));
+
+        this.url = url;
+        this.calls = calls;
+        this.concurrency = concurrency;
+        this.speed = speed;
+        this.loops = loops;
+        // one loop lasts as long as the recording, plus the average gap between two calls
+        final long span = calls.isEmpty() ? 0 : calls.get(calls.size() - 1).getOffsetNanos() - calls.get(0).getOffsetNanos();
+        this.recordingNanos = span + span / Math.max(1, calls.size() - 1);
+    }
+
+    /**
+     * Replay the calls and wait for the last one to complete.
+     */
+    public void run() throws InterruptedException {
+        final long startNanos = System.nanoTime();
+
+        final Thread[] workers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; ++i) {
+            workers[i] = new Thread(() -> work(startNanos), "replay-" + i);
+            workers[i].start();
+        }
+        for (Thread t : workers)
+            t.join();
+
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    private void work(long startNanos) {
+        final long total = (long) calls.size() * loops;
+        final long firstOffset = calls.isEmpty() ? 0 : calls.get(0).getOffsetNanos();
+
+        for (long i = next.getAndIncrement(); i < total; i = next.getAndIncrement()) {
+            final RecordedCall call = calls.get((int) (i % calls.size()));
+
+            final long callStartNanos;
+            if (speed > 0) {
+                final long offset = (i / calls.size()) * recordingNanos + call.getOffsetNanos() - firstOffset;
+                callStartNanos = startNanos + (long) (offset / speed);
+                for (long wait = callStartNanos - System.nanoTime(); wait > 0; wait = callStartNanos - System.nanoTime())
+                    LockSupport.parkNanos(wait);
+            } else {
+                callStartNanos = System.nanoTime();
+            }
+
+            try {
+                send(call);
+                final long nanos = System.nanoTime() - callStartNanos;
+                latency.record(nanos);
+                methodLatency.computeIfAbsent(call.getMethod(), k -> new LatencyHistogram()).record(nanos);
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    private void send(RecordedCall call) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-type", "application/octet-stream");
+            conn.setFixedLengthStreamingMode(SINGLE_OP_HEADER.length + call.getRequest().length);
+
+            try (final OutputStream out = conn.getOutputStream()) {
+                out.write(SINGLE_OP_HEADER);
+                out.write(call.getRequest());
+            }
+            bytesSent.add(SINGLE_OP_HEADER.length + call.getRequest().length);
+
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException(format("HTTP %d %s", conn.getResponseCode(), conn.getResponseMessage()));
+
+            final byte[] head = new byte[8];
+            int have = 0;
+            long received = 0;
+            try (final InputStream in = conn.getInputStream()) {
+                final byte[] buffer = new byte[8192];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    if (have < head.length) {
+                        final int c = Math.min(n, head.length - have);
+                        System.arraycopy(buffer, 0, head, have, c);
+                        have += c;
+                    }
+                    received += n;
+                }
+            }
+            bytesReceived.add(received);
+
+            // Return, serialization stream magic and version, block data, length, return type
+            if (have < 1 || (head[0] & 0xFF) != RETURN)
+                throw new IOException("not a JRMP return");
+            if (have == head.length && (head[5] & 0xFF) == TC_BLOCKDATA && head[7] == EXCEPTIONAL_RETURN)
+                exceptions.increment();
+        } catch (IOException e) {
+            // the connection is kept alive for the next call only when the exchange succeeded
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Print the throughput and the latency percentiles, overall and by method.
+     */
+    public void report(PrintStream out) {
+        final double seconds = elapsedNanos / 1e9;
+        final long count = latency.getCount();
+
+        out.println(format("replayed %d calls in %.3fs with %d in flight at %s: %.1f calls/s, sent %.1f KB/s, received %.1f KB/s",
+                count, seconds, concurrency, (speed > 0) ? format("%sx the recorded rate", speed) : "full speed",
+                count / seconds, bytesSent.sum() / 1024.0 / seconds, bytesReceived.sum() / 1024.0 / seconds));
+        out.println(format("errors %d, exceptional returns %d", errors.sum(), exceptions.sum()));
+        out.println();
+
+        out.println(format("%-40s %8s %9s %9s %9s %9s %9s %9s", "method (ms)", "calls", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        out.println(line("all", latency));
+        final Map<String, LatencyHistogram> sorted = new TreeMap<>(methodLatency);
+        for (Map.Entry<String, LatencyHistogram> e : sorted.entrySet())
+            out.println(line(e.getKey(), e.getValue()));
+    }
+
+    private static String line(String name, LatencyHistogram h) {
+        final StringBuilder sb = new StringBuilder(format("%-40s %8d %9.3f", name, h.getCount(), h.getMean() / 1e6));
+        for (double p : PERCENTILES)
+            sb.append(format(" %9.3f", h.getValueAtPercentile(p) / 1e6));
+        return sb.append(format(" %9.3f", h.getMax() / 1e6)).toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = 1;
+        double speed = 1;
+        int loops = 1;
+        String url = null;
+        String file = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-c":
+                    concurrency = Integer.parseInt(args[++i]);
+                    break;
+                case "-s":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "-n":
+                    loops = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    if (url == null)
+                        url = args[i];
+                    else
+                        file = args[i];
+            }
+        }
+
+        if (file == null) {
+            System.err.println("usage: TrafficReplay [-c concurrency] [-s speed] [-n loops] url file");
+            System.exit(1);
+        }
+
+        final List<RecordedCall> calls = CallRecording.read(new File(file));
+        if (calls.isEmpty()) {
+            System.err.println(format("no call recorded in %s", file));
+            System.exit(1);
+        }
+
+        final TrafficReplay replay = new TrafficReplay(new URL(url), calls, concurrency, speed, loops);
+        replay.run();
+        replay.report(System.out);
+    }
+}
@@ -38,6 +38,8 @@
 
 package org.bsc.rmi.sample;
 
+import org.bsc.rmi.client.Idempotent;
+
 /**
  * Remote interface that will help test the ServletHandler servlet.
  * This interface will be implemented by the SampleRMIServer.  
@@ -48,6 +50,7 @@ public interface SampleRMI extends java.rmi.Remote {
      */
     String justPass(String toPass) throws java.rmi.RemoteException;
 
+    @Idempotent
     String getInfo() throws java.rmi.RemoteException;
 }
 
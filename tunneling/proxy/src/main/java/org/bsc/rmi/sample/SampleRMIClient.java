@@ -40,11 +40,14 @@ package org.bsc.rmi.sample;
 
 import lombok.NonNull;
 import lombok.extern.java.Log;
+import org.bsc.rmi.client.AsyncStub;
+import org.bsc.rmi.client.CachingStub;
 import org.bsc.rmi.proxy.socket.client.RMIDebugClientSocketFactory;
 
 import java.rmi.registry.Registry;
 import java.rmi.server.RMIClientSocketFactory;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import static java.lang.String.format;
@@ -55,6 +58,7 @@ import static java.lang.String.format;
 @Log
 public class SampleRMIClient {
 
+    static final long CALL_TIMEOUT_SECONDS = 30;
 
     /**
      *
@@ -84,7 +88,7 @@ public class SampleRMIClient {
     private static CompletableFuture<SampleRMI> lookup(Registry reg) {
         CompletableFuture<SampleRMI> result = new CompletableFuture<>();
         try {
-            final SampleRMI robject = (SampleRMI) reg.lookup("SampleRMI");
+            final SampleRMI robject = CachingStub.wrap((SampleRMI) reg.lookup("SampleRMI"), SampleRMI.class);
             result.complete(robject);
         } catch (Exception e) {
             result.completeExceptionally(e);
@@ -93,22 +97,17 @@ public class SampleRMIClient {
     }
 
     private static CompletableFuture<Void> call(SampleRMI robject) {
-        CompletableFuture<Void> result = new CompletableFuture<>();
-        try {
-
-            for( int time = 1 ; time <= 1 ; ++time ) {
-                final String justPassResult = robject.justPass("This is a test of the RMI servlet handler");
+        final AsyncStub<SampleRMI> async = AsyncStub.of(robject);
 
-                log.info(format("#%d - sampleRMI.justPass()=%s", time, justPassResult));
+        final CompletableFuture<String> justPass =
+                async.call(s -> s.justPass("This is a test of the RMI servlet handler"), CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final CompletableFuture<String> info =
+                async.call(SampleRMI::getInfo, CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
-                Thread.sleep( 1000 );
-            }
-            result.complete(null);
-
-        } catch (Exception e) {
-            result.completeExceptionally(e);
-        }
-        return result;
+        return justPass.thenAcceptBoth(info, (justPassResult, infoResult) -> {
+            log.info(format("sampleRMI.justPass()=%s", justPassResult));
+            log.info(format("sampleRMI.getInfo()=%s", infoResult));
+        });
     }
 
 
@@ -58,6 +58,10 @@ public class SampleRMIServer extends java.rmi.server.UnicastRemoteObject impleme
         super();
     }
 
+    public SampleRMIServer(int port, RMIClientSocketFactory csf, RMIServerSocketFactory ssf) throws RemoteException {
+        super(port, csf, ssf);
+    }
+
     public String justPass(String passed) throws RemoteException {
         log.info( format( "justPass( '%s' )", passed ));
         return format( "string passed to remote server is [%s]", passed) ;
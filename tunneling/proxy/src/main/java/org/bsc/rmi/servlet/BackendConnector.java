@@ -0,0 +1,163 @@
+package org.bsc.rmi.servlet;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.proxy.inproc.InProcessEndpoints;
+import org.bsc.rmi.proxy.mux.MuxConnector;
+import org.bsc.rmi.proxy.unix.UnixDomainSockets;
+import org.bsc.rmi.proxy.unix.UnixSocket;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * BackendConnector opens the connections of the forward commands to
+ * the RMI servers.
+ * <p>
+ * A server is reached on its port of the remote host, unless a unix
+ * socket directory is configured and holds the socket file of the port,
+ * written by a server sharing the host with the servlet (see
+ * <code>RMIUnixServerSocketFactory</code>): the call then skips the TCP
+ * stack and uses no ephemeral port.
+ * <p>
+ * A server exported in the servlet VM with an in-process server socket
+ * (see <code>RMIInProcessServerSocketFactory</code>) is reached through
+ * in-memory pipes, when the remote host is this host.
+ * <p>
+ * With a {@link MuxConnector}, the other servers are reached through
+ * streams of a few multiplexed TCP connections by server, which must
+ * be exported with an HTTP-aware server socket factory.
+ * <p>
+ * Else, with a {@link PreconnectPool}, the HTTP forwards to the servers
+ * reached on TCP take connections opened ahead of their use; the
+ * servers must be exported with an HTTP-aware server socket factory too.
+ */
+@Log
+class BackendConnector implements Closeable {
+
+    private final Supplier<InetAddress> host;
+    private final Optional<File> unixSocketDirectory;
+    private final boolean inProcess;
+    private final Optional<MuxConnector> mux;
+    private final Optional<PreconnectPool> preconnect;
+
+    /** whether the remote host is this host, resolved on the first forward */
+    private volatile Boolean localHost;
+
+    /**
+     * @param host                the host of the RMI servers
+     * @param unixSocketDirectory the directory of the unix socket files, if any
+     * @param inProcess           true to reach the servers of the servlet VM in process
+     * @param mux                 the multiplexed connections to the servers reached on TCP, if any
+     * @param preconnect          the connections opened ahead to the servers reached on TCP, if any
+     */
+    BackendConnector(Supplier<InetAddress> host, Optional<File> unixSocketDirectory, boolean inProcess,
+                     Optional<MuxConnector> mux, Optional<PreconnectPool> preconnect) {
+        this.host = host;
+        this.inProcess = inProcess;
+        this.mux = mux;
+        this.preconnect = preconnect;
+        this.unixSocketDirectory = unixSocketDirectory.filter( dir -> {
+            if (!UnixDomainSockets.isSupported()) {
+                log.warning( format("unix domain sockets are not supported by this VM, %s is ignored", dir));
+                return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @return true if the server listening on the port has a unix socket
+     */
+    boolean hasUnixSocket(int port) {
+        return unixSocketDirectory
+                .map( dir -> UnixDomainSockets.socketFile(dir, port).exists() )
+                .orElse(false);
+    }
+
+    /**
+     * @return true if the server listening on the port is exported in this VM
+     */
+    boolean isInProcess(int port) {
+        return inProcess && InProcessEndpoints.isExported(port) && isLocalHost();
+    }
+
+    private boolean isLocalHost() {
+        Boolean result = localHost;
+        if (result == null) {
+            final InetAddress address = host.get();
+            try {
+                result = address.isLoopbackAddress() || address.isAnyLocalAddress() ||
+                         NetworkInterface.getByInetAddress(address) != null;
+            } catch (SocketException e) {
+                log.warning( format("cannot tell whether %s is this host: %s", address, e.getMessage()));
+                result = false;
+            }
+            localHost = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the servers reached on TCP are reached through multiplexed connections
+     */
+    boolean isMultiplexed() {
+        return mux.isPresent();
+    }
+
+    /**
+     * Connect to the server listening on the port: in process if it is
+     * exported in this VM, else on its unix socket if it has one, else
+     * on a multiplexed connection if enabled, else on TCP.
+     */
+    Socket connect(int port) throws IOException {
+        if (isInProcess(port))
+            return InProcessEndpoints.connect(port);
+        if (hasUnixSocket(port))
+            return connectUnix(port);
+        if (mux.isPresent())
+            return mux.get().connect(new InetSocketAddress(host.get(), port));
+        return new Socket(host.get(), port);
+    }
+
+    /**
+     * Connect to the server listening on the port for an HTTP forward,
+     * like {@link #connect(int)} but on a connection opened ahead when
+     * the server is reached on TCP and a preconnect pool is configured.
+     */
+    Socket connectHttp(int port) throws IOException {
+        if (!preconnect.isPresent() || mux.isPresent() || isInProcess(port) || hasUnixSocket(port))
+            return connect(port);
+        return preconnect.get().connect(new InetSocketAddress(host.get(), port));
+    }
+
+    /**
+     * Connect to the unix socket of the server listening on the port.
+     *
+     * @throws IOException if there is no unix socket directory or no
+     *                     socket file for the port
+     */
+    Socket connectUnix(int port) throws IOException {
+        final File dir = unixSocketDirectory
+                .orElseThrow( () -> new IOException("no unix socket directory configured") );
+        return new UnixSocket(UnixDomainSockets.connect(UnixDomainSockets.socketFile(dir, port)), port);
+    }
+
+    /**
+     * Close the multiplexed connections and the connections opened ahead, if any.
+     */
+    @Override
+    public void close() {
+        mux.ifPresent(MuxConnector::close);
+        preconnect.ifPresent(PreconnectPool::close);
+    }
+}
@@ -0,0 +1,78 @@
+package org.bsc.rmi.servlet;
+
+/**
+ * FrequencySketch estimates how often keys were seen recently, in a
+ * count-min sketch of four rows of small counters: the estimate of a
+ * key is the least of its counters.  Every counter is halved once the
+ * sketch has counted ten times its width, so that the estimates follow
+ * the recent popularity of the keys (the aging of TinyLFU).
+ * <p>
+ * Not thread safe.
+ */
+class FrequencySketch {
+
+    static final int DEPTH = 4;
+    static final int MAX_COUNT = 15;
+
+    private static final int[] SEEDS = { 0x97cb3127, 0xb83c3c51, 0x5c2b2a1d, 0x2545f491 };
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param maximumSize the number of keys to tell apart, the size of the cache
+     */
+    FrequencySketch(int maximumSize) {
+        int width = 16;
+        while (width < maximumSize)
+            width <<= 1;
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    /**
+     * @return the estimated number of recent occurrences of the key, at most {@link #MAX_COUNT}
+     */
+    int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; ++row)
+            frequency = Math.min(frequency, counters[row][index(hash, row)]);
+        return frequency;
+    }
+
+    /**
+     * Count an occurrence of the key.
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < DEPTH; ++row) {
+            final int i = index(hash, row);
+            if (counters[row][i] < MAX_COUNT) {
+                ++counters[row][i];
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    /**
+     * Halve every counter.
+     */
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; ++i)
+                row[i] >>= 1;
+        }
+        additions /= 2;
+    }
+}
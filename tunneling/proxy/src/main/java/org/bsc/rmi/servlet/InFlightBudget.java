@@ -0,0 +1,87 @@
+package org.bsc.rmi.servlet;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * InFlightBudget bounds the number of payload bytes that all the
+ * forward commands of a servlet may hold on the heap at the same time.
+ * <p>
+ * A forward reserves the size of each buffer it is going to allocate
+ * and gives it back once the buffer has been sent.  If the reservation
+ * would exceed the budget the caller waits, at most until the given
+ * deadline, for other forwards to release their bytes.
+ */
+class InFlightBudget {
+
+    /** maximum number of bytes that may be reserved at once */
+    private final long maxBytes;
+
+    /** bytes currently reserved */
+    private long reservedBytes = 0;
+
+    /**
+     * @param maxBytes maximum number of bytes that may be reserved at once
+     */
+    InFlightBudget(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException(format("invalid in-flight budget: %d", maxBytes));
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Reserve <code>bytes</code> from the budget, waiting until they are
+     * available or the timeout expires.  A request bigger than the whole
+     * budget is refused immediately.
+     *
+     * @param bytes   number of bytes to reserve
+     * @param timeout maximum time to wait
+     * @param unit    time unit of <code>timeout</code>
+     * @return true if the bytes have been reserved, false otherwise
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized boolean tryAcquire(long bytes, long timeout, TimeUnit unit) throws InterruptedException {
+        if (bytes > maxBytes)
+            return false;
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (reservedBytes + bytes > maxBytes) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        reservedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Give back bytes previously reserved by {@link #tryAcquire(long, long, TimeUnit)}.
+     *
+     * @param bytes number of bytes to release
+     */
+    synchronized void release(long bytes) {
+        reservedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return bytes currently reserved
+     */
+    synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return maximum number of bytes that may be reserved at once
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public String toString() {
+        return format("InFlightBudget[reserved=%d,max=%d]", getReservedBytes(), maxBytes);
+    }
+}
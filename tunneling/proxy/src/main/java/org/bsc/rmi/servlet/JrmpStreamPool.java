@@ -0,0 +1,383 @@
+package org.bsc.rmi.servlet;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.jrmp.SerializationScanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * JrmpStreamPool turns the single operation calls tunneled in HTTP into
+ * calls on persistent JRMP stream protocol connections, kept in a pool
+ * by RMI server: the server needs no HTTP-aware socket factory and the
+ * cost of the connection set up is spread over many calls.
+ * <p>
+ * The stream protocol does not frame the returns, so a ping follows
+ * every call: the server answers it once the return is written, and the
+ * return is scanned up to the ping acknowledgment with a
+ * {@link SerializationScanner}.  A connection is only given back to the
+ * pool once the acknowledgment has been read; a connection idle for more
+ * than a second is pinged before being used again, as the RMI client
+ * runtime does, and a connection idle for longer than the idle time of
+ * the pool is closed in the background.
+ */
+@Log
+class JrmpStreamPool implements Closeable {
+
+    /** transport header of the single operation protocol: "JRMI", version 2, SingleOpProtocol */
+    static final byte[] SINGLE_OP_HEADER = { 'J', 'R', 'M', 'I', 0, 2, 0x4c };
+
+    static final int MAGIC = 0x4a524d49;
+    static final int VERSION = 2;
+    static final int STREAM_PROTOCOL = 0x4b;
+    static final int PROTOCOL_ACK = 0x4e;
+
+    static final int CALL = 0x50;
+    static final int RETURN = 0x51;
+    static final int PING = 0x52;
+    static final int PING_ACK = 0x53;
+    static final int DGC_ACK = 0x54;
+
+    /** idle time after which a connection is pinged before use */
+    static final long CHECK_AFTER_MILLIS = 1000;
+
+    /** time without data after which a return being read is considered stalled */
+    static final int STALL_MILLIS = 5000;
+
+    /** time the acknowledgment of the ping of an idle connection is waited for */
+    static final int PING_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * A persistent connection to an RMI server.
+     */
+    static class Connection implements Closeable {
+        final String key;
+        final Socket socket;
+        final BufferedInputStream in;
+        final DataOutputStream out;
+        long lastUsedMillis;
+
+        Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "close", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the connections to the RMI server of a pool key.
+     */
+    interface Connector {
+        Socket connect() throws IOException;
+    }
+
+    private final int maxIdle;
+    private final long idleMillis;
+    private final Map<String, Deque<Connection>> idle = new ConcurrentHashMap<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final LongAdder opened;
+    private final ScheduledExecutorService executor;
+    private volatile boolean closed;
+
+    /**
+     * @param maxIdle    maximum number of idle connections kept by RMI server
+     * @param idleMillis time after which an idle connection is closed
+     * @param opened     counter of the connections opened
+     */
+    JrmpStreamPool(int maxIdle, long idleMillis, LongAdder opened) {
+        this.maxIdle = maxIdle;
+        this.idleMillis = idleMillis;
+        this.opened = opened;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "rmi-stream-pool");
+            t.setDaemon(true);
+            return t;
+        });
+        final long period = Math.max(100, idleMillis / 10);
+        executor.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of idle connections of the pool
+     */
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * @return true if the body is a single operation JRMP message the pool can forward
+     */
+    static boolean isSingleOp(PayloadBuffer body) {
+        if (body.size() <= SINGLE_OP_HEADER.length)
+            return false;
+        for (int i = 0; i < SINGLE_OP_HEADER.length; ++i) {
+            if (body.byteAt(i) != SINGLE_OP_HEADER[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send the message of a single operation request to the server and
+     * copy the answer to the response.
+     *
+     * @param key       the RMI server of the connection
+     * @param connector opens a connection to the server when the pool has none
+     * @param body      the single operation request, see {@link #isSingleOp(PayloadBuffer)}
+     * @param response  where the answer of the server is written
+     */
+    void forward(String key, Connector connector, PayloadBuffer body, OutputStream response) throws IOException {
+        final Connection connection = acquire(key, connector);
+        boolean reusable = false;
+        try {
+            reusable = exchange(connection, body, response);
+        } finally {
+            if (reusable)
+                release(connection);
+            else
+                connection.close();
+        }
+    }
+
+    /**
+     * @return true if the connection may be used again
+     */
+    private boolean exchange(Connection connection, PayloadBuffer body, OutputStream response) throws IOException {
+        final int op = body.byteAt(SINGLE_OP_HEADER.length);
+        switch (op) {
+            case CALL:
+                body.writeTo(connection.out, SINGLE_OP_HEADER.length);
+                connection.out.writeByte(PING);
+                connection.out.flush();
+                return readReturn(connection, response);
+
+            case PING:
+                connection.out.writeByte(PING);
+                connection.out.flush();
+                expect(connection, PING_ACK);
+                response.write(PING_ACK);
+                return true;
+
+            case DGC_ACK:
+                body.writeTo(connection.out, SINGLE_OP_HEADER.length);
+                connection.out.flush();
+                return true;
+
+            default:
+                throw new IOException(format("unsupported JRMP message: 0x%02x", op));
+        }
+    }
+
+    /**
+     * Copy the return of a call, up to the acknowledgment of the ping
+     * sent after the call.  A server may close the connection after the
+     * return instead, when the call left the stream in an unknown state.
+     * <p>
+     * When the scanner cannot follow the return, or the return stalls,
+     * the output of the connection is shut down: the server answers the
+     * ping then closes the connection, the return is everything read but
+     * the last byte.
+     * <p>
+     * The bytes are copied to the response as they are read: it holds
+     * part of the return when an exception is thrown.
+     *
+     * @return true if the connection may be used again
+     */
+    private static boolean readReturn(Connection connection, OutputStream response) throws IOException {
+        expect(connection, RETURN);
+
+        response.write(RETURN);
+        connection.socket.setSoTimeout(STALL_MILLIS);
+        try {
+            final SerializationScanner scanner = new SerializationScanner(connection.in, response);
+            scanner.readStreamHeader();
+            for (int next = scanner.peek(), elements = 0; next != PING_ACK; next = scanner.peek(), ++elements) {
+                if (next < 0) {
+                    if (elements == 0)
+                        throw new EOFException("unexpected EOF reading the return");
+                    return false;
+                }
+                scanner.readContent();
+            }
+            connection.in.read();
+            connection.socket.setSoTimeout(0);
+            return true;
+
+        } catch (StreamCorruptedException | SocketTimeoutException e) {
+            log.fine( format("return read up to the end of the connection %s: %s", connection.key, e));
+
+            connection.socket.shutdownOutput();
+            // hold the last byte back until the end, it must be the acknowledgment
+            final byte[] b = new byte[8192];
+            int last = -1;
+            for (int n = connection.in.read(b); n >= 0; n = connection.in.read(b)) {
+                if (n == 0)
+                    continue;
+                if (last >= 0)
+                    response.write(last);
+                response.write(b, 0, n - 1);
+                last = b[n - 1] & 0xFF;
+            }
+            if (last != PING_ACK)
+                throw new EOFException("unexpected EOF reading the return");
+            return false;
+        }
+    }
+
+    private static void expect(Connection connection, int op) throws IOException {
+        final int b = connection.in.read();
+        if (b < 0)
+            throw new EOFException(format("unexpected EOF waiting for JRMP message 0x%02x", op));
+        if (b != op)
+            throw new IOException(format("unexpected JRMP message: 0x%02x instead of 0x%02x", b, op));
+    }
+
+    private Connection acquire(String key, Connector connector) throws IOException {
+        final Deque<Connection> connections = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+        while (true) {
+            final Connection connection;
+            synchronized (connections) {
+                connection = connections.pollFirst();
+            }
+            if (connection == null)
+                break;
+            idleCount.decrementAndGet();
+
+            final long idleTime = System.currentTimeMillis() - connection.lastUsedMillis;
+            if (idleTime > idleMillis) {
+                connection.close();
+            } else if (idleTime > CHECK_AFTER_MILLIS && !isAlive(connection)) {
+                log.fine( format("stale connection to %s dropped", key));
+                connection.close();
+            } else {
+                return connection;
+            }
+        }
+        return open(key, connector);
+    }
+
+    /**
+     * Ping an idle connection, a half open one does not answer before
+     * the ping timeout.
+     */
+    private static boolean isAlive(Connection connection) {
+        try {
+            connection.socket.setSoTimeout(PING_TIMEOUT_MILLIS);
+            connection.out.writeByte(PING);
+            connection.out.flush();
+            expect(connection, PING_ACK);
+            connection.socket.setSoTimeout(0);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        connection.lastUsedMillis = System.currentTimeMillis();
+        final Deque<Connection> connections = idle.computeIfAbsent(connection.key, k -> new ArrayDeque<>());
+        synchronized (connections) {
+            if (!closed && connections.size() < maxIdle) {
+                // most recently used first, the others age out
+                connections.addFirst(connection);
+                idleCount.incrementAndGet();
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Close the connections idle for longer than the idle time.
+     */
+    private void expire() {
+        final long oldest = System.currentTimeMillis() - idleMillis;
+        for (Deque<Connection> connections : idle.values()) {
+            synchronized (connections) {
+                // the least recently used are last
+                while (!connections.isEmpty() && connections.peekLast().lastUsedMillis <= oldest) {
+                    connections.pollLast().close();
+                    idleCount.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a connection and negotiate the stream protocol.
+     */
+    private Connection open(String key, Connector connector) throws IOException {
+        final Connection connection = new Connection(key, connector.connect());
+        try {
+            connection.out.writeInt(MAGIC);
+            connection.out.writeShort(VERSION);
+            connection.out.writeByte(STREAM_PROTOCOL);
+            connection.out.flush();
+
+            expect(connection, PROTOCOL_ACK);
+            final DataInputStream in = new DataInputStream(connection.in);
+            final String host = in.readUTF();
+            in.readInt();
+
+            // the endpoint of the client, read and ignored by the server
+            connection.out.writeUTF(host);
+            connection.out.writeInt(0);
+            connection.out.flush();
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        opened.increment();
+        log.fine( format("stream connection opened to %s", key));
+        return connection;
+    }
+
+    /**
+     * Close the idle connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        for (Deque<Connection> connections : idle.values()) {
+            synchronized (connections) {
+                for (Connection c : connections) {
+                    c.close();
+                    idleCount.decrementAndGet();
+                }
+                connections.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.bsc.rmi.servlet;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * PayloadBuffer holds the body of a forwarded request or response.
+ * <p>
+ * A payload is kept in a heap array when its size can be reserved from
+ * the servlet {@link InFlightBudget}; otherwise it is spilled into a
+ * temporary file so that the heap used by the forward command stays
+ * bounded whatever the size of the payloads in flight.  A payload whose
+ * size is only known once it has been read is written to a
+ * {@link Receiver} first.
+ */
+@Log
+abstract class PayloadBuffer implements Closeable {
+
+    /** number of bytes held by this buffer */
+    protected final int size;
+
+    protected PayloadBuffer(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Allocate a buffer of the given size, waiting at most
+     * <code>waitMillis</code> for the budget to have room for it.
+     *
+     * @param budget     the in-flight budget to reserve the bytes from
+     * @param size       payload size
+     * @param waitMillis maximum time to wait for the budget
+     * @param spillDir   directory where temporary files are created
+     * @return a heap buffer if the bytes have been reserved, a spilled buffer otherwise
+     * @throws IOException if the temporary file cannot be created
+     */
+    static PayloadBuffer allocate(InFlightBudget budget, int size, long waitMillis, File spillDir) throws IOException {
+        try {
+            if (budget.tryAcquire(size, waitMillis, TimeUnit.MILLISECONDS))
+                return new Heap(budget, size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for in-flight budget");
+        }
+        log.fine(format("spill payload of %d bytes to disk, %s", size, budget));
+        return new Spilled(size, Spilled.createFile(spillDir));
+    }
+
+    /**
+     * Start receiving a payload of unknown size.
+     *
+     * @param budget     the in-flight budget to reserve the bytes from
+     * @param waitMillis maximum time to wait for the budget, each time the payload grows
+     * @param spillDir   directory where temporary files are created
+     * @return the receiver of the payload
+     */
+    static Receiver receive(InFlightBudget budget, long waitMillis, File spillDir) {
+        return new Receiver(budget, waitMillis, spillDir);
+    }
+
+    /**
+     * @return number of bytes held by this buffer
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Fill the whole buffer from the given stream.
+     *
+     * @param in the stream to read from
+     * @throws EOFException if the stream ends before the buffer is full
+     */
+    abstract void readFully(InputStream in) throws IOException;
+
+    /**
+     * Write the whole buffer to the given stream.
+     *
+     * @param out the stream to write to
+     */
+    void writeTo(OutputStream out) throws IOException {
+        writeTo(out, 0);
+    }
+
+    /**
+     * Write the buffer from the given offset to the given stream.
+     *
+     * @param out    the stream to write to
+     * @param offset index of the first byte written
+     */
+    abstract void writeTo(OutputStream out, int offset) throws IOException;
+
+    /**
+     * @return the byte at the given index, from 0 to 255
+     */
+    abstract int byteAt(int index);
+
+    /**
+     * Payload held in a heap array reserved from the budget.
+     */
+    static class Heap extends PayloadBuffer {
+
+        private final InFlightBudget budget;
+        private byte[] buffer;
+
+        Heap(InFlightBudget budget, int size) {
+            this(budget, new byte[size], size);
+        }
+
+        /**
+         * @param buffer the array holding the payload, its whole length reserved from the budget
+         */
+        Heap(InFlightBudget budget, byte[] buffer, int size) {
+            super(size);
+            this.budget = budget;
+            this.buffer = buffer;
+        }
+
+        void readFully(InputStream in) throws IOException {
+            new DataInputStream(in).readFully(buffer);
+        }
+
+        void writeTo(OutputStream out, int offset) throws IOException {
+            out.write(buffer, offset, size - offset);
+        }
+
+        int byteAt(int index) {
+            return buffer[index] & 0xFF;
+        }
+
+        /**
+         * Return the reserved bytes to the budget.
+         */
+        public void close() {
+            if (buffer != null) {
+                budget.release(buffer.length);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Payload held in a temporary file, read and written through its
+     * channel in chunks.  The file is deleted as soon as it is opened, so
+     * nothing is left behind even if the proxy stops abruptly, and its
+     * disk space is given back when the buffer is closed.
+     */
+    static class Spilled extends PayloadBuffer {
+
+        /** size of the chunks copied between the streams and the file */
+        static final int CHUNK_SIZE = 64 * 1024;
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+
+        /**
+         * @param file the temporary file, see {@link #createFile(File)}
+         */
+        Spilled(int size, RandomAccessFile file) {
+            super(size);
+            this.file = file;
+            this.channel = file.getChannel();
+        }
+
+        /**
+         * @return a new temporary file, already deleted
+         */
+        static RandomAccessFile createFile(File spillDir) throws IOException {
+            final File f = File.createTempFile("rmi-forward-", ".buf", spillDir);
+            try {
+                return new RandomAccessFile(f, "rw");
+            } finally {
+                if (!f.delete())
+                    f.deleteOnExit();
+            }
+        }
+
+        void readFully(InputStream in) throws IOException {
+            final ReadableByteChannel source = Channels.newChannel(in);
+            final ByteBuffer chunk = ByteBuffer.allocate(Math.min(size, CHUNK_SIZE));
+            long position = 0;
+            while (position < size) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), size - position));
+                if (source.read(chunk) < 0)
+                    throw new EOFException();
+                chunk.flip();
+                while (chunk.hasRemaining())
+                    position += channel.write(chunk, position);
+            }
+        }
+
+        void writeTo(OutputStream out, int offset) throws IOException {
+            final WritableByteChannel target = Channels.newChannel(out);
+            final ByteBuffer chunk = ByteBuffer.allocate(Math.min(Math.max(size - offset, 1), CHUNK_SIZE));
+            long position = offset;
+            while (position < size) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), size - position));
+                final int n = channel.read(chunk, position);
+                if (n < 0)
+                    throw new EOFException();
+                position += n;
+                chunk.flip();
+                while (chunk.hasRemaining())
+                    target.write(chunk);
+            }
+        }
+
+        int byteAt(int index) {
+            final ByteBuffer b = ByteBuffer.allocate(1);
+            try {
+                if (channel.read(b, index) < 1)
+                    throw new IndexOutOfBoundsException(format("index %d of %d bytes", index, size));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return b.get(0) & 0xFF;
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Receiver holds the bytes written to it in a heap array as long as
+     * each growth of the array can be reserved from the budget, and in a
+     * temporary file from the first one that cannot.  Once the payload
+     * has been written, {@link #toBuffer()} hands it over as a
+     * PayloadBuffer.
+     */
+    static class Receiver extends OutputStream {
+
+        static final int INITIAL_CAPACITY = 8 * 1024;
+
+        /** largest array the VM may allocate */
+        static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+        private final InFlightBudget budget;
+        private final long waitMillis;
+        private final File spillDir;
+
+        /** the bytes until they are spilled, its whole length reserved from the budget */
+        private byte[] buffer = new byte[0];
+        private RandomAccessFile file;
+        private int count;
+
+        Receiver(InFlightBudget budget, long waitMillis, File spillDir) {
+            this.budget = budget;
+            this.waitMillis = waitMillis;
+            this.spillDir = spillDir;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > MAX_CAPACITY - count)
+                throw new IOException(format("payload bigger than %d bytes", MAX_CAPACITY));
+
+            if (file == null && count + len > buffer.length && !grow(count + len))
+                spill();
+
+            if (file == null) {
+                System.arraycopy(b, off, buffer, count, len);
+            } else {
+                final ByteBuffer chunk = ByteBuffer.wrap(b, off, len);
+                for (long position = count; chunk.hasRemaining(); )
+                    position += file.getChannel().write(chunk, position);
+            }
+            count += len;
+        }
+
+        /**
+         * @return false if the growth of the array cannot be reserved
+         */
+        private boolean grow(int minCapacity) throws IOException {
+            final int capacity = (int) Math.min(MAX_CAPACITY,
+                    Math.max(minCapacity, Math.max(INITIAL_CAPACITY, 2L * buffer.length)));
+            try {
+                if (!budget.tryAcquire(capacity - buffer.length, waitMillis, TimeUnit.MILLISECONDS))
+                    return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for in-flight budget");
+            }
+            buffer = Arrays.copyOf(buffer, capacity);
+            return true;
+        }
+
+        private void spill() throws IOException {
+            log.fine(format("spill received payload of more than %d bytes to disk, %s", count, budget));
+            file = Spilled.createFile(spillDir);
+            file.write(buffer, 0, count);
+            budget.release(buffer.length);
+            buffer = null;
+        }
+
+        /**
+         * Hand the payload over, the receiver must not be used any more.
+         *
+         * @return the payload written to the receiver
+         */
+        PayloadBuffer toBuffer() {
+            final PayloadBuffer result = (file == null) ? new Heap(budget, buffer, count) : new Spilled(count, file);
+            buffer = null;
+            file = null;
+            return result;
+        }
+
+        /**
+         * Give back the payload if it has not been handed over.
+         */
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                budget.release(buffer.length);
+                buffer = null;
+            }
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+}
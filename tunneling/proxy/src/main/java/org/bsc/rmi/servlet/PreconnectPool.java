@@ -0,0 +1,266 @@
+package org.bsc.rmi.servlet;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.proxy.http.server.RMIHttpServerSocketFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * PreconnectPool keeps connections to the RMI servers opened ahead of
+ * their use, so that the connect round trip of a forward is taken off
+ * its latency even though a connection is only used once.
+ * <p>
+ * Every connection starts with the
+ * {@link RMIHttpServerSocketFactory#WARM_PREFIX}, which lets the
+ * HTTP-aware server sockets accept it before the call comes.
+ * <p>
+ * The number of connections kept by server follows Little's law: the
+ * arrival rate of the forwards times the time to connect, doubled for
+ * bursts, as observed with moving averages.  The connections are
+ * closed once idle for longer than <code>idleMillis</code>, which must
+ * be shorter than the time the server waits for the first call on a
+ * connection (<code>sun.rmi.transport.tcp.handshakeTimeout</code>, a
+ * minute by default), and none is kept for a server without forward
+ * for that long.
+ */
+@Log
+class PreconnectPool implements Closeable {
+
+    /** weight of the last observation in the moving averages */
+    static final double ALPHA = 0.2;
+
+    /**
+     * A connection opened ahead of its use.
+     */
+    static class Warm {
+        final Socket socket;
+        final long connectedMillis;
+
+        Warm(Socket socket, long connectedMillis) {
+            this.socket = socket;
+            this.connectedMillis = connectedMillis;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "close", e);
+            }
+        }
+    }
+
+    /**
+     * The connections and the statistics of a server.
+     */
+    static class Backend {
+        final InetSocketAddress address;
+        final Deque<Warm> idle = new ArrayDeque<>();
+        /** connections being opened by the refill */
+        int opening;
+        /** moving average of the time between two forwards */
+        double interArrivalNanos = Double.NaN;
+        /** moving average of the time to connect */
+        double connectNanos = Double.NaN;
+        long lastArrivalNanos;
+
+        Backend(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    private final int maxPerServer;
+    private final long idleMillis;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final Map<InetSocketAddress, Backend> backends = new ConcurrentHashMap<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final ScheduledExecutorService executor;
+    private volatile boolean closed;
+
+    /**
+     * @param maxPerServer the most connections kept by server
+     * @param idleMillis   time after which a connection is closed
+     * @param hits         counter of the forwards given a connection of the pool
+     * @param misses       counter of the forwards which had to connect
+     */
+    PreconnectPool(int maxPerServer, long idleMillis, LongAdder hits, LongAdder misses) {
+        this.maxPerServer = maxPerServer;
+        this.idleMillis = idleMillis;
+        this.hits = hits;
+        this.misses = misses;
+        // the connects of a refill run side by side
+        this.executor = Executors.newScheduledThreadPool(Math.min(maxPerServer, 4), r -> {
+            final Thread t = new Thread(r, "rmi-preconnect");
+            t.setDaemon(true);
+            return t;
+        });
+        final long period = Math.max(100, idleMillis / 10);
+        executor.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of connections of the pool
+     */
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * Take a connection to the server, opened ahead if the pool has one,
+     * and refill the pool.
+     */
+    Socket connect(InetSocketAddress address) throws IOException {
+        final Backend backend = backends.computeIfAbsent(address, Backend::new);
+        final long now = System.nanoTime();
+        Warm warm;
+        synchronized (backend) {
+            if (backend.lastArrivalNanos != 0)
+                backend.interArrivalNanos = average(backend.interArrivalNanos, now - backend.lastArrivalNanos);
+            backend.lastArrivalNanos = now;
+
+            final long oldest = System.currentTimeMillis() - idleMillis;
+            while ((warm = backend.idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                if (warm.connectedMillis > oldest && !warm.socket.isClosed())
+                    break;
+                warm.close();
+            }
+        }
+        refill(backend);
+
+        if (warm != null) {
+            hits.increment();
+            return warm.socket;
+        }
+        misses.increment();
+        return open(backend);
+    }
+
+    /**
+     * @return the number of connections to keep for the server
+     */
+    private int target(Backend backend, long now) {
+        if (now - backend.lastArrivalNanos > TimeUnit.MILLISECONDS.toNanos(idleMillis))
+            return 0;
+        if (Double.isNaN(backend.interArrivalNanos) || Double.isNaN(backend.connectNanos))
+            return 1;
+        // a quiet spell counts as a long interval
+        final double interArrival = Math.max(backend.interArrivalNanos, now - backend.lastArrivalNanos);
+        final int target = (int) Math.ceil(2 * backend.connectNanos / interArrival);
+        return Math.max(1, Math.min(maxPerServer, target));
+    }
+
+    private void refill(Backend backend) {
+        if (closed)
+            return;
+        final int missing;
+        synchronized (backend) {
+            missing = target(backend, System.nanoTime()) - backend.idle.size() - backend.opening;
+            if (missing <= 0)
+                return;
+            backend.opening += missing;
+        }
+        for (int i = 0; i < missing; ++i) {
+            executor.execute( () -> {
+                Warm warm = null;
+                try {
+                    final Socket socket = open(backend);
+                    final OutputStream out = socket.getOutputStream();
+                    out.write(RMIHttpServerSocketFactory.WARM_PREFIX.getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    warm = new Warm(socket, System.currentTimeMillis());
+                } catch (IOException e) {
+                    log.fine( format("preconnect to %s failed: %s", backend.address, e.getMessage()));
+                } finally {
+                    synchronized (backend) {
+                        --backend.opening;
+                        if (warm != null && !closed) {
+                            backend.idle.addLast(warm);
+                            idleCount.incrementAndGet();
+                            warm = null;
+                        }
+                    }
+                    if (warm != null)
+                        warm.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * Open a connection, measuring the time to connect.
+     */
+    private Socket open(Backend backend) throws IOException {
+        final long start = System.nanoTime();
+        final Socket socket = new Socket(backend.address.getAddress(), backend.address.getPort());
+        final long elapsed = System.nanoTime() - start;
+        synchronized (backend) {
+            backend.connectNanos = average(backend.connectNanos, elapsed);
+        }
+        return socket;
+    }
+
+    private static double average(double average, long value) {
+        return Double.isNaN(average) ? value : average + ALPHA * (value - average);
+    }
+
+    /**
+     * Close the connections idle for too long, and those above the
+     * number to keep.
+     */
+    private void expire() {
+        final long now = System.nanoTime();
+        final long oldest = System.currentTimeMillis() - idleMillis;
+        for (Backend backend : backends.values()) {
+            synchronized (backend) {
+                int excess = backend.idle.size() - target(backend, now);
+                for (Iterator<Warm> i = backend.idle.iterator(); i.hasNext(); ) {
+                    final Warm warm = i.next();
+                    if (warm.connectedMillis <= oldest || excess > 0) {
+                        i.remove();
+                        idleCount.decrementAndGet();
+                        warm.close();
+                        --excess;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the connections of the pool.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        for (Backend backend : backends.values()) {
+            synchronized (backend) {
+                for (Warm warm : backend.idle) {
+                    warm.close();
+                    idleCount.decrementAndGet();
+                }
+                backend.idle.clear();
+            }
+        }
+    }
+}
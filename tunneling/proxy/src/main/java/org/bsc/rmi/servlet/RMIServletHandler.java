@@ -2,6 +2,18 @@ package org.bsc.rmi.servlet;
 
 import lombok.Data;
 import lombok.extern.java.Log;
+import org.bsc.rmi.jfr.TunnelEvents;
+import org.bsc.rmi.jrmp.CallHeader;
+import org.bsc.rmi.jrmp.JrmpDecoder;
+import org.bsc.rmi.jrmp.JrmpStats;
+import org.bsc.rmi.metrics.LatencyHistogram;
+import org.bsc.rmi.metrics.MetricsFileExporter;
+import org.bsc.rmi.metrics.MetricsRegistry;
+import org.bsc.rmi.proxy.mux.MuxConnector;
+import org.bsc.rmi.proxy.socket.server.RMIInProcessServerSocketFactory;
+import org.bsc.rmi.trace.Span;
+import org.bsc.rmi.trace.TraceContext;
+import org.bsc.rmi.trace.Tracer;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -16,11 +28,14 @@ import java.net.UnknownHostException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.server.RMIClassLoader;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
-import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 import static java.lang.String.format;
@@ -28,6 +43,7 @@ import static java.util.Collections.emptyMap;
 import static java.util.Optional.empty;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * The default RMI socket factory contains several "fallback"
@@ -76,6 +92,54 @@ import static java.util.stream.Collectors.toMap;
  * send this information back to the RMI client as the body of the
  * response to the HTTP post method.
  * <p>
+ * When the <code>unixSocketDirectory</code> parameter is set, a server
+ * sharing the host of the servlet and listening on a unix domain socket
+ * of that directory (see <code>RMIUnixServerSocketFactory</code>) is
+ * reached on it rather than on its TCP port; "forward=unix:port" only
+ * accepts the unix socket.
+ * <p>
+ * With <code>inProcessForward</code> set, the registry and the
+ * initial server created by the servlet are exported with an
+ * <code>RMIInProcessServerSocketFactory</code>, as may be any object of
+ * the servlet VM: the "forward" command hands the calls to them through
+ * in-memory pipes instead of a loopback connection.
+ * <p>
+ * With <code>streamForward</code> set, the "forward" command ends the
+ * single operation calls tunneled in HTTP at the servlet and makes them
+ * on persistent JRMP stream protocol connections, pooled by server (see
+ * <code>JrmpStreamPool</code>): the servers then need no HTTP-aware
+ * socket factory.
+ * <p>
+ * With <code>muxForward</code> set, the "forward" command reaches the
+ * servers on TCP through streams of <code>muxConnections</code>
+ * multiplexed connections by server instead of a connection by call
+ * (see <code>MuxConnection</code>): the servers must be exported with
+ * an <code>RMIHttpServerSocketFactory</code>.
+ * <p>
+ * With <code>preconnect</code> set, the HTTP forwards to the servers
+ * reached on TCP take connections opened ahead of their use, up to
+ * <code>preconnectMax</code> by server, closed after
+ * <code>preconnectIdleMillis</code> (see <code>PreconnectPool</code>):
+ * the servers must be exported with an
+ * <code>RMIHttpServerSocketFactory</code> too.
+ * <p>
+ * With <code>responseCache</code> set to a comma separated list of
+ * methods, the "forward" command answers the single operation calls of
+ * these methods from the returns of previous identical calls, kept for
+ * <code>responseCacheTtlMillis</code>, up to
+ * <code>responseCacheSize</code> returns of at most
+ * <code>responseCacheMaxBytes</code> (see <code>ResponseCache</code>):
+ * only pure methods may be listed.
+ * <p>
+ * The "metrics" command returns the latency histograms of every
+ * command (split into phases for "forward"), the bytes forwarded and
+ * the errors by exception type, in Prometheus text format or, with the
+ * "json" parameter, as JSON.  With the "jrmp" parameter it returns
+ * the calls, bytes and latency of every remote method decoded from the
+ * forwarded JRMP traffic, which is only decoded, as it streams to and
+ * from the client, when <code>decodeJrmp</code> is set.  It is the only
+ * command also accepted through GET.
+ * <p>
  * Because the ServletHandler uses a local socket to proxy remote
  * calls, the servlet has the ability to forward remote calls to local
  * RMI objects that reside in the ServletVM or outside of it.
@@ -93,6 +157,31 @@ public class RMIServletHandler extends HttpServlet {
     public static final String INITIAL_SERVER_CLASS     = PARAM_PREFIX.concat("initialServerClass");
     public static final String INITIAL_SERVER_BIND_NAME = PARAM_PREFIX.concat("initialServerBindName)");
     public static final String RMI_REMOTE_HOST          = PARAM_PREFIX.concat("remoteHost");
+    public static final String MAX_IN_FLIGHT_BYTES      = PARAM_PREFIX.concat("maxInFlightBytes");
+    public static final String BUDGET_WAIT_MILLIS       = PARAM_PREFIX.concat("budgetWaitMillis");
+    public static final String SPILL_DIRECTORY          = PARAM_PREFIX.concat("spillDirectory");
+    public static final String METRICS_EXPORT_FILE      = PARAM_PREFIX.concat("metricsExportFile");
+    public static final String METRICS_EXPORT_PERIOD    = PARAM_PREFIX.concat("metricsExportPeriodSeconds");
+    public static final String METRICS_EXPORT_LIMIT     = PARAM_PREFIX.concat("metricsExportLimitBytes");
+    public static final String METRICS_EXPORT_COUNT     = PARAM_PREFIX.concat("metricsExportCount");
+    public static final String UNIX_SOCKET_DIRECTORY    = PARAM_PREFIX.concat("unixSocketDirectory");
+    public static final String IN_PROCESS_FORWARD       = PARAM_PREFIX.concat("inProcessForward");
+    public static final String STREAM_FORWARD           = PARAM_PREFIX.concat("streamForward");
+    public static final String STREAM_POOL_MAX_IDLE     = PARAM_PREFIX.concat("streamPoolMaxIdle");
+    public static final String STREAM_POOL_IDLE_MILLIS  = PARAM_PREFIX.concat("streamPoolIdleMillis");
+    public static final String MUX_FORWARD              = PARAM_PREFIX.concat("muxForward");
+    public static final String MUX_CONNECTIONS          = PARAM_PREFIX.concat("muxConnections");
+    public static final String PRECONNECT               = PARAM_PREFIX.concat("preconnect");
+    public static final String PRECONNECT_MAX           = PARAM_PREFIX.concat("preconnectMax");
+    public static final String PRECONNECT_IDLE_MILLIS   = PARAM_PREFIX.concat("preconnectIdleMillis");
+    public static final String RESPONSE_CACHE           = PARAM_PREFIX.concat("responseCache");
+    public static final String RESPONSE_CACHE_SIZE      = PARAM_PREFIX.concat("responseCacheSize");
+    public static final String RESPONSE_CACHE_TTL_MILLIS = PARAM_PREFIX.concat("responseCacheTtlMillis");
+    public static final String RESPONSE_CACHE_MAX_BYTES = PARAM_PREFIX.concat("responseCacheMaxBytes");
+    public static final String DECODE_JRMP              = PARAM_PREFIX.concat("decodeJrmp");
+
+    /** prefix of the "forward" parameter forcing the unix socket of the port */
+    public static final String UNIX_FORWARD_PREFIX = "unix:";
 
     @Data
     static class Parameters{
@@ -100,6 +189,28 @@ public class RMIServletHandler extends HttpServlet {
         String initialServerClass;
         String initialServerBindName;
         Optional<String> remoteHost = empty();
+        long maxInFlightBytes = 64L * 1024 * 1024;
+        long budgetWaitMillis = 200;
+        File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+        Optional<File> metricsExportFile = empty();
+        long metricsExportPeriodSeconds = 60;
+        long metricsExportLimitBytes = 10L * 1024 * 1024;
+        int metricsExportCount = 5;
+        Optional<File> unixSocketDirectory = empty();
+        boolean inProcessForward = false;
+        boolean streamForward = false;
+        int streamPoolMaxIdle = 16;
+        long streamPoolIdleMillis = 15_000;
+        boolean muxForward = false;
+        int muxConnections = 1;
+        boolean preconnect = false;
+        int preconnectMax = 8;
+        long preconnectIdleMillis = 30_000;
+        Set<String> responseCache = Collections.emptySet();
+        int responseCacheSize = 1024;
+        long responseCacheTtlMillis = 10_000;
+        int responseCacheMaxBytes = 64 * 1024;
+        boolean decodeJrmp = false;
 
         public static Parameters of(ServletConfig config) {
             final Parameters result = new Parameters();
@@ -107,12 +218,72 @@ public class RMIServletHandler extends HttpServlet {
             result.initialServerClass      = ofNullable(config.getInitParameter(INITIAL_SERVER_CLASS)).orElse("");
             result.initialServerBindName   = ofNullable(config.getInitParameter(INITIAL_SERVER_BIND_NAME)).orElse("");
             result.remoteHost = ofNullable(config.getInitParameter(RMI_REMOTE_HOST));
+            result.maxInFlightBytes = ofNullable(config.getInitParameter(MAX_IN_FLIGHT_BYTES)).map(Long::valueOf).orElse(result.maxInFlightBytes);
+            result.budgetWaitMillis = ofNullable(config.getInitParameter(BUDGET_WAIT_MILLIS)).map(Long::valueOf).orElse(result.budgetWaitMillis);
+            result.spillDirectory   = ofNullable(config.getInitParameter(SPILL_DIRECTORY)).map(File::new).orElse(result.spillDirectory);
+            result.metricsExportFile          = ofNullable(config.getInitParameter(METRICS_EXPORT_FILE)).map(File::new);
+            result.metricsExportPeriodSeconds = ofNullable(config.getInitParameter(METRICS_EXPORT_PERIOD)).map(Long::valueOf).orElse(result.metricsExportPeriodSeconds);
+            result.metricsExportLimitBytes    = ofNullable(config.getInitParameter(METRICS_EXPORT_LIMIT)).map(Long::valueOf).orElse(result.metricsExportLimitBytes);
+            result.metricsExportCount         = ofNullable(config.getInitParameter(METRICS_EXPORT_COUNT)).map(Integer::valueOf).orElse(result.metricsExportCount);
+            result.unixSocketDirectory        = ofNullable(config.getInitParameter(UNIX_SOCKET_DIRECTORY)).map(File::new);
+            result.inProcessForward           = ofNullable(config.getInitParameter(IN_PROCESS_FORWARD)).map(Boolean::valueOf).orElse(result.inProcessForward);
+            result.streamForward              = ofNullable(config.getInitParameter(STREAM_FORWARD)).map(Boolean::valueOf).orElse(result.streamForward);
+            result.streamPoolMaxIdle          = ofNullable(config.getInitParameter(STREAM_POOL_MAX_IDLE)).map(Integer::valueOf).orElse(result.streamPoolMaxIdle);
+            result.streamPoolIdleMillis       = ofNullable(config.getInitParameter(STREAM_POOL_IDLE_MILLIS)).map(Long::valueOf).orElse(result.streamPoolIdleMillis);
+            result.muxForward                 = ofNullable(config.getInitParameter(MUX_FORWARD)).map(Boolean::valueOf).orElse(result.muxForward);
+            result.muxConnections             = ofNullable(config.getInitParameter(MUX_CONNECTIONS)).map(Integer::valueOf).orElse(result.muxConnections);
+            result.preconnect                 = ofNullable(config.getInitParameter(PRECONNECT)).map(Boolean::valueOf).orElse(result.preconnect);
+            result.preconnectMax              = ofNullable(config.getInitParameter(PRECONNECT_MAX)).map(Integer::valueOf).orElse(result.preconnectMax);
+            result.preconnectIdleMillis       = ofNullable(config.getInitParameter(PRECONNECT_IDLE_MILLIS)).map(Long::valueOf).orElse(result.preconnectIdleMillis);
+            result.responseCache              = ofNullable(config.getInitParameter(RESPONSE_CACHE))
+                                                    .map( v -> Arrays.stream(v.split(",")).map(String::trim).filter(m -> !m.isEmpty()).collect(toSet()) )
+                                                    .orElse(result.responseCache);
+            result.responseCacheSize          = ofNullable(config.getInitParameter(RESPONSE_CACHE_SIZE)).map(Integer::valueOf).orElse(result.responseCacheSize);
+            result.responseCacheTtlMillis     = ofNullable(config.getInitParameter(RESPONSE_CACHE_TTL_MILLIS)).map(Long::valueOf).orElse(result.responseCacheTtlMillis);
+            result.responseCacheMaxBytes      = ofNullable(config.getInitParameter(RESPONSE_CACHE_MAX_BYTES)).map(Integer::valueOf).orElse(result.responseCacheMaxBytes);
+            result.decodeJrmp                 = ofNullable(config.getInitParameter(DECODE_JRMP)).map(Boolean::valueOf).orElse(result.decodeJrmp);
             return result;
         }
     }
 
     private Optional<Parameters> _optParameters = empty();
 
+    /**
+     * bytes held on the heap by all the forward commands in flight
+     */
+    private Optional<InFlightBudget> _optBudget = empty();
+
+    /**
+     * opens the connections of the forward commands to the RMI servers
+     */
+    private Optional<BackendConnector> _optBackendConnector = empty();
+
+    /**
+     * persistent JRMP connections of the forward commands, when they are forwarded in stream mode
+     */
+    private Optional<JrmpStreamPool> _optStreamPool = empty();
+
+    /**
+     * returns of the pure remote methods, when some are listed
+     */
+    private Optional<ResponseCache> _optResponseCache = empty();
+
+    /**
+     * registry of the dispatch metrics exposed by the "metrics" command
+     */
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+
+    /**
+     * server socket factory of the objects exported by the servlet, reached in process by the
+     * forward command when <code>inProcessForward</code> is set, null for the default one
+     */
+    private RMIServerSocketFactory serverSocketFactory;
+
+    /**
+     * periodic export of the metrics to a rolling file, if configured
+     */
+    private Optional<MetricsFileExporter> _optMetricsExporter = empty();
+
     /**
      *
      * @return
@@ -121,6 +292,44 @@ public class RMIServletHandler extends HttpServlet {
         return _optParameters.orElseThrow( () -> new IllegalStateException("parameters are not initialized!"));
     }
 
+    /**
+     *
+     * @return
+     */
+    private InFlightBudget getBudget() {
+        return _optBudget.orElseThrow( () -> new IllegalStateException("in-flight budget is not initialized!"));
+    }
+
+    /**
+     *
+     * @return
+     */
+    private BackendConnector getBackendConnector() {
+        return _optBackendConnector.orElseThrow( () -> new IllegalStateException("backend connector is not initialized!"));
+    }
+
+    /**
+     *
+     * @return
+     */
+    private JrmpStreamPool getStreamPool() {
+        return _optStreamPool.orElseThrow( () -> new IllegalStateException("stream pool is not initialized!"));
+    }
+
+    /**
+     * the host of the RMI servers, the remote host parameter or else the local host
+     *
+     * @return
+     */
+    private InetAddress getRemoteHost() {
+        try {
+            final Optional<String> remoteHost = getParameters().getRemoteHost();
+            return remoteHost.isPresent() ? InetAddress.getByName(remoteHost.get()) : InetAddress.getLocalHost();
+        } catch (UnknownHostException e) {
+            throw new Error(e);
+        }
+    }
+
     /**
      * RMICommandHandler is the abstraction for an object that handles
      * a particular supported command (for example the "forward"
@@ -149,6 +358,9 @@ public class RMIServletHandler extends HttpServlet {
     /* construct table mapping command strings to handlers */
     private java.util.Map<String,RMICommandHandler> commandLookup = emptyMap();
 
+    /* table mapping command strings to their overall latency */
+    private java.util.Map<String,LatencyHistogram> commandLatency = emptyMap();
+
     /**
      * Once loaded, Java Servlets continue to run until they are
      * unloaded or the webserver is stopped.  This example takes
@@ -171,6 +383,8 @@ public class RMIServletHandler extends HttpServlet {
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
 
+        TunnelEvents.register();
+
         /**
          * List of handlers for supported commands. A new command will be
          * created for every service request
@@ -179,13 +393,63 @@ public class RMIServletHandler extends HttpServlet {
                 new ServletForwardCommand(),
                 new ServletGethostnameCommand(),
                 new ServletPingCommand(),
-                new ServletTryHostnameCommand()
+                new ServletTryHostnameCommand(),
+                new ServletMetricsCommand()
         };
         commandLookup = Arrays.stream( commands ).collect(toMap(cmd -> cmd.getName(), cmd -> cmd  ));
+        commandLatency = Arrays.stream( commands ).collect(toMap(cmd -> cmd.getName(),
+                cmd -> metrics.histogram("rmi_proxy_command_seconds", "command", cmd.getName(), "phase", "total")));
 
         try {
 
             this._optParameters = Optional.of( Parameters.of(config) );
+            this._optBudget = Optional.of( new InFlightBudget(getParameters().getMaxInFlightBytes()) );
+            this.serverSocketFactory = getParameters().isInProcessForward() ? new RMIInProcessServerSocketFactory() : null;
+            final Optional<MuxConnector> mux = getParameters().isMuxForward() ?
+                    Optional.of( new MuxConnector(getParameters().getMuxConnections()) ) :
+                    Optional.empty();
+            mux.ifPresent( m -> metrics.gauge("rmi_proxy_mux_connections_opened", m::getOpenedCount) );
+            final Optional<PreconnectPool> preconnect = getParameters().isPreconnect() ?
+                    Optional.of( new PreconnectPool( getParameters().getPreconnectMax(),
+                                                     getParameters().getPreconnectIdleMillis(),
+                                                     metrics.counter("rmi_proxy_preconnect_hits_total"),
+                                                     metrics.counter("rmi_proxy_preconnect_misses_total")) ) :
+                    Optional.empty();
+            preconnect.ifPresent( p -> metrics.gauge("rmi_proxy_preconnect_idle", p::getIdleCount) );
+            this._optBackendConnector = Optional.of( new BackendConnector( this::getRemoteHost,
+                                                                                getParameters().getUnixSocketDirectory(),
+                                                                                getParameters().isInProcessForward(),
+                                                                                mux,
+                                                                                preconnect) );
+
+            if (getParameters().isStreamForward()) {
+                final JrmpStreamPool pool = new JrmpStreamPool( getParameters().getStreamPoolMaxIdle(),
+                                                                getParameters().getStreamPoolIdleMillis(),
+                                                                metrics.counter("rmi_proxy_stream_connections_total"));
+                metrics.gauge("rmi_proxy_stream_connections_idle", pool::getIdleCount);
+                this._optStreamPool = Optional.of(pool);
+            }
+
+            if (!getParameters().getResponseCache().isEmpty()) {
+                final ResponseCache cache = new ResponseCache( getParameters().getResponseCache(),
+                                                               getParameters().getResponseCacheSize(),
+                                                               getParameters().getResponseCacheTtlMillis(),
+                                                               getParameters().getResponseCacheMaxBytes(),
+                                                               metrics.counter("rmi_proxy_cache_hits_total"),
+                                                               metrics.counter("rmi_proxy_cache_misses_total"),
+                                                               metrics.counter("rmi_proxy_cache_evictions_total"));
+                metrics.gauge("rmi_proxy_cache_entries", cache::size);
+                this._optResponseCache = Optional.of(cache);
+            }
+
+            metrics.gauge("rmi_proxy_inflight_bytes", getBudget()::getReservedBytes);
+            metrics.gauge("rmi_proxy_inflight_bytes_max", getBudget()::getMaxBytes);
+
+            this._optMetricsExporter = getParameters().getMetricsExportFile()
+                    .map( file -> new MetricsFileExporter( metrics, file,
+                                                getParameters().getMetricsExportPeriodSeconds(),
+                                                getParameters().getMetricsExportLimitBytes(),
+                                                getParameters().getMetricsExportCount()));
 
             /* RMI requires that a local security manager be
              * responsible for the method invocations from remote
@@ -198,7 +462,7 @@ public class RMIServletHandler extends HttpServlet {
 
             // create a registry if one is not running already.
             try {
-                java.rmi.registry.LocateRegistry.createRegistry(1099);
+                java.rmi.registry.LocateRegistry.createRegistry(1099, null, serverSocketFactory);
             } catch (java.rmi.server.ExportException ee) {
                 // registry already exists, we'll just use it.
                 log.warning("registry already exists, we'll just use it.");
@@ -246,6 +510,10 @@ public class RMIServletHandler extends HttpServlet {
      * location that will be accessible from a remote client.  In the
      * case of this example, that location will be
      * <code>initialServerCodebase</code>
+     * <p>
+     * A class with a <code>(int, RMIClientSocketFactory, RMIServerSocketFactory)</code>
+     * constructor is exported with the socket factory of the servlet,
+     * any other with the default one.
      */
     private UnicastRemoteObject createRemoteObjectUsingDownloadedClass() throws Exception {
 
@@ -269,7 +537,7 @@ public class RMIServletHandler extends HttpServlet {
                     log.info("This example requires an instance of UnicastRemoteObject, remote object not exported.");
                 } else {
                     log.info("Server class loaded successfully...");
-                    server = ((UnicastRemoteObject) serverClass.newInstance());
+                    server = newRemoteObject(serverClass);
                 }
 
             } catch (ClassNotFoundException cnfe) {
@@ -297,6 +565,17 @@ public class RMIServletHandler extends HttpServlet {
         return server;
     }
 
+    private UnicastRemoteObject newRemoteObject(Class<?> serverClass) throws Exception {
+        try {
+            return (UnicastRemoteObject) serverClass
+                    .getConstructor(int.class, RMIClientSocketFactory.class, RMIServerSocketFactory.class)
+                    .newInstance(0, null, serverSocketFactory);
+        } catch (NoSuchMethodException e) {
+            log.info("no socket factory constructor, remote object exported with the default socket factory");
+            return (UnicastRemoteObject) serverClass.newInstance();
+        }
+    }
+
     /* NOTE: If you are using JDK1.2Beta4 or later, it is recommended
      * that you provide your servlet with a destroy method that will
      * unexport any remote objects that your servlet ever exports.  As
@@ -327,12 +606,14 @@ public class RMIServletHandler extends HttpServlet {
      */
     public void doPost(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
 
+        String command = "";
+
         try {
 
             // Command and parameter for this POST request.
             final String queryString = ofNullable(req.getQueryString()).orElse("");
 
-            String command = queryString;
+            command = queryString;
             String param = "";
 
             int delim = queryString.indexOf("=");
@@ -348,37 +629,64 @@ public class RMIServletHandler extends HttpServlet {
             final RMICommandHandler handler = commandLookup.get(command);
 
             // execute the command
-            if (handler != null)
+            if (handler != null) {
+                final long start = System.nanoTime();
                 try {
                     handler.execute(req, res, param);
                 } catch (ServletClientException e) {
+                    countError(command, e);
                     returnClientError(res, "client error: %s", e.getMessage());
                     log.log(Level.SEVERE, "client error", e);
                     //log.throwing(getClass().getName(), "doPost", e);
                 } catch (ServletServerException e) {
+                    countError(command, e);
                     returnServerError(res, "internal server error: %s", e.getMessage());
                     log.log(Level.SEVERE, "internal Server Error", e);
                     //log.throwing(getClass().getName(), "doPost", e);
+                } finally {
+                    commandLatency.get(command).recordSince(start);
                 }
+            }
             else
                 returnClientError(res, "invalid command: %s", command);
         } catch (Exception e) {
+            countError(command, e);
             returnServerError(res, "internal error: %s", e.getMessage());
             log.log(Level.SEVERE, "internal Error", e);
             //log.throwing(getClass().getName(), "doPost", e);
         }
     }
 
+    /**
+     * Count an error raised executing a command, by exception type.
+     *
+     * @param command the command that failed
+     * @param e       the error
+     */
+    private void countError(String command, Exception e) {
+        metrics.counter("rmi_proxy_errors_total", "command", command, "exception", e.getClass().getSimpleName()).increment();
+    }
+
     /**
      * Provide more intelligible errors for methods that are likely to
      * be called.  Let unsupported HTTP "do*" methods result in an
      * error generated by the super class.
+     * <p>
+     * The only command accepted through GET is "metrics", so that
+     * monitoring tools can scrape it.
      *
      * @param req http Servlet request, contains incoming command and
      *            arguments
      * @param res http Servlet response
      */
-    public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+
+        final String queryString = ofNullable(req.getQueryString()).orElse("");
+
+        if (queryString.equals(ServletMetricsCommand.NAME) || queryString.startsWith(ServletMetricsCommand.NAME + "=")) {
+            doPost(req, res);
+            return;
+        }
 
         returnClientError(res,
                 "GET Operation not supported: %s",
@@ -398,6 +706,16 @@ public class RMIServletHandler extends HttpServlet {
                 "Can only forward POST requests.");
     }
 
+    /**
+     * Stop the periodic metrics export, if any.
+     */
+    public void destroy() {
+        _optMetricsExporter.ifPresent(MetricsFileExporter::close);
+        _optStreamPool.ifPresent(JrmpStreamPool::close);
+        _optBackendConnector.ifPresent(BackendConnector::close);
+        super.destroy();
+    }
+
     /**
      *
      * @return
@@ -468,6 +786,13 @@ public class RMIServletHandler extends HttpServlet {
      */
     protected class ServletForwardCommand implements RMICommandHandler {
 
+        final LatencyHistogram readBodyLatency        = metrics.histogram("rmi_proxy_command_seconds", "command", getName(), "phase", "read_body");
+        final LatencyHistogram connectBackendLatency  = metrics.histogram("rmi_proxy_command_seconds", "command", getName(), "phase", "connect_backend");
+        final LatencyHistogram backendWaitLatency     = metrics.histogram("rmi_proxy_command_seconds", "command", getName(), "phase", "backend_wait");
+        final LatencyHistogram writeResponseLatency   = metrics.histogram("rmi_proxy_command_seconds", "command", getName(), "phase", "write_response");
+        final LongAdder bytesIn   = metrics.counter("rmi_proxy_bytes_in_total", "command", getName());
+        final LongAdder bytesOut  = metrics.counter("rmi_proxy_bytes_out_total", "command", getName());
+
         public String getName() {
             return "forward";
         }
@@ -479,16 +804,18 @@ public class RMIServletHandler extends HttpServlet {
          *
          * @param req   The servlet request.
          * @param res   The servlet response.
-         * @param param Port to which data will be sent.
+         * @param param Port to which data will be sent, prefixed by "unix:"
+         *              to send it to the unix socket of the port.
          */
         public void execute(HttpServletRequest req, HttpServletResponse res, String param) throws ServletClientException, ServletServerException, IOException
         {
 
             // GUARD
             int port;
+            final boolean unix = param.startsWith(UNIX_FORWARD_PREFIX);
 
             try {
-                port = Integer.parseInt(param);
+                port = Integer.parseInt(unix ? param.substring(UNIX_FORWARD_PREFIX.length()) : param);
 
                 if (port <= 0 || port > 0xFFFF)
                     throw new ServletClientException( format("invalid port: %d", port));
@@ -501,94 +828,344 @@ public class RMIServletHandler extends HttpServlet {
             }
 
 
-            byte buffer[];
+            final PhaseTracker phases = new PhaseTracker(port, req);
+            phases.span.setAttribute("backend", backendOf(port, unix));
+            try {
+                forward(req, res, port, unix, phases);
+                phases.finish();
+            } catch (ServletClientException | ServletServerException | IOException | RuntimeException e) {
+                phases.fail(e);
+                throw e;
+            }
+        }
 
-            // read client's request body
-            try (
-                    final DataInputStream clientIn = new DataInputStream(req.getInputStream())
-                )
-            {
-                buffer = new byte[req.getContentLength()];
+        /**
+         * @return how the forward reaches the server: "inproc", "unix", "mux" or "tcp"
+         */
+        private String backendOf(int port, boolean unix) {
+            if (unix)
+                return "unix";
+            if (getBackendConnector().isInProcess(port))
+                return "inproc";
+            if (getBackendConnector().hasUnixSocket(port))
+                return "unix";
+            return getBackendConnector().isMultiplexed() ? "mux" : "tcp";
+        }
 
-                clientIn.readFully(buffer);
+        /**
+         * Forward the request body to the given port and send the server
+         * response back to the client, tracking every phase of the call.
+         *
+         * @param req    The servlet request.
+         * @param res    The servlet response.
+         * @param port   Port to which data will be sent.
+         * @param unix   True to send the data to the unix socket of the port.
+         * @param phases Tracker of the forward phases.
+         */
+        private void forward(HttpServletRequest req, HttpServletResponse res, int port, boolean unix, PhaseTracker phases) throws ServletClientException, ServletServerException, IOException
+        {
+            final int contentLength = req.getContentLength();
 
-            } catch (EOFException e) {
-                throw new ServletClientException("unexpected EOF reading request body");
-            } catch (IOException e) {
-                throw new ServletClientException("error reading request body");
-            }
+            if (contentLength < 0)
+                throw new ServletClientException("missing content length in request");
+
+            phases.begin("read_body", readBodyLatency);
+
+            // read client's request body
+            try( final PayloadBuffer buffer = allocatePayload(contentLength);
+                 final JrmpDecoder decoder = getParameters().isDecodeJrmp() ? new JrmpDecoder(JrmpStats.getDefault(), "proxy") : null ) {
 
-            final Function<String,InetAddress> getHostByName = (rmihost) -> {
                 try {
-                    return InetAddress.getByName(rmihost);
-                } catch (UnknownHostException e) {
-                    throw new Error(e);
+                    buffer.readFully((decoder != null) ? decoder.requestTap(req.getInputStream()) : req.getInputStream());
+                } catch (EOFException e) {
+                    throw new ServletClientException("unexpected EOF reading request body");
+                } catch (IOException e) {
+                    throw new ServletClientException("error reading request body");
                 }
-            };
-            final Supplier<InetAddress> getLocalHost = () -> {
-                try {
-                    return InetAddress.getLocalHost();
-                } catch (UnknownHostException e) {
-                    throw new Error(e);
+                bytesIn.add(buffer.size());
+                phases.end(buffer.size(), 0);
+
+                final byte[] cacheRequest = cacheableRequest(buffer);
+                if (cacheRequest != null) {
+                    final byte[] cached = _optResponseCache.get().get(cacheRequest);
+                    if (cached != null) {
+                        answerFromCache(res, buffer, cached, decoder, phases);
+                        return;
+                    }
+                }
+
+                if (_optStreamPool.isPresent() && JrmpStreamPool.isSingleOp(buffer)) {
+                    forwardStream(res, port, unix, buffer, cacheRequest, decoder, phases);
+                    return;
                 }
-            };
-
-            // send to local server in HTTP
-            try (
-                    final Socket socket = new Socket(
-                            getParameters().getRemoteHost()
-                                    .map( getHostByName )
-                                    .orElseGet( getLocalHost), port );
-                    final DataOutputStream socketOut = new DataOutputStream(socket.getOutputStream());
-                    final DataInputStream socketIn = new DataInputStream(socket.getInputStream())
-                )
-            {
-                socketOut.writeBytes("POST / HTTP/1.0\r\n");
-                socketOut.writeBytes( format("Content-length: %d\r\n\r\n", req.getContentLength()) );
-                socketOut.write(buffer);
-                socketOut.flush();
-
-                final String key = "Content-length:".toLowerCase();
-                boolean contentLengthFound = false;
-                String line;
-                int responseContentLength = -1;
-                do {
-                    line = socketIn.readLine();
-                    if (line == null)
-                        throw new ServletServerException("unexpected EOF reading server response");
-
-                    if (line.toLowerCase().startsWith(key)) {
-                        if (contentLengthFound)
-                            ; // what would we want to do in this case??
-                        responseContentLength = Integer.parseInt(line.substring(key.length()).trim());
-                        contentLengthFound = true;
+
+                phases.begin("connect_backend", connectBackendLatency);
+
+                // send to local server in HTTP
+                try (
+                        final Socket socket = unix ?
+                                getBackendConnector().connectUnix(port) :
+                                getBackendConnector().connectHttp(port);
+                        final DataOutputStream socketOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        final DataInputStream socketIn = new DataInputStream(socket.getInputStream())
+                    )
+                {
+                    phases.end(buffer.size(), 0);
+                    phases.begin("backend_wait", backendWaitLatency);
+
+                    socketOut.writeBytes("POST / HTTP/1.0\r\n");
+                    final Optional<TraceContext> traceContext = phases.span.getContext();
+                    if (traceContext.isPresent())
+                        socketOut.writeBytes( format("%s: %s\r\n", TraceContext.HEADER, traceContext.get().toHeader()) );
+                    socketOut.writeBytes( format("Content-length: %d\r\n\r\n", buffer.size()) );
+                    final long sendMicros = Tracer.epochMicros();
+                    buffer.writeTo(socketOut);
+                    socketOut.flush();
+
+                    final String key = "Content-length:".toLowerCase();
+                    final String timingKey = Tracer.TIMING_HEADER.toLowerCase().concat(":");
+                    boolean contentLengthFound = false;
+                    String line;
+                    int responseContentLength = -1;
+                    do {
+                        line = socketIn.readLine();
+                        if (line == null)
+                            throw new ServletServerException("unexpected EOF reading server response");
+
+                        if (line.toLowerCase().startsWith(key)) {
+                            if (contentLengthFound)
+                                ; // what would we want to do in this case??
+                            responseContentLength = Integer.parseInt(line.substring(key.length()).trim());
+                            contentLengthFound = true;
+                        }
+                        else if (line.toLowerCase().startsWith(timingKey)) {
+                            phases.span.recordPeerTiming(sendMicros, Tracer.epochMicros(), line.substring(timingKey.length()));
+                        }
+                    } while ((line.length() != 0) &&
+                            (line.charAt(0) != '\r') && (line.charAt(0) != '\n'));
+
+                    if (!contentLengthFound || responseContentLength < 0)
+                        throw new ServletServerException("missing or invalid content length in server response");
+
+                    try( final PayloadBuffer bufferIn = allocatePayload(responseContentLength) ) {
+                        try {
+                            bufferIn.readFully(socketIn);
+
+                        } catch (EOFException e) {
+                            throw new ServletServerException("unexpected EOF reading server response");
+                        }
+                        if (cacheRequest != null && bufferIn.size() <= getParameters().getResponseCacheMaxBytes()) {
+                            final ByteArrayOutputStream response = new ByteArrayOutputStream(bufferIn.size());
+                            bufferIn.writeTo(response);
+                            _optResponseCache.get().put(cacheRequest, response.toByteArray());
+                        }
+                        phases.end(buffer.size(), bufferIn.size());
+                        phases.begin("write_response", writeResponseLatency);
+
+                        // send local server response back to servlet client
+                        res.setStatus(HttpServletResponse.SC_OK);
+                        res.setContentType("application/octet-stream");
+                        res.setContentLength(bufferIn.size());
+                        if (phases.span.isRecording())
+                            res.setHeader(Tracer.TIMING_HEADER, Tracer.timingHeader(phases.span.getStartMicros(), Tracer.epochMicros()));
+
+                        OutputStream out = responseStream(res, decoder);
+                        bufferIn.writeTo(out);
+                        out.flush();
+
+                        bytesOut.add(bufferIn.size());
+                        phases.end(buffer.size(), bufferIn.size());
                     }
-                } while ((line.length() != 0) &&
-                        (line.charAt(0) != '\r') && (line.charAt(0) != '\n'));
 
-                if (!contentLengthFound || responseContentLength < 0)
-                    throw new ServletServerException("missing or invalid content length in server response");
+                } catch (IOException e) {
+                    throw new ServletServerException( format("error reading/writing to server: [%s]", e.getMessage()));
+                }
+            }
+
+        }
+
+        /**
+         * Forward a single operation call on a persistent JRMP connection
+         * of the stream pool, and send the server response back to the
+         * client.  The size of the return is only known once it has been
+         * read, so it is received into a payload buffer growing against
+         * the in-flight budget, spilled to disk like the request when the
+         * budget has no room for it.
+         *
+         * @param res     The servlet response.
+         * @param port    Port to which data will be sent.
+         * @param unix    True to send the data to the unix socket of the port.
+         * @param buffer  The request body.
+         * @param cacheRequest The call message to cache the return of, null if it is not cached.
+         * @param decoder Decoder of the forwarded JRMP traffic, null if it is not decoded.
+         * @param phases  Tracker of the forward phases.
+         */
+        private void forwardStream(HttpServletResponse res, int port, boolean unix, PayloadBuffer buffer,
+                                   byte[] cacheRequest, JrmpDecoder decoder, PhaseTracker phases)
+                throws ServletServerException, IOException
+        {
+            phases.span.setAttribute("jrmp", "stream");
+            phases.begin("backend_wait", backendWaitLatency);
 
-                byte bufferIn[] = new byte[responseContentLength];
+            final Parameters params = getParameters();
+            try( final PayloadBuffer.Receiver receiver = PayloadBuffer.receive(getBudget(), params.getBudgetWaitMillis(), params.getSpillDirectory()) ) {
                 try {
-                    socketIn.readFully(bufferIn);
+                    final String key = unix ? UNIX_FORWARD_PREFIX.concat(String.valueOf(port)) : String.valueOf(port);
+                    getStreamPool().forward(key,
+                            () -> unix ? getBackendConnector().connectUnix(port) : getBackendConnector().connect(port),
+                            buffer, receiver);
+                } catch (IOException e) {
+                    throw new ServletServerException( format("error reading/writing to server: [%s]", e.getMessage()));
+                }
 
-                } catch (EOFException e) {
-                    throw new ServletServerException("unexpected EOF reading server response");
+                try( final PayloadBuffer bufferIn = receiver.toBuffer() ) {
+                    if (cacheRequest != null && bufferIn.size() <= params.getResponseCacheMaxBytes()) {
+                        final ByteArrayOutputStream response = new ByteArrayOutputStream(bufferIn.size());
+                        bufferIn.writeTo(response);
+                        _optResponseCache.get().put(cacheRequest, response.toByteArray());
+                    }
+                    phases.end(buffer.size(), bufferIn.size());
+                    phases.begin("write_response", writeResponseLatency);
+
+                    res.setStatus(HttpServletResponse.SC_OK);
+                    res.setContentType("application/octet-stream");
+                    res.setContentLength(bufferIn.size());
+                    if (phases.span.isRecording())
+                        res.setHeader(Tracer.TIMING_HEADER, Tracer.timingHeader(phases.span.getStartMicros(), Tracer.epochMicros()));
+
+                    final OutputStream out = responseStream(res, decoder);
+                    bufferIn.writeTo(out);
+                    out.flush();
+
+                    bytesOut.add(bufferIn.size());
+                    phases.end(buffer.size(), bufferIn.size());
                 }
-                // send local server response back to servlet client
-                res.setStatus(HttpServletResponse.SC_OK);
-                res.setContentType("application/octet-stream");
-                res.setContentLength(bufferIn.length);
+            }
+        }
 
-                OutputStream out = res.getOutputStream();
-                out.write(bufferIn);
-                out.flush();
+        /**
+         * @return the call message of a single operation request for a
+         *         method whose returns are cached, null if the request is
+         *         not answered from the cache
+         */
+        private byte[] cacheableRequest(PayloadBuffer buffer) throws IOException {
+            if (!_optResponseCache.isPresent() || !JrmpStreamPool.isSingleOp(buffer) ||
+                    buffer.size() > ResponseCache.MAX_REQUEST_BYTES)
+                return null;
+
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(buffer.size());
+            buffer.writeTo(body);
+            final byte[] b = body.toByteArray();
+            final int offset = JrmpStreamPool.SINGLE_OP_HEADER.length;
+            return CallHeader.parse(b, offset, b.length - offset)
+                    .filter(_optResponseCache.get()::isAllowed)
+                    .map( header -> Arrays.copyOfRange(b, offset, b.length) )
+                    .orElse(null);
+        }
 
-            } catch (IOException e) {
-                throw new ServletServerException( format("error reading/writing to server: [%s]", e.getMessage()));
+        /**
+         * Send a return of the response cache back to the client.
+         *
+         * @param res      The servlet response.
+         * @param buffer   The request body.
+         * @param response The return message.
+         * @param decoder  Decoder of the forwarded JRMP traffic, null if it is not decoded.
+         * @param phases   Tracker of the forward phases.
+         */
+        private void answerFromCache(HttpServletResponse res, PayloadBuffer buffer, byte[] response,
+                                     JrmpDecoder decoder, PhaseTracker phases) throws IOException
+        {
+            phases.span.setAttribute("cache", "hit");
+            phases.begin("write_response", writeResponseLatency);
+
+            res.setStatus(HttpServletResponse.SC_OK);
+            res.setContentType("application/octet-stream");
+            res.setContentLength(response.length);
+            if (phases.span.isRecording())
+                res.setHeader(Tracer.TIMING_HEADER, Tracer.timingHeader(phases.span.getStartMicros(), Tracer.epochMicros()));
+
+            final OutputStream out = responseStream(res, decoder);
+            out.write(response);
+            out.flush();
+
+            bytesOut.add(response.length);
+            phases.end(buffer.size(), response.length);
+        }
+
+        /**
+         * @return the stream of the response body, decoding what is
+         *         written to it when there is a decoder
+         */
+        private OutputStream responseStream(HttpServletResponse res, JrmpDecoder decoder) throws IOException {
+            final OutputStream out = res.getOutputStream();
+            return (decoder != null) ? decoder.responseTap(out) : out;
+        }
+
+        /**
+         * PhaseTracker times the phases of a single forward, recording
+         * them in the latency histograms, as flight recorder events and
+         * as attributes of the forward span.
+         */
+        private class PhaseTracker {
+
+            final int port;
+            final Span span;
+            String phase;
+            long start;
+            LatencyHistogram latency;
+            TunnelEvents.Exchange event;
+
+            PhaseTracker(int port, HttpServletRequest req) {
+                this.port = port;
+                this.span = Tracer.startSpan("rmi.proxy.forward", "proxy",
+                                    TraceContext.parse(req.getHeader(TraceContext.HEADER)).orElse(null))
+                            .setAttribute("port", port);
             }
 
+            void begin(String phase, LatencyHistogram latency) {
+                this.phase = phase;
+                this.latency = latency;
+                this.event = TunnelEvents.forwardPhase(phase, port);
+                this.start = System.nanoTime();
+            }
+
+            void end(long requestBytes, long responseBytes) {
+                final long elapsed = latency.recordSince(start) - start;
+                event.complete(requestBytes, responseBytes, "ok");
+                event = null;
+                span.setAttribute(phase.concat("Nanos"), elapsed)
+                    .setAttribute("requestBytes", requestBytes)
+                    .setAttribute("responseBytes", responseBytes);
+            }
+
+            void finish() {
+                span.setAttribute("outcome", "ok").end();
+            }
+
+            void fail(Exception e) {
+                if (event != null) {
+                    event.complete(0, 0, e.getClass().getSimpleName());
+                    event = null;
+                }
+                span.setAttribute("outcome", e.getClass().getSimpleName()).end();
+            }
+        }
+
+        /**
+         * Allocate the buffer for a payload of the given size, reserving
+         * it from the servlet in-flight budget or spilling it to disk.
+         *
+         * @param size payload size
+         * @return the payload buffer
+         * @throws ServletServerException if the buffer cannot be allocated
+         */
+        private PayloadBuffer allocatePayload(int size) throws ServletServerException {
+            final Parameters params = getParameters();
+            try {
+                return PayloadBuffer.allocate(getBudget(), size, params.getBudgetWaitMillis(), params.getSpillDirectory());
+            } catch (IOException e) {
+                throw new ServletServerException( format("error allocating buffer of %d bytes: [%s]", size, e.getMessage()));
+            }
         }
     }
 
@@ -676,6 +1253,50 @@ public class RMIServletHandler extends HttpServlet {
         }
     }
 
+    /**
+     * Class that has an execute method to return the dispatch metrics
+     * of the servlet, either in Prometheus text format (the default) or
+     * as JSON when the command parameter is "json", or the per remote
+     * method report when it is "jrmp".
+     */
+    protected class ServletMetricsCommand implements RMICommandHandler {
+
+        static final String NAME = "metrics";
+
+        public String getName() {
+            return NAME;
+        }
+
+        public void execute(HttpServletRequest req, HttpServletResponse res, String param) throws ServletClientException, IOException
+        {
+            final StringBuilder body = new StringBuilder();
+
+            switch( param ) {
+                case "":
+                case "prometheus":
+                    metrics.writePrometheus(body);
+                    res.setContentType("text/plain; version=0.0.4; charset=utf-8");
+                    break;
+                case "json":
+                    metrics.writeJson(body);
+                    res.setContentType("application/json; charset=utf-8");
+                    break;
+                case "jrmp":
+                    JrmpStats.getDefault().writeReport(body);
+                    res.setContentType("text/plain; charset=utf-8");
+                    break;
+                default:
+                    throw new ServletClientException( format("invalid metrics format: %s", param));
+            }
+
+            res.setStatus(HttpServletResponse.SC_OK);
+
+            final PrintWriter pw = res.getWriter();
+            pw.print(body);
+            pw.flush();
+        }
+    }
+
     /**
      * ServletClientException is thrown when an error is detected
      * in a client's request.
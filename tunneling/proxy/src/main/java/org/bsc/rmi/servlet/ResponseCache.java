@@ -0,0 +1,304 @@
+package org.bsc.rmi.servlet;
+
+import lombok.extern.java.Log;
+import org.bsc.rmi.jrmp.CallHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.rmi.server.UID;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * ResponseCache answers the single operation calls to pure remote methods
+ * without reaching the server, with the return of a previous identical
+ * call.
+ * <p>
+ * The methods are allowed by label, as shown in the JRMP metrics
+ * (<code>SampleRMI.getInfo</code>), or by object number and method hash,
+ * <code>objNum#hash</code> with the hash in hexadecimal and
+ * <code>*</code> for any object.  A call is identified by its whole
+ * message, the object identifier, the method hash and the marshalled
+ * arguments; only normal returns are kept, for <code>ttlMillis</code>.
+ * The acknowledgment identifier of the return is made anew for every
+ * answer.
+ * <p>
+ * The cache is bounded to <code>maximumSize</code> entries, evicted as
+ * by W-TinyLFU: a new entry goes first to a small LRU window, then
+ * replaces the least recently used entry of the main segment only if its
+ * {@link FrequencySketch estimated frequency} is higher.  The main
+ * segment keeps the entries hit twice in a protected part, so that a
+ * scan of calls made once does not flush the popular ones.
+ */
+@Log
+class ResponseCache {
+
+    static final int RETURN = 0x51;
+    static final int NORMAL_RETURN = 1;
+    static final int TC_BLOCKDATA = 0x77;
+    static final int TC_BLOCKDATALONG = 0x7a;
+
+    /** the largest call message cached */
+    static final int MAX_REQUEST_BYTES = 8 * 1024;
+
+    /** share of the window and of the protected part in the cache */
+    static final double WINDOW_SHARE = 0.01, PROTECTED_SHARE = 0.8;
+
+    enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    /**
+     * A call message, the key of the cache.
+     */
+    static final class Key {
+        final byte[] request;
+        final int hash;
+
+        Key(byte[] request) {
+            this.request = request;
+            this.hash = Arrays.hashCode(request);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(request, ((Key) o).request);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class Entry {
+        final Key key;
+        final byte[] response;
+        /** offset of the acknowledgment identifier in the response */
+        final int uidOffset;
+        final long expiresMillis;
+        Segment segment = Segment.WINDOW;
+
+        Entry(Key key, byte[] response, int uidOffset, long expiresMillis) {
+            this.key = key;
+            this.response = response;
+            this.uidOffset = uidOffset;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    private final Set<String> allowed;
+    private final long ttlMillis;
+    private final int maxResponseBytes;
+    private final int windowMax, protectedMax, mainMax;
+    private final LongAdder hits, misses, evictions;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final LinkedHashMap<Key, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    /**
+     * @param allowed          the methods cached, see the class comment
+     * @param maximumSize      the most entries kept
+     * @param ttlMillis        time a return is kept
+     * @param maxResponseBytes the largest return kept
+     * @param hits             counter of the calls answered from the cache
+     * @param misses           counter of the calls of allowed methods sent to the server
+     * @param evictions        counter of the entries evicted for room
+     */
+    ResponseCache(Set<String> allowed, int maximumSize, long ttlMillis, int maxResponseBytes,
+                  LongAdder hits, LongAdder misses, LongAdder evictions) {
+        if (maximumSize < 2)
+            throw new IllegalArgumentException("maximumSize must be at least 2");
+        this.allowed = allowed;
+        this.ttlMillis = ttlMillis;
+        this.maxResponseBytes = maxResponseBytes;
+        this.windowMax = Math.max(1, (int) (maximumSize * WINDOW_SHARE));
+        this.mainMax = maximumSize - windowMax;
+        this.protectedMax = (int) (mainMax * PROTECTED_SHARE);
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if the returns of the method called may be cached
+     */
+    boolean isAllowed(CallHeader header) {
+        return allowed.contains(header.getLabel()) ||
+               allowed.contains(format("*#%016x", header.getHash())) ||
+               allowed.contains(format("%d#%016x", header.getObjNum(), header.getHash()));
+    }
+
+    /**
+     * Answer a call from the cache.
+     *
+     * @param request the call message, from its type byte
+     * @return the return message, null if the call is not cached
+     */
+    byte[] get(byte[] request) {
+        final Key key = new Key(request);
+        final Entry entry;
+        synchronized (this) {
+            sketch.increment(key.hash);
+            entry = lookup(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return synthesize(entry);
+    }
+
+    /**
+     * Keep the return of a call, if it is a normal return small enough.
+     *
+     * @param request  the call message, from its type byte
+     * @param response the return message, from its type byte
+     */
+    void put(byte[] request, byte[] response) {
+        if (response.length > maxResponseBytes)
+            return;
+        final int uidOffset = uidOffset(response);
+        if (uidOffset < 0)
+            return;
+
+        final Key key = new Key(request);
+        final Entry entry = new Entry(key, response, uidOffset, System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            final Entry old = entries.get(key);
+            if (old != null)
+                remove(old);
+            entries.put(key, entry);
+            window.put(key, entry);
+            if (window.size() > windowMax)
+                admit(evictEldest(window));
+        }
+    }
+
+    /**
+     * @return the entry of the key, null if there is none or it expired
+     */
+    private Entry lookup(Key key) {
+        final Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (entry.expiresMillis <= System.currentTimeMillis()) {
+            remove(entry);
+            return null;
+        }
+
+        switch (entry.segment) {
+            case WINDOW:
+                window.get(key);
+                break;
+            case PROBATION:
+                // hit twice: promoted to the protected part
+                probation.remove(key);
+                entry.segment = Segment.PROTECTED;
+                protect.put(key, entry);
+                if (protect.size() > protectedMax) {
+                    final Entry demoted = evictEldest(protect);
+                    demoted.segment = Segment.PROBATION;
+                    probation.put(demoted.key, demoted);
+                }
+                break;
+            case PROTECTED:
+                protect.get(key);
+                break;
+        }
+        return entry;
+    }
+
+    /**
+     * Move an entry out of the window into the main segment, if it is
+     * not full or the entry is more frequent than the victim there.
+     */
+    private void admit(Entry candidate) {
+        candidate.segment = Segment.PROBATION;
+        if (probation.size() + protect.size() < mainMax) {
+            probation.put(candidate.key, candidate);
+            return;
+        }
+
+        final LinkedHashMap<Key, Entry> victims = probation.isEmpty() ? protect : probation;
+        final Entry victim = victims.values().iterator().next();
+        if (victim.expiresMillis <= System.currentTimeMillis() ||
+                sketch.frequency(candidate.key.hash) > sketch.frequency(victim.key.hash)) {
+            remove(victim);
+            probation.put(candidate.key, candidate);
+        } else {
+            entries.remove(candidate.key);
+        }
+        evictions.increment();
+    }
+
+    private static Entry evictEldest(LinkedHashMap<Key, Entry> segment) {
+        final Iterator<Entry> i = segment.values().iterator();
+        final Entry eldest = i.next();
+        i.remove();
+        return eldest;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        switch (entry.segment) {
+            case WINDOW:
+                window.remove(entry.key);
+                break;
+            case PROBATION:
+                probation.remove(entry.key);
+                break;
+            case PROTECTED:
+                protect.remove(entry.key);
+                break;
+        }
+    }
+
+    /**
+     * @return the offset of the acknowledgment identifier in a normal
+     *         return, -1 if the response is not a normal return
+     */
+    static int uidOffset(byte[] response) {
+        if (response.length < 8 || (response[0] & 0xFF) != RETURN ||
+                (response[1] & 0xFF) != 0xAC || (response[2] & 0xFF) != 0xED)
+            return -1;
+        final int block = response[5] & 0xFF;
+        final int type = (block == TC_BLOCKDATA) ? 7 : (block == TC_BLOCKDATALONG) ? 10 : -1;
+        if (type < 0 || type + 15 > response.length || response[type] != NORMAL_RETURN)
+            return -1;
+        return type + 1;
+    }
+
+    /**
+     * @return a copy of the return of the entry with a new acknowledgment identifier
+     */
+    private static byte[] synthesize(Entry entry) {
+        final byte[] response = entry.response.clone();
+        final ByteArrayOutputStream uid = new ByteArrayOutputStream(14);
+        try {
+            new UID().write(new DataOutputStream(uid));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        System.arraycopy(uid.toByteArray(), 0, response, entry.uidOffset, 14);
+        return response;
+    }
+}
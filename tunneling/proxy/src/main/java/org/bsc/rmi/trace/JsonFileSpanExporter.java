@@ -0,0 +1,47 @@
+package org.bsc.rmi.trace;
+
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * JsonFileSpanExporter appends each span as a JSON document on its own
+ * line.  The file is named by the <code>org.bsc.rmi.trace.file</code>
+ * system property and defaults to <code>rmi-trace.json</code> in the
+ * working directory.
+ */
+@Log
+public class JsonFileSpanExporter implements SpanExporter {
+
+    public static final String FILE_PROPERTY = "org.bsc.rmi.trace.file";
+
+    private final File file;
+    private Writer out;
+
+    public JsonFileSpanExporter() {
+        this(new File(System.getProperty(FILE_PROPERTY, "rmi-trace.json")));
+    }
+
+    public JsonFileSpanExporter(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void export(Span span) {
+        try {
+            if (out == null) {
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+                log.info(format("exporting spans to %s", file.getAbsolutePath()));
+            }
+            span.writeJson(out);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            log.log(Level.WARNING, format("error exporting span to %s", file), e);
+        }
+    }
+}
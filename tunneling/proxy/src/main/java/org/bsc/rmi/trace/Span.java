@@ -0,0 +1,195 @@
+package org.bsc.rmi.trace;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.lang.String.format;
+
+/**
+ * Span records the timing of one hop of a call.
+ * <p>
+ * The start of a span is taken from the {@link Tracer#epochMicros() tracer clock}
+ * of the host recording it, its duration from {@link System#nanoTime()}.
+ * Durations are therefore exact whatever the skew between the clocks of
+ * the client, the proxy and the server, and the offset between two hosts
+ * is estimated from the timestamps the callee returns in the
+ * {@link Tracer#TIMING_HEADER timing header} (see {@link #recordPeerTiming}).
+ */
+public class Span {
+
+    /** a span that records nothing, returned when tracing is disabled */
+    static final Span NOOP = new Span(null, null, null, null) {
+        @Override
+        public Span setAttribute(String key, Object value) {
+            return this;
+        }
+
+        @Override
+        public void recordPeerTiming(long sendMicros, long receiveMicros, String timingHeader) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    private final String name;
+    private final String kind;
+    private final TraceContext context;
+    private final String parentSpanId;
+    private final long startMicros;
+    private final long startNanos;
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    private long durationNanos = -1;
+
+    Span(String name, String kind, TraceContext context, String parentSpanId) {
+        this.name = name;
+        this.kind = kind;
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        this.startMicros = Tracer.epochMicros();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return false if this span records nothing
+     */
+    public boolean isRecording() {
+        return this != NOOP;
+    }
+
+    /**
+     * @return the context to propagate to the next hop, empty if this span records nothing
+     */
+    public Optional<TraceContext> getContext() {
+        return Optional.ofNullable(context);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    /**
+     * @return duration in nanoseconds, -1 if the span has not ended yet
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Attach an attribute to the span.
+     *
+     * @return this span
+     */
+    public synchronized Span setAttribute(String key, Object value) {
+        attributes.put(key, value);
+        return this;
+    }
+
+    /**
+     * Estimate the clock offset of the callee and the network time of a
+     * request, the way NTP does, from the local send and receive times
+     * and the receive and send times reported by the callee.
+     *
+     * @param sendMicros    local time the request was sent
+     * @param receiveMicros local time the response was received
+     * @param timingHeader  value of the callee {@link Tracer#TIMING_HEADER}, may be null
+     */
+    public void recordPeerTiming(long sendMicros, long receiveMicros, String timingHeader) {
+        if (timingHeader == null)
+            return;
+
+        final String[] parts = timingHeader.trim().split(";");
+        if (parts.length != 2)
+            return;
+
+        try {
+            final long peerReceive = Long.parseLong(parts[0]);
+            final long peerSend = Long.parseLong(parts[1]);
+
+            setAttribute("peer.offsetMicros", ((peerReceive - sendMicros) + (peerSend - receiveMicros)) / 2);
+            setAttribute("peer.networkMicros", (receiveMicros - sendMicros) - (peerSend - peerReceive));
+        } catch (NumberFormatException e) {
+            // ignore a malformed header
+        }
+    }
+
+    /**
+     * End the span and hand it to the exporter.  Ending a span twice has no effect.
+     */
+    public void end() {
+        synchronized (this) {
+            if (durationNanos >= 0)
+                return;
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        Tracer.export(this);
+    }
+
+    /**
+     * Write the span as a JSON document.
+     */
+    public synchronized void writeJson(Appendable out) throws IOException {
+        out.append("{\"traceId\":\"").append(escape(context.getTraceId()))
+                .append("\",\"spanId\":\"").append(escape(context.getSpanId())).append('"');
+        if (parentSpanId != null)
+            out.append(",\"parentSpanId\":\"").append(escape(parentSpanId)).append('"');
+        out.append(",\"name\":\"").append(escape(name))
+                .append("\",\"kind\":\"").append(escape(kind))
+                .append("\",\"host\":\"").append(escape(Tracer.getHostName()))
+                .append("\",\"startMicros\":").append(String.valueOf(startMicros))
+                .append(",\"durationNanos\":").append(String.valueOf(durationNanos))
+                .append(",\"attributes\":{");
+        String sep = "";
+        for (Map.Entry<String, Object> e : attributes.entrySet()) {
+            out.append(sep).append('"').append(escape(e.getKey())).append("\":");
+            final Object value = e.getValue();
+            if (value instanceof Number || value instanceof Boolean)
+                out.append(String.valueOf(value));
+            else
+                out.append('"').append(escape(String.valueOf(value))).append('"');
+            sep = ",";
+        }
+        out.append("}}");
+    }
+
+    /**
+     * @return the value as the content of a JSON string
+     */
+    static String escape(String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package org.bsc.rmi.trace;
+
+/**
+ * SpanExporter receives every span once it has ended.  Implementations
+ * must be thread safe and should not block the caller for long, since
+ * spans are exported on the call path.
+ * <p>
+ * The exporter used by the {@link Tracer} is selected through the
+ * <code>org.bsc.rmi.trace.exporter</code> system property, which names
+ * a class with a public no-arg constructor.
+ */
+public interface SpanExporter {
+
+    /**
+     * Export an ended span.
+     *
+     * @param span the span
+     */
+    void export(Span span);
+}
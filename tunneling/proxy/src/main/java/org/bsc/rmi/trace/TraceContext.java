@@ -0,0 +1,97 @@
+package org.bsc.rmi.trace;
+
+import lombok.Value;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.String.format;
+
+/**
+ * TraceContext identifies a span within a trace.  It is propagated
+ * from hop to hop in the W3C <code>traceparent</code> header format:
+ * <pre>
+ *     00-&lt;32 hex trace id&gt;-&lt;16 hex span id&gt;-01
+ * </pre>
+ */
+@Value
+public class TraceContext {
+
+    /** name of the header carrying the context */
+    public static final String HEADER = "traceparent";
+
+    String traceId;
+    String spanId;
+
+    /**
+     * @return a context starting a new trace
+     */
+    public static TraceContext newTrace() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new TraceContext(
+                format("%016x%016x", random.nextLong(), random.nextLong()),
+                format("%016x", random.nextLong()));
+    }
+
+    /**
+     * @return a context for a new span, child of this one, in the same trace
+     */
+    public TraceContext newChild() {
+        return new TraceContext(traceId, format("%016x", ThreadLocalRandom.current().nextLong()));
+    }
+
+    /**
+     * Parse a <code>traceparent</code> header value.  As the W3C trace
+     * context requires, the version, trace id, parent id and flags are
+     * lowercase hex of 2, 32, 16 and 2 digits, the ids are not all zero,
+     * the version is not "ff", and version 00 has exactly these fields;
+     * later versions may have more, which are ignored.
+     *
+     * @param header the header value, may be null
+     * @return the context, empty if the header is missing or malformed
+     */
+    public static Optional<TraceContext> parse(String header) {
+        if (header == null)
+            return Optional.empty();
+
+        final String value = header.trim();
+        if (value.length() < 55 || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-')
+            return Optional.empty();
+
+        final String version = value.substring(0, 2);
+        final String traceId = value.substring(3, 35);
+        final String spanId = value.substring(36, 52);
+        final String flags = value.substring(53, 55);
+        if (!isHex(version) || version.equals("ff") || !isHex(traceId) || isZero(traceId)
+                || !isHex(spanId) || isZero(spanId) || !isHex(flags))
+            return Optional.empty();
+        if (version.equals("00") ? value.length() != 55 : value.length() > 55 && value.charAt(55) != '-')
+            return Optional.empty();
+
+        return Optional.of(new TraceContext(traceId, spanId));
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isZero(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) != '0')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the <code>traceparent</code> header value of this context
+     */
+    public String toHeader() {
+        return format("00-%s-%s-01", traceId, spanId);
+    }
+}
@@ -0,0 +1,168 @@
+package org.bsc.rmi.trace;
+
+import lombok.extern.java.Log;
+
+import java.net.InetAddress;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.logging.Level;
+
+import static java.lang.String.format;
+
+/**
+ * Tracer creates the spans recorded at each hop of a tunneled call:
+ * <ul>
+ *     <li><code>client</code>: from the POST sent by <code>HttpSendSocket</code> to the response headers</li>
+ *     <li><code>proxy</code>: the forward command of the <code>RMIServletHandler</code></li>
+ *     <li><code>server</code>: from the request parsed by <code>HttpReceiveSocket</code> to the response sent</li>
+ * </ul>
+ * The {@link TraceContext} travels in the {@link TraceContext#HEADER traceparent}
+ * header, and every callee returns the time it received the request and
+ * the time it sent the response in the {@link #TIMING_HEADER} so that the
+ * caller can estimate the skew between the two clocks.
+ * <p>
+ * Tracing is enabled by the <code>org.bsc.rmi.trace=true</code> system
+ * property.  Spans are exported by the class named by the
+ * <code>org.bsc.rmi.trace.exporter</code> property, a
+ * {@link JsonFileSpanExporter} by default.  An application may set the
+ * parent of the calls made by a thread with {@link #setCurrent(TraceContext)}.
+ */
+@Log
+public final class Tracer {
+
+    public static final String ENABLED_PROPERTY = "org.bsc.rmi.trace";
+    public static final String EXPORTER_PROPERTY = "org.bsc.rmi.trace.exporter";
+
+    /** header holding the callee <code>receiveMicros;sendMicros</code> */
+    public static final String TIMING_HEADER = "X-RMI-Trace-Timing";
+
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<>();
+
+    private static volatile SpanExporter exporter;
+    private static volatile boolean enabled =
+            AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> Boolean.getBoolean(ENABLED_PROPERTY));
+
+    private static String hostName;
+
+    private Tracer() {
+    }
+
+    /**
+     * @return true if spans are recorded
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Replace the exporter of the spans.
+     */
+    public static void setExporter(SpanExporter value) {
+        exporter = value;
+    }
+
+    /**
+     * Set the parent of the calls made by the current thread.
+     *
+     * @param context the parent context, null to start a new trace for every call
+     */
+    public static void setCurrent(TraceContext context) {
+        if (context == null)
+            current.remove();
+        else
+            current.set(context);
+    }
+
+    /**
+     * Start a span.
+     *
+     * @param name   span name
+     * @param kind   <code>client</code>, <code>proxy</code> or <code>server</code>
+     * @param parent the parent context, if null the span is child of the
+     *               {@link #setCurrent(TraceContext) current} context or starts a new trace
+     * @return the span, a no-op span if tracing is disabled
+     */
+    public static Span startSpan(String name, String kind, TraceContext parent) {
+        if (!enabled)
+            return Span.NOOP;
+
+        final TraceContext p = (parent != null) ? parent : current.get();
+        return (p != null)
+                ? new Span(name, kind, p.newChild(), p.getSpanId())
+                : new Span(name, kind, TraceContext.newTrace(), null);
+    }
+
+    /**
+     * Return the current time in microseconds since the epoch.  The
+     * clock is anchored to the wall clock once and then advanced by
+     * {@link System#nanoTime()}, so it has microsecond resolution on
+     * Java 8 and never goes backwards.
+     */
+    public static long epochMicros() {
+        return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+    }
+
+    /**
+     * @return the value of the {@link #TIMING_HEADER}
+     */
+    public static String timingHeader(long receiveMicros, long sendMicros) {
+        return format("%d;%d", receiveMicros, sendMicros);
+    }
+
+    /**
+     * Export the span.  Spans ended by RMI connection threads run with
+     * no permission, so the exporter is created and called privileged.
+     */
+    static void export(Span span) {
+        try {
+            AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+                getExporter().export(span);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, format("error exporting span %s", span.getName()), e);
+        }
+    }
+
+    private static SpanExporter getExporter() {
+        SpanExporter result = exporter;
+        if (result == null) {
+            synchronized (Tracer.class) {
+                if (exporter == null)
+                    exporter = createExporter();
+                result = exporter;
+            }
+        }
+        return result;
+    }
+
+    private static SpanExporter createExporter() {
+        final String className = System.getProperty(EXPORTER_PROPERTY);
+        if (className != null) {
+            try {
+                return (SpanExporter) Class.forName(className).newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                log.log(Level.WARNING, format("invalid span exporter %s, using the JSON file exporter", className), e);
+            }
+        }
+        return new JsonFileSpanExporter();
+    }
+
+    static synchronized String getHostName() {
+        if (hostName == null) {
+            try {
+                hostName = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                hostName = "unknown";
+            }
+        }
+        return hostName;
+    }
+}
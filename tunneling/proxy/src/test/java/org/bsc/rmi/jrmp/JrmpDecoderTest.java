@@ -0,0 +1,236 @@
+package org.bsc.rmi.jrmp;
+
+import org.bsc.rmi.metrics.MetricsRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JrmpDecoderTest {
+
+    interface Echo extends Remote {
+        String echo(String message) throws RemoteException;
+    }
+
+    static long echoHash;
+
+    /**
+     * a call notified to the listener
+     */
+    static class Call {
+        final String method;
+        final long latencyNanos;
+        final byte[] request;
+        final long responseBytes;
+        final boolean exception;
+
+        Call(String method, long latencyNanos, byte[] request, long responseBytes, boolean exception) {
+            this.method = method;
+            this.latencyNanos = latencyNanos;
+            this.request = request;
+            this.responseBytes = responseBytes;
+            this.exception = exception;
+        }
+    }
+
+    final List<Call> calls = new ArrayList<>();
+    final JrmpStats stats = new JrmpStats(new MetricsRegistry());
+    final JrmpDecoder decoder = new JrmpDecoder(stats, "proxy",
+            (side, method, startNanos, latencyNanos, request, responseBytes, exception) ->
+                    calls.add(new Call(method, latencyNanos, request, responseBytes, exception)));
+
+    @BeforeAll
+    static void registerEcho() throws NoSuchMethodException {
+        MethodNames.register(Echo.class);
+        echoHash = MethodNames.computeMethodHash(Echo.class.getMethod("echo", String.class));
+    }
+
+    /** the transport header of a protocol */
+    static byte[] header(int protocol) {
+        return new byte[] { 'J', 'R', 'M', 'I', 0, 2, (byte) protocol };
+    }
+
+    /** an endpoint, as in the acknowledgment of the stream protocol and in the answer of the client */
+    static byte[] endpoint(int type, String host, int port) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        if (type >= 0)
+            out.writeByte(type);
+        out.writeUTF(host);
+        out.writeInt(port);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** a call message as written by the RMI client runtime */
+    static byte[] call(long objNum, int op, long hash, Object argument) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(JrmpDecoder.CALL);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeLong(objNum);
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeShort(0);
+        out.writeInt(op);
+        out.writeLong(hash);
+        out.writeObject(argument);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** a return message as written by the RMI server runtime */
+    static byte[] returned(boolean exception, Object result) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(JrmpDecoder.RETURN);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeByte(exception ? JrmpDecoder.EXCEPTIONAL_RETURN : 1);
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeShort(0);
+        out.writeObject(result);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void feed(JrmpDecoder decoder, boolean request, byte[] b, boolean byteByByte) {
+        if (!byteByByte) {
+            if (request)
+                decoder.onRequest(b, 0, b.length);
+            else
+                decoder.onResponse(b, 0, b.length);
+            return;
+        }
+        for (int i = 0; i < b.length; ++i) {
+            if (request)
+                decoder.onRequest(b, i, 1);
+            else
+                decoder.onResponse(b, i, 1);
+        }
+    }
+
+    void streamConnection(boolean byteByByte) throws IOException {
+        final byte[] lookup = call(MethodNames.REGISTRY_ID, 2, 0, "echo");
+        final byte[] stub = returned(false, "stub");
+        final byte[] echo = call(42, -1, echoHash, "hello");
+        final byte[] failure = returned(true, new RemoteException("failure"));
+
+        feed(decoder, true, header(JrmpDecoder.STREAM_PROTOCOL), byteByByte);
+        feed(decoder, false, endpoint(JrmpDecoder.PROTOCOL_ACK, "localhost", 1099), byteByByte);
+        feed(decoder, true, endpoint(-1, "localhost", 0), byteByByte);
+        feed(decoder, true, lookup, byteByByte);
+        feed(decoder, false, stub, byteByByte);
+        feed(decoder, true, echo, byteByByte);
+        feed(decoder, false, failure, byteByByte);
+        feed(decoder, true, new byte[] { JrmpDecoder.PING }, byteByByte);
+        feed(decoder, false, new byte[] { JrmpDecoder.PING_ACK }, byteByByte);
+        decoder.close();
+
+        assertEquals(2, calls.size());
+
+        assertEquals("Registry.lookup", calls.get(0).method);
+        assertArrayEquals(lookup, calls.get(0).request);
+        assertEquals(stub.length, calls.get(0).responseBytes);
+        assertTrue(calls.get(0).latencyNanos >= 0);
+        assertFalse(calls.get(0).exception);
+
+        assertEquals("Echo.echo", calls.get(1).method);
+        assertArrayEquals(echo, calls.get(1).request);
+        assertEquals(failure.length, calls.get(1).responseBytes);
+        assertTrue(calls.get(1).exception);
+    }
+
+    @Test
+    void decodeTheCallsOfAStreamConnection() throws IOException {
+        streamConnection(false);
+    }
+
+    @Test
+    void decodeTheCallsOfAStreamConnectionFedByteByByte() throws IOException {
+        streamConnection(true);
+    }
+
+    @Test
+    void decodeASingleOperationCall() throws IOException {
+        final byte[] echo = call(42, -1, echoHash, "hello");
+        final byte[] result = returned(false, "hello");
+
+        feed(decoder, true, header(JrmpDecoder.SINGLE_OP_PROTOCOL), false);
+        feed(decoder, true, echo, false);
+        feed(decoder, false, result, false);
+        decoder.close();
+
+        assertEquals(1, calls.size());
+        assertEquals("Echo.echo", calls.get(0).method);
+        assertArrayEquals(echo, calls.get(0).request);
+        assertEquals(result.length, calls.get(0).responseBytes);
+        assertFalse(calls.get(0).exception);
+    }
+
+    @Test
+    void labelAnUnknownMethod() throws IOException {
+        feed(decoder, true, header(JrmpDecoder.SINGLE_OP_PROTOCOL), false);
+        feed(decoder, true, call(42, -1, echoHash + 1, "hello"), false);
+        decoder.close();
+
+        assertEquals(1, calls.size());
+        assertEquals(MethodNames.UNKNOWN, calls.get(0).method);
+        assertEquals(-1, calls.get(0).latencyNanos);
+    }
+
+    @Test
+    void recordBytesThatAreNotJrmpAsUndecoded() throws IOException {
+        final byte[] garbage = "GET / HTTP/1.1\r\n\r\n".getBytes("ISO-8859-1");
+        feed(decoder, true, garbage, false);
+        decoder.close();
+
+        assertTrue(calls.isEmpty());
+        final StringBuilder report = new StringBuilder();
+        stats.writeReport(report);
+        assertTrue(report.toString().contains(JrmpDecoder.UNDECODED), report::toString);
+    }
+
+    @Test
+    void tapTheStreamsWithoutChangingThem() throws IOException {
+        final byte[] echo = call(42, -1, echoHash, "hello");
+        final byte[] result = returned(false, "hello");
+
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(header(JrmpDecoder.SINGLE_OP_PROTOCOL));
+        request.write(echo);
+
+        final InputStream in = decoder.requestTap(new ByteArrayInputStream(request.toByteArray()));
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        final byte[] b = new byte[7];
+        for (int n = in.read(b); n >= 0; n = in.read(b))
+            read.write(b, 0, n);
+        assertArrayEquals(request.toByteArray(), read.toByteArray());
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final OutputStream out = decoder.responseTap(written);
+        out.write(result[0]);
+        out.write(result, 1, result.length - 1);
+        out.flush();
+        assertArrayEquals(result, written.toByteArray());
+
+        decoder.close();
+        assertEquals(1, calls.size());
+        assertEquals("Echo.echo", calls.get(0).method);
+        assertArrayEquals(echo, calls.get(0).request);
+        assertEquals(result.length, calls.get(0).responseBytes);
+    }
+}
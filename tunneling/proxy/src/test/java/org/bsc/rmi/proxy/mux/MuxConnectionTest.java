@@ -0,0 +1,257 @@
+package org.bsc.rmi.proxy.mux;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MuxConnectionTest {
+
+    ServerSocket server;
+    /** the connecting end of the socket */
+    Socket client;
+    /** the accepted end of the socket */
+    Socket accepted;
+
+    @BeforeEach
+    void connect() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        client = new Socket(server.getInetAddress(), server.getLocalPort());
+        accepted = server.accept();
+        accepted.setSoTimeout(10000);
+        client.setSoTimeout(10000);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    static void writeFrame(DataOutputStream out, int type, int id, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(id);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /** read a frame and check its header, return its payload */
+    static byte[] readFrame(DataInputStream in, int type, int id) throws IOException {
+        assertEquals(type, in.readUnsignedByte());
+        assertEquals(id, in.readInt());
+        final byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return payload;
+    }
+
+    static byte[] payload(int size) {
+        final byte[] b = new byte[size];
+        new Random(size).nextBytes(b);
+        return b;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] b = new byte[4096];
+        for (int n = in.read(b); n >= 0; n = in.read(b))
+            bytes.write(b, 0, n);
+        return bytes.toByteArray();
+    }
+
+    /** accept the connection opened on the client socket, the magic number read */
+    MuxConnection accept(BlockingQueue<MuxStream> opened, Runnable onClose) throws IOException {
+        final DataInputStream in = new DataInputStream(accepted.getInputStream());
+        assertEquals(MuxConnection.MAGIC, in.readInt());
+        return MuxConnection.accept(accepted, accepted.getInputStream(), accepted.getOutputStream(),
+                opened::add, onClose);
+    }
+
+    @Test
+    void frameTheStreamsOfTheConnectingSide() throws IOException {
+        final MuxConnection connection = MuxConnection.open(client);
+        final DataInputStream in = new DataInputStream(accepted.getInputStream());
+        assertEquals(MuxConnection.MAGIC, in.readInt());
+        assertEquals(MuxConnection.VERSION, in.readUnsignedByte());
+
+        final MuxStream first = connection.openStream();
+        assertEquals(0, readFrame(in, MuxConnection.OPEN, 1).length);
+        final MuxStream second = connection.openStream();
+        assertEquals(0, readFrame(in, MuxConnection.OPEN, 3).length);
+        assertEquals(2, connection.getStreamCount());
+
+        final byte[] data = payload(MuxConnection.MAX_FRAME + 100);
+        first.getOutputStream().write(data);
+        final byte[] head = readFrame(in, MuxConnection.DATA, 1);
+        final byte[] tail = readFrame(in, MuxConnection.DATA, 1);
+        assertEquals(MuxConnection.MAX_FRAME, head.length);
+        assertArrayEquals(data, concat(head, tail));
+
+        second.shutdownOutput();
+        assertEquals(0, readFrame(in, MuxConnection.CLOSE, 3).length);
+        assertThrows(SocketException.class, () -> second.getOutputStream().write(1));
+
+        connection.close();
+        assertTrue(connection.isClosed());
+    }
+
+    @Test
+    void deliverTheFramesOfTheAcceptedStreams() throws Exception {
+        final BlockingQueue<MuxStream> opened = new LinkedBlockingQueue<>();
+        final DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        final DataInputStream in = new DataInputStream(client.getInputStream());
+        out.writeInt(MuxConnection.MAGIC);
+        out.writeByte(MuxConnection.VERSION);
+        final MuxConnection connection = accept(opened, null);
+
+        writeFrame(out, MuxConnection.OPEN, 1, new byte[0]);
+        final MuxStream stream = opened.poll(10, TimeUnit.SECONDS);
+        assertNotNull(stream);
+
+        // half a window consumed gives the credit back
+        final byte[] data = payload(MuxConnection.WINDOW / 2);
+        for (int off = 0; off < data.length; off += MuxConnection.MAX_FRAME)
+            writeFrame(out, MuxConnection.DATA, 1, Arrays.copyOfRange(data, off, off + MuxConnection.MAX_FRAME));
+        final byte[] received = new byte[data.length];
+        new DataInputStream(stream.getInputStream()).readFully(received);
+        assertArrayEquals(data, received);
+        final byte[] increment = readFrame(in, MuxConnection.WINDOW_UPDATE, 1);
+        assertEquals(MuxConnection.WINDOW / 2, new DataInputStream(new ByteArrayInputStream(increment)).readInt());
+
+        writeFrame(out, MuxConnection.CLOSE, 1, new byte[0]);
+        assertEquals(-1, stream.getInputStream().read());
+
+        connection.close();
+    }
+
+    @Test
+    void answerTheFramesOfUnknownStreams() throws Exception {
+        final DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        final DataInputStream in = new DataInputStream(client.getInputStream());
+        out.writeInt(MuxConnection.MAGIC);
+        out.writeByte(MuxConnection.VERSION);
+        final MuxConnection connection = accept(new LinkedBlockingQueue<>(), null);
+
+        // the data of a stream nobody reads is acknowledged at once
+        writeFrame(out, MuxConnection.DATA, 7, payload(100));
+        final byte[] increment = readFrame(in, MuxConnection.WINDOW_UPDATE, 7);
+        assertEquals(100, new DataInputStream(new ByteArrayInputStream(increment)).readInt());
+
+        // a stream opened twice is reset
+        writeFrame(out, MuxConnection.OPEN, 9, new byte[0]);
+        writeFrame(out, MuxConnection.OPEN, 9, new byte[0]);
+        assertEquals(0, readFrame(in, MuxConnection.RESET, 9).length);
+
+        connection.close();
+    }
+
+    @Test
+    void closeTheConnectionOnAnInvalidFrame() throws Exception {
+        final DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        out.writeInt(MuxConnection.MAGIC);
+        out.writeByte(MuxConnection.VERSION);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final MuxConnection connection = accept(new LinkedBlockingQueue<>(), closed::countDown);
+
+        out.writeByte(MuxConnection.DATA);
+        out.writeInt(1);
+        out.writeInt(MuxConnection.MAX_FRAME + 1);
+        out.flush();
+
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertTrue(connection.isClosed());
+    }
+
+    @Test
+    void echoMoreThanAWindowOnEveryStream() throws Exception {
+        final BlockingQueue<MuxStream> opened = new LinkedBlockingQueue<>();
+        final MuxConnection connection = MuxConnection.open(client);
+        final MuxConnection other = accept(opened, null);
+
+        final Thread echo = new Thread(() -> {
+            try {
+                while (true) {
+                    final MuxStream stream = opened.take();
+                    final Thread t = new Thread(() -> {
+                        try (MuxStream s = stream) {
+                            final InputStream in = s.getInputStream();
+                            final OutputStream out = s.getOutputStream();
+                            final byte[] b = new byte[8192];
+                            for (int n = in.read(b); n >= 0; n = in.read(b))
+                                out.write(b, 0, n);
+                            s.shutdownOutput();
+                        } catch (IOException e) {
+                            // the test fails on the other side
+                        }
+                    });
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (InterruptedException e) {
+                // done
+            }
+        });
+        echo.setDaemon(true);
+        echo.start();
+
+        final int streams = 4;
+        final byte[] data = payload(4 * MuxConnection.WINDOW + 123);
+        final Thread[] writers = new Thread[streams];
+        final MuxStream[] opens = new MuxStream[streams];
+        for (int i = 0; i < streams; ++i) {
+            final MuxStream stream = connection.openStream();
+            opens[i] = stream;
+            writers[i] = new Thread(() -> {
+                try {
+                    stream.getOutputStream().write(data);
+                    stream.shutdownOutput();
+                } catch (IOException e) {
+                    // the test fails reading
+                }
+            });
+            writers[i].start();
+        }
+        for (int i = 0; i < streams; ++i) {
+            opens[i].setSoTimeout(10000);
+            assertArrayEquals(data, readAll(opens[i].getInputStream()));
+            writers[i].join();
+            opens[i].close();
+        }
+
+        echo.interrupt();
+        other.close();
+        for (long deadline = System.currentTimeMillis() + 10000; !connection.isClosed(); Thread.sleep(10))
+            assertTrue(System.currentTimeMillis() < deadline);
+        assertThrows(SocketException.class, connection::openStream);
+    }
+
+    static byte[] concat(byte[] a, byte[] b) {
+        final byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
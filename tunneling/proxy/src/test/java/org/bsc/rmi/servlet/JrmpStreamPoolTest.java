@@ -0,0 +1,220 @@
+package org.bsc.rmi.servlet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JrmpStreamPoolTest {
+
+    @TempDir
+    File spillDir;
+
+    final LongAdder opened = new LongAdder();
+    final InFlightBudget budget = new InFlightBudget(1024 * 1024);
+    final JrmpStreamPool pool = new JrmpStreamPool(4, 60000, opened);
+
+    ServerSocket server;
+    /** the calls the fake server has answered */
+    final AtomicInteger answered = new AtomicInteger();
+    /** true if the fake server closes the connection after each return */
+    volatile boolean closeAfterReturn;
+    /** the call message the fake server expects */
+    byte[] call;
+    /** the return message the fake server answers */
+    byte[] returned;
+
+    @BeforeEach
+    void start() throws IOException {
+        call = call("hello");
+        returned = returned(new String[] { "hello", "world" });
+
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    final Socket socket = server.accept();
+                    final Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    /**
+     * Answer the stream protocol as the RMI server runtime does, the
+     * return of every call followed by the acknowledgment of its ping.
+     */
+    void serve(Socket socket) {
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(s.getInputStream());
+            final DataOutputStream out = new DataOutputStream(s.getOutputStream());
+
+            assertEquals(JrmpStreamPool.MAGIC, in.readInt());
+            assertEquals(JrmpStreamPool.VERSION, in.readShort());
+            assertEquals(JrmpStreamPool.STREAM_PROTOCOL, in.readByte());
+            out.writeByte(JrmpStreamPool.PROTOCOL_ACK);
+            out.writeUTF("localhost");
+            out.writeInt(s.getPort());
+            out.flush();
+            in.readUTF();
+            in.readInt();
+
+            for (int op = in.read(); op >= 0; op = in.read()) {
+                switch (op) {
+                    case JrmpStreamPool.CALL:
+                        final byte[] b = new byte[call.length];
+                        b[0] = (byte) op;
+                        in.readFully(b, 1, b.length - 1);
+                        assertArrayEquals(call, b);
+                        out.write(returned);
+                        answered.incrementAndGet();
+                        if (closeAfterReturn) {
+                            // read the ping not to reset the connection
+                            out.flush();
+                            in.read();
+                            return;
+                        }
+                        break;
+                    case JrmpStreamPool.PING:
+                        out.writeByte(JrmpStreamPool.PING_ACK);
+                        out.flush();
+                        break;
+                    default:
+                        return;
+                }
+            }
+        } catch (IOException | AssertionError e) {
+            // the forward fails
+        }
+    }
+
+    static byte[] call(Object argument) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(JrmpStreamPool.CALL);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeLong(42);
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeShort(0);
+        out.writeInt(-1);
+        out.writeLong(0x1234567890L);
+        out.writeObject(argument);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] returned(Object result) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(JrmpStreamPool.RETURN);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeByte(1);
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeShort(0);
+        out.writeObject(result);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** the body of a single operation request */
+    PayloadBuffer singleOp(byte[] message) throws IOException {
+        final byte[] body = new byte[JrmpStreamPool.SINGLE_OP_HEADER.length + message.length];
+        System.arraycopy(JrmpStreamPool.SINGLE_OP_HEADER, 0, body, 0, JrmpStreamPool.SINGLE_OP_HEADER.length);
+        System.arraycopy(message, 0, body, JrmpStreamPool.SINGLE_OP_HEADER.length, message.length);
+
+        final PayloadBuffer buffer = PayloadBuffer.allocate(budget, body.length, 0, spillDir);
+        buffer.readFully(new ByteArrayInputStream(body));
+        return buffer;
+    }
+
+    byte[] forward(byte[] message) throws IOException {
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (PayloadBuffer body = singleOp(message)) {
+            pool.forward("server", () -> new Socket(server.getInetAddress(), server.getLocalPort()), body, response);
+        }
+        return response.toByteArray();
+    }
+
+    @Test
+    void recognizeSingleOperationRequests() throws IOException {
+        try (PayloadBuffer body = singleOp(call)) {
+            assertTrue(JrmpStreamPool.isSingleOp(body));
+        }
+        try (PayloadBuffer body = singleOp(new byte[0])) {
+            assertFalse(JrmpStreamPool.isSingleOp(body));
+        }
+        final PayloadBuffer http = PayloadBuffer.allocate(budget, 16, 0, spillDir);
+        http.readFully(new ByteArrayInputStream("POST / HTTP/1.1\n".getBytes("ISO-8859-1")));
+        assertFalse(JrmpStreamPool.isSingleOp(http));
+        http.close();
+    }
+
+    @Test
+    void copyTheReturnAndReuseTheConnection() throws IOException {
+        assertArrayEquals(returned, forward(call));
+        assertEquals(1, pool.getIdleCount());
+
+        assertArrayEquals(returned, forward(call));
+        assertEquals(1, pool.getIdleCount());
+
+        assertEquals(2, answered.get());
+        assertEquals(1, opened.sum());
+    }
+
+    @Test
+    void dropTheConnectionClosedAfterTheReturn() throws IOException {
+        closeAfterReturn = true;
+
+        assertArrayEquals(returned, forward(call));
+        assertEquals(0, pool.getIdleCount());
+
+        assertArrayEquals(returned, forward(call));
+        assertEquals(2, answered.get());
+        assertEquals(2, opened.sum());
+    }
+
+    @Test
+    void forwardAPing() throws IOException {
+        assertArrayEquals(new byte[] { JrmpStreamPool.PING_ACK }, forward(new byte[] { JrmpStreamPool.PING }));
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void closeTheIdleConnectionsWithThePool() throws IOException {
+        assertArrayEquals(returned, forward(call));
+        assertEquals(1, pool.getIdleCount());
+
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+    }
+}
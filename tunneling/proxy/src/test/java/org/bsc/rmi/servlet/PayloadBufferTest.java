@@ -0,0 +1,164 @@
+package org.bsc.rmi.servlet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadBufferTest {
+
+    @TempDir
+    File spillDir;
+
+    static byte[] payload(int size) {
+        final byte[] b = new byte[size];
+        new Random(size).nextBytes(b);
+        return b;
+    }
+
+    static byte[] contentOf(PayloadBuffer buffer, int offset) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out, offset);
+        return out.toByteArray();
+    }
+
+    @Test
+    void allocateReservesTheBudgetUntilClosed() throws IOException {
+        final InFlightBudget budget = new InFlightBudget(1024);
+        final byte[] data = payload(100);
+
+        try (PayloadBuffer buffer = PayloadBuffer.allocate(budget, data.length, 0, spillDir)) {
+            assertInstanceOf(PayloadBuffer.Heap.class, buffer);
+            assertEquals(100, budget.getReservedBytes());
+
+            buffer.readFully(new ByteArrayInputStream(data));
+            assertEquals(100, buffer.size());
+            assertEquals(data[42] & 0xFF, buffer.byteAt(42));
+            assertArrayEquals(data, contentOf(buffer, 0));
+            assertArrayEquals(Arrays.copyOfRange(data, 7, 100), contentOf(buffer, 7));
+        }
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    void allocateSpillsWhenTheBudgetIsExhausted() throws IOException {
+        final InFlightBudget budget = new InFlightBudget(1024);
+        final byte[] data = payload(3 * PayloadBuffer.Spilled.CHUNK_SIZE + 17);
+
+        try (PayloadBuffer buffer = PayloadBuffer.allocate(budget, data.length, 0, spillDir)) {
+            assertInstanceOf(PayloadBuffer.Spilled.class, buffer);
+            assertEquals(0, budget.getReservedBytes());
+            // the temporary file is deleted as soon as it is opened
+            assertEquals(0, spillDir.list().length);
+
+            buffer.readFully(new ByteArrayInputStream(data));
+            assertEquals(data.length, buffer.size());
+            assertEquals(data[data.length - 1] & 0xFF, buffer.byteAt(data.length - 1));
+            assertArrayEquals(data, contentOf(buffer, 0));
+            assertArrayEquals(Arrays.copyOfRange(data, 7, data.length), contentOf(buffer, 7));
+        }
+    }
+
+    @Test
+    void allocateWaitsForTheBudgetToBeReleased() throws Exception {
+        final InFlightBudget budget = new InFlightBudget(100);
+        assertTrue(budget.tryAcquire(100, 0, TimeUnit.MILLISECONDS));
+
+        final Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            budget.release(100);
+        });
+        releaser.start();
+
+        try (PayloadBuffer buffer = PayloadBuffer.allocate(budget, 80, 10000, spillDir)) {
+            assertInstanceOf(PayloadBuffer.Heap.class, buffer);
+            assertEquals(80, budget.getReservedBytes());
+        }
+        releaser.join();
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    void readFullyFailsOnATruncatedPayload() throws IOException {
+        final InFlightBudget budget = new InFlightBudget(1024);
+
+        try (PayloadBuffer heap = PayloadBuffer.allocate(budget, 100, 0, spillDir)) {
+            assertThrows(EOFException.class, () -> heap.readFully(new ByteArrayInputStream(payload(99))));
+        }
+        try (PayloadBuffer spilled = PayloadBuffer.allocate(budget, 2048, 0, spillDir)) {
+            assertThrows(EOFException.class, () -> spilled.readFully(new ByteArrayInputStream(payload(2047))));
+        }
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    void receiverKeepsAPayloadWithinTheBudgetOnTheHeap() throws IOException {
+        final InFlightBudget budget = new InFlightBudget(64 * 1024);
+        final byte[] data = payload(10000);
+
+        final PayloadBuffer.Receiver receiver = PayloadBuffer.receive(budget, 0, spillDir);
+        receiver.write(data[0]);
+        receiver.write(data, 1, 4999);
+        receiver.write(data, 5000, 5000);
+        // the array has grown from the initial capacity to twice as much
+        assertEquals(2 * PayloadBuffer.Receiver.INITIAL_CAPACITY, budget.getReservedBytes());
+
+        try (PayloadBuffer buffer = receiver.toBuffer()) {
+            receiver.close();
+            assertInstanceOf(PayloadBuffer.Heap.class, buffer);
+            assertEquals(data.length, buffer.size());
+            assertArrayEquals(data, contentOf(buffer, 0));
+        }
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    void receiverSpillsOnceTheBudgetRefusesToGrow() throws IOException {
+        final InFlightBudget budget = new InFlightBudget(16 * 1024);
+        final byte[] data = payload(100 * 1024);
+
+        final PayloadBuffer.Receiver receiver = PayloadBuffer.receive(budget, 0, spillDir);
+        for (int off = 0; off < data.length; off += 1000)
+            receiver.write(data, off, Math.min(1000, data.length - off));
+        // the bytes received on the heap have moved to the file
+        assertEquals(0, budget.getReservedBytes());
+
+        try (PayloadBuffer buffer = receiver.toBuffer()) {
+            receiver.close();
+            assertInstanceOf(PayloadBuffer.Spilled.class, buffer);
+            assertEquals(data.length, buffer.size());
+            assertEquals(data[12345] & 0xFF, buffer.byteAt(12345));
+            assertArrayEquals(data, contentOf(buffer, 0));
+        }
+        assertEquals(0, spillDir.list().length);
+    }
+
+    @Test
+    void receiverGivesTheBudgetBackWhenClosed() throws IOException {
+        final InFlightBudget budget = new InFlightBudget(64 * 1024);
+
+        final PayloadBuffer.Receiver receiver = PayloadBuffer.receive(budget, 0, spillDir);
+        receiver.write(payload(1000));
+        assertEquals(PayloadBuffer.Receiver.INITIAL_CAPACITY, budget.getReservedBytes());
+
+        receiver.close();
+        assertEquals(0, budget.getReservedBytes());
+    }
+}
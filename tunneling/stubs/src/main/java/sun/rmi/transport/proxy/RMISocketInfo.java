@@ -0,0 +1,14 @@
+package sun.rmi.transport.proxy;
+
+/**
+ * The signature of the interface of the RMI transport of Java 8, which
+ * recognizes the sockets implementing it that are not reusable as
+ * single operation ones.  Java 9 removed it.
+ * <p>
+ * Only compiled against: at runtime the class is the one of the JDK,
+ * when there is one.
+ */
+public interface RMISocketInfo {
+
+    boolean isReusable();
+}